@@ -0,0 +1,51 @@
+package com.axolotl.sunshine.core;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Condition lookups, done for the icon or art of every row the list, widgets and watch draw.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class ConditionBenchmark {
+
+    // Codes from every group, plus some with no art
+    private static final int[] CODES = {
+            201, 232, 301, 321, 500, 504, 511, 522, 531, 600, 622, 701, 761, 781, 800, 801,
+            802, 804, 900, 962, 100, 762
+    };
+
+    private int mIndex;
+
+    @Benchmark
+    public int getCondition() {
+        mIndex = (mIndex + 1) % CODES.length;
+        return WeatherConditions.getCondition(CODES[mIndex]);
+    }
+
+    @Benchmark
+    public String getArtName() {
+        mIndex = (mIndex + 1) % CODES.length;
+        return WeatherConditions.getArtName(WeatherConditions.getCondition(CODES[mIndex]));
+    }
+
+    @Benchmark
+    public String getImageUrl() {
+        mIndex = (mIndex + 1) % CODES.length;
+        return WeatherConditions.getImageUrl(CODES[mIndex]);
+    }
+}
@@ -0,0 +1,48 @@
+package com.axolotl.sunshine.core;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.TimeZone;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Cost of {@link WeatherDates#normalizeDate}, which every date written to or looked up in the
+ * weather table goes through.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class DateBenchmark {
+
+    // A zone with DST, so the midnight offset lookup is not trivially the same
+    private final TimeZone mTimeZone = TimeZone.getTimeZone("America/Los_Angeles");
+
+    private long mDate;
+
+    @Setup
+    public void setUp() {
+        mDate = 1467403200000L;
+    }
+
+    @Benchmark
+    public long normalizeDate() {
+        // Step through the hours of a fortnight so the result can't be folded away
+        mDate += 60 * 60 * 1000L;
+        if (mDate > 1467403200000L + 14 * WeatherDates.DAY_IN_MILLIS) {
+            mDate = 1467403200000L;
+        }
+        return WeatherDates.normalizeDate(mDate, mTimeZone);
+    }
+}
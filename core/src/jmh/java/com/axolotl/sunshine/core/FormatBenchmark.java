@@ -0,0 +1,55 @@
+package com.axolotl.sunshine.core;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The formatting done for each temperature and wind shown in the list, detail view, widgets and
+ * notification.  Uses the English format strings from the app's resources.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class FormatBenchmark {
+
+    private static final String FORMAT_TEMPERATURE = "%1.0f°";
+    private static final String FORMAT_WIND_KMH = "%1$1.0f km/h %2$s";
+    private static final String FORMAT_WIND_MPH = "%1$1.0f mph %2$s";
+
+    @Param({"true", "false"})
+    public boolean mMetric;
+
+    private float mDegrees;
+
+    @Benchmark
+    public String formatTemperature() {
+        mDegrees = (mDegrees + 7.5f) % 360f;
+        return WeatherFormats.formatTemperature(FORMAT_TEMPERATURE, mDegrees / 10f, mMetric);
+    }
+
+    @Benchmark
+    public String formatWind() {
+        mDegrees = (mDegrees + 7.5f) % 360f;
+        return WeatherFormats.formatWind(mMetric ? FORMAT_WIND_KMH : FORMAT_WIND_MPH,
+                mDegrees / 20f, mDegrees, mMetric);
+    }
+
+    @Benchmark
+    public String getWindDirection() {
+        mDegrees = (mDegrees + 7.5f) % 360f;
+        return WeatherFormats.getWindDirection(mDegrees);
+    }
+}
@@ -0,0 +1,46 @@
+package com.axolotl.sunshine.core;
+
+import com.axolotl.sunshine.fixtures.ForecastPayloadGenerator;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Parse throughput of {@link HourlyForecastParser} on a full 3-hour forecast, the body the sync
+ * reads after the daily one for every location.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class HourlyParseBenchmark {
+
+    private byte[] mBody;
+
+    @Setup
+    public void setUp() {
+        mBody = new ForecastPayloadGenerator(1)
+                .generateHourly(0, ForecastPayloadGenerator.MAX_POINTS)
+                .getBytes(Charset.forName("UTF-8"));
+    }
+
+    @Benchmark
+    public HourlyForecast parse() throws IOException, ForecastFormatException {
+        return new HourlyForecastParser().parse(new ByteArrayInputStream(mBody));
+    }
+}
@@ -0,0 +1,50 @@
+package com.axolotl.sunshine.core;
+
+import com.axolotl.sunshine.fixtures.ForecastPayloadGenerator;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Parse throughput of {@link DailyForecastParser}: a whole response body turned into columns,
+ * as the sync does for every location.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class ParseBenchmark {
+
+    // The app asks for 14 days, the others bracket it
+    @Param({"1", "14", "16"})
+    public int mDays;
+
+    private byte[] mBody;
+
+    @Setup
+    public void setUp() {
+        mBody = new ForecastPayloadGenerator(1).generate(0, mDays)
+                .getBytes(Charset.forName("UTF-8"));
+    }
+
+    @Benchmark
+    public DailyForecast parse() throws IOException, ForecastFormatException {
+        return new DailyForecastParser().parse(new ByteArrayInputStream(mBody));
+    }
+}
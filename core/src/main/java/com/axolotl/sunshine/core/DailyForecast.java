@@ -0,0 +1,54 @@
+package com.axolotl.sunshine.core;
+
+import java.util.Arrays;
+
+/**
+ * A parsed OpenWeatherMap daily forecast: the message code, the city the server resolved the
+ * query to, and the days in the order the server sent them, kept column by column in primitive
+ * arrays.
+ */
+public class DailyForecast {
+    // The longest forecast the app asks for
+    private static final int INITIAL_CAPACITY = 16;
+
+    // HttpURLConnection.HTTP_OK
+    public static final int CODE_OK = 200;
+
+    public int mCode = CODE_OK;
+
+    public String mCityName;
+    public double mCityLatitude;
+    public double mCityLongitude;
+
+    // Number of days, the arrays below may be longer
+    public int mCount;
+
+    public double[] mPressures = new double[INITIAL_CAPACITY];
+    public int[] mHumidities = new int[INITIAL_CAPACITY];
+    public double[] mWindSpeeds = new double[INITIAL_CAPACITY];
+    public double[] mDegrees = new double[INITIAL_CAPACITY];
+    public double[] mMaxTemps = new double[INITIAL_CAPACITY];
+    public double[] mMinTemps = new double[INITIAL_CAPACITY];
+    public String[] mShortDescs = new String[INITIAL_CAPACITY];
+    public int[] mWeatherIds = new int[INITIAL_CAPACITY];
+
+    /**
+     * Makes room for one more day.
+     *
+     * @return the index to write the new day's columns at
+     */
+    public int append() {
+        if (mCount == mPressures.length) {
+            int capacity = mPressures.length * 2;
+            mPressures = Arrays.copyOf(mPressures, capacity);
+            mHumidities = Arrays.copyOf(mHumidities, capacity);
+            mWindSpeeds = Arrays.copyOf(mWindSpeeds, capacity);
+            mDegrees = Arrays.copyOf(mDegrees, capacity);
+            mMaxTemps = Arrays.copyOf(mMaxTemps, capacity);
+            mMinTemps = Arrays.copyOf(mMinTemps, capacity);
+            mShortDescs = Arrays.copyOf(mShortDescs, capacity);
+            mWeatherIds = Arrays.copyOf(mWeatherIds, capacity);
+        }
+        return mCount++;
+    }
+}
@@ -0,0 +1,235 @@
+package com.axolotl.sunshine.core;
+
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.MalformedJsonException;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.Reader;
+
+/**
+ * Pull parser for the OpenWeatherMap daily forecast response.  Reads the body straight off the
+ * stream and writes each day into the columns of a {@link DailyForecast} as soon as it is read,
+ * so neither the response String nor a tree of objects is ever built.
+ *
+ * Uses Gson's JsonReader, which android.util.JsonReader was taken from, so it runs the same on a
+ * device and on a plain JVM.
+ */
+public class DailyForecastParser {
+
+    // These are the names of the JSON objects that need to be extracted.
+
+    // Location information
+    public static final String OWM_CITY = "city";
+    public static final String OWM_CITY_NAME = "name";
+    public static final String OWM_COORD = "coord";
+
+    // Location coordinate
+    public static final String OWM_LATITUDE = "lat";
+    public static final String OWM_LONGITUDE = "lon";
+
+    // Weather information.  Each day's forecast info is an element of the "list" array.
+    public static final String OWM_LIST = "list";
+
+    public static final String OWM_PRESSURE = "pressure";
+    public static final String OWM_HUMIDITY = "humidity";
+    public static final String OWM_WINDSPEED = "speed";
+    public static final String OWM_WIND_DIRECTION = "deg";
+
+    // All temperatures are children of the "temp" object.
+    public static final String OWM_TEMPERATURE = "temp";
+    public static final String OWM_MAX = "max";
+    public static final String OWM_MIN = "min";
+
+    public static final String OWM_WEATHER = "weather";
+    public static final String OWM_DESCRIPTION = "main";
+    public static final String OWM_WEATHER_ID = "id";
+
+    public static final String OWM_MESSAGE_CODE = "cod";
+
+    // Bits for the fields every day must carry, so a short day fails instead of being written
+    // half empty.
+    private static final int FIELD_PRESSURE = 1;
+    private static final int FIELD_HUMIDITY = 1 << 1;
+    private static final int FIELD_WIND_SPEED = 1 << 2;
+    private static final int FIELD_WIND_DIRECTION = 1 << 3;
+    private static final int FIELD_MAX = 1 << 4;
+    private static final int FIELD_MIN = 1 << 5;
+    private static final int FIELD_DESCRIPTION = 1 << 6;
+    private static final int FIELD_WEATHER_ID = 1 << 7;
+    private static final int FIELDS_REQUIRED = (1 << 8) - 1;
+
+    /**
+     * @param in the raw response body
+     * @return the parsed forecast, or null if the stream was empty
+     * @throws IOException if the stream could not be read
+     * @throws ForecastFormatException if the body is not a valid forecast
+     */
+    public DailyForecast parse(InputStream in) throws IOException, ForecastFormatException {
+        return parse(new InputStreamReader(in, "UTF-8"));
+    }
+
+    /**
+     * @param in the response body
+     * @return the parsed forecast, or null if the reader was empty
+     * @throws IOException if the reader could not be read
+     * @throws ForecastFormatException if the body is not a valid forecast
+     */
+    public DailyForecast parse(Reader in) throws IOException, ForecastFormatException {
+        JsonReader reader = new JsonReader(in);
+        try {
+            DailyForecast forecast = new DailyForecast();
+            boolean hasCity = false;
+            boolean hasList = false;
+
+            reader.beginObject();
+            while (reader.hasNext()) {
+                String name = reader.nextName();
+                if (OWM_MESSAGE_CODE.equals(name)) {
+                    // OWM sends the code as a number or as a string depending on the endpoint,
+                    // nextInt() accepts both.
+                    forecast.mCode = reader.nextInt();
+                } else if (OWM_CITY.equals(name)) {
+                    readCity(reader, forecast);
+                    hasCity = true;
+                } else if (OWM_LIST.equals(name)) {
+                    reader.beginArray();
+                    while (reader.hasNext()) {
+                        readDay(reader, forecast);
+                    }
+                    reader.endArray();
+                    hasList = true;
+                } else {
+                    reader.skipValue();
+                }
+            }
+            reader.endObject();
+
+            if (forecast.mCode == DailyForecast.CODE_OK) {
+                if (!hasList) {
+                    throw new ForecastFormatException("No value for " + OWM_LIST);
+                }
+                if (!hasCity) {
+                    throw new ForecastFormatException("No value for " + OWM_CITY);
+                }
+            }
+            return forecast;
+        } catch (EOFException e) {
+            // Stream was empty, or was cut off.
+            return null;
+        } catch (MalformedJsonException | IllegalStateException | NumberFormatException e) {
+            throw new ForecastFormatException(e.getMessage());
+        } finally {
+            reader.close();
+        }
+    }
+
+    private void readCity(JsonReader reader, DailyForecast forecast)
+            throws IOException, ForecastFormatException {
+        boolean hasName = false;
+        boolean hasCoord = false;
+        reader.beginObject();
+        while (reader.hasNext()) {
+            String name = reader.nextName();
+            if (OWM_CITY_NAME.equals(name)) {
+                forecast.mCityName = reader.nextString();
+                hasName = true;
+            } else if (OWM_COORD.equals(name)) {
+                int seen = 0;
+                reader.beginObject();
+                while (reader.hasNext()) {
+                    String coordName = reader.nextName();
+                    if (OWM_LATITUDE.equals(coordName)) {
+                        forecast.mCityLatitude = reader.nextDouble();
+                        seen |= 1;
+                    } else if (OWM_LONGITUDE.equals(coordName)) {
+                        forecast.mCityLongitude = reader.nextDouble();
+                        seen |= 2;
+                    } else {
+                        reader.skipValue();
+                    }
+                }
+                reader.endObject();
+                hasCoord = seen == 3;
+            } else {
+                reader.skipValue();
+            }
+        }
+        reader.endObject();
+        if (!hasName || !hasCoord) {
+            throw new ForecastFormatException("Incomplete " + OWM_CITY);
+        }
+    }
+
+    private void readDay(JsonReader reader, DailyForecast forecast)
+            throws IOException, ForecastFormatException {
+        int i = forecast.append();
+        int seen = 0;
+
+        reader.beginObject();
+        while (reader.hasNext()) {
+            String name = reader.nextName();
+            if (OWM_PRESSURE.equals(name)) {
+                forecast.mPressures[i] = reader.nextDouble();
+                seen |= FIELD_PRESSURE;
+            } else if (OWM_HUMIDITY.equals(name)) {
+                // The humidity column is whole percent, truncate like JSONObject.getInt()
+                forecast.mHumidities[i] = (int) reader.nextDouble();
+                seen |= FIELD_HUMIDITY;
+            } else if (OWM_WINDSPEED.equals(name)) {
+                forecast.mWindSpeeds[i] = reader.nextDouble();
+                seen |= FIELD_WIND_SPEED;
+            } else if (OWM_WIND_DIRECTION.equals(name)) {
+                forecast.mDegrees[i] = reader.nextDouble();
+                seen |= FIELD_WIND_DIRECTION;
+            } else if (OWM_TEMPERATURE.equals(name)) {
+                reader.beginObject();
+                while (reader.hasNext()) {
+                    String tempName = reader.nextName();
+                    if (OWM_MAX.equals(tempName)) {
+                        forecast.mMaxTemps[i] = reader.nextDouble();
+                        seen |= FIELD_MAX;
+                    } else if (OWM_MIN.equals(tempName)) {
+                        forecast.mMinTemps[i] = reader.nextDouble();
+                        seen |= FIELD_MIN;
+                    } else {
+                        reader.skipValue();
+                    }
+                }
+                reader.endObject();
+            } else if (OWM_WEATHER.equals(name)) {
+                // Only the first element of the "weather" array describes the day
+                reader.beginArray();
+                if (reader.hasNext()) {
+                    reader.beginObject();
+                    while (reader.hasNext()) {
+                        String weatherName = reader.nextName();
+                        if (OWM_DESCRIPTION.equals(weatherName)) {
+                            forecast.mShortDescs[i] = reader.nextString();
+                            seen |= FIELD_DESCRIPTION;
+                        } else if (OWM_WEATHER_ID.equals(weatherName)) {
+                            forecast.mWeatherIds[i] = reader.nextInt();
+                            seen |= FIELD_WEATHER_ID;
+                        } else {
+                            reader.skipValue();
+                        }
+                    }
+                    reader.endObject();
+                    while (reader.hasNext()) {
+                        reader.skipValue();
+                    }
+                }
+                reader.endArray();
+            } else {
+                reader.skipValue();
+            }
+        }
+        reader.endObject();
+
+        if (seen != FIELDS_REQUIRED) {
+            throw new ForecastFormatException("Incomplete day in " + OWM_LIST);
+        }
+    }
+}
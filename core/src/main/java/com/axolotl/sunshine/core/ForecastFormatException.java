@@ -0,0 +1,14 @@
+package com.axolotl.sunshine.core;
+
+/**
+ * Thrown when a forecast response is not valid JSON or is missing a value every forecast must
+ * have.
+ */
+public class ForecastFormatException extends Exception {
+
+    private static final long serialVersionUID = 1L;
+
+    public ForecastFormatException(String message) {
+        super(message);
+    }
+}
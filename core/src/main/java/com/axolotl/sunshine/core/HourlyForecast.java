@@ -0,0 +1,57 @@
+package com.axolotl.sunshine.core;
+
+import java.util.Arrays;
+
+/**
+ * A parsed OpenWeatherMap 3-hour forecast: the message code, the city the server resolved the
+ * query to, and the points in the order the server sent them, kept column by column in
+ * primitive arrays.
+ *
+ * A 3-hour forecast has about 40 points, three times the rows of the daily one, so instead of a
+ * ContentValues per point the columns go to the provider's batched write as they are.
+ */
+public class HourlyForecast {
+    // The 5 day forecast, 8 points a day
+    private static final int INITIAL_CAPACITY = 40;
+
+    // HttpURLConnection.HTTP_OK
+    public static final int CODE_OK = 200;
+
+    public int mCode = CODE_OK;
+
+    public String mCityName;
+    public double mCityLatitude;
+    public double mCityLongitude;
+
+    // Number of points, the arrays below may be longer
+    public int mCount;
+
+    public long[] mTimes = new long[INITIAL_CAPACITY];
+    public int[] mWeatherIds = new int[INITIAL_CAPACITY];
+    public String[] mShortDescs = new String[INITIAL_CAPACITY];
+    public double[] mTemps = new double[INITIAL_CAPACITY];
+    public double[] mHumidities = new double[INITIAL_CAPACITY];
+    public double[] mPressures = new double[INITIAL_CAPACITY];
+    public double[] mWindSpeeds = new double[INITIAL_CAPACITY];
+    public double[] mDegrees = new double[INITIAL_CAPACITY];
+
+    /**
+     * Makes room for one more point.
+     *
+     * @return the index to write the new point's columns at
+     */
+    public int append() {
+        if (mCount == mTimes.length) {
+            int capacity = mTimes.length * 2;
+            mTimes = Arrays.copyOf(mTimes, capacity);
+            mWeatherIds = Arrays.copyOf(mWeatherIds, capacity);
+            mShortDescs = Arrays.copyOf(mShortDescs, capacity);
+            mTemps = Arrays.copyOf(mTemps, capacity);
+            mHumidities = Arrays.copyOf(mHumidities, capacity);
+            mPressures = Arrays.copyOf(mPressures, capacity);
+            mWindSpeeds = Arrays.copyOf(mWindSpeeds, capacity);
+            mDegrees = Arrays.copyOf(mDegrees, capacity);
+        }
+        return mCount++;
+    }
+}
@@ -0,0 +1,206 @@
+package com.axolotl.sunshine.core;
+
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.MalformedJsonException;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.Reader;
+
+/**
+ * Pull parser for the OpenWeatherMap 3-hour forecast response.  Like {@link DailyForecastParser}
+ * it reads the body straight off the stream, and writes every point into the columns of an
+ * {@link HourlyForecast} as soon as it is read.
+ */
+public class HourlyForecastParser {
+
+    // Names that only the 3-hour response uses.  The rest are shared with the daily one.
+    private static final String OWM_TIME = "dt";
+    private static final String OWM_MAIN = "main";
+    private static final String OWM_WIND = "wind";
+
+    // Bits for the fields every point must carry.  Wind is left out, OWM drops it when calm.
+    private static final int FIELD_TIME = 1;
+    private static final int FIELD_TEMP = 1 << 1;
+    private static final int FIELD_HUMIDITY = 1 << 2;
+    private static final int FIELD_PRESSURE = 1 << 3;
+    private static final int FIELD_DESCRIPTION = 1 << 4;
+    private static final int FIELD_WEATHER_ID = 1 << 5;
+    private static final int FIELDS_REQUIRED = (1 << 6) - 1;
+
+    /**
+     * @param in the raw response body
+     * @return the parsed forecast, or null if the stream was empty
+     * @throws IOException if the stream could not be read
+     * @throws ForecastFormatException if the body is not a valid forecast
+     */
+    public HourlyForecast parse(InputStream in) throws IOException, ForecastFormatException {
+        return parse(new InputStreamReader(in, "UTF-8"));
+    }
+
+    /**
+     * @param in the response body
+     * @return the parsed forecast, or null if the reader was empty
+     * @throws IOException if the reader could not be read
+     * @throws ForecastFormatException if the body is not a valid forecast
+     */
+    public HourlyForecast parse(Reader in) throws IOException, ForecastFormatException {
+        JsonReader reader = new JsonReader(in);
+        try {
+            HourlyForecast forecast = new HourlyForecast();
+            boolean hasCity = false;
+            boolean hasList = false;
+
+            reader.beginObject();
+            while (reader.hasNext()) {
+                String name = reader.nextName();
+                if (DailyForecastParser.OWM_MESSAGE_CODE.equals(name)) {
+                    // This endpoint sends the code as a string, nextInt() accepts it
+                    forecast.mCode = reader.nextInt();
+                } else if (DailyForecastParser.OWM_CITY.equals(name)) {
+                    readCity(reader, forecast);
+                    hasCity = true;
+                } else if (DailyForecastParser.OWM_LIST.equals(name)) {
+                    reader.beginArray();
+                    while (reader.hasNext()) {
+                        readPoint(reader, forecast);
+                    }
+                    reader.endArray();
+                    hasList = true;
+                } else {
+                    reader.skipValue();
+                }
+            }
+            reader.endObject();
+
+            if (forecast.mCode == HourlyForecast.CODE_OK && (!hasList || !hasCity)) {
+                throw new ForecastFormatException("Incomplete 3-hour forecast");
+            }
+            return forecast;
+        } catch (EOFException e) {
+            // Stream was empty, or was cut off.
+            return null;
+        } catch (MalformedJsonException | IllegalStateException | NumberFormatException e) {
+            throw new ForecastFormatException(e.getMessage());
+        } finally {
+            reader.close();
+        }
+    }
+
+    private void readCity(JsonReader reader, HourlyForecast forecast)
+            throws IOException, ForecastFormatException {
+        int seen = 0;
+        reader.beginObject();
+        while (reader.hasNext()) {
+            String name = reader.nextName();
+            if (DailyForecastParser.OWM_CITY_NAME.equals(name)) {
+                forecast.mCityName = reader.nextString();
+                seen |= 1;
+            } else if (DailyForecastParser.OWM_COORD.equals(name)) {
+                reader.beginObject();
+                while (reader.hasNext()) {
+                    String coordName = reader.nextName();
+                    if (DailyForecastParser.OWM_LATITUDE.equals(coordName)) {
+                        forecast.mCityLatitude = reader.nextDouble();
+                        seen |= 2;
+                    } else if (DailyForecastParser.OWM_LONGITUDE.equals(coordName)) {
+                        forecast.mCityLongitude = reader.nextDouble();
+                        seen |= 4;
+                    } else {
+                        reader.skipValue();
+                    }
+                }
+                reader.endObject();
+            } else {
+                reader.skipValue();
+            }
+        }
+        reader.endObject();
+        if (seen != 7) {
+            throw new ForecastFormatException("Incomplete " + DailyForecastParser.OWM_CITY);
+        }
+    }
+
+    private void readPoint(JsonReader reader, HourlyForecast forecast)
+            throws IOException, ForecastFormatException {
+        int i = forecast.append();
+        // A calm point has no wind object at all
+        forecast.mWindSpeeds[i] = 0;
+        forecast.mDegrees[i] = 0;
+        int seen = 0;
+
+        reader.beginObject();
+        while (reader.hasNext()) {
+            String name = reader.nextName();
+            if (OWM_TIME.equals(name)) {
+                // Seconds since the epoch, stored in milliseconds like every other date
+                forecast.mTimes[i] = reader.nextLong() * 1000;
+                seen |= FIELD_TIME;
+            } else if (OWM_MAIN.equals(name)) {
+                reader.beginObject();
+                while (reader.hasNext()) {
+                    String mainName = reader.nextName();
+                    if (DailyForecastParser.OWM_TEMPERATURE.equals(mainName)) {
+                        forecast.mTemps[i] = reader.nextDouble();
+                        seen |= FIELD_TEMP;
+                    } else if (DailyForecastParser.OWM_HUMIDITY.equals(mainName)) {
+                        forecast.mHumidities[i] = reader.nextDouble();
+                        seen |= FIELD_HUMIDITY;
+                    } else if (DailyForecastParser.OWM_PRESSURE.equals(mainName)) {
+                        forecast.mPressures[i] = reader.nextDouble();
+                        seen |= FIELD_PRESSURE;
+                    } else {
+                        reader.skipValue();
+                    }
+                }
+                reader.endObject();
+            } else if (OWM_WIND.equals(name)) {
+                reader.beginObject();
+                while (reader.hasNext()) {
+                    String windName = reader.nextName();
+                    if (DailyForecastParser.OWM_WINDSPEED.equals(windName)) {
+                        forecast.mWindSpeeds[i] = reader.nextDouble();
+                    } else if (DailyForecastParser.OWM_WIND_DIRECTION.equals(windName)) {
+                        forecast.mDegrees[i] = reader.nextDouble();
+                    } else {
+                        reader.skipValue();
+                    }
+                }
+                reader.endObject();
+            } else if (DailyForecastParser.OWM_WEATHER.equals(name)) {
+                // Only the first element of the "weather" array describes the point
+                reader.beginArray();
+                if (reader.hasNext()) {
+                    reader.beginObject();
+                    while (reader.hasNext()) {
+                        String weatherName = reader.nextName();
+                        if (DailyForecastParser.OWM_DESCRIPTION.equals(weatherName)) {
+                            forecast.mShortDescs[i] = reader.nextString();
+                            seen |= FIELD_DESCRIPTION;
+                        } else if (DailyForecastParser.OWM_WEATHER_ID.equals(weatherName)) {
+                            forecast.mWeatherIds[i] = reader.nextInt();
+                            seen |= FIELD_WEATHER_ID;
+                        } else {
+                            reader.skipValue();
+                        }
+                    }
+                    reader.endObject();
+                    while (reader.hasNext()) {
+                        reader.skipValue();
+                    }
+                }
+                reader.endArray();
+            } else {
+                reader.skipValue();
+            }
+        }
+        reader.endObject();
+
+        if (seen != FIELDS_REQUIRED) {
+            throw new ForecastFormatException(
+                    "Incomplete point in " + DailyForecastParser.OWM_LIST);
+        }
+    }
+}
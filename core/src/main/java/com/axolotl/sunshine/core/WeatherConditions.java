@@ -0,0 +1,112 @@
+package com.axolotl.sunshine.core;
+
+import java.util.Arrays;
+
+/**
+ * Groups OpenWeatherMap condition codes into the handful of conditions Sunshine has art for.
+ *
+ * The groups are looked up in a table built once from the ranges below, so mapping a code costs
+ * one array read instead of a walk down the range checks for every list item, widget and
+ * notification.  The Android modules map a group to their own drawables.
+ */
+public final class WeatherConditions {
+
+    public static final int CONDITION_UNKNOWN = -1;
+    public static final int CONDITION_STORM = 0;
+    public static final int CONDITION_LIGHT_RAIN = 1;
+    public static final int CONDITION_RAIN = 2;
+    public static final int CONDITION_SNOW = 3;
+    public static final int CONDITION_FOG = 4;
+    public static final int CONDITION_CLEAR = 5;
+    public static final int CONDITION_LIGHT_CLOUDS = 6;
+    public static final int CONDITION_CLOUDS = 7;
+
+    /**
+     * Number of conditions, for arrays indexed by condition.
+     */
+    public static final int CONDITION_COUNT = 8;
+
+    // Names the art packs use for each condition's image
+    private static final String[] ART_NAMES = {
+            "storm", "light_rain", "rain", "snow", "fog", "clear", "light_clouds", "clouds"
+    };
+
+    // The Muzei artwork for each condition
+    private static final String[] IMAGE_URLS = {
+            "http://upload.wikimedia.org/wikipedia/commons/2/28/Thunderstorm_in_Annemasse,_France.jpg",
+            "http://upload.wikimedia.org/wikipedia/commons/a/a0/Rain_on_leaf_504605006.jpg",
+            "http://upload.wikimedia.org/wikipedia/commons/6/6c/Rain-on-Thassos.jpg",
+            "http://upload.wikimedia.org/wikipedia/commons/b/b8/Fresh_snow.JPG",
+            "http://upload.wikimedia.org/wikipedia/commons/e/e6/Westminster_fog_-_London_-_UK.jpg",
+            "http://upload.wikimedia.org/wikipedia/commons/7/7e/A_few_trees_and_the_sun_(6009964513).jpg",
+            "http://upload.wikimedia.org/wikipedia/commons/e/e7/Cloudy_Blue_Sky_(5031259890).jpg",
+            "http://upload.wikimedia.org/wikipedia/commons/5/54/Cloudy_hills_in_Elis,_Greece_2.jpg"
+    };
+
+    // Tornadoes (781) share the storm art but have a Muzei image of their own
+    private static final String IMAGE_URL_DUST =
+            "http://upload.wikimedia.org/wikipedia/commons/d/dc/Raised_dust_ahead_of_a_severe_thunderstorm_1.jpg";
+
+    // Codes below FIRST_CODE and above LAST_CODE have no art
+    private static final int FIRST_CODE = 200;
+    private static final int LAST_CODE = 804;
+    private static final byte[] sConditions = new byte[LAST_CODE - FIRST_CODE + 1];
+
+    static {
+        // Based on weather code data found at:
+        // http://bugs.openweathermap.org/projects/api/wiki/Weather_Condition_Codes
+        Arrays.fill(sConditions, (byte) CONDITION_UNKNOWN);
+        fill(200, 232, CONDITION_STORM);
+        fill(300, 321, CONDITION_LIGHT_RAIN);
+        fill(500, 504, CONDITION_RAIN);
+        fill(511, 511, CONDITION_SNOW);
+        fill(520, 531, CONDITION_RAIN);
+        fill(600, 622, CONDITION_SNOW);
+        fill(701, 761, CONDITION_FOG);
+        fill(781, 781, CONDITION_STORM);
+        fill(800, 800, CONDITION_CLEAR);
+        fill(801, 801, CONDITION_LIGHT_CLOUDS);
+        fill(802, 804, CONDITION_CLOUDS);
+    }
+
+    private WeatherConditions() {
+    }
+
+    private static void fill(int from, int to, int condition) {
+        for (int code = from; code <= to; code++) {
+            sConditions[code - FIRST_CODE] = (byte) condition;
+        }
+    }
+
+    /**
+     * @param weatherId from OpenWeatherMap API response
+     * @return the condition the code belongs to, or CONDITION_UNKNOWN if Sunshine has no art for
+     * it
+     */
+    public static int getCondition(int weatherId) {
+        if (weatherId < FIRST_CODE || weatherId > LAST_CODE) {
+            return CONDITION_UNKNOWN;
+        }
+        return sConditions[weatherId - FIRST_CODE];
+    }
+
+    /**
+     * @param condition one of the CONDITION_ constants
+     * @return the name art packs use for the condition's image, or null for CONDITION_UNKNOWN
+     */
+    public static String getArtName(int condition) {
+        return condition == CONDITION_UNKNOWN ? null : ART_NAMES[condition];
+    }
+
+    /**
+     * @param weatherId from OpenWeatherMap API response
+     * @return a URL to an appropriate image, or null if no mapping is found
+     */
+    public static String getImageUrl(int weatherId) {
+        if (weatherId == 781) {
+            return IMAGE_URL_DUST;
+        }
+        int condition = getCondition(weatherId);
+        return condition == CONDITION_UNKNOWN ? null : IMAGE_URLS[condition];
+    }
+}
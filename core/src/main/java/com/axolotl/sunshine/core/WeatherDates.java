@@ -0,0 +1,52 @@
+package com.axolotl.sunshine.core;
+
+import java.util.TimeZone;
+
+/**
+ * Date arithmetic for the dates stored with each day of weather.
+ */
+public final class WeatherDates {
+
+    public static final long DAY_IN_MILLIS = 24 * 60 * 60 * 1000L;
+
+    private WeatherDates() {
+    }
+
+    /**
+     * To make it easy to query for the exact date, we normalize all dates that go into the
+     * database to the start of their day in the default time zone.
+     */
+    public static long normalizeDate(long startDate) {
+        return normalizeDate(startDate, TimeZone.getDefault());
+    }
+
+    /**
+     * @return midnight, in the time zone, at the start of the day the date falls on
+     */
+    public static long normalizeDate(long startDate, TimeZone timeZone) {
+        // The day number as seen on a clock in the time zone
+        long localDay = floorDiv(startDate + timeZone.getOffset(startDate), DAY_IN_MILLIS);
+        long localMidnight = localDay * DAY_IN_MILLIS;
+        // Take the offset in force at midnight, which differs from startDate's if a DST change
+        // happened in between.  A midnight the change skipped becomes the first instant of the
+        // day.
+        long guess = localMidnight - timeZone.getOffset(startDate);
+        long midnight = localMidnight - timeZone.getOffset(guess);
+        // A midnight that happened twice, because the clocks went back over it, first happened
+        // at the offset in force before the change
+        long earlier = localMidnight - timeZone.getOffset(midnight - 1);
+        if (earlier < midnight && earlier + timeZone.getOffset(earlier) == localMidnight) {
+            return earlier;
+        }
+        return midnight;
+    }
+
+    // Math.floorDiv() is Java 8
+    private static long floorDiv(long x, long y) {
+        long q = x / y;
+        if ((x % y != 0) && ((x ^ y) < 0)) {
+            q--;
+        }
+        return q;
+    }
+}
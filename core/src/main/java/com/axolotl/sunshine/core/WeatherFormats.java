@@ -0,0 +1,63 @@
+package com.axolotl.sunshine.core;
+
+/**
+ * Unit conversion and formatting of weather values for display.  The format strings come from
+ * the callers, who hold the localized resources.
+ */
+public final class WeatherFormats {
+
+    private static final float KMH_TO_MPH = .621371192237334f;
+
+    // Compass points for each 45 degree sector, starting at north
+    private static final String[] DIRECTIONS = {"N", "NE", "E", "SE", "S", "SW", "W", "NW"};
+
+    private WeatherFormats() {
+    }
+
+    /**
+     * Data is stored in Celsius.  If the user prefers to see Fahrenheit, convert it here.
+     */
+    public static double toDisplayTemperature(double temperature, boolean metric) {
+        return metric ? temperature : (temperature * 1.8) + 32;
+    }
+
+    /**
+     * @param format a format taking the temperature as its only float argument
+     */
+    public static String formatTemperature(String format, double temperature, boolean metric) {
+        // For presentation, assume the user doesn't care about tenths of a degree.
+        return String.format(format, toDisplayTemperature(temperature, metric));
+    }
+
+    /**
+     * Wind speed is stored in km/h.  If the user doesn't use metric, convert it to mph.
+     */
+    public static float toDisplayWindSpeed(float windSpeed, boolean metric) {
+        return metric ? windSpeed : KMH_TO_MPH * windSpeed;
+    }
+
+    /**
+     * @return the compass direction the wind is coming from, e.g. NW, or "Unknown" if degrees is
+     * not a number
+     */
+    public static String getWindDirection(float degrees) {
+        if (Float.isNaN(degrees)) {
+            return "Unknown";
+        }
+        // Sectors are centred on the compass points, so north runs from 337.5 to 22.5 and also
+        // takes whatever is out of range
+        if (degrees >= 337.5f || degrees < 22.5f) {
+            return DIRECTIONS[0];
+        }
+        return DIRECTIONS[(int) ((degrees + 22.5f) / 45f)];
+    }
+
+    /**
+     * @param format a format taking the speed as a float and the direction as a string
+     */
+    public static String formatWind(String format, float windSpeed, float degrees,
+                                    boolean metric) {
+        return String.format(format, toDisplayWindSpeed(windSpeed, metric),
+                getWindDirection(degrees));
+    }
+}
@@ -0,0 +1,160 @@
+package com.axolotl.sunshine.core;
+
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.fail;
+
+/**
+ * Checks {@link DailyForecastParser} reads what the JSONObject parsing in the sync read before,
+ * and what it does with the bodies a server or a bad connection can send instead.
+ */
+public class TestDailyForecastParser {
+
+    private static final double DELTA = 1e-9;
+
+    private static final String CITY =
+            "\"city\":{\"id\":5375480,\"name\":\"Mountain View\","
+                    + "\"coord\":{\"lon\":-122.083847,\"lat\":37.386051},\"country\":\"US\"}";
+
+    private static final String DAY_1 =
+            "{\"dt\":1467403200,\"temp\":{\"day\":24.5,\"min\":12.25,\"max\":27.75,"
+                    + "\"night\":13,\"eve\":22,\"morn\":12.25},\"pressure\":1013.25,"
+                    + "\"humidity\":58.9,\"weather\":[{\"id\":800,\"main\":\"Clear\","
+                    + "\"description\":\"sky is clear\",\"icon\":\"01d\"},"
+                    + "{\"id\":701,\"main\":\"Mist\"}],\"speed\":3.5,\"deg\":180,\"clouds\":0}";
+
+    private static final String DAY_2 =
+            "{\"dt\":1467489600,\"temp\":{\"min\":-3,\"max\":1.5},\"pressure\":998,"
+                    + "\"humidity\":100,\"weather\":[{\"id\":\"601\",\"main\":\"Snow\"}],"
+                    + "\"speed\":0,\"deg\":359.5}";
+
+    @Test
+    public void testForecast() throws Exception {
+        DailyForecast forecast = parse("{\"cod\":\"200\",\"message\":0.01," + CITY
+                + ",\"cnt\":2,\"list\":[" + DAY_1 + "," + DAY_2 + "]}");
+
+        assertEquals(DailyForecast.CODE_OK, forecast.mCode);
+        assertEquals("Mountain View", forecast.mCityName);
+        assertEquals(37.386051, forecast.mCityLatitude, DELTA);
+        assertEquals(-122.083847, forecast.mCityLongitude, DELTA);
+        assertEquals(2, forecast.mCount);
+
+        assertEquals(1013.25, forecast.mPressures[0], DELTA);
+        // Truncated, as JSONObject.getInt() did
+        assertEquals(58, forecast.mHumidities[0]);
+        assertEquals(3.5, forecast.mWindSpeeds[0], DELTA);
+        assertEquals(180, forecast.mDegrees[0], DELTA);
+        assertEquals(27.75, forecast.mMaxTemps[0], DELTA);
+        assertEquals(12.25, forecast.mMinTemps[0], DELTA);
+        // Only the first weather element counts
+        assertEquals("Clear", forecast.mShortDescs[0]);
+        assertEquals(800, forecast.mWeatherIds[0]);
+
+        assertEquals(998, forecast.mPressures[1], DELTA);
+        assertEquals(100, forecast.mHumidities[1]);
+        assertEquals(0, forecast.mWindSpeeds[1], DELTA);
+        assertEquals(359.5, forecast.mDegrees[1], DELTA);
+        assertEquals(1.5, forecast.mMaxTemps[1], DELTA);
+        assertEquals(-3, forecast.mMinTemps[1], DELTA);
+        assertEquals("Snow", forecast.mShortDescs[1]);
+        // A number sent as a string, which JSONObject.getInt() took as well
+        assertEquals(601, forecast.mWeatherIds[1]);
+    }
+
+    @Test
+    public void testManyDays() throws Exception {
+        StringBuilder list = new StringBuilder();
+        for (int day = 0; day < 40; day++) {
+            list.append(day == 0 ? "" : ",").append(DAY_2);
+        }
+        DailyForecast forecast = parse("{\"cod\":200," + CITY + ",\"list\":[" + list + "]}");
+        assertEquals(40, forecast.mCount);
+        assertEquals("Snow", forecast.mShortDescs[39]);
+    }
+
+    @Test
+    public void testErrorCode() throws Exception {
+        // Not a forecast, so neither city nor list has to be there
+        DailyForecast forecast = parse("{\"cod\":\"404\",\"message\":\"city not found\"}");
+        assertEquals(404, forecast.mCode);
+        assertEquals(0, forecast.mCount);
+
+        forecast = parse("{\"cod\":401,\"message\":\"Invalid API key\"}");
+        assertEquals(401, forecast.mCode);
+    }
+
+    @Test
+    public void testEmpty() throws Exception {
+        assertNull(parse(""));
+    }
+
+    @Test
+    public void testCutOff() throws Exception {
+        String start = "{\"cod\":\"200\"," + CITY + ",\"list\":[" + DAY_1;
+        assertNull(parse(start));
+        assertNull(parse(start + ","));
+        assertNull(parse(start + "," + DAY_2 + "]"));
+    }
+
+    @Test
+    public void testNotJson() throws Exception {
+        assertFormatException("<html><body>502 Bad Gateway</body></html>");
+        assertFormatException("[" + DAY_1 + "]");
+        assertFormatException("{cod:200}");
+    }
+
+    @Test
+    public void testMissingList() throws Exception {
+        assertFormatException("{\"cod\":\"200\"," + CITY + "}");
+    }
+
+    @Test
+    public void testMissingCity() throws Exception {
+        assertFormatException("{\"cod\":\"200\",\"list\":[" + DAY_1 + "]}");
+        assertFormatException("{\"cod\":\"200\",\"city\":{\"name\":\"Mountain View\","
+                + "\"coord\":{\"lat\":37.386051}},\"list\":[" + DAY_1 + "]}");
+    }
+
+    @Test
+    public void testMissingField() throws Exception {
+        String[] fields = {
+                "\"pressure\":1013.25,", "\"humidity\":58.9,", "\"speed\":3.5,", "\"deg\":180,",
+                "\"min\":12.25,", "\"max\":27.75,", "\"id\":800,", "\"main\":\"Clear\","
+        };
+        for (String field : fields) {
+            String day = DAY_1.replace(field, "");
+            assertFormatException("{\"cod\":\"200\"," + CITY + ",\"list\":[" + day + "]}");
+        }
+        assertFormatException("{\"cod\":\"200\"," + CITY + ",\"list\":["
+                + DAY_1.replaceFirst("\\[\\{.*\\}\\]", "[]") + "]}");
+    }
+
+    @Test
+    public void testWrongType() throws Exception {
+        assertFormatException("{\"cod\":\"200\"," + CITY + ",\"list\":["
+                + DAY_1.replace("\"pressure\":1013.25", "\"pressure\":\"high\"") + "]}");
+        assertFormatException("{\"cod\":\"200\"," + CITY + ",\"list\":["
+                + DAY_1.replace("\"temp\":{", "\"temp\":[{").replace(",\"pressure\"",
+                "],\"pressure\"") + "]}");
+        assertFormatException("{\"cod\":\"200\"," + CITY + ",\"list\":{}}");
+        assertFormatException("{\"cod\":\"ok\"}");
+    }
+
+    private static DailyForecast parse(String body) throws IOException, ForecastFormatException {
+        return new DailyForecastParser().parse(new ByteArrayInputStream(body.getBytes("UTF-8")));
+    }
+
+    private static void assertFormatException(String body) throws IOException {
+        try {
+            parse(body);
+            fail("Parsed " + body);
+        } catch (ForecastFormatException e) {
+            // expected
+        }
+    }
+}
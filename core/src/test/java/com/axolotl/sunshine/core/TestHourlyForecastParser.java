@@ -0,0 +1,142 @@
+package com.axolotl.sunshine.core;
+
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.fail;
+
+/**
+ * Checks what {@link HourlyForecastParser} reads out of a 3-hour forecast, and what it does with
+ * the bodies a server or a bad connection can send instead.
+ */
+public class TestHourlyForecastParser {
+
+    private static final double DELTA = 1e-9;
+
+    private static final String CITY =
+            "\"city\":{\"id\":5375480,\"name\":\"Mountain View\","
+                    + "\"coord\":{\"lat\":37.386051,\"lon\":-122.083847},\"country\":\"US\"}";
+
+    private static final String POINT_1 =
+            "{\"dt\":1467374400,\"main\":{\"temp\":24.5,\"temp_min\":22,\"temp_max\":25,"
+                    + "\"pressure\":1013.25,\"sea_level\":1020,\"humidity\":58.5},"
+                    + "\"weather\":[{\"id\":800,\"main\":\"Clear\","
+                    + "\"description\":\"sky is clear\",\"icon\":\"01d\"},"
+                    + "{\"id\":701,\"main\":\"Mist\"}],\"clouds\":{\"all\":0},"
+                    + "\"wind\":{\"speed\":3.5,\"deg\":180},\"dt_txt\":\"2016-07-01 12:00:00\"}";
+
+    // Calm, so no wind object
+    private static final String POINT_2 =
+            "{\"dt\":1467385200,\"main\":{\"temp\":-3,\"pressure\":998,\"humidity\":100},"
+                    + "\"weather\":[{\"id\":\"601\",\"main\":\"Snow\"}]}";
+
+    @Test
+    public void testForecast() throws Exception {
+        HourlyForecast forecast = parse("{\"cod\":\"200\",\"message\":0.01,\"cnt\":2,"
+                + "\"list\":[" + POINT_1 + "," + POINT_2 + "]," + CITY + "}");
+
+        assertEquals(HourlyForecast.CODE_OK, forecast.mCode);
+        assertEquals("Mountain View", forecast.mCityName);
+        assertEquals(37.386051, forecast.mCityLatitude, DELTA);
+        assertEquals(-122.083847, forecast.mCityLongitude, DELTA);
+        assertEquals(2, forecast.mCount);
+
+        // Milliseconds, like every other date
+        assertEquals(1467374400000L, forecast.mTimes[0]);
+        assertEquals(24.5, forecast.mTemps[0], DELTA);
+        assertEquals(1013.25, forecast.mPressures[0], DELTA);
+        assertEquals(58.5, forecast.mHumidities[0], DELTA);
+        assertEquals(3.5, forecast.mWindSpeeds[0], DELTA);
+        assertEquals(180, forecast.mDegrees[0], DELTA);
+        // Only the first weather element counts
+        assertEquals("Clear", forecast.mShortDescs[0]);
+        assertEquals(800, forecast.mWeatherIds[0]);
+
+        assertEquals(1467385200000L, forecast.mTimes[1]);
+        assertEquals(-3, forecast.mTemps[1], DELTA);
+        assertEquals(0, forecast.mWindSpeeds[1], DELTA);
+        assertEquals(0, forecast.mDegrees[1], DELTA);
+        assertEquals("Snow", forecast.mShortDescs[1]);
+        assertEquals(601, forecast.mWeatherIds[1]);
+    }
+
+    @Test
+    public void testManyPoints() throws Exception {
+        StringBuilder list = new StringBuilder();
+        for (int point = 0; point < 100; point++) {
+            list.append(point == 0 ? "" : ",").append(point % 2 == 0 ? POINT_1 : POINT_2);
+        }
+        HourlyForecast forecast = parse("{\"cod\":\"200\"," + CITY + ",\"list\":[" + list + "]}");
+        assertEquals(100, forecast.mCount);
+        assertEquals("Snow", forecast.mShortDescs[99]);
+        // A calm point after a windy one doesn't keep its wind
+        assertEquals(0, forecast.mWindSpeeds[99], DELTA);
+    }
+
+    @Test
+    public void testErrorCode() throws Exception {
+        HourlyForecast forecast = parse("{\"cod\":\"404\",\"message\":\"city not found\"}");
+        assertEquals(404, forecast.mCode);
+        assertEquals(0, forecast.mCount);
+    }
+
+    @Test
+    public void testEmpty() throws Exception {
+        assertNull(parse(""));
+    }
+
+    @Test
+    public void testCutOff() throws Exception {
+        String start = "{\"cod\":\"200\"," + CITY + ",\"list\":[" + POINT_1;
+        assertNull(parse(start));
+        assertNull(parse(start + "," + POINT_2 + "]"));
+    }
+
+    @Test
+    public void testNotJson() throws Exception {
+        assertFormatException("<html><body>502 Bad Gateway</body></html>");
+        assertFormatException("[" + POINT_1 + "]");
+    }
+
+    @Test
+    public void testMissingListOrCity() throws Exception {
+        assertFormatException("{\"cod\":\"200\"," + CITY + "}");
+        assertFormatException("{\"cod\":\"200\",\"list\":[" + POINT_1 + "]}");
+    }
+
+    @Test
+    public void testMissingField() throws Exception {
+        String[] fields = {
+                "\"dt\":1467374400,", "\"temp\":24.5,", "\"pressure\":1013.25,",
+                ",\"humidity\":58.5", "\"id\":800,", "\"main\":\"Clear\","
+        };
+        for (String field : fields) {
+            String point = POINT_1.replace(field, "");
+            assertFormatException("{\"cod\":\"200\"," + CITY + ",\"list\":[" + point + "]}");
+        }
+    }
+
+    @Test
+    public void testWrongType() throws Exception {
+        assertFormatException("{\"cod\":\"200\"," + CITY + ",\"list\":["
+                + POINT_1.replace("\"temp\":24.5", "\"temp\":\"warm\"") + "]}");
+        assertFormatException("{\"cod\":\"200\"," + CITY + ",\"list\":{}}");
+    }
+
+    private static HourlyForecast parse(String body) throws IOException, ForecastFormatException {
+        return new HourlyForecastParser().parse(new ByteArrayInputStream(body.getBytes("UTF-8")));
+    }
+
+    private static void assertFormatException(String body) throws IOException {
+        try {
+            parse(body);
+            fail("Parsed " + body);
+        } catch (ForecastFormatException e) {
+            // expected
+        }
+    }
+}
@@ -0,0 +1,114 @@
+package com.axolotl.sunshine.core;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+/**
+ * Checks the condition table against the range checks Utility used to map each code with.
+ */
+public class TestWeatherConditions {
+
+    // Every code listed at
+    // http://bugs.openweathermap.org/projects/api/wiki/Weather_Condition_Codes
+    private static final int[] DOCUMENTED_IDS = {
+            200, 201, 202, 210, 211, 212, 221, 230, 231, 232,
+            300, 301, 302, 310, 311, 312, 313, 314, 321,
+            500, 501, 502, 503, 504, 511, 520, 521, 522, 531,
+            600, 601, 602, 611, 612, 615, 616, 620, 621, 622,
+            701, 711, 721, 731, 741, 751, 761, 762, 771, 781,
+            800, 801, 802, 803, 804,
+            900, 901, 902, 903, 904, 905, 906,
+            951, 952, 953, 954, 955, 956, 957, 958, 959, 960, 961, 962
+    };
+
+    @Test
+    public void testDocumentedIds() {
+        for (int weatherId : DOCUMENTED_IDS) {
+            checkId(weatherId);
+        }
+    }
+
+    @Test
+    public void testEveryIdInRange() {
+        for (int weatherId = 0; weatherId < 1000; weatherId++) {
+            checkId(weatherId);
+        }
+    }
+
+    @Test
+    public void testOutOfRange() {
+        assertEquals(WeatherConditions.CONDITION_UNKNOWN, WeatherConditions.getCondition(-1));
+        assertEquals(WeatherConditions.CONDITION_UNKNOWN,
+                WeatherConditions.getCondition(Integer.MIN_VALUE));
+        assertEquals(WeatherConditions.CONDITION_UNKNOWN,
+                WeatherConditions.getCondition(Integer.MAX_VALUE));
+        assertNull(WeatherConditions.getImageUrl(-1));
+        assertNull(WeatherConditions.getArtName(WeatherConditions.CONDITION_UNKNOWN));
+    }
+
+    private static void checkId(int weatherId) {
+        int condition = WeatherConditions.getCondition(weatherId);
+        assertEquals("art for " + weatherId, getOldArtName(weatherId),
+                WeatherConditions.getArtName(condition));
+        assertEquals("image for " + weatherId, getOldImageUrl(weatherId),
+                WeatherConditions.getImageUrl(weatherId));
+    }
+
+    // Utility.getArtUrlForWeatherCondition(), less the art pack
+    private static String getOldArtName(int weatherId) {
+        if (weatherId >= 200 && weatherId <= 232) {
+            return "storm";
+        } else if (weatherId >= 300 && weatherId <= 321) {
+            return "light_rain";
+        } else if (weatherId >= 500 && weatherId <= 504) {
+            return "rain";
+        } else if (weatherId == 511) {
+            return "snow";
+        } else if (weatherId >= 520 && weatherId <= 531) {
+            return "rain";
+        } else if (weatherId >= 600 && weatherId <= 622) {
+            return "snow";
+        } else if (weatherId >= 701 && weatherId <= 761) {
+            return "fog";
+        } else if (weatherId == 761 || weatherId == 781) {
+            return "storm";
+        } else if (weatherId == 800) {
+            return "clear";
+        } else if (weatherId == 801) {
+            return "light_clouds";
+        } else if (weatherId >= 802 && weatherId <= 804) {
+            return "clouds";
+        }
+        return null;
+    }
+
+    // Utility.getImageUrlForWeatherCondition()
+    private static String getOldImageUrl(int weatherId) {
+        if (weatherId >= 200 && weatherId <= 232) {
+            return "http://upload.wikimedia.org/wikipedia/commons/2/28/Thunderstorm_in_Annemasse,_France.jpg";
+        } else if (weatherId >= 300 && weatherId <= 321) {
+            return "http://upload.wikimedia.org/wikipedia/commons/a/a0/Rain_on_leaf_504605006.jpg";
+        } else if (weatherId >= 500 && weatherId <= 504) {
+            return "http://upload.wikimedia.org/wikipedia/commons/6/6c/Rain-on-Thassos.jpg";
+        } else if (weatherId == 511) {
+            return "http://upload.wikimedia.org/wikipedia/commons/b/b8/Fresh_snow.JPG";
+        } else if (weatherId >= 520 && weatherId <= 531) {
+            return "http://upload.wikimedia.org/wikipedia/commons/6/6c/Rain-on-Thassos.jpg";
+        } else if (weatherId >= 600 && weatherId <= 622) {
+            return "http://upload.wikimedia.org/wikipedia/commons/b/b8/Fresh_snow.JPG";
+        } else if (weatherId >= 701 && weatherId <= 761) {
+            return "http://upload.wikimedia.org/wikipedia/commons/e/e6/Westminster_fog_-_London_-_UK.jpg";
+        } else if (weatherId == 761 || weatherId == 781) {
+            return "http://upload.wikimedia.org/wikipedia/commons/d/dc/Raised_dust_ahead_of_a_severe_thunderstorm_1.jpg";
+        } else if (weatherId == 800) {
+            return "http://upload.wikimedia.org/wikipedia/commons/7/7e/A_few_trees_and_the_sun_(6009964513).jpg";
+        } else if (weatherId == 801) {
+            return "http://upload.wikimedia.org/wikipedia/commons/e/e7/Cloudy_Blue_Sky_(5031259890).jpg";
+        } else if (weatherId >= 802 && weatherId <= 804) {
+            return "http://upload.wikimedia.org/wikipedia/commons/5/54/Cloudy_hills_in_Elis,_Greece_2.jpg";
+        }
+        return null;
+    }
+}
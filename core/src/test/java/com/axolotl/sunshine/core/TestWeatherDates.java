@@ -0,0 +1,123 @@
+package com.axolotl.sunshine.core;
+
+import org.junit.Test;
+
+import java.util.Calendar;
+import java.util.GregorianCalendar;
+import java.util.TimeZone;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Checks {@link WeatherDates#normalizeDate} against what Time.setJulianDay() gave the weather
+ * table before: the first instant of the date's day in the time zone.
+ */
+public class TestWeatherDates {
+
+    private static final long HOUR_IN_MILLIS = 60 * 60 * 1000L;
+
+    // Zones with DST changes at odd hours, at midnight, by half an hour, across the date line
+    private static final String[] ZONES = {
+            "UTC", "America/Los_Angeles", "America/Sao_Paulo", "America/Havana",
+            "America/Santiago", "America/St_Johns", "Asia/Amman", "Asia/Kolkata",
+            "Asia/Tehran", "Australia/Lord_Howe", "Europe/London", "Pacific/Apia",
+            "Pacific/Chatham"
+    };
+
+    @Test
+    public void testUtc() {
+        TimeZone utc = TimeZone.getTimeZone("UTC");
+        // 2016-07-01 12:00 and 00:00
+        assertEquals(1467331200000L, WeatherDates.normalizeDate(1467374400000L, utc));
+        assertEquals(1467331200000L, WeatherDates.normalizeDate(1467331200000L, utc));
+        assertEquals(1467331200000L, WeatherDates.normalizeDate(1467417599999L, utc));
+    }
+
+    @Test
+    public void testNegativeEpochs() {
+        TimeZone utc = TimeZone.getTimeZone("UTC");
+        assertEquals(0L, WeatherDates.normalizeDate(0L, utc));
+        assertEquals(-WeatherDates.DAY_IN_MILLIS, WeatherDates.normalizeDate(-1L, utc));
+        assertEquals(-WeatherDates.DAY_IN_MILLIS,
+                WeatherDates.normalizeDate(-WeatherDates.DAY_IN_MILLIS, utc));
+        // 1969-07-20 20:17 UTC is 16:17 in New York, whose day started at 04:00 UTC
+        assertEquals(-14241600000L, WeatherDates.normalizeDate(-14182980000L,
+                TimeZone.getTimeZone("America/New_York")));
+        // The epoch is already 1970-01-01 05:30 in Kolkata
+        assertEquals(-19800000L, WeatherDates.normalizeDate(0L,
+                TimeZone.getTimeZone("Asia/Kolkata")));
+    }
+
+    @Test
+    public void testMidnightSkipped() {
+        // Sao Paulo went from 00:00 straight to 01:00 on 2015-10-18, at 03:00 UTC
+        TimeZone saoPaulo = TimeZone.getTimeZone("America/Sao_Paulo");
+        assertEquals(1445137200000L, WeatherDates.normalizeDate(1445137200000L, saoPaulo));
+        assertEquals(1445137200000L, WeatherDates.normalizeDate(1445169600000L, saoPaulo));
+    }
+
+    @Test
+    public void testMidnightRepeated() {
+        // Havana went from 01:00 back to 00:00 on 2015-11-01, so the day started at 04:00 UTC
+        // and its midnight came again at 05:00 UTC
+        TimeZone havana = TimeZone.getTimeZone("America/Havana");
+        assertEquals(1446350400000L, WeatherDates.normalizeDate(1446350400000L, havana));
+        assertEquals(1446350400000L, WeatherDates.normalizeDate(1446354000000L, havana));
+        assertEquals(1446350400000L, WeatherDates.normalizeDate(1446397200000L, havana));
+    }
+
+    @Test
+    public void testChangeDuringTheDay() {
+        // London went from 02:00 back to 01:00 on 2015-10-25, after a midnight at +01:00
+        TimeZone london = TimeZone.getTimeZone("Europe/London");
+        assertEquals(1445727600000L, WeatherDates.normalizeDate(1445774400000L, london));
+        // and from 01:00 to 02:00 on 2016-03-27, after a midnight at +00:00
+        assertEquals(1459036800000L, WeatherDates.normalizeDate(1459080000000L, london));
+    }
+
+    @Test
+    public void testAgainstCalendar() {
+        // Steps that aren't a divisor of a day, so every time of day comes up
+        long step = 7 * HOUR_IN_MILLIS + 13 * 60 * 1000L;
+        for (String id : ZONES) {
+            TimeZone timeZone = TimeZone.getTimeZone(id);
+            checkRange(timeZone, -400 * WeatherDates.DAY_IN_MILLIS,
+                    400 * WeatherDates.DAY_IN_MILLIS, step);
+            // 2015-01-01 to 2017-07-14
+            checkRange(timeZone, 1420070400000L, 1500000000000L, step);
+        }
+    }
+
+    private static void checkRange(TimeZone timeZone, long from, long to, long step) {
+        for (long date = from; date < to; date += step) {
+            assertEquals(timeZone.getID() + " " + date, getStartOfDay(date, timeZone),
+                    WeatherDates.normalizeDate(date, timeZone));
+        }
+    }
+
+    // Searches for the first instant with the same calendar day as the date
+    private static long getStartOfDay(long date, TimeZone timeZone) {
+        Calendar calendar = new GregorianCalendar(timeZone);
+        int day = getDay(calendar, date);
+        long inDay = date;
+        long before = date - HOUR_IN_MILLIS;
+        while (getDay(calendar, before) == day) {
+            inDay = before;
+            before -= HOUR_IN_MILLIS;
+        }
+        while (inDay - before > 1) {
+            long middle = before + (inDay - before) / 2;
+            if (getDay(calendar, middle) == day) {
+                inDay = middle;
+            } else {
+                before = middle;
+            }
+        }
+        return inDay;
+    }
+
+    private static int getDay(Calendar calendar, long date) {
+        calendar.setTimeInMillis(date);
+        return calendar.get(Calendar.YEAR) * 1000 + calendar.get(Calendar.DAY_OF_YEAR);
+    }
+}
@@ -0,0 +1,296 @@
+package com.axolotl.sunshine.fixtures;
+
+import java.util.Locale;
+import java.util.Random;
+
+/**
+ * Makes up OpenWeatherMap daily and 3-hour forecast responses, for tests and benchmarks that
+ * need more locations and more kinds of weather than a recorded corpus has.
+ *
+ * Valid payloads have the shape and every field of a real response, so they go through the
+ * same code as one from the server.  The weather ids walk through every code the app has a
+ * description for, so any few hundred city-days between them cover all of them.  The other
+ * variants are the error and broken responses the sync has to survive.
+ *
+ * A payload only depends on the seed, the city and the day or point count, so a run can be
+ * repeated.
+ */
+public class ForecastPayloadGenerator {
+
+    /**
+     * The most days the daily forecast API returns.
+     */
+    public static final int MAX_DAYS = 16;
+
+    /**
+     * The points the 3-hour forecast API returns, 5 days of 8.
+     */
+    public static final int MAX_POINTS = 40;
+
+    // A complete forecast
+    public static final int VARIANT_VALID = 0;
+    // What the server sends for a location it can't find
+    public static final int VARIANT_NOT_FOUND = 1;
+    // What the server sends for a bad API key, with the code as a number
+    public static final int VARIANT_UNAUTHORIZED = 2;
+    // The server is up but failed to answer the query
+    public static final int VARIANT_SERVER_ERROR = 3;
+    // A valid forecast cut off after its first day
+    public static final int VARIANT_TRUNCATED = 4;
+    // The last day has no pressure
+    public static final int VARIANT_MISSING_FIELD = 5;
+    // The last day's humidity is a word
+    public static final int VARIANT_WRONG_TYPE = 6;
+    // No body at all
+    public static final int VARIANT_EMPTY = 7;
+
+    public static final int VARIANT_COUNT = 8;
+
+    /**
+     * Every weather id the app has a description for, grouped as the server documents them.
+     */
+    public static final int[] WEATHER_IDS = {
+            // Thunderstorm
+            200, 201, 202, 210, 211, 212, 221, 230, 231, 232,
+            // Drizzle
+            300, 301, 302, 310, 311, 312, 313, 314, 321,
+            // Rain
+            500, 501, 502, 503, 504, 511, 520, 531,
+            // Snow
+            600, 601, 602, 611, 612, 615, 616, 620, 621, 622,
+            // Atmosphere
+            701, 711, 721, 731, 741, 751, 761, 762, 771, 781,
+            // Clear and clouds
+            800, 801, 802, 803, 804,
+            // Extreme
+            900, 901, 902, 903, 904, 905, 906,
+            // Additional
+            951, 952, 953, 954, 955, 956, 957, 958, 959, 960, 961, 962
+    };
+
+    private static final String LOCATION_QUERY_PREFIX = "synthetic-";
+
+    // The first forecast day, 2016-07-01 12:00 UTC, in seconds like the server sends it
+    private static final long FIRST_DAY = 1467374400L;
+    private static final long DAY_IN_SECONDS = 24 * 60 * 60;
+    private static final long POINT_IN_SECONDS = 3 * 60 * 60;
+    // Every so many 3-hour points is calm, and like a real one has no wind object
+    private static final int CALM_EVERY = 7;
+
+    private final long mSeed;
+
+    public ForecastPayloadGenerator(long seed) {
+        mSeed = seed;
+    }
+
+    /**
+     * @return the location query generated payloads for the city answer, all of them starting
+     * with the same prefix so they can be told apart from real locations
+     */
+    public static String getLocationQuery(int city) {
+        return LOCATION_QUERY_PREFIX + city;
+    }
+
+    /**
+     * @return the city name generated payloads for the city carry
+     */
+    public static String getCityName(int city) {
+        return "Synthetic City " + city;
+    }
+
+    /**
+     * @return the weather id of a day of the city's forecast
+     */
+    public static int getWeatherId(int city, int day) {
+        return WEATHER_IDS[(city * MAX_DAYS + day) % WEATHER_IDS.length];
+    }
+
+    /**
+     * @param variant one of the VARIANT_ constants
+     * @return the HTTP response code the server sends a body of that kind with.  Broken
+     * bodies come with a 200, they are a cut off connection or a server bug, not an answer.
+     */
+    public static int getResponseCode(int variant) {
+        switch (variant) {
+            case VARIANT_NOT_FOUND:
+                return 404;
+            case VARIANT_UNAUTHORIZED:
+                return 401;
+            case VARIANT_SERVER_ERROR:
+                return 500;
+            default:
+                return 200;
+        }
+    }
+
+    /**
+     * @return a valid forecast of the city for the number of days
+     */
+    public String generate(int city, int days) {
+        return generate(city, days, VARIANT_VALID);
+    }
+
+    /**
+     * @param variant one of the VARIANT_ constants
+     * @return the response body of that kind for a forecast of the city for the number of days
+     */
+    public String generate(int city, int days, int variant) {
+        if (days < 1 || days > MAX_DAYS) {
+            throw new IllegalArgumentException("days must be from 1 to " + MAX_DAYS);
+        }
+        switch (variant) {
+            case VARIANT_NOT_FOUND:
+                return "{\"cod\":\"404\",\"message\":\"city not found\"}";
+            case VARIANT_UNAUTHORIZED:
+                return "{\"cod\":401,\"message\":\"Invalid API key. Please see "
+                        + "http://openweathermap.org/faq#error401 for more info.\"}";
+            case VARIANT_SERVER_ERROR:
+                return "{\"cod\":\"500\",\"message\":\"Internal error\"}";
+            case VARIANT_EMPTY:
+                return "";
+            case VARIANT_VALID:
+            case VARIANT_TRUNCATED:
+            case VARIANT_MISSING_FIELD:
+            case VARIANT_WRONG_TYPE:
+                return generateForecast(city, days, variant);
+            default:
+                throw new IllegalArgumentException("Unknown variant " + variant);
+        }
+    }
+
+    /**
+     * @return a valid 3-hour forecast of the city for the number of points
+     */
+    public String generateHourly(int city, int points) {
+        if (points < 1 || points > MAX_POINTS) {
+            throw new IllegalArgumentException("points must be from 1 to " + MAX_POINTS);
+        }
+        Random random = new Random(mSeed * 31 + city);
+        double lat = Math.round((random.nextDouble() * 180 - 90) * 1e6) / 1e6;
+        double lon = Math.round((random.nextDouble() * 360 - 180) * 1e6) / 1e6;
+        double base = random.nextDouble() * 50 - 15;
+
+        StringBuilder json = new StringBuilder(128 + 360 * points);
+        json.append("{\"cod\":\"200\",\"message\":0.0123,\"cnt\":").append(points)
+                .append(",\"list\":[");
+        for (int point = 0; point < points; point++) {
+            if (point > 0) {
+                json.append(',');
+            }
+            // Several points a day share the day's weather id
+            int weatherId = getWeatherId(city, point / 8);
+            json.append("{\"dt\":").append(FIRST_DAY + point * POINT_IN_SECONDS)
+                    .append(",\"main\":{")
+                    .append("\"temp\":").append(format(base + random.nextDouble() * 12))
+                    .append(",\"pressure\":").append(format(980 + random.nextDouble() * 60))
+                    .append(",\"humidity\":").append(random.nextInt(101))
+                    .append("},\"weather\":[{\"id\":").append(weatherId)
+                    .append(",\"main\":\"").append(getMain(weatherId))
+                    .append("\",\"description\":\"synthetic ").append(weatherId)
+                    .append("\",\"icon\":\"01d\"}],")
+                    .append("\"clouds\":{\"all\":").append(random.nextInt(101)).append('}');
+            if (point % CALM_EVERY != CALM_EVERY - 1) {
+                json.append(",\"wind\":{\"speed\":").append(format(random.nextDouble() * 20))
+                        .append(",\"deg\":").append(random.nextInt(360)).append('}');
+            }
+            json.append('}');
+        }
+        json.append("],\"city\":{\"id\":").append(1000000 + city)
+                .append(",\"name\":\"").append(getCityName(city))
+                .append("\",\"coord\":{\"lat\":").append(lat).append(",\"lon\":").append(lon)
+                .append("},\"country\":\"ZZ\"}}");
+        return json.toString();
+    }
+
+    private String generateForecast(int city, int days, int variant) {
+        Random random = new Random(mSeed * 31 + city);
+        // Spread the cities over the globe
+        double lat = Math.round((random.nextDouble() * 180 - 90) * 1e6) / 1e6;
+        double lon = Math.round((random.nextDouble() * 360 - 180) * 1e6) / 1e6;
+        // A base temperature, so one city's days look alike
+        double base = random.nextDouble() * 50 - 15;
+
+        StringBuilder json = new StringBuilder(128 + 420 * days);
+        json.append("{\"city\":{\"id\":").append(1000000 + city)
+                .append(",\"name\":\"").append(getCityName(city))
+                .append("\",\"coord\":{\"lon\":").append(lon).append(",\"lat\":").append(lat)
+                .append("},\"country\":\"ZZ\",\"population\":0},")
+                .append("\"cod\":\"200\",\"message\":0.0123,\"cnt\":").append(days)
+                .append(",\"list\":[");
+        for (int day = 0; day < days; day++) {
+            if (day > 0) {
+                json.append(',');
+            }
+            if (variant == VARIANT_TRUNCATED && day == 1) {
+                return json.toString();
+            }
+            boolean last = day == days - 1;
+            appendDay(json, random, city, day, base,
+                    variant == VARIANT_MISSING_FIELD && last,
+                    variant == VARIANT_WRONG_TYPE && last);
+        }
+        json.append("]}");
+        return json.toString();
+    }
+
+    private static void appendDay(StringBuilder json, Random random, int city, int day,
+                                  double base, boolean noPressure, boolean wordHumidity) {
+        int weatherId = getWeatherId(city, day);
+        double min = base + random.nextDouble() * 5;
+        double max = min + random.nextDouble() * 12;
+
+        json.append("{\"dt\":").append(FIRST_DAY + day * DAY_IN_SECONDS)
+                .append(",\"temp\":{")
+                .append("\"day\":").append(format(max - 1))
+                .append(",\"min\":").append(format(min))
+                .append(",\"max\":").append(format(max))
+                .append(",\"night\":").append(format(min + 1))
+                .append(",\"eve\":").append(format(max - 3))
+                .append(",\"morn\":").append(format(min + 2))
+                .append("},");
+        if (!noPressure) {
+            json.append("\"pressure\":").append(format(980 + random.nextDouble() * 60))
+                    .append(',');
+        }
+        if (wordHumidity) {
+            json.append("\"humidity\":\"high\",");
+        } else {
+            json.append("\"humidity\":").append(random.nextInt(101)).append(',');
+        }
+        json.append("\"weather\":[{\"id\":").append(weatherId)
+                .append(",\"main\":\"").append(getMain(weatherId))
+                .append("\",\"description\":\"synthetic ").append(weatherId)
+                .append("\",\"icon\":\"01d\"}],")
+                .append("\"speed\":").append(format(random.nextDouble() * 20))
+                .append(",\"deg\":").append(random.nextInt(360))
+                .append(",\"clouds\":").append(random.nextInt(101))
+                .append('}');
+    }
+
+    // Two decimals, like the server sends
+    private static String format(double value) {
+        return String.format(Locale.US, "%.2f", value);
+    }
+
+    // The group name the server puts in "main" for a weather id
+    private static String getMain(int weatherId) {
+        if (weatherId < 300) {
+            return "Thunderstorm";
+        } else if (weatherId < 500) {
+            return "Drizzle";
+        } else if (weatherId < 600) {
+            return "Rain";
+        } else if (weatherId < 700) {
+            return "Snow";
+        } else if (weatherId < 800) {
+            return "Atmosphere";
+        } else if (weatherId == 800) {
+            return "Clear";
+        } else if (weatherId < 900) {
+            return "Clouds";
+        } else if (weatherId < 950) {
+            return "Extreme";
+        }
+        return "Additional";
+    }
+}
@@ -0,0 +1,51 @@
+package com.axolotl.sunshine.data;
+
+import android.content.ContentResolver;
+import android.content.Context;
+import android.test.RenamingDelegatingContext;
+import android.test.mock.MockContentResolver;
+
+import java.io.File;
+
+/**
+ * A context whose content resolver leads to a {@link WeatherProvider} of its own, over database
+ * files whose names get a "test." prefix.  Code that writes through the provider, like the sync,
+ * can be run on it without touching the app's data or waking the app's observers.
+ *
+ * Starts from an empty database.  {@link #close} deletes it.
+ */
+public class TestProviderContext extends RenamingDelegatingContext {
+    private static final String FILE_PREFIX = "test.";
+
+    private final MockContentResolver mResolver = new MockContentResolver();
+    private final WeatherProvider mProvider = new WeatherProvider();
+
+    public TestProviderContext(Context context) {
+        super(context, FILE_PREFIX);
+        deleteDatabase(WeatherDbHelper.DATABASE_NAME);
+        mProvider.attachInfo(this, null);
+        mResolver.addProvider(WeatherContract.CONTENT_AUTHORITY, mProvider);
+    }
+
+    @Override
+    public ContentResolver getContentResolver() {
+        return mResolver;
+    }
+
+    /**
+     * @return the size of the database and whatever journal it has next to it
+     */
+    public long getDatabaseSize() {
+        File db = getDatabasePath(WeatherDbHelper.DATABASE_NAME);
+        long size = db.length();
+        for (String suffix : new String[] {"-journal", "-wal", "-shm"}) {
+            size += new File(db.getPath() + suffix).length();
+        }
+        return size;
+    }
+
+    public void close() {
+        mProvider.shutdown();
+        deleteDatabase(WeatherDbHelper.DATABASE_NAME);
+    }
+}
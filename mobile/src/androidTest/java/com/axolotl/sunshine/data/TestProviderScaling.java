@@ -0,0 +1,181 @@
+package com.axolotl.sunshine.data;
+
+import android.content.ContentProviderOperation;
+import android.content.ContentResolver;
+import android.content.ContentValues;
+import android.content.OperationApplicationException;
+import android.database.Cursor;
+import android.net.Uri;
+import android.os.Bundle;
+import android.os.RemoteException;
+import android.os.SystemClock;
+import android.test.AndroidTestCase;
+import android.text.format.DateUtils;
+import android.util.Log;
+
+import com.axolotl.sunshine.fixtures.ForecastPayloadGenerator;
+import com.axolotl.sunshine.sync.ForecastResponse;
+import com.axolotl.sunshine.sync.StreamingForecastParser;
+
+import org.json.JSONException;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.util.ArrayList;
+import java.util.Locale;
+import java.util.UUID;
+
+/**
+ * Ingests generated forecasts for thousands of cities into {@link WeatherProvider} the way the
+ * sync does, and logs the throughput and database size every CHECKPOINT cities so it shows how
+ * the storage layer holds up as the location count grows.  The database starts empty, so the
+ * sizes are those of the generated data alone.
+ */
+public class TestProviderScaling extends AndroidTestCase {
+    private static final String LOG_TAG = TestProviderScaling.class.getSimpleName();
+
+    private static final int CITIES = 5000;
+    private static final int CHECKPOINT = 1000;
+    // What the app asks for
+    private static final int DAYS = 14;
+    private static final long SEED = 19;
+
+    private final ForecastPayloadGenerator mGenerator = new ForecastPayloadGenerator(SEED);
+    private TestProviderContext mContext;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        mContext = new TestProviderContext(getContext());
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        mContext.close();
+        super.tearDown();
+    }
+
+    public void testIngestScaling() throws Exception {
+        long firstDay = WeatherContract.normalizeDate(System.currentTimeMillis());
+        long checkpointStart = SystemClock.elapsedRealtime();
+        long totalMillis = 0;
+        long payloadBytes = 0;
+
+        for (int city = 0; city < CITIES; city++) {
+            byte[] body = mGenerator.generate(city, DAYS).getBytes("UTF-8");
+            payloadBytes += body.length;
+            ForecastResponse response = parse(body);
+            assertNotNull(response);
+            assertEquals(HttpURLConnection.HTTP_OK, response.mCode);
+            assertEquals(DAYS, response.mDays.size());
+            ingest(city, response, firstDay);
+
+            if ((city + 1) % CHECKPOINT == 0) {
+                long elapsed = SystemClock.elapsedRealtime() - checkpointStart;
+                totalMillis += elapsed;
+                long dbBytes = mContext.getDatabaseSize();
+                Log.i(LOG_TAG, String.format(Locale.US,
+                        "%d cities: %.0f cities/s, %.0f rows/s over the last %d, "
+                                + "db %d bytes (%d per city), %d payload bytes so far",
+                        city + 1,
+                        CHECKPOINT * 1000.0 / Math.max(elapsed, 1),
+                        CHECKPOINT * DAYS * 1000.0 / Math.max(elapsed, 1),
+                        CHECKPOINT, dbBytes, dbBytes / (city + 1), payloadBytes));
+                checkpointStart = SystemClock.elapsedRealtime();
+            }
+        }
+        Log.i(LOG_TAG, String.format(Locale.US,
+                "Ingested %d cities, %d rows in %d ms, %.0f rows/s",
+                CITIES, CITIES * DAYS, totalMillis,
+                CITIES * DAYS * 1000.0 / Math.max(totalMillis, 1)));
+
+        Cursor cursor = mContext.getContentResolver().query(
+                WeatherContract.WeatherEntry.CONTENT_URI,
+                new String[] {"count(*)"},
+                null,
+                null,
+                null);
+        assertNotNull(cursor);
+        try {
+            assertTrue(cursor.moveToFirst());
+            assertEquals(CITIES * DAYS, cursor.getInt(0));
+        } finally {
+            cursor.close();
+        }
+    }
+
+    public void testErrorAndMalformedPayloads() throws Exception {
+        assertEquals(HttpURLConnection.HTTP_NOT_FOUND,
+                parse(ForecastPayloadGenerator.VARIANT_NOT_FOUND).mCode);
+        assertEquals(HttpURLConnection.HTTP_UNAUTHORIZED,
+                parse(ForecastPayloadGenerator.VARIANT_UNAUTHORIZED).mCode);
+        assertEquals(HttpURLConnection.HTTP_INTERNAL_ERROR,
+                parse(ForecastPayloadGenerator.VARIANT_SERVER_ERROR).mCode);
+        assertNull(parse(ForecastPayloadGenerator.VARIANT_TRUNCATED));
+        assertNull(parse(ForecastPayloadGenerator.VARIANT_EMPTY));
+        try {
+            parse(ForecastPayloadGenerator.VARIANT_MISSING_FIELD);
+            fail("A day without pressure was parsed");
+        } catch (JSONException e) {
+            // Expected
+        }
+        try {
+            parse(ForecastPayloadGenerator.VARIANT_WRONG_TYPE);
+            fail("A day with a word for humidity was parsed");
+        } catch (JSONException e) {
+            // Expected
+        }
+    }
+
+    private ForecastResponse parse(int variant) throws IOException, JSONException {
+        return parse(mGenerator.generate(0, ForecastPayloadGenerator.MAX_DAYS, variant)
+                .getBytes("UTF-8"));
+    }
+
+    private static ForecastResponse parse(byte[] body) throws IOException, JSONException {
+        InputStream in = new ByteArrayInputStream(body);
+        try {
+            return new StreamingForecastParser().parse(in);
+        } finally {
+            in.close();
+        }
+    }
+
+    // Writes the forecast like the sync's storeWeatherData() does: the location through the
+    // registry, the days as inserts in one batch with the retention delete
+    private void ingest(int city, ForecastResponse response, long firstDay)
+            throws RemoteException, OperationApplicationException {
+        long locationId = LocationRegistry.getOrInsert(mContext,
+                ForecastPayloadGenerator.getLocationQuery(city), response.mCityName,
+                response.mCityLatitude, response.mCityLongitude);
+
+        String statsKey = UUID.randomUUID().toString();
+        Uri weatherUri = WeatherContract.WeatherEntry.buildWeatherUriWithBatchStats(statsKey);
+        ArrayList<ContentProviderOperation> operations =
+                new ArrayList<ContentProviderOperation>(response.mDays.size() + 1);
+        for (int i = 0; i < response.mDays.size(); i++) {
+            ContentValues row = response.mDays.get(i);
+            row.put(WeatherContract.WeatherEntry.COLUMN_LOC_KEY, locationId);
+            // Noon, so a DST change doesn't move the day
+            row.put(WeatherContract.WeatherEntry.COLUMN_DATE,
+                    firstDay + i * DateUtils.DAY_IN_MILLIS + DateUtils.DAY_IN_MILLIS / 2);
+            operations.add(ContentProviderOperation.newInsert(weatherUri)
+                    .withValues(row)
+                    .build());
+        }
+        operations.add(ContentProviderOperation.newDelete(weatherUri)
+                .withSelection(WeatherContract.WeatherEntry.COLUMN_DATE + " <= ?",
+                        new String[] {Long.toString(firstDay - DateUtils.DAY_IN_MILLIS)})
+                .withYieldAllowed(true)
+                .build());
+
+        ContentResolver resolver = mContext.getContentResolver();
+        resolver.applyBatch(WeatherContract.CONTENT_AUTHORITY, operations);
+        Bundle stats = resolver.call(WeatherContract.WeatherEntry.CONTENT_URI,
+                WeatherContract.WeatherEntry.METHOD_TAKE_BATCH_STATS, statsKey, null);
+        assertEquals(response.mDays.size(),
+                stats.getInt(WeatherContract.WeatherEntry.EXTRA_INSERTED));
+    }
+}
@@ -0,0 +1,229 @@
+package com.axolotl.sunshine.data;
+
+import android.content.ContentProviderOperation;
+import android.content.ContentResolver;
+import android.content.ContentValues;
+import android.database.Cursor;
+import android.database.MatrixCursor;
+import android.net.Uri;
+import android.os.Bundle;
+import android.test.AndroidTestCase;
+import android.text.format.DateUtils;
+
+import com.axolotl.sunshine.data.WeatherContract.LocationEntry;
+import com.axolotl.sunshine.data.WeatherContract.WeatherEntry;
+import com.axolotl.sunshine.fixtures.ForecastPayloadGenerator;
+
+import java.util.ArrayList;
+
+/**
+ * Checks that a write through {@link WeatherProvider} drops exactly the cached query results it
+ * may have made stale, going by the hits and misses METHOD_GET_QUERY_CACHE_STATS reports around
+ * each query.
+ */
+public class TestQueryCache extends AndroidTestCase {
+
+    private static final int CITY = 0;
+    private static final int OTHER_CITY = 1;
+    private static final int DAYS = 7;
+    // 2016-07-01 12:00 UTC, midday so adding days never crosses into another one
+    private static final long FIRST_DAY_MIDDAY = 1467374400000L;
+
+    private TestProviderContext mContext;
+    private ContentResolver mResolver;
+    private String mLocation;
+    private long mLocationId;
+    private int mRound;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        mContext = new TestProviderContext(getContext());
+        mResolver = mContext.getContentResolver();
+        mLocation = ForecastPayloadGenerator.getLocationQuery(CITY);
+        mLocationId = insertLocation(CITY);
+        writeDays(mLocationId, CITY, 0, DAYS);
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        mContext.close();
+        super.tearDown();
+    }
+
+    public void testLaterDateDropsStartDateResult() {
+        Uri fromDay1 = WeatherEntry.buildWeatherLocationWithStartDate(mLocation, getDate(1));
+        assertMiss(fromDay1);
+        assertHit(fromDay1);
+
+        // Inside the range the result covers
+        writeDays(mLocationId, CITY, 4, 1);
+        assertMiss(fromDay1);
+    }
+
+    public void testEarlierDateKeepsStartDateResult() {
+        Uri fromDay3 = WeatherEntry.buildWeatherLocationWithStartDate(mLocation, getDate(3));
+        assertMiss(fromDay3);
+
+        writeDays(mLocationId, CITY, 1, 1);
+        assertHit(fromDay3);
+    }
+
+    public void testOtherDateKeepsDateResult() {
+        Uri day2 = WeatherEntry.buildWeatherLocationWithDate(mLocation, getDate(2));
+        Uri day5 = WeatherEntry.buildWeatherLocationWithDate(mLocation, getDate(5));
+        assertMiss(day2);
+        assertMiss(day5);
+
+        writeDays(mLocationId, CITY, 5, 1);
+        assertHit(day2);
+        assertMiss(day5);
+    }
+
+    public void testOtherLocationKeepsResults() {
+        long otherId = insertLocation(OTHER_CITY);
+        Uri all = WeatherEntry.buildWeatherLocation(mLocation);
+        assertMiss(all);
+
+        writeDays(otherId, OTHER_CITY, 0, DAYS);
+        assertHit(all);
+    }
+
+    public void testUnchangedWriteKeepsResults() {
+        Uri all = WeatherEntry.buildWeatherLocation(mLocation);
+        assertMiss(all);
+
+        // The same values again, which the upsert leaves alone
+        mRound--;
+        writeDays(mLocationId, CITY, 0, DAYS);
+        assertHit(all);
+    }
+
+    public void testLocationUpdateClearsCache() {
+        insertLocation(OTHER_CITY);
+        assertMiss(WeatherEntry.buildWeatherLocation(mLocation));
+        assertMiss(WeatherEntry.buildWeatherLocationWithDate(mLocation, getDate(0)));
+        assertTrue(getStats().getInt(WeatherEntry.EXTRA_CACHE_ENTRIES) > 0);
+
+        // The cached queries join the location table in
+        ContentValues values = new ContentValues();
+        values.put(LocationEntry.COLUMN_CITY_NAME, "Renamed");
+        assertEquals(1, mResolver.update(LocationEntry.CONTENT_URI, values,
+                LocationEntry.COLUMN_LOCATION_SETTING + " = ?",
+                new String[] {ForecastPayloadGenerator.getLocationQuery(OTHER_CITY)}));
+        assertEquals(0, getStats().getInt(WeatherEntry.EXTRA_CACHE_ENTRIES));
+    }
+
+    public void testQueryInTransactionBypassesCache() throws Exception {
+        Uri all = WeatherEntry.buildWeatherLocation(mLocation);
+        Bundle before = getStats();
+
+        // The assert query runs inside the batch's transaction and sees its uncommitted row
+        ArrayList<ContentProviderOperation> operations =
+                new ArrayList<ContentProviderOperation>();
+        operations.add(ContentProviderOperation.newInsert(WeatherEntry.CONTENT_URI)
+                .withValues(WeatherFixtures.buildDay(mLocationId, getDate(DAYS), CITY, DAYS,
+                        mRound))
+                .build());
+        operations.add(ContentProviderOperation.newAssertQuery(all)
+                .withExpectedCount(DAYS + 1)
+                .build());
+        mResolver.applyBatch(WeatherContract.CONTENT_AUTHORITY, operations);
+
+        Bundle after = getStats();
+        assertEquals(before.getLong(WeatherEntry.EXTRA_CACHE_HITS),
+                after.getLong(WeatherEntry.EXTRA_CACHE_HITS));
+        assertEquals(before.getLong(WeatherEntry.EXTRA_CACHE_MISSES),
+                after.getLong(WeatherEntry.EXTRA_CACHE_MISSES));
+        assertEquals(0, after.getInt(WeatherEntry.EXTRA_CACHE_ENTRIES));
+
+        assertEquals(DAYS + 1, assertMiss(all));
+    }
+
+    public void testPutAfterInvalidateIsDropped() {
+        // A query starts, a write drops the location's results, then the query finishes
+        QueryCache cache = new QueryCache();
+        String key = QueryCache.key(WeatherProvider.WEATHER_WITH_LOCATION, mLocation, 0, null,
+                null);
+        long generation = cache.getGeneration();
+        cache.invalidate(mLocation, new long[] {getDate(0)});
+        cache.put(key, WeatherProvider.WEATHER_WITH_LOCATION, mLocation, 0, newResult(),
+                generation).close();
+
+        assertEquals(0, cache.getEntryCount());
+        assertNull(cache.get(key));
+
+        // The next one caches its result
+        cache.put(key, WeatherProvider.WEATHER_WITH_LOCATION, mLocation, 0, newResult(),
+                cache.getGeneration()).close();
+        assertEquals(1, cache.getEntryCount());
+        Cursor cached = cache.get(key);
+        assertNotNull(cached);
+        cached.close();
+    }
+
+    private static Cursor newResult() {
+        MatrixCursor cursor = new MatrixCursor(new String[] {WeatherEntry.COLUMN_DATE});
+        cursor.addRow(new Object[] {0L});
+        return cursor;
+    }
+
+    private long insertLocation(int city) {
+        ContentValues values = new ContentValues();
+        values.put(LocationEntry.COLUMN_LOCATION_SETTING,
+                ForecastPayloadGenerator.getLocationQuery(city));
+        values.put(LocationEntry.COLUMN_CITY_NAME, ForecastPayloadGenerator.getCityName(city));
+        values.put(LocationEntry.COLUMN_COORD_LAT, 0.0);
+        values.put(LocationEntry.COLUMN_COORD_LONG, 0.0);
+        Uri uri = mResolver.insert(LocationEntry.CONTENT_URI, values);
+        assertNotNull(uri);
+        return Long.parseLong(uri.getLastPathSegment());
+    }
+
+    // Writes the days with temperatures no earlier write had, so every row changes
+    private void writeDays(long locationId, int city, int firstDay, int days) {
+        ContentValues[] rows = new ContentValues[days];
+        for (int i = 0; i < days; i++) {
+            int day = firstDay + i;
+            rows[i] = WeatherFixtures.buildDay(locationId, getDate(day), city, day, mRound);
+        }
+        mRound++;
+        mResolver.bulkInsert(WeatherEntry.CONTENT_URI, rows);
+    }
+
+    private static long getDate(int day) {
+        return WeatherContract.normalizeDate(FIRST_DAY_MIDDAY + day * DateUtils.DAY_IN_MILLIS);
+    }
+
+    private Bundle getStats() {
+        return mResolver.call(WeatherEntry.CONTENT_URI,
+                WeatherEntry.METHOD_GET_QUERY_CACHE_STATS, null, null);
+    }
+
+    // Queries the uri, asserts it was answered from the cache
+    private void assertHit(Uri uri) {
+        long hits = getStats().getLong(WeatherEntry.EXTRA_CACHE_HITS);
+        query(uri);
+        assertEquals(uri.toString(), hits + 1, getStats().getLong(WeatherEntry.EXTRA_CACHE_HITS));
+    }
+
+    // Queries the uri, asserts it went to the database
+    private int assertMiss(Uri uri) {
+        long misses = getStats().getLong(WeatherEntry.EXTRA_CACHE_MISSES);
+        int count = query(uri);
+        assertEquals(uri.toString(), misses + 1,
+                getStats().getLong(WeatherEntry.EXTRA_CACHE_MISSES));
+        return count;
+    }
+
+    private int query(Uri uri) {
+        Cursor cursor = mResolver.query(uri, null, null, null, WeatherEntry.COLUMN_DATE);
+        assertNotNull(cursor);
+        try {
+            assertTrue(cursor.getCount() > 0);
+            return cursor.getCount();
+        } finally {
+            cursor.close();
+        }
+    }
+}
@@ -0,0 +1,143 @@
+package com.axolotl.sunshine.data;
+
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.os.SystemClock;
+import android.test.AndroidTestCase;
+import android.text.format.DateUtils;
+import android.util.Log;
+
+import com.axolotl.sunshine.fixtures.ForecastPayloadGenerator;
+
+import java.util.Arrays;
+import java.util.Locale;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Compares {@link StorageProfile#DEFAULT} and {@link StorageProfile#TUNED} on a mixed workload:
+ * a writer upserting whole forecasts in transactions through {@link WeatherBatchWriter}, the way
+ * the sync does, while a reader runs the forecast list query over and over, the way the list does
+ * while the user scrolls.  Logs the reader's latency percentiles and the writer's throughput.
+ */
+public class TestStorageProfileBenchmark extends AndroidTestCase {
+    private static final String LOG_TAG = TestStorageProfileBenchmark.class.getSimpleName();
+
+    private static final int LOCATIONS = 200;
+    private static final int DAYS = 14;
+    // Forecasts the writer upserts during a run
+    private static final int WRITES = 400;
+
+    // What the forecast list runs, see WeatherProvider.getWeatherByLocationSetting()
+    private static final String READ_QUERY = "SELECT * FROM "
+            + WeatherContract.WeatherEntry.TABLE_NAME
+            + " INNER JOIN " + WeatherContract.LocationEntry.TABLE_NAME
+            + " ON " + WeatherContract.WeatherEntry.TABLE_NAME + "."
+            + WeatherContract.WeatherEntry.COLUMN_LOC_KEY + " = "
+            + WeatherContract.LocationEntry.TABLE_NAME + "." + WeatherContract.LocationEntry._ID
+            + " WHERE " + WeatherContract.LocationEntry.COLUMN_LOCATION_SETTING + " = ? AND "
+            + WeatherContract.WeatherEntry.COLUMN_DATE + " >= ? ORDER BY "
+            + WeatherContract.WeatherEntry.COLUMN_DATE + " ASC";
+
+    public void testDefaultProfile() throws Exception {
+        run(StorageProfile.DEFAULT);
+    }
+
+    public void testTunedProfile() throws Exception {
+        run(StorageProfile.TUNED);
+    }
+
+    private void run(StorageProfile profile) throws Exception {
+        String name = "storage_benchmark_" + profile + ".db";
+        getContext().deleteDatabase(name);
+        final WeatherDbHelper helper = new WeatherDbHelper(getContext(), name, profile);
+        WeatherBatchWriter writer = null;
+        try {
+            final long firstDay = WeatherContract.normalizeDate(System.currentTimeMillis());
+            final long[] locationIds = new long[LOCATIONS];
+            SQLiteDatabase db = helper.getWritableDatabase();
+            writer = new WeatherBatchWriter(db);
+            for (int i = 0; i < LOCATIONS; i++) {
+                locationIds[i] = WeatherFixtures.insertLocation(db, i);
+                writeForecast(db, writer, locationIds[i], i, 0, firstDay);
+            }
+
+            // The reader queries until the writer is done
+            final AtomicBoolean writing = new AtomicBoolean(true);
+            final long[] latencies = new long[100000];
+            final int[] reads = new int[1];
+            Thread reader = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    SQLiteDatabase db = helper.getReadableDatabase();
+                    String firstDayArg = Long.toString(firstDay);
+                    int n = 0;
+                    while (writing.get() && n < latencies.length) {
+                        String setting = ForecastPayloadGenerator.getLocationQuery(n % LOCATIONS);
+                        long start = System.nanoTime();
+                        Cursor cursor = db.rawQuery(READ_QUERY,
+                                new String[] {setting, firstDayArg});
+                        try {
+                            while (cursor.moveToNext()) {
+                                cursor.getDouble(cursor.getColumnIndex(
+                                        WeatherContract.WeatherEntry.COLUMN_MAX_TEMP));
+                            }
+                        } finally {
+                            cursor.close();
+                        }
+                        latencies[n++] = System.nanoTime() - start;
+                    }
+                    reads[0] = n;
+                }
+            });
+
+            long writeStart = SystemClock.elapsedRealtime();
+            reader.start();
+            for (int i = 0; i < WRITES; i++) {
+                // A new round each pass over the locations, so every row changes
+                writeForecast(db, writer, locationIds[i % LOCATIONS], i % LOCATIONS,
+                        1 + i / LOCATIONS, firstDay);
+            }
+            long writeMillis = SystemClock.elapsedRealtime() - writeStart;
+            writing.set(false);
+            reader.join();
+
+            long[] sorted = Arrays.copyOf(latencies, reads[0]);
+            Arrays.sort(sorted);
+            assertTrue(sorted.length > 0);
+            Log.i(LOG_TAG, String.format(Locale.US,
+                    "%s: %d forecasts written in %d ms (%.0f/s), %d reads, read latency "
+                            + "p50 %.2f ms, p90 %.2f ms, p99 %.2f ms, max %.2f ms",
+                    profile, WRITES, writeMillis, WRITES * 1000.0 / Math.max(writeMillis, 1),
+                    sorted.length, percentile(sorted, 50), percentile(sorted, 90),
+                    percentile(sorted, 99), sorted[sorted.length - 1] / 1e6));
+        } finally {
+            if (writer != null) {
+                writer.close();
+            }
+            helper.close();
+            getContext().deleteDatabase(name);
+        }
+    }
+
+    // Upserts the city's forecast in one transaction, as the sync does
+    private static void writeForecast(SQLiteDatabase db, WeatherBatchWriter writer,
+                                      long locationId, int city, int round, long firstDay) {
+        WeatherRows rows = new WeatherRows(DAYS);
+        for (int day = 0; day < DAYS; day++) {
+            WeatherFixtures.appendDay(rows, locationId, firstDay + day * DateUtils.DAY_IN_MILLIS,
+                    city, day, round);
+        }
+        db.beginTransaction();
+        try {
+            writer.write(rows, new WeatherProvider.UpsertCounts(), new WeatherChanges());
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
+        }
+    }
+
+    // In milliseconds
+    private static double percentile(long[] sorted, int percent) {
+        return sorted[Math.min(sorted.length - 1, sorted.length * percent / 100)] / 1e6;
+    }
+}
@@ -0,0 +1,171 @@
+package com.axolotl.sunshine.data;
+
+import android.content.ContentValues;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.test.AndroidTestCase;
+
+import com.axolotl.sunshine.data.WeatherContract.LocationEntry;
+import com.axolotl.sunshine.data.WeatherContract.WeatherEntry;
+
+import java.io.File;
+
+/**
+ * Opens databases left behind by older versions of the app with today's {@link WeatherDbHelper}:
+ * one the migrations start from, whose rows must survive, and one older than that, which is
+ * recreated empty.
+ */
+public class TestWeatherDbMigration extends AndroidTestCase {
+
+    private static final String DATABASE_NAME = "migration_test.db";
+
+    // The tables as version 2 created them
+    private static final String SQL_CREATE_LOCATION_TABLE_V2 = "CREATE TABLE location ("
+            + "_id INTEGER PRIMARY KEY,"
+            + "location_setting TEXT UNIQUE NOT NULL, "
+            + "city_name TEXT NOT NULL, "
+            + "coord_lat REAL NOT NULL, "
+            + "coord_long REAL NOT NULL );";
+    private static final String SQL_CREATE_WEATHER_TABLE_V2 = "CREATE TABLE weather ("
+            + "_id INTEGER PRIMARY KEY AUTOINCREMENT,"
+            + "location_id INTEGER NOT NULL, "
+            + "date INTEGER NOT NULL, "
+            + "short_desc TEXT NOT NULL, "
+            + "weather_id INTEGER NOT NULL,"
+            + "min REAL NOT NULL, "
+            + "max REAL NOT NULL, "
+            + "humidity REAL NOT NULL, "
+            + "pressure REAL NOT NULL, "
+            + "wind REAL NOT NULL, "
+            + "degrees REAL NOT NULL, "
+            + " FOREIGN KEY (location_id) REFERENCES location (_id), "
+            + " UNIQUE (date, location_id) ON CONFLICT REPLACE);";
+
+    private static final String LOCATION_SETTING = "99705";
+    private static final long FIRST_DAY = 1467331200000L;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        getContext().deleteDatabase(DATABASE_NAME);
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        getContext().deleteDatabase(DATABASE_NAME);
+        super.tearDown();
+    }
+
+    public void testUpgradeKeepsRows() {
+        createOldDatabase(2);
+
+        SQLiteDatabase db = openWithHelper();
+        try {
+            assertEquals(1, count(db, LocationEntry.TABLE_NAME));
+            Cursor cursor = db.query(WeatherEntry.TABLE_NAME,
+                    new String[] {WeatherEntry.COLUMN_DATE, WeatherEntry.COLUMN_SHORT_DESC},
+                    null, null, null, null, WeatherEntry.COLUMN_DATE);
+            try {
+                assertEquals(2, cursor.getCount());
+                assertTrue(cursor.moveToFirst());
+                assertEquals(FIRST_DAY, cursor.getLong(0));
+                assertEquals("Clear", cursor.getString(1));
+            } finally {
+                cursor.close();
+            }
+            assertSchema(db);
+        } finally {
+            db.close();
+        }
+    }
+
+    public void testUpgradeFromUnmigratableVersionRecreates() {
+        createOldDatabase(1);
+
+        SQLiteDatabase db = openWithHelper();
+        try {
+            assertEquals(0, count(db, LocationEntry.TABLE_NAME));
+            assertEquals(0, count(db, WeatherEntry.TABLE_NAME));
+            assertSchema(db);
+        } finally {
+            db.close();
+        }
+    }
+
+    // A database with version 2's tables and a location with two days of weather, marked as
+    // the version
+    private void createOldDatabase(int version) {
+        File file = getContext().getDatabasePath(DATABASE_NAME);
+        assertTrue(file.getParentFile().isDirectory() || file.getParentFile().mkdirs());
+        SQLiteDatabase db = SQLiteDatabase.openOrCreateDatabase(file, null);
+        try {
+            db.execSQL(SQL_CREATE_LOCATION_TABLE_V2);
+            db.execSQL(SQL_CREATE_WEATHER_TABLE_V2);
+
+            ContentValues location = new ContentValues();
+            location.put(LocationEntry.COLUMN_LOCATION_SETTING, LOCATION_SETTING);
+            location.put(LocationEntry.COLUMN_CITY_NAME, "North Pole");
+            location.put(LocationEntry.COLUMN_COORD_LAT, 64.7488);
+            location.put(LocationEntry.COLUMN_COORD_LONG, -147.353);
+            long locationId = db.insert(LocationEntry.TABLE_NAME, null, location);
+            assertTrue(locationId != -1);
+
+            for (int day = 0; day < 2; day++) {
+                ContentValues weather = new ContentValues();
+                weather.put(WeatherEntry.COLUMN_LOC_KEY, locationId);
+                weather.put(WeatherEntry.COLUMN_DATE, FIRST_DAY + day * 24 * 60 * 60 * 1000L);
+                weather.put(WeatherEntry.COLUMN_SHORT_DESC, "Clear");
+                weather.put(WeatherEntry.COLUMN_WEATHER_ID, 800);
+                weather.put(WeatherEntry.COLUMN_MIN_TEMP, 12.0);
+                weather.put(WeatherEntry.COLUMN_MAX_TEMP, 27.0);
+                weather.put(WeatherEntry.COLUMN_HUMIDITY, 58.0);
+                weather.put(WeatherEntry.COLUMN_PRESSURE, 1013.25);
+                weather.put(WeatherEntry.COLUMN_WIND_SPEED, 3.5);
+                weather.put(WeatherEntry.COLUMN_DEGREES, 180.0);
+                assertTrue(db.insert(WeatherEntry.TABLE_NAME, null, weather) != -1);
+            }
+            db.setVersion(version);
+        } finally {
+            db.close();
+        }
+    }
+
+    private SQLiteDatabase openWithHelper() {
+        WeatherDbHelper helper =
+                new WeatherDbHelper(getContext(), DATABASE_NAME, StorageProfile.TUNED);
+        SQLiteDatabase db = helper.getWritableDatabase();
+        assertEquals(WeatherDbHelper.DATABASE_VERSION, db.getVersion());
+        return db;
+    }
+
+    // Every table and index a new install has
+    private static void assertSchema(SQLiteDatabase db) {
+        for (String table : new String[] {
+                LocationEntry.TABLE_NAME, WeatherEntry.TABLE_NAME,
+                WeatherContract.SyncMetricsEntry.TABLE_NAME,
+                WeatherContract.HourlyEntry.TABLE_NAME}) {
+            assertTrue(table, exists(db, "table", table));
+        }
+        assertTrue(exists(db, "index", WeatherEntry.INDEX_LOCATION_DATE));
+    }
+
+    private static boolean exists(SQLiteDatabase db, String type, String name) {
+        Cursor cursor = db.rawQuery("SELECT name FROM sqlite_master WHERE type = ? AND name = ?",
+                new String[] {type, name});
+        try {
+            return cursor.moveToFirst();
+        } finally {
+            cursor.close();
+        }
+    }
+
+    private static long count(SQLiteDatabase db, String table) {
+        Cursor cursor = db.rawQuery("SELECT COUNT(*) FROM " + table, null);
+        try {
+            assertTrue(cursor.moveToFirst());
+            return cursor.getLong(0);
+        } finally {
+            cursor.close();
+        }
+    }
+}
@@ -0,0 +1,181 @@
+package com.axolotl.sunshine.data;
+
+import android.content.ContentValues;
+import android.database.DatabaseUtils;
+import android.database.sqlite.SQLiteDatabase;
+import android.os.SystemClock;
+import android.test.AndroidTestCase;
+import android.text.format.DateUtils;
+import android.util.Log;
+
+import java.util.Locale;
+
+/**
+ * Measures the rows per second weather writes reach, by the form the rows come in:
+ * <ul>
+ * <li>ContentValues written one at a time through {@link SQLiteDatabase#update} and
+ * {@link SQLiteDatabase#insert}, which build the SQL and its arguments for every row</li>
+ * <li>ContentValues turned into {@link WeatherRows} and written by {@link WeatherBatchWriter},
+ * what {@link WeatherProvider} does with the ContentValues the sync sends</li>
+ * <li>{@link WeatherRows} written by {@link WeatherBatchWriter} as they are</li>
+ * </ul>
+ * Each form writes the same forecasts three times: into an empty table, over itself with every
+ * row changed, and over itself again unchanged.  Each form starts from an empty table.
+ */
+public class TestWeatherWriteBenchmark extends AndroidTestCase {
+    private static final String LOG_TAG = TestWeatherWriteBenchmark.class.getSimpleName();
+
+    private static final int LOCATIONS = 500;
+    private static final int DAYS = 14;
+    private static final String DATABASE_NAME = "write_benchmark.db";
+
+    private static final String ROW_SELECTION = WeatherContract.WeatherEntry.COLUMN_LOC_KEY
+            + " = ? AND " + WeatherContract.WeatherEntry.COLUMN_DATE + " = ?";
+
+    private interface Writer {
+        // Writes one location's forecast, in the caller's transaction
+        void write(SQLiteDatabase db, int location, int round);
+
+        void close();
+    }
+
+    private long mFirstDay;
+    private long[] mLocationIds;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        mFirstDay = WeatherContract.normalizeDate(System.currentTimeMillis());
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        getContext().deleteDatabase(DATABASE_NAME);
+        super.tearDown();
+    }
+
+    public void testContentValuesPerRow() throws Exception {
+        run("values per row", new Writer() {
+            @Override
+            public void write(SQLiteDatabase db, int location, int round) {
+                for (ContentValues values : buildValues(location, round)) {
+                    String[] args = {
+                            values.getAsString(WeatherContract.WeatherEntry.COLUMN_LOC_KEY),
+                            values.getAsString(WeatherContract.WeatherEntry.COLUMN_DATE)};
+                    if (db.update(WeatherContract.WeatherEntry.TABLE_NAME, values, ROW_SELECTION,
+                            args) == 0) {
+                        db.insert(WeatherContract.WeatherEntry.TABLE_NAME, null, values);
+                    }
+                }
+            }
+
+            @Override
+            public void close() {
+            }
+        });
+    }
+
+    public void testContentValuesBatch() throws Exception {
+        run("values batch", new BatchWriter() {
+            @Override
+            WeatherRows getRows(int location, int round) {
+                return WeatherRows.fromValues(buildValues(location, round));
+            }
+        });
+    }
+
+    public void testColumnsBatch() throws Exception {
+        run("columns batch", new BatchWriter() {
+            @Override
+            WeatherRows getRows(int location, int round) {
+                return buildRows(location, round);
+            }
+        });
+    }
+
+    /*
+        Writes through one WeatherBatchWriter per database, compiled on first use.
+     */
+    private abstract static class BatchWriter implements Writer {
+        private WeatherBatchWriter mWriter;
+
+        abstract WeatherRows getRows(int location, int round);
+
+        @Override
+        public void write(SQLiteDatabase db, int location, int round) {
+            if (mWriter == null) {
+                mWriter = new WeatherBatchWriter(db);
+            }
+            mWriter.write(getRows(location, round), new WeatherProvider.UpsertCounts(),
+                    new WeatherChanges());
+        }
+
+        @Override
+        public void close() {
+            if (mWriter != null) {
+                mWriter.close();
+            }
+        }
+    }
+
+    private void run(String name, Writer writer) {
+        getContext().deleteDatabase(DATABASE_NAME);
+        WeatherDbHelper helper =
+                new WeatherDbHelper(getContext(), DATABASE_NAME, StorageProfile.TUNED);
+        try {
+            SQLiteDatabase db = helper.getWritableDatabase();
+            mLocationIds = new long[LOCATIONS];
+            for (int i = 0; i < LOCATIONS; i++) {
+                mLocationIds[i] = WeatherFixtures.insertLocation(db, i);
+            }
+
+            double inserts = writeAll(db, writer, 0);
+            double updates = writeAll(db, writer, 1);
+            double unchanged = writeAll(db, writer, 1);
+            Log.i(LOG_TAG, String.format(Locale.US,
+                    "%s: %.0f rows/s inserting, %.0f rows/s changing, %.0f rows/s unchanged",
+                    name, inserts, updates, unchanged));
+
+            assertEquals(LOCATIONS * DAYS, DatabaseUtils.queryNumEntries(db,
+                    WeatherContract.WeatherEntry.TABLE_NAME));
+        } finally {
+            writer.close();
+            helper.close();
+        }
+    }
+
+    // One transaction per location, like the sync.  Returns rows per second.
+    private double writeAll(SQLiteDatabase db, Writer writer, int round) {
+        long start = SystemClock.elapsedRealtime();
+        for (int location = 0; location < LOCATIONS; location++) {
+            db.beginTransaction();
+            try {
+                writer.write(db, location, round);
+                db.setTransactionSuccessful();
+            } finally {
+                db.endTransaction();
+            }
+        }
+        long elapsed = SystemClock.elapsedRealtime() - start;
+        return LOCATIONS * DAYS * 1000.0 / Math.max(elapsed, 1);
+    }
+
+    // The round moves the temperatures, so a new round changes every row
+    private ContentValues[] buildValues(int location, int round) {
+        ContentValues[] rows = new ContentValues[DAYS];
+        for (int day = 0; day < DAYS; day++) {
+            rows[day] = WeatherFixtures.buildDay(mLocationIds[location],
+                    mFirstDay + day * DateUtils.DAY_IN_MILLIS, location, day, round);
+        }
+        return rows;
+    }
+
+    private WeatherRows buildRows(int location, int round) {
+        WeatherRows rows = new WeatherRows(DAYS);
+        for (int day = 0; day < DAYS; day++) {
+            WeatherFixtures.appendDay(rows, mLocationIds[location],
+                    mFirstDay + day * DateUtils.DAY_IN_MILLIS, location, day, round);
+        }
+        return rows;
+    }
+}
@@ -0,0 +1,88 @@
+package com.axolotl.sunshine.data;
+
+import android.content.ContentValues;
+import android.database.sqlite.SQLiteDatabase;
+
+import com.axolotl.sunshine.fixtures.ForecastPayloadGenerator;
+
+/**
+ * Generated location and weather rows for the benchmarks that write straight to a database of
+ * their own.  A day's row only depends on the city, the day and the round, and each new round
+ * changes its temperatures, so a benchmark can write the same forecast again changed or not.
+ *
+ * The benchmarks in this package run on databases of their own, a file they delete when done or
+ * a {@link TestProviderContext}, so the app's data is never touched.  Each logs its numbers
+ * under its class name, collect them with e.g. {@code adb logcat -s TestProviderScaling}.
+ */
+final class WeatherFixtures {
+
+    private static final String SHORT_DESC = "Clear";
+    private static final int HUMIDITY = 50;
+    private static final double PRESSURE = 1013.25;
+    private static final double WIND_SPEED = 3.5;
+    private static final double DEGREES = 180;
+
+    private WeatherFixtures() {
+    }
+
+    /**
+     * Inserts the generated city's location row.
+     *
+     * @return the row id
+     */
+    static long insertLocation(SQLiteDatabase db, int city) {
+        ContentValues location = new ContentValues();
+        location.put(WeatherContract.LocationEntry.COLUMN_LOCATION_SETTING,
+                ForecastPayloadGenerator.getLocationQuery(city));
+        location.put(WeatherContract.LocationEntry.COLUMN_CITY_NAME,
+                ForecastPayloadGenerator.getCityName(city));
+        location.put(WeatherContract.LocationEntry.COLUMN_COORD_LAT, 0.0);
+        location.put(WeatherContract.LocationEntry.COLUMN_COORD_LONG, 0.0);
+        return db.insert(WeatherContract.LocationEntry.TABLE_NAME, null, location);
+    }
+
+    /**
+     * @return the weather row of a day of the city's forecast
+     */
+    static ContentValues buildDay(long locationId, long date, int city, int day, int round) {
+        ContentValues values = new ContentValues();
+        values.put(WeatherContract.WeatherEntry.COLUMN_LOC_KEY, locationId);
+        values.put(WeatherContract.WeatherEntry.COLUMN_DATE, date);
+        values.put(WeatherContract.WeatherEntry.COLUMN_WEATHER_ID,
+                ForecastPayloadGenerator.getWeatherId(city, day));
+        values.put(WeatherContract.WeatherEntry.COLUMN_SHORT_DESC, SHORT_DESC);
+        values.put(WeatherContract.WeatherEntry.COLUMN_MIN_TEMP, getMinTemp(city, round));
+        values.put(WeatherContract.WeatherEntry.COLUMN_MAX_TEMP, getMaxTemp(city, round));
+        values.put(WeatherContract.WeatherEntry.COLUMN_HUMIDITY, HUMIDITY);
+        values.put(WeatherContract.WeatherEntry.COLUMN_PRESSURE, PRESSURE);
+        values.put(WeatherContract.WeatherEntry.COLUMN_WIND_SPEED, WIND_SPEED);
+        values.put(WeatherContract.WeatherEntry.COLUMN_DEGREES, DEGREES);
+        return values;
+    }
+
+    /**
+     * Appends the same row {@link #buildDay} makes to the columns.
+     */
+    static void appendDay(WeatherRows rows, long locationId, long date, int city, int day,
+                          int round) {
+        int i = rows.append();
+        rows.mLocationIds[i] = locationId;
+        rows.mDates[i] = date;
+        rows.mWeatherIds[i] = ForecastPayloadGenerator.getWeatherId(city, day);
+        rows.mShortDescs[i] = SHORT_DESC;
+        rows.mMinTemps[i] = getMinTemp(city, round);
+        rows.mMaxTemps[i] = getMaxTemp(city, round);
+        rows.mHumidities[i] = HUMIDITY;
+        rows.mPressures[i] = PRESSURE;
+        rows.mWindSpeeds[i] = WIND_SPEED;
+        rows.mDegrees[i] = DEGREES;
+    }
+
+    private static int getMinTemp(int city, int round) {
+        return city % 20 + round;
+    }
+
+    private static int getMaxTemp(int city, int round) {
+        return city % 20 + round + 10;
+    }
+}
@@ -38,6 +38,7 @@ import android.widget.TextView;
 
 import com.axolotl.sunshine.data.WeatherContract;
 import com.bumptech.glide.Glide;
+import com.bumptech.glide.load.engine.DiskCacheStrategy;
 import com.axolotl.sunshine.data.WeatherContract.WeatherEntry;
 
 /**
@@ -205,6 +206,7 @@ public class DetailFragment extends Fragment implements LoaderManager.LoaderCall
                 // Use weather art image
                 Glide.with(this)
                         .load(Utility.getArtUrlForWeatherCondition(getActivity(), weatherId))
+                        .diskCacheStrategy(DiskCacheStrategy.ALL)
                         .error(Utility.getArtResourceForWeatherCondition(weatherId))
                         .crossFade()
                         .into(mIconView);
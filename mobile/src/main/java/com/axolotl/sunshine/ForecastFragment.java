@@ -33,6 +33,7 @@ import android.support.v4.content.Loader;
 import android.support.v4.view.ViewCompat;
 import android.support.v7.widget.LinearLayoutManager;
 import android.support.v7.widget.RecyclerView;
+import android.text.format.DateUtils;
 import android.util.AttributeSet;
 import android.util.Log;
 import android.view.LayoutInflater;
@@ -46,12 +47,15 @@ import android.widget.AbsListView;
 import android.widget.TextView;
 
 import com.axolotl.sunshine.data.WeatherContract;
+import com.axolotl.sunshine.sync.ForecastSnapshotFile;
 import com.axolotl.sunshine.sync.SunshineSyncAdapter;
+import com.axolotl.sunshine.sync.SyncStateStore;
 
 /**
  * Encapsulates fetching the forecast and displaying it as a {@link android.support.v7.widget.RecyclerView} layout.
  */
-public class ForecastFragment extends Fragment implements LoaderManager.LoaderCallbacks<Cursor>, SharedPreferences.OnSharedPreferenceChangeListener {
+public class ForecastFragment extends Fragment implements LoaderManager.LoaderCallbacks<Cursor>,
+        SharedPreferences.OnSharedPreferenceChangeListener, SyncStateStore.Listener {
     public static final String LOG_TAG = ForecastFragment.class.getSimpleName();
     private ForecastAdapter mForecastAdapter;
     private RecyclerView mRecyclerView;
@@ -121,6 +125,7 @@ public class ForecastFragment extends Fragment implements LoaderManager.LoaderCa
     public void onResume() {
         SharedPreferences sp = PreferenceManager.getDefaultSharedPreferences(getActivity());
         sp.registerOnSharedPreferenceChangeListener(this);
+        SyncStateStore.getInstance(getActivity()).addListener(this);
         super.onResume();
     }
 
@@ -128,6 +133,7 @@ public class ForecastFragment extends Fragment implements LoaderManager.LoaderCa
     public void onPause() {
         SharedPreferences sp = PreferenceManager.getDefaultSharedPreferences(getActivity());
         sp.unregisterOnSharedPreferenceChangeListener(this);
+        SyncStateStore.getInstance(getActivity()).removeListener(this);
         super.onPause();
     }
 
@@ -259,6 +265,15 @@ public class ForecastFragment extends Fragment implements LoaderManager.LoaderCa
         if ( mHoldForTransition ) {
             getActivity().supportPostponeEnterTransition();
         }
+        if (mForecastAdapter.getCursor() == null) {
+            // Show what the last sync stored straight away, without waiting for the database to
+            // open.  The loader's cursor replaces it as soon as the query is done.
+            ForecastSnapshotFile snapshotFile = ForecastSnapshotFile.open(getActivity(),
+                    Utility.getPreferredLocation(getActivity()));
+            if (snapshotFile != null) {
+                mForecastAdapter.swapCursor(snapshotFile.toCursor(FORECAST_COLUMNS));
+            }
+        }
         getLoaderManager().initLoader(FORECAST_LOADER, null, this);
         super.onActivityCreated(savedInstanceState);
     }
@@ -408,9 +423,19 @@ public class ForecastFragment extends Fragment implements LoaderManager.LoaderCa
             if ( null != tv ) {
                 // if cursor is empty, why? do we have an invalid location
                 int message = R.string.empty_forecast_list;
-                @SunshineSyncAdapter.LocationStatus int location = Utility.getLocationStatus(getActivity());
+                SyncStateStore syncState = SyncStateStore.getInstance(getActivity());
+                @SunshineSyncAdapter.LocationStatus int location = syncState.getStatus();
                 switch (location) {
                     case SunshineSyncAdapter.LOCATION_STATUS_SERVER_DOWN:
+                        long retryTime = Utility.getServerRetryTime(getActivity());
+                        if (retryTime != 0) {
+                            // syncs are being held off until the server recovers
+                            setEmptyText(tv, syncState,
+                                    getString(R.string.empty_forecast_list_server_paused,
+                                            DateUtils.formatDateTime(getActivity(), retryTime,
+                                                    DateUtils.FORMAT_SHOW_TIME)));
+                            return;
+                        }
                         message = R.string.empty_forecast_list_server_down;
                         break;
                     case SunshineSyncAdapter.LOCATION_STATUS_SERVER_INVALID:
@@ -424,14 +449,31 @@ public class ForecastFragment extends Fragment implements LoaderManager.LoaderCa
                             message = R.string.empty_forecast_list_no_network;
                         }
                 }
-                tv.setText(message);
+                setEmptyText(tv, syncState, getString(message));
             }
         }
     }
 
+    /*
+        Sets the empty view's text, saying when the location was last synced if it ever was.
+     */
+    private void setEmptyText(TextView tv, SyncStateStore syncState, String message) {
+        long lastSynced = syncState.getLastSynced(Utility.getPreferredLocation(getActivity()));
+        if (lastSynced != 0) {
+            message = getString(R.string.format_empty_forecast_last_synced, message,
+                    DateUtils.getRelativeTimeSpanString(lastSynced));
+        }
+        tv.setText(message);
+    }
+
+    @Override
+    public void onSyncStateChanged(SyncStateStore store) {
+        updateEmptyView();
+    }
+
     @Override
     public void onSharedPreferenceChanged(SharedPreferences sharedPreferences, String key) {
-        if (key.equals(getString(R.string.pref_location_status_key))) {
+        if (key.equals(getString(R.string.pref_breaker_open_until_key))) {
             updateEmptyView();
         }
     }
@@ -34,6 +34,7 @@ import android.view.View;
 import com.axolotl.sunshine.data.WeatherContract;
 import com.axolotl.sunshine.gcm.RegistrationIntentService;
 import com.axolotl.sunshine.sync.SunshineSyncAdapter;
+import com.axolotl.sunshine.sync.SyncScheduler;
 import com.axolotl.sunshine.watch.SyncDataService;
 import com.google.android.gms.common.ConnectionResult;
 import com.google.android.gms.common.GoogleApiAvailability;
@@ -139,6 +140,7 @@ public class MainActivity extends AppCompatActivity implements ForecastFragment.
     @Override
     protected void onResume() {
         super.onResume();
+        SyncScheduler.recordAppOpened(this);
         String location = Utility.getPreferredLocation( this );
         // update the location in our second pane using the fragment manager
             if (location != null && !location.equals(mLocation)) {
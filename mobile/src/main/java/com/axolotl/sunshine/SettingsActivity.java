@@ -27,6 +27,8 @@ import android.preference.PreferenceManager;
 
 import com.axolotl.sunshine.data.WeatherContract;
 import com.axolotl.sunshine.sync.SunshineSyncAdapter;
+import com.axolotl.sunshine.sync.SyncScheduler;
+import com.axolotl.sunshine.sync.SyncStateStore;
 
 
 /**
@@ -38,7 +40,8 @@ import com.axolotl.sunshine.sync.SunshineSyncAdapter;
  * API Guide</a> for more information on developing a Settings UI.
  */
 public class SettingsActivity extends PreferenceActivity
-        implements Preference.OnPreferenceChangeListener, SharedPreferences.OnSharedPreferenceChangeListener {
+        implements Preference.OnPreferenceChangeListener, SharedPreferences.OnSharedPreferenceChangeListener,
+        SyncStateStore.Listener {
 
     @Override
     public void onCreate(Bundle savedInstanceState) {
@@ -51,6 +54,32 @@ public class SettingsActivity extends PreferenceActivity
         bindPreferenceSummaryToValue(findPreference(getString(R.string.pref_location_key)));
         bindPreferenceSummaryToValue(findPreference(getString(R.string.pref_units_key)));
         bindPreferenceSummaryToValue(findPreference(getString(R.string.pref_art_pack_key)));
+
+        // Debug builds show what the adaptive sync scheduler last decided, and why
+        if (BuildConfig.DEBUG) {
+            Preference schedulePreference = new Preference(this);
+            schedulePreference.setKey(getString(R.string.pref_sync_schedule_key));
+            schedulePreference.setTitle(R.string.pref_sync_schedule_label);
+            schedulePreference.setSelectable(false);
+            schedulePreference.setSummary(SyncScheduler.getDebugDescription(this));
+            getPreferenceScreen().addPreference(schedulePreference);
+
+            // and can refresh every saved location at once
+            Preference syncAllPreference = new Preference(this);
+            syncAllPreference.setKey(getString(R.string.pref_sync_all_key));
+            syncAllPreference.setTitle(R.string.pref_sync_all_label);
+            syncAllPreference.setSummary(R.string.pref_sync_all_summary);
+            syncAllPreference.setOnPreferenceClickListener(
+                    new Preference.OnPreferenceClickListener() {
+                        @Override
+                        public boolean onPreferenceClick(Preference preference) {
+                            SunshineSyncAdapter.syncAllLocationsImmediately(
+                                    SettingsActivity.this);
+                            return true;
+                        }
+                    });
+            getPreferenceScreen().addPreference(syncAllPreference);
+        }
     }
 
     // Registers a shared preference change listener that gets notified when preferences change
@@ -58,6 +87,7 @@ public class SettingsActivity extends PreferenceActivity
     protected void onResume() {
         SharedPreferences sp = PreferenceManager.getDefaultSharedPreferences(this);
         sp.registerOnSharedPreferenceChangeListener(this);
+        SyncStateStore.getInstance(this).addListener(this);
         super.onResume();
     }
 
@@ -66,6 +96,7 @@ public class SettingsActivity extends PreferenceActivity
     protected void onPause() {
         SharedPreferences sp = PreferenceManager.getDefaultSharedPreferences(this);
         sp.unregisterOnSharedPreferenceChangeListener(this);
+        SyncStateStore.getInstance(this).removeListener(this);
         super.onPause();
     }
 
@@ -140,16 +171,26 @@ public class SettingsActivity extends PreferenceActivity
         } else if ( key.equals(getString(R.string.pref_units_key)) ) {
             // units have changed. update lists of weather entries accordingly
             getContentResolver().notifyChange(WeatherContract.WeatherEntry.CONTENT_URI, null);
-        } else if ( key.equals(getString(R.string.pref_location_status_key)) ) {
-            // our location status has changed.  Update the summary accordingly
-            Preference locationPreference = findPreference(getString(R.string.pref_location_key));
-            bindPreferenceSummaryToValue(locationPreference);
+        } else if ( key.equals(getString(R.string.pref_sync_schedule_time_key)) ) {
+            // the sync scheduler made a new decision.  Update the debug view
+            Preference schedulePreference = findPreference(getString(R.string.pref_sync_schedule_key));
+            if ( null != schedulePreference ) {
+                schedulePreference.setSummary(SyncScheduler.getDebugDescription(this));
+            }
         } else if ( key.equals(getString(R.string.pref_art_pack_key)) ) {
             // art pack have changed. update lists of weather entries accordingly
             getContentResolver().notifyChange(WeatherContract.WeatherEntry.CONTENT_URI, null);
         }
     }
 
+    // This gets called on the main thread whenever a sync changes what it knows
+    @Override
+    public void onSyncStateChanged(SyncStateStore store) {
+        // our location status may have changed.  Update the summary accordingly
+        Preference locationPreference = findPreference(getString(R.string.pref_location_key));
+        bindPreferenceSummaryToValue(locationPreference);
+    }
+
     @TargetApi(Build.VERSION_CODES.JELLY_BEAN)
     @Override
     public Intent getParentActivityIntent() {
@@ -0,0 +1,103 @@
+/*
+ * Copyright (C) 2014 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.axolotl.sunshine.data;
+
+import android.content.ContentResolver;
+import android.content.ContentValues;
+import android.content.Context;
+import android.os.Bundle;
+
+import java.util.HashMap;
+import java.util.WeakHashMap;
+
+/**
+ * In-memory map from location setting to location row id.
+ *
+ * The first lookup of a setting goes to {@link WeatherProvider}, which finds or inserts the row
+ * in one transaction; every later lookup is answered from memory without touching the provider.
+ * The provider clears the map whenever location rows are deleted or changed.
+ *
+ * Ids are kept per content resolver, so one that leads to a provider over another database,
+ * like a test's, doesn't hand out that database's ids to the sync, or the other way around.
+ */
+public final class LocationRegistry {
+
+    private static final WeakHashMap<ContentResolver, HashMap<String, Long>> sIdsByResolver =
+            new WeakHashMap<ContentResolver, HashMap<String, Long>>();
+
+    // Bumped on every invalidation, so a lookup that raced with one doesn't cache a stale id
+    private static int sGeneration;
+
+    private LocationRegistry() {
+    }
+
+    /**
+     * @param locationSetting The location string used to request updates from the server.
+     * @param cityName A human-readable city name, e.g "Mountain View"
+     * @param lat the latitude of the city
+     * @param lon the longitude of the city
+     * @return the row ID of the location, which is added if it isn't in the database yet
+     */
+    public static long getOrInsert(Context context, String locationSetting, String cityName,
+                                   double lat, double lon) {
+        ContentResolver resolver = context.getContentResolver();
+        int generation;
+        synchronized (sIdsByResolver) {
+            HashMap<String, Long> idsBySetting = sIdsByResolver.get(resolver);
+            Long locationId = idsBySetting != null ? idsBySetting.get(locationSetting) : null;
+            if (locationId != null) {
+                return locationId;
+            }
+            generation = sGeneration;
+        }
+
+        ContentValues locationValues = new ContentValues();
+        locationValues.put(WeatherContract.LocationEntry.COLUMN_CITY_NAME, cityName);
+        locationValues.put(WeatherContract.LocationEntry.COLUMN_LOCATION_SETTING, locationSetting);
+        locationValues.put(WeatherContract.LocationEntry.COLUMN_COORD_LAT, lat);
+        locationValues.put(WeatherContract.LocationEntry.COLUMN_COORD_LONG, lon);
+
+        Bundle extras = new Bundle();
+        extras.putParcelable(WeatherContract.LocationEntry.EXTRA_VALUES, locationValues);
+        Bundle result = resolver.call(
+                WeatherContract.LocationEntry.CONTENT_URI,
+                WeatherContract.LocationEntry.METHOD_INSERT_OR_GET, null, extras);
+        long locationId = result.getLong(WeatherContract.LocationEntry.EXTRA_LOCATION_ID);
+
+        synchronized (sIdsByResolver) {
+            if (generation == sGeneration) {
+                HashMap<String, Long> idsBySetting = sIdsByResolver.get(resolver);
+                if (idsBySetting == null) {
+                    idsBySetting = new HashMap<String, Long>();
+                    sIdsByResolver.put(resolver, idsBySetting);
+                }
+                idsBySetting.put(locationSetting, locationId);
+            }
+        }
+        return locationId;
+    }
+
+    /**
+     * Forgets every cached id, of every resolver.  Called by the provider when location rows go
+     * away or change.
+     */
+    static void invalidate() {
+        synchronized (sIdsByResolver) {
+            sIdsByResolver.clear();
+            sGeneration++;
+        }
+    }
+}
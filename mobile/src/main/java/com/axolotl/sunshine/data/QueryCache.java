@@ -0,0 +1,271 @@
+/*
+ * Copyright (C) 2014 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.axolotl.sunshine.data;
+
+import android.database.Cursor;
+import android.database.MatrixCursor;
+
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+
+/**
+ * The results of recent weather queries for a location, read out of their cursors into memory,
+ * so the same query from another screen, widget or service is answered without SQLite.
+ *
+ * The cache holds at most MAX_BYTES, by a rough estimate of what the values take on the heap,
+ * and drops the least recently used results first.  A write drops exactly the results it may
+ * have changed: those of a location that cover one of its changed days.  A query that was
+ * running while results were dropped doesn't store its own, which may predate the write.
+ *
+ * Thread safe.
+ */
+final class QueryCache {
+
+    private static final int MAX_BYTES = 256 * 1024;
+    // Bigger results are served straight from SQLite, so one can't flush the others
+    private static final int MAX_ENTRY_BYTES = MAX_BYTES / 8;
+
+    // Rough heap sizes, in bytes, of a reference, an object header and a boxed number
+    private static final int REFERENCE_BYTES = 4;
+    private static final int OBJECT_BYTES = 16;
+    private static final int NUMBER_BYTES = 16;
+
+    private static final class Entry {
+        int mMatch;
+        String mLocationSetting;
+        // The day of a WEATHER_WITH_LOCATION_AND_DATE result, the first day of the others
+        long mDate;
+        String[] mColumnNames;
+        Object[][] mRows;
+        int mBytes;
+    }
+
+    // In access order, so the eldest entry is the least recently used
+    private final LinkedHashMap<String, Entry> mEntries =
+            new LinkedHashMap<String, Entry>(16, 0.75f, true);
+    private int mBytes;
+    // Bumped whenever entries are dropped, see put()
+    private long mGeneration;
+
+    private long mHits;
+    private long mMisses;
+
+    /**
+     * @return the key of a weather query for a location
+     */
+    static String key(int match, String locationSetting, long date, String[] projection,
+                      String sortOrder) {
+        StringBuilder key = new StringBuilder();
+        key.append(match).append('\n')
+                .append(locationSetting).append('\n')
+                .append(date).append('\n')
+                .append(sortOrder).append('\n');
+        if (projection == null) {
+            key.append('*');
+        } else {
+            for (String column : projection) {
+                key.append(column).append(',');
+            }
+        }
+        return key.toString();
+    }
+
+    /**
+     * @return a cursor over the cached result, or null if there is none
+     */
+    synchronized Cursor get(String key) {
+        Entry entry = mEntries.get(key);
+        if (entry == null) {
+            mMisses++;
+            return null;
+        }
+        mHits++;
+        MatrixCursor cursor = new MatrixCursor(entry.mColumnNames, entry.mRows.length);
+        for (Object[] row : entry.mRows) {
+            cursor.addRow(row);
+        }
+        return cursor;
+    }
+
+    /**
+     * @return the generation to give put() for a query about to run
+     */
+    synchronized long getGeneration() {
+        return mGeneration;
+    }
+
+    /**
+     * Reads the result of a query that missed into memory, and caches it unless entries were
+     * dropped since the query started, at the given generation.
+     *
+     * @return a cursor over the result, which replaces the one passed in
+     */
+    Cursor put(String key, int match, String locationSetting, long date, Cursor cursor,
+               long generation) {
+        String[] columnNames = cursor.getColumnNames();
+        int columnCount = columnNames.length;
+        Object[][] rows = new Object[cursor.getCount()][];
+        int bytes = OBJECT_BYTES + 2 * key.length()
+                + OBJECT_BYTES + (REFERENCE_BYTES + OBJECT_BYTES) * rows.length;
+        for (String column : columnNames) {
+            bytes += OBJECT_BYTES + 2 * column.length();
+        }
+
+        int i = 0;
+        while (cursor.moveToNext()) {
+            Object[] row = new Object[columnCount];
+            for (int column = 0; column < columnCount; column++) {
+                bytes += REFERENCE_BYTES;
+                switch (cursor.getType(column)) {
+                    case Cursor.FIELD_TYPE_INTEGER:
+                        row[column] = cursor.getLong(column);
+                        bytes += NUMBER_BYTES;
+                        break;
+                    case Cursor.FIELD_TYPE_FLOAT:
+                        row[column] = cursor.getDouble(column);
+                        bytes += NUMBER_BYTES;
+                        break;
+                    case Cursor.FIELD_TYPE_STRING:
+                        String value = cursor.getString(column);
+                        row[column] = value;
+                        bytes += OBJECT_BYTES + 2 * value.length();
+                        break;
+                    case Cursor.FIELD_TYPE_BLOB:
+                        byte[] blob = cursor.getBlob(column);
+                        row[column] = blob;
+                        bytes += OBJECT_BYTES + blob.length;
+                        break;
+                    default:
+                        break;
+                }
+            }
+            if (bytes > MAX_ENTRY_BYTES) {
+                // Too big to keep, give the result back as it came
+                cursor.moveToPosition(-1);
+                return cursor;
+            }
+            rows[i++] = row;
+        }
+        cursor.close();
+
+        Entry entry = new Entry();
+        entry.mMatch = match;
+        entry.mLocationSetting = locationSetting;
+        entry.mDate = date;
+        entry.mColumnNames = columnNames;
+        entry.mRows = rows;
+        entry.mBytes = bytes;
+
+        synchronized (this) {
+            if (generation == mGeneration) {
+                Entry replaced = mEntries.put(key, entry);
+                if (replaced != null) {
+                    mBytes -= replaced.mBytes;
+                }
+                mBytes += bytes;
+                trim();
+            }
+        }
+
+        MatrixCursor result = new MatrixCursor(columnNames, rows.length);
+        for (Object[] row : rows) {
+            result.addRow(row);
+        }
+        return result;
+    }
+
+    /**
+     * Drops the results of the location that cover any of the dates, or all of the location's
+     * results if dates is null.
+     */
+    synchronized void invalidate(String locationSetting, long[] dates) {
+        mGeneration++;
+        long lastDate = Long.MIN_VALUE;
+        if (dates != null) {
+            dates = sorted(dates);
+            if (dates.length > 0) {
+                lastDate = dates[dates.length - 1];
+            }
+        }
+
+        Iterator<Entry> entries = mEntries.values().iterator();
+        while (entries.hasNext()) {
+            Entry entry = entries.next();
+            if (!entry.mLocationSetting.equals(locationSetting)) {
+                continue;
+            }
+            boolean changed;
+            if (dates == null) {
+                changed = true;
+            } else if (entry.mMatch == WeatherProvider.WEATHER_WITH_LOCATION_AND_DATE) {
+                changed = Arrays.binarySearch(dates, entry.mDate) >= 0;
+            } else {
+                // The result has every day from its first one on
+                changed = lastDate >= entry.mDate;
+            }
+            if (changed) {
+                mBytes -= entry.mBytes;
+                entries.remove();
+            }
+        }
+    }
+
+    /**
+     * Drops every result.
+     */
+    synchronized void clear() {
+        mGeneration++;
+        mEntries.clear();
+        mBytes = 0;
+    }
+
+    synchronized long getHits() {
+        return mHits;
+    }
+
+    synchronized long getMisses() {
+        return mMisses;
+    }
+
+    synchronized int getBytes() {
+        return mBytes;
+    }
+
+    synchronized int getEntryCount() {
+        return mEntries.size();
+    }
+
+    // Drops the least recently used entries until the cache fits
+    private void trim() {
+        Iterator<Entry> entries = mEntries.values().iterator();
+        while (mBytes > MAX_BYTES && entries.hasNext()) {
+            mBytes -= entries.next().mBytes;
+            entries.remove();
+        }
+    }
+
+    private static long[] sorted(long[] dates) {
+        for (int i = 1; i < dates.length; i++) {
+            if (dates[i - 1] > dates[i]) {
+                long[] copy = dates.clone();
+                Arrays.sort(copy);
+                return copy;
+            }
+        }
+        return dates;
+    }
+}
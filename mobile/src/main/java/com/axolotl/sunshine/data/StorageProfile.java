@@ -0,0 +1,122 @@
+/*
+ * Copyright (C) 2014 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.axolotl.sunshine.data;
+
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+
+/**
+ * How {@link WeatherDbHelper} sets up SQLite: the journal mode and the pragmas applied to the
+ * primary connection of each database it opens.
+ *
+ * {@link #TUNED} is what the app uses.  Write-ahead logging lets the loaders, widgets and watch
+ * service read through the provider while the sync holds its write transaction, where the
+ * rollback journal of {@link #DEFAULT} makes them wait for it.  {@link #DEFAULT} is kept so the
+ * two can be compared.
+ */
+final class StorageProfile {
+
+    static final int SYNCHRONOUS_OFF = 0;
+    static final int SYNCHRONOUS_NORMAL = 1;
+    static final int SYNCHRONOUS_FULL = 2;
+
+    static final int TEMP_STORE_DEFAULT = 0;
+    static final int TEMP_STORE_FILE = 1;
+    static final int TEMP_STORE_MEMORY = 2;
+
+    // Means "leave SQLite's setting alone"
+    static final int UNSET = -1;
+
+    /**
+     * SQLite as Android opens it: rollback journal and the platform's pragmas.
+     */
+    static final StorageProfile DEFAULT =
+            new StorageProfile("default", false, UNSET, UNSET, UNSET, UNSET);
+
+    /**
+     * Write-ahead logging, with, on the primary connection the sync writes through
+     * <ul>
+     * <li>synchronous NORMAL: WAL is still safe from corruption, a power cut can only lose the
+     * last sync, which is a cache of the server anyway</li>
+     * <li>a 2000 page cache, enough for every forecast the app shows</li>
+     * <li>temporary tables and sorts in memory</li>
+     * <li>up to 16 MB of the file memory mapped, where SQLite supports it (API 21), for the
+     * reads the sync makes inside its transactions</li>
+     * </ul>
+     * The reads of the loaders, widgets and watch service go through the pool connections, which
+     * keep the platform's cache size, temp store and mmap size.
+     */
+    static final StorageProfile TUNED = new StorageProfile("tuned", true,
+            SYNCHRONOUS_NORMAL, 2000, TEMP_STORE_MEMORY, 16 * 1024 * 1024);
+
+    final String mName;
+    final boolean mWriteAheadLogging;
+    final int mSynchronous;
+    // In pages
+    final int mCacheSize;
+    final int mTempStore;
+    // In bytes
+    final long mMmapSize;
+
+    StorageProfile(String name, boolean writeAheadLogging, int synchronous, int cacheSize,
+                   int tempStore, long mmapSize) {
+        mName = name;
+        mWriteAheadLogging = writeAheadLogging;
+        mSynchronous = synchronous;
+        mCacheSize = cacheSize;
+        mTempStore = tempStore;
+        mMmapSize = mmapSize;
+    }
+
+    /**
+     * Applies the pragmas to the database's primary connection.  Must be called outside a
+     * transaction.
+     *
+     * The pool connections Android adds for concurrent readers in WAL mode are opened with the
+     * platform defaults, and the SDK has no hook to configure them, so these are for the writer:
+     * the sync's transactions and the reads it makes inside them.
+     */
+    void applyPragmas(SQLiteDatabase db) {
+        if (mSynchronous != UNSET) {
+            pragma(db, "synchronous", mSynchronous);
+        }
+        if (mCacheSize != UNSET) {
+            pragma(db, "cache_size", mCacheSize);
+        }
+        if (mTempStore != UNSET) {
+            pragma(db, "temp_store", mTempStore);
+        }
+        if (mMmapSize != UNSET) {
+            // Older SQLite versions ignore a pragma they don't know
+            pragma(db, "mmap_size", mMmapSize);
+        }
+    }
+
+    // Some pragmas answer with a row, which execSQL() refuses, so they all go through a query
+    private static void pragma(SQLiteDatabase db, String name, long value) {
+        Cursor cursor = db.rawQuery("PRAGMA " + name + " = " + value, null);
+        try {
+            cursor.moveToFirst();
+        } finally {
+            cursor.close();
+        }
+    }
+
+    @Override
+    public String toString() {
+        return mName;
+    }
+}
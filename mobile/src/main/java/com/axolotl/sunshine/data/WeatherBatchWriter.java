@@ -0,0 +1,180 @@
+/*
+ * Copyright (C) 2014 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.axolotl.sunshine.data;
+
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteStatement;
+
+import com.axolotl.sunshine.core.WeatherDates;
+import com.axolotl.sunshine.data.WeatherContract.WeatherEntry;
+
+import java.util.TimeZone;
+
+/**
+ * Upserts {@link WeatherRows} through two statements compiled once per batch, binding each
+ * row's columns by position.  Nothing is built per row: no ContentValues, no SQL string, no
+ * cursor over the stored rows, not even the default time zone, which Java clones on every
+ * lookup, to normalize the date with.
+ *
+ * A row first goes to an update that only matches the stored row for its (location, date) pair
+ * if one of its columns differs, so it keeps its _id.  If nothing was updated, an insert that
+ * ignores an existing pair tells a new row from an unchanged one.  Only a caller that needs
+ * the _id of a row that was already stored pays for a third statement that looks it up.
+ *
+ * Not thread safe, and the caller owns the transaction.
+ */
+final class WeatherBatchWriter {
+
+    // What writeRow() did with a row
+    static final int ROW_INSERTED = 0;
+    static final int ROW_UPDATED = 1;
+    static final int ROW_UNCHANGED = 2;
+
+    // Parameters are numbered, so each column is bound once and used twice
+    private static final String UPDATE_STATEMENT =
+            "UPDATE " + WeatherEntry.TABLE_NAME + " SET " +
+                    WeatherEntry.COLUMN_WEATHER_ID + " = ?3, " +
+                    WeatherEntry.COLUMN_SHORT_DESC + " = ?4, " +
+                    WeatherEntry.COLUMN_MIN_TEMP + " = ?5, " +
+                    WeatherEntry.COLUMN_MAX_TEMP + " = ?6, " +
+                    WeatherEntry.COLUMN_HUMIDITY + " = ?7, " +
+                    WeatherEntry.COLUMN_PRESSURE + " = ?8, " +
+                    WeatherEntry.COLUMN_WIND_SPEED + " = ?9, " +
+                    WeatherEntry.COLUMN_DEGREES + " = ?10" +
+                    " WHERE " + WeatherEntry.COLUMN_LOC_KEY + " = ?1 AND " +
+                    WeatherEntry.COLUMN_DATE + " = ?2 AND NOT (" +
+                    WeatherEntry.COLUMN_WEATHER_ID + " IS ?3 AND " +
+                    WeatherEntry.COLUMN_SHORT_DESC + " IS ?4 AND " +
+                    WeatherEntry.COLUMN_MIN_TEMP + " IS ?5 AND " +
+                    WeatherEntry.COLUMN_MAX_TEMP + " IS ?6 AND " +
+                    WeatherEntry.COLUMN_HUMIDITY + " IS ?7 AND " +
+                    WeatherEntry.COLUMN_PRESSURE + " IS ?8 AND " +
+                    WeatherEntry.COLUMN_WIND_SPEED + " IS ?9 AND " +
+                    WeatherEntry.COLUMN_DEGREES + " IS ?10)";
+
+    // OR IGNORE overrides the table's ON CONFLICT REPLACE, which would give the row a new _id
+    private static final String INSERT_STATEMENT =
+            "INSERT OR IGNORE INTO " + WeatherEntry.TABLE_NAME + " (" +
+                    WeatherEntry.COLUMN_LOC_KEY + ", " +
+                    WeatherEntry.COLUMN_DATE + ", " +
+                    WeatherEntry.COLUMN_WEATHER_ID + ", " +
+                    WeatherEntry.COLUMN_SHORT_DESC + ", " +
+                    WeatherEntry.COLUMN_MIN_TEMP + ", " +
+                    WeatherEntry.COLUMN_MAX_TEMP + ", " +
+                    WeatherEntry.COLUMN_HUMIDITY + ", " +
+                    WeatherEntry.COLUMN_PRESSURE + ", " +
+                    WeatherEntry.COLUMN_WIND_SPEED + ", " +
+                    WeatherEntry.COLUMN_DEGREES +
+                    ") VALUES (?, ?, ?, ?, ?, ?, ?, ?, ?, ?)";
+
+    private static final String SELECT_ID_STATEMENT =
+            "SELECT " + WeatherEntry._ID + " FROM " + WeatherEntry.TABLE_NAME +
+                    " WHERE " + WeatherEntry.COLUMN_LOC_KEY + " = ? AND " +
+                    WeatherEntry.COLUMN_DATE + " = ?";
+
+    private final SQLiteDatabase mDb;
+    private final SQLiteStatement mUpdate;
+    private final SQLiteStatement mInsert;
+    // Compiled on first use
+    private SQLiteStatement mSelectId;
+
+    // The last row written, for getRowId()
+    private long mLastLocationId;
+    private long mLastDate;
+    private long mLastInsertedId = -1;
+
+    WeatherBatchWriter(SQLiteDatabase db) {
+        mDb = db;
+        mUpdate = db.compileStatement(UPDATE_STATEMENT);
+        mInsert = db.compileStatement(INSERT_STATEMENT);
+    }
+
+    /**
+     * Upserts the rows, normalizing their dates, adds what happened to each to the counts and
+     * the rows that were inserted or updated to the changes.
+     */
+    void write(WeatherRows rows, WeatherProvider.UpsertCounts counts, WeatherChanges changes) {
+        TimeZone timeZone = TimeZone.getDefault();
+        for (int i = 0; i < rows.mCount; i++) {
+            counts.add(writeRow(rows, i, timeZone, changes));
+        }
+    }
+
+    /**
+     * Upserts the row at index i, normalizing its date in the time zone, and adds it to the
+     * changes unless it was left unchanged.
+     *
+     * @return one of the ROW_ constants
+     */
+    int writeRow(WeatherRows rows, int i, TimeZone timeZone, WeatherChanges changes) {
+        long date = WeatherDates.normalizeDate(rows.mDates[i], timeZone);
+        mLastLocationId = rows.mLocationIds[i];
+        mLastDate = date;
+        mLastInsertedId = -1;
+
+        int outcome;
+        bind(mUpdate, rows, i, date);
+        if (mUpdate.executeUpdateDelete() > 0) {
+            outcome = ROW_UPDATED;
+        } else {
+            bind(mInsert, rows, i, date);
+            mLastInsertedId = mInsert.executeInsert();
+            if (mLastInsertedId == -1) {
+                return ROW_UNCHANGED;
+            }
+            outcome = ROW_INSERTED;
+        }
+        changes.add(mLastLocationId, date);
+        return outcome;
+    }
+
+    /**
+     * @return the _id of the row the last {@link #writeRow} wrote or found unchanged
+     */
+    long getRowId() {
+        if (mLastInsertedId != -1) {
+            return mLastInsertedId;
+        }
+        if (mSelectId == null) {
+            mSelectId = mDb.compileStatement(SELECT_ID_STATEMENT);
+        }
+        mSelectId.bindLong(1, mLastLocationId);
+        mSelectId.bindLong(2, mLastDate);
+        return mSelectId.simpleQueryForLong();
+    }
+
+    void close() {
+        mUpdate.close();
+        mInsert.close();
+        if (mSelectId != null) {
+            mSelectId.close();
+        }
+    }
+
+    // Both statements take the columns in the same order
+    private static void bind(SQLiteStatement statement, WeatherRows rows, int i, long date) {
+        statement.bindLong(1, rows.mLocationIds[i]);
+        statement.bindLong(2, date);
+        statement.bindLong(3, rows.mWeatherIds[i]);
+        statement.bindString(4, rows.mShortDescs[i]);
+        statement.bindDouble(5, rows.mMinTemps[i]);
+        statement.bindDouble(6, rows.mMaxTemps[i]);
+        statement.bindDouble(7, rows.mHumidities[i]);
+        statement.bindDouble(8, rows.mPressures[i]);
+        statement.bindDouble(9, rows.mWindSpeeds[i]);
+        statement.bindDouble(10, rows.mDegrees[i]);
+    }
+}
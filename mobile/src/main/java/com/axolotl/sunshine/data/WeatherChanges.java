@@ -0,0 +1,151 @@
+/*
+ * Copyright (C) 2014 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.axolotl.sunshine.data;
+
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteDoneException;
+import android.database.sqlite.SQLiteStatement;
+import android.net.Uri;
+
+import com.axolotl.sunshine.data.WeatherContract.LocationEntry;
+import com.axolotl.sunshine.data.WeatherContract.WeatherEntry;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeSet;
+
+/**
+ * The weather rows a write changed, by location id and date, and the URIs that tell exactly
+ * their observers about them.
+ *
+ * A location gets a single URI however many of its days changed, so a loader showing it
+ * reloads once: {@link WeatherEntry#buildWeatherLocationWithDate} for one day, and
+ * {@link WeatherEntry#buildWeatherLocationWithChangedDates} for several.  Observers of other
+ * locations, and of other days when only one changed, are left alone.
+ */
+final class WeatherChanges {
+
+    // Past this many locations a single notification of the whole tree is cheaper
+    private static final int MAX_LOCATIONS = 32;
+
+    private static final String SELECT_SETTING_STATEMENT =
+            "SELECT " + LocationEntry.COLUMN_LOCATION_SETTING + " FROM " +
+                    LocationEntry.TABLE_NAME + " WHERE " + LocationEntry._ID + " = ?";
+
+    // Location id -> dates that changed
+    private final HashMap<Long, TreeSet<Long>> mDatesByLocation =
+            new HashMap<Long, TreeSet<Long>>();
+    // Something changed that can't be pinned to locations
+    private boolean mEverything;
+
+    void add(long locationId, long date) {
+        if (mEverything) {
+            return;
+        }
+        TreeSet<Long> dates = mDatesByLocation.get(locationId);
+        if (dates == null) {
+            if (mDatesByLocation.size() == MAX_LOCATIONS) {
+                addEverything();
+                return;
+            }
+            dates = new TreeSet<Long>();
+            mDatesByLocation.put(locationId, dates);
+        }
+        dates.add(date);
+    }
+
+    void addEverything() {
+        mEverything = true;
+        mDatesByLocation.clear();
+    }
+
+    /**
+     * @return whether the changes can only be told as a change of the whole weather tree, so
+     * nothing more needs to be added
+     */
+    boolean isEverything() {
+        return mEverything;
+    }
+
+    void addAll(WeatherChanges other) {
+        if (other.mEverything) {
+            addEverything();
+        }
+        for (Map.Entry<Long, TreeSet<Long>> entry : other.mDatesByLocation.entrySet()) {
+            for (long date : entry.getValue()) {
+                add(entry.getKey(), date);
+            }
+        }
+    }
+
+    boolean isEmpty() {
+        return !mEverything && mDatesByLocation.isEmpty();
+    }
+
+    void clear() {
+        mEverything = false;
+        mDatesByLocation.clear();
+    }
+
+    /**
+     * @return the URIs to notify, reading the location settings from the database
+     */
+    List<Uri> getUris(SQLiteDatabase db) {
+        List<Uri> uris = new ArrayList<Uri>();
+        if (isEmpty()) {
+            return uris;
+        }
+        if (mEverything) {
+            uris.add(WeatherEntry.CONTENT_URI);
+            return uris;
+        }
+
+        SQLiteStatement selectSetting = db.compileStatement(SELECT_SETTING_STATEMENT);
+        try {
+            for (Map.Entry<Long, TreeSet<Long>> entry : mDatesByLocation.entrySet()) {
+                String locationSetting;
+                selectSetting.bindLong(1, entry.getKey());
+                try {
+                    locationSetting = selectSetting.simpleQueryForString();
+                } catch (SQLiteDoneException e) {
+                    // The location is gone, so its observers can't be told apart
+                    uris.clear();
+                    uris.add(WeatherEntry.CONTENT_URI);
+                    return uris;
+                }
+
+                TreeSet<Long> dates = entry.getValue();
+                if (dates.size() == 1) {
+                    uris.add(WeatherEntry.buildWeatherLocationWithDate(locationSetting,
+                            dates.first()));
+                } else {
+                    long[] changed = new long[dates.size()];
+                    int i = 0;
+                    for (long date : dates) {
+                        changed[i++] = date;
+                    }
+                    uris.add(WeatherEntry.buildWeatherLocationWithChangedDates(locationSetting,
+                            changed));
+                }
+            }
+        } finally {
+            selectSetting.close();
+        }
+        return uris;
+    }
+}
@@ -19,7 +19,10 @@ import android.content.ContentResolver;
 import android.content.ContentUris;
 import android.net.Uri;
 import android.provider.BaseColumns;
-import android.text.format.Time;
+
+import com.axolotl.sunshine.core.WeatherDates;
+
+import java.util.List;
 
 /**
  * Defines table and column names for the weather database.
@@ -43,15 +46,14 @@ public class WeatherContract {
     // At least, let's hope not.  Don't be that dev, reader.  Don't be that dev.
     public static final String PATH_WEATHER = "weather";
     public static final String PATH_LOCATION = "location";
+    public static final String PATH_SYNC_METRICS = "sync_metrics";
+    public static final String PATH_HOURLY = "hourly";
 
     // To make it easy to query for the exact date, we normalize all dates that go into
-    // the database to the start of the the Julian day at UTC.
+    // the database to the start of their day.  Done in sunshine-core without a Time object, as
+    // every date written and every date in a query goes through here.
     public static long normalizeDate(long startDate) {
-        // normalize the start date to the beginning of the (UTC) day
-        Time time = new Time();
-        time.set(startDate);
-        int julianDay = Time.getJulianDay(startDate, time.gmtoff);
-        return time.setJulianDay(julianDay);
+        return WeatherDates.normalizeDate(startDate);
     }
 
     /* Inner class that defines the table contents of the location table */
@@ -81,6 +83,13 @@ public class WeatherContract {
         public static final String COLUMN_COORD_LAT = "coord_lat";
         public static final String COLUMN_COORD_LONG = "coord_long";
 
+        // Provider call() method that returns the id of the location with the given setting,
+        // inserting it first if it doesn't exist yet, in one transaction.  Takes the location's
+        // ContentValues under EXTRA_VALUES and returns the id under EXTRA_LOCATION_ID.
+        public static final String METHOD_INSERT_OR_GET = "insert_or_get_location";
+        public static final String EXTRA_VALUES = "values";
+        public static final String EXTRA_LOCATION_ID = "location_id";
+
         public static Uri buildLocationUri(long id) {
             return ContentUris.withAppendedId(CONTENT_URI, id);
         }
@@ -99,6 +108,57 @@ public class WeatherContract {
 
         public static final String TABLE_NAME = "weather";
 
+        // Index on (location_id, date), which the forecast queries for a location range over
+        public static final String INDEX_LOCATION_DATE = "weather_location_date";
+
+        // Provider call() method that writes weather rows as a delta against the stored ones.
+        // Takes the rows as a ContentValues array under EXTRA_VALUES and returns how many rows
+        // were inserted, updated in place and left unchanged.
+        // The rows can instead travel as one primitive array per column under the EXTRA_ keys
+        // from EXTRA_LOCATION_IDS on, all of the same length, see WeatherRows.
+        // A complete row inserted on its own or in applyBatch() is upserted the same way, and
+        // its result has the row's uri whether it was new or not, see PARAM_BATCH_STATS.
+        public static final String METHOD_UPSERT = "upsert_weather";
+        public static final String EXTRA_VALUES = "values";
+        public static final String EXTRA_LOCATION_IDS = "location_ids";
+        public static final String EXTRA_DATES = "dates";
+        public static final String EXTRA_WEATHER_IDS = "weather_ids";
+        public static final String EXTRA_SHORT_DESCS = "short_descs";
+        public static final String EXTRA_MIN_TEMPS = "min_temps";
+        public static final String EXTRA_MAX_TEMPS = "max_temps";
+        public static final String EXTRA_HUMIDITIES = "humidities";
+        public static final String EXTRA_PRESSURES = "pressures";
+        public static final String EXTRA_WIND_SPEEDS = "wind_speeds";
+        public static final String EXTRA_DEGREES = "degrees";
+        public static final String EXTRA_INSERTED = "inserted";
+        public static final String EXTRA_UPDATED = "updated";
+        public static final String EXTRA_UNCHANGED = "unchanged";
+
+        // Weather inserts in applyBatch() on a uri built by buildWeatherUriWithBatchStats() count
+        // how many of their rows were inserted, updated in place and left unchanged under the
+        // key of the uri, and weather deletes on it how long they took.  Once the batch is
+        // committed, METHOD_TAKE_BATCH_STATS with the key as arg returns the counts under
+        // EXTRA_INSERTED, EXTRA_UPDATED and EXTRA_UNCHANGED and the time, in microseconds,
+        // under EXTRA_DELETE_DURATION, and forgets them.  A batch that failed leaves nothing to
+        // take, so everything is 0.
+        public static final String PARAM_BATCH_STATS = "batch_stats";
+        public static final String METHOD_TAKE_BATCH_STATS = "take_batch_stats";
+        public static final String EXTRA_DELETE_DURATION = "delete_duration";
+
+        // Provider call() method that reports on the in-memory cache of the weather queries for
+        // a location: how many were answered from it and how many ran against the database
+        // since the provider started, and how many results and estimated bytes it holds now.
+        public static final String METHOD_GET_QUERY_CACHE_STATS = "get_query_cache_stats";
+        public static final String EXTRA_CACHE_HITS = "cache_hits";
+        public static final String EXTRA_CACHE_MISSES = "cache_misses";
+        public static final String EXTRA_CACHE_BYTES = "cache_bytes";
+        public static final String EXTRA_CACHE_ENTRIES = "cache_entries";
+
+        // Writes notify the narrowest uri that covers the rows they changed: one day of a
+        // location, several days of a location, listed once each under this query parameter,
+        // or CONTENT_URI when they can't tell.  See getChangedDatesFromUri().
+        public static final String PARAM_CHANGED_DATE = "changed_date";
+
         // Column with the foreign key into the location table.
         public static final String COLUMN_LOC_KEY = "location_id";
         // Date, stored as long in milliseconds since the epoch
@@ -133,6 +193,10 @@ public class WeatherContract {
         /*
             Student: This is the buildWeatherLocation function you filled in.
          */
+        public static Uri buildWeatherUriWithBatchStats(String key) {
+            return CONTENT_URI.buildUpon().appendQueryParameter(PARAM_BATCH_STATS, key).build();
+        }
+
         public static Uri buildWeatherLocation(String locationSetting) {
             return CONTENT_URI.buildUpon().appendPath(locationSetting).build();
         }
@@ -149,10 +213,42 @@ public class WeatherContract {
                     .appendPath(Long.toString(normalizeDate(date))).build();
         }
 
+        public static Uri buildWeatherLocationWithChangedDates(String locationSetting,
+                                                               long[] dates) {
+            Uri.Builder builder = CONTENT_URI.buildUpon().appendPath(locationSetting);
+            for (long date : dates) {
+                builder.appendQueryParameter(PARAM_CHANGED_DATE,
+                        Long.toString(normalizeDate(date)));
+            }
+            return builder.build();
+        }
+
         public static String getLocationSettingFromUri(Uri uri) {
             return uri.getPathSegments().get(1);
         }
 
+        /**
+         * Lets an observer that gets the changed uri in onChange() tell which rows changed.
+         *
+         * @return the dates of the uri's location whose rows changed, or null if the uri doesn't
+         * say, in which case any weather under it may have changed
+         */
+        public static long[] getChangedDatesFromUri(Uri uri) {
+            List<String> segments = uri.getPathSegments();
+            if (segments.size() > 2) {
+                return new long[] {Long.parseLong(segments.get(2))};
+            }
+            List<String> changed = uri.getQueryParameters(PARAM_CHANGED_DATE);
+            if (segments.size() < 2 || changed.isEmpty()) {
+                return null;
+            }
+            long[] dates = new long[changed.size()];
+            for (int i = 0; i < dates.length; i++) {
+                dates[i] = Long.parseLong(changed.get(i));
+            }
+            return dates;
+        }
+
         public static long getDateFromUri(Uri uri) {
             return Long.parseLong(uri.getPathSegments().get(2));
         }
@@ -165,4 +261,125 @@ public class WeatherContract {
                 return 0;
         }
     }
+
+    /* Inner class that defines the table contents of the 3-hour forecast table */
+    public static final class HourlyEntry implements BaseColumns {
+
+        public static final Uri CONTENT_URI =
+                BASE_CONTENT_URI.buildUpon().appendPath(PATH_HOURLY).build();
+
+        public static final String CONTENT_TYPE =
+                ContentResolver.CURSOR_DIR_BASE_TYPE + "/" + CONTENT_AUTHORITY + "/" + PATH_HOURLY;
+
+        public static final String TABLE_NAME = "hourly";
+
+        // Points older than this are deleted whenever a new forecast is written
+        public static final long RETENTION_MILLIS = 24 * 60 * 60 * 1000;
+
+        // Provider call() method that replaces a location's forecast from its first point on.
+        // The points travel as one primitive array per column under the EXTRA_ keys below, all
+        // of the same length, instead of one ContentValues per point.  Returns how many points
+        // were written under EXTRA_INSERTED.
+        public static final String METHOD_REPLACE = "replace_hourly";
+        public static final String EXTRA_LOCATION_ID = "location_id";
+        public static final String EXTRA_TIMES = "times";
+        public static final String EXTRA_WEATHER_IDS = "weather_ids";
+        public static final String EXTRA_SHORT_DESCS = "short_descs";
+        public static final String EXTRA_TEMPS = "temps";
+        public static final String EXTRA_HUMIDITIES = "humidities";
+        public static final String EXTRA_PRESSURES = "pressures";
+        public static final String EXTRA_WIND_SPEEDS = "wind_speeds";
+        public static final String EXTRA_DEGREES = "degrees";
+        public static final String EXTRA_INSERTED = "inserted";
+
+        // Column with the foreign key into the location table.
+        public static final String COLUMN_LOC_KEY = "location_id";
+        // Start of the 3 hour period, stored as long in milliseconds since the epoch.  Unlike
+        // the weather table's date it is not normalized.
+        public static final String COLUMN_TIME = "time";
+        // Weather id as returned by API, to identify the icon to be used
+        public static final String COLUMN_WEATHER_ID = "weather_id";
+        // Short description of the weather, as provided by API
+        public static final String COLUMN_SHORT_DESC = "short_desc";
+        // Temperature at that time, stored as a float
+        public static final String COLUMN_TEMP = "temp";
+        // Humidity is stored as a float representing percentage
+        public static final String COLUMN_HUMIDITY = "humidity";
+        // Pressure is stored as a float in hPa
+        public static final String COLUMN_PRESSURE = "pressure";
+        // Windspeed is stored as a float
+        public static final String COLUMN_WIND_SPEED = "wind";
+        // Degrees are meteorological degrees (e.g, 0 is north, 180 is south).  Stored as floats.
+        public static final String COLUMN_DEGREES = "degrees";
+
+        public static Uri buildHourlyLocation(String locationSetting) {
+            return CONTENT_URI.buildUpon().appendPath(locationSetting).build();
+        }
+
+        public static Uri buildHourlyLocationWithStartTime(String locationSetting,
+                                                           long startTime) {
+            return CONTENT_URI.buildUpon().appendPath(locationSetting)
+                    .appendQueryParameter(COLUMN_TIME, Long.toString(startTime)).build();
+        }
+
+        public static String getLocationSettingFromUri(Uri uri) {
+            return uri.getPathSegments().get(1);
+        }
+
+        public static long getStartTimeFromUri(Uri uri) {
+            String timeString = uri.getQueryParameter(COLUMN_TIME);
+            if (null != timeString && timeString.length() > 0)
+                return Long.parseLong(timeString);
+            else
+                return 0;
+        }
+    }
+
+    /* Inner class that defines the table contents of the sync metrics table */
+    public static final class SyncMetricsEntry implements BaseColumns {
+
+        public static final Uri CONTENT_URI =
+                BASE_CONTENT_URI.buildUpon().appendPath(PATH_SYNC_METRICS).build();
+
+        public static final String CONTENT_TYPE =
+                ContentResolver.CURSOR_DIR_BASE_TYPE + "/" + CONTENT_AUTHORITY + "/" + PATH_SYNC_METRICS;
+
+        public static final String TABLE_NAME = "sync_metrics";
+
+        // When the sync this stage belongs to started, in milliseconds since the epoch.  Every
+        // stage of one sync shares the same value.
+        public static final String COLUMN_SYNC_TIME = "sync_time";
+
+        // Location setting the stage ran for
+        public static final String COLUMN_LOCATION_SETTING = "location_setting";
+
+        // Stage name, one of the STAGE_ values
+        public static final String COLUMN_STAGE = "stage";
+
+        // How long the stage took, in microseconds
+        public static final String COLUMN_DURATION = "duration_us";
+
+        // Bytes the stage moved, where that means something (the body download and the parse),
+        // otherwise null
+        public static final String COLUMN_BYTES = "bytes";
+
+        public static final String STAGE_CONNECT = "connect";
+        public static final String STAGE_FIRST_BYTE = "first_byte";
+        public static final String STAGE_DOWNLOAD = "download";
+        public static final String STAGE_PARSE = "parse";
+        public static final String STAGE_ADD_LOCATION = "add_location";
+        // The forecast's batch, less its retention delete
+        public static final String STAGE_BULK_INSERT = "bulk_insert";
+        // The retention delete, as timed by the provider inside the batch
+        public static final String STAGE_RETENTION_DELETE = "retention_delete";
+        public static final String STAGE_HOURLY_FETCH = "hourly_fetch";
+        public static final String STAGE_HOURLY_INSERT = "hourly_insert";
+        public static final String STAGE_WRITE_SNAPSHOT = "write_snapshot";
+        public static final String STAGE_UPDATE_WIDGETS = "update_widgets";
+        public static final String STAGE_UPDATE_MUZEI = "update_muzei";
+        public static final String STAGE_NOTIFY_WEATHER = "notify_weather";
+        public static final String STAGE_UPDATE_WATCH = "update_watch";
+        public static final String STAGE_PREFETCH_ART = "prefetch_art";
+        public static final String STAGE_TOTAL = "total";
+    }
 }
@@ -15,24 +15,130 @@
  */
 package com.axolotl.sunshine.data;
 
+import android.annotation.TargetApi;
 import android.content.Context;
 import android.database.sqlite.SQLiteDatabase;
 import android.database.sqlite.SQLiteOpenHelper;
+import android.os.Build;
+import android.util.Log;
+
+import com.axolotl.sunshine.data.WeatherContract.HourlyEntry;
 import com.axolotl.sunshine.data.WeatherContract.LocationEntry;
+import com.axolotl.sunshine.data.WeatherContract.SyncMetricsEntry;
 import com.axolotl.sunshine.data.WeatherContract.WeatherEntry;
 
 /**
  * Manages a local database for weather data.
  */
 public class WeatherDbHelper extends SQLiteOpenHelper {
+    private static final String LOG_TAG = WeatherDbHelper.class.getSimpleName();
 
     // If you change the database schema, you must increment the database version.
-    private static final int DATABASE_VERSION = 2;
+    static final int DATABASE_VERSION = 5;
 
     static final String DATABASE_NAME = "weather.db";
 
+    // The forecast queries pick a location and then a range of dates from it.  The UNIQUE
+    // constraint's index leads with the date, so give them one that leads with the location.
+    // location_setting needs nothing more, its UNIQUE column constraint already indexes it.
+    private static final String SQL_CREATE_WEATHER_LOCATION_DATE_INDEX =
+            "CREATE INDEX IF NOT EXISTS " + WeatherEntry.INDEX_LOCATION_DATE + " ON " +
+            WeatherEntry.TABLE_NAME + " (" + WeatherEntry.COLUMN_LOC_KEY + ", " +
+            WeatherEntry.COLUMN_DATE + ");";
+
+    // The oldest version the migrations below start from.  Anything older is thrown away.
+    private static final int OLDEST_MIGRATABLE_VERSION = 2;
+
+    /**
+     * One step of the schema's history, taking a database from one version to the next while
+     * keeping its rows.
+     */
+    private interface Migration {
+        void migrate(SQLiteDatabase db);
+    }
+
+    // MIGRATIONS[i] takes a database from version OLDEST_MIGRATABLE_VERSION + i to the one after.
+    // Add a step here for every version bump, and leave the old ones alone: a step must do
+    // exactly what the schema at its version needed, whatever the tables look like today.
+    private static final Migration[] MIGRATIONS = {
+            // 2 -> 3: sync timings
+            new Migration() {
+                @Override
+                public void migrate(SQLiteDatabase db) {
+                    db.execSQL("CREATE TABLE " + SyncMetricsEntry.TABLE_NAME + " (" +
+                            SyncMetricsEntry._ID + " INTEGER PRIMARY KEY AUTOINCREMENT," +
+                            SyncMetricsEntry.COLUMN_SYNC_TIME + " INTEGER NOT NULL, " +
+                            SyncMetricsEntry.COLUMN_LOCATION_SETTING + " TEXT NOT NULL, " +
+                            SyncMetricsEntry.COLUMN_STAGE + " TEXT NOT NULL, " +
+                            SyncMetricsEntry.COLUMN_DURATION + " INTEGER NOT NULL, " +
+                            SyncMetricsEntry.COLUMN_BYTES + " INTEGER " +
+                            " );");
+                }
+            },
+            // 3 -> 4: the 3-hour forecast
+            new Migration() {
+                @Override
+                public void migrate(SQLiteDatabase db) {
+                    db.execSQL("CREATE TABLE " + HourlyEntry.TABLE_NAME + " (" +
+                            HourlyEntry._ID + " INTEGER PRIMARY KEY AUTOINCREMENT," +
+                            HourlyEntry.COLUMN_LOC_KEY + " INTEGER NOT NULL, " +
+                            HourlyEntry.COLUMN_TIME + " INTEGER NOT NULL, " +
+                            HourlyEntry.COLUMN_WEATHER_ID + " INTEGER NOT NULL, " +
+                            HourlyEntry.COLUMN_SHORT_DESC + " TEXT NOT NULL, " +
+                            HourlyEntry.COLUMN_TEMP + " REAL NOT NULL, " +
+                            HourlyEntry.COLUMN_HUMIDITY + " REAL NOT NULL, " +
+                            HourlyEntry.COLUMN_PRESSURE + " REAL NOT NULL, " +
+                            HourlyEntry.COLUMN_WIND_SPEED + " REAL NOT NULL, " +
+                            HourlyEntry.COLUMN_DEGREES + " REAL NOT NULL, " +
+                            " FOREIGN KEY (" + HourlyEntry.COLUMN_LOC_KEY + ") REFERENCES " +
+                            LocationEntry.TABLE_NAME + " (" + LocationEntry._ID + "), " +
+                            " UNIQUE (" + HourlyEntry.COLUMN_LOC_KEY + ", " +
+                            HourlyEntry.COLUMN_TIME + ") ON CONFLICT REPLACE);");
+                }
+            },
+            // 4 -> 5: location first index for the forecast queries
+            new Migration() {
+                @Override
+                public void migrate(SQLiteDatabase db) {
+                    db.execSQL(SQL_CREATE_WEATHER_LOCATION_DATE_INDEX);
+                }
+            }
+    };
+
+    private final StorageProfile mProfile;
+
     public WeatherDbHelper(Context context) {
-        super(context, DATABASE_NAME, null, DATABASE_VERSION);
+        this(context, DATABASE_NAME, StorageProfile.TUNED);
+    }
+
+    /**
+     * Opens the database in the file with the profile, so benchmarks can compare profiles on
+     * databases of their own.
+     */
+    WeatherDbHelper(Context context, String name, StorageProfile profile) {
+        super(context, name, null, DATABASE_VERSION);
+        mProfile = profile;
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.JELLY_BEAN) {
+            setWriteAheadLoggingEnabled(profile.mWriteAheadLogging);
+        }
+    }
+
+    @Override
+    @TargetApi(Build.VERSION_CODES.JELLY_BEAN)
+    public void onConfigure(SQLiteDatabase db) {
+        // Before onCreate() and onUpgrade(), so migrations get the profile too
+        mProfile.applyPragmas(db);
+    }
+
+    @Override
+    public void onOpen(SQLiteDatabase db) {
+        if (Build.VERSION.SDK_INT < Build.VERSION_CODES.JELLY_BEAN) {
+            // No onConfigure() or setWriteAheadLoggingEnabled() yet
+            if (mProfile.mWriteAheadLogging && !db.isReadOnly()) {
+                db.enableWriteAheadLogging();
+            }
+            mProfile.applyPragmas(db);
+        }
     }
 
     @Override
@@ -78,20 +184,69 @@ public class WeatherDbHelper extends SQLiteOpenHelper {
                 " UNIQUE (" + WeatherEntry.COLUMN_DATE + ", " +
                 WeatherEntry.COLUMN_LOC_KEY + ") ON CONFLICT REPLACE);";
 
+        // One row per stage per location per sync, so slow stages can be spotted over time
+        final String SQL_CREATE_SYNC_METRICS_TABLE = "CREATE TABLE " + SyncMetricsEntry.TABLE_NAME + " (" +
+                SyncMetricsEntry._ID + " INTEGER PRIMARY KEY AUTOINCREMENT," +
+                SyncMetricsEntry.COLUMN_SYNC_TIME + " INTEGER NOT NULL, " +
+                SyncMetricsEntry.COLUMN_LOCATION_SETTING + " TEXT NOT NULL, " +
+                SyncMetricsEntry.COLUMN_STAGE + " TEXT NOT NULL, " +
+                SyncMetricsEntry.COLUMN_DURATION + " INTEGER NOT NULL, " +
+                SyncMetricsEntry.COLUMN_BYTES + " INTEGER " +
+                " );";
+
+        // One row per 3 hour forecast point per location
+        final String SQL_CREATE_HOURLY_TABLE = "CREATE TABLE " + HourlyEntry.TABLE_NAME + " (" +
+                HourlyEntry._ID + " INTEGER PRIMARY KEY AUTOINCREMENT," +
+                HourlyEntry.COLUMN_LOC_KEY + " INTEGER NOT NULL, " +
+                HourlyEntry.COLUMN_TIME + " INTEGER NOT NULL, " +
+                HourlyEntry.COLUMN_WEATHER_ID + " INTEGER NOT NULL, " +
+                HourlyEntry.COLUMN_SHORT_DESC + " TEXT NOT NULL, " +
+                HourlyEntry.COLUMN_TEMP + " REAL NOT NULL, " +
+                HourlyEntry.COLUMN_HUMIDITY + " REAL NOT NULL, " +
+                HourlyEntry.COLUMN_PRESSURE + " REAL NOT NULL, " +
+                HourlyEntry.COLUMN_WIND_SPEED + " REAL NOT NULL, " +
+                HourlyEntry.COLUMN_DEGREES + " REAL NOT NULL, " +
+
+                " FOREIGN KEY (" + HourlyEntry.COLUMN_LOC_KEY + ") REFERENCES " +
+                LocationEntry.TABLE_NAME + " (" + LocationEntry._ID + "), " +
+
+                // One point per time per location, which also indexes the range queries
+                " UNIQUE (" + HourlyEntry.COLUMN_LOC_KEY + ", " +
+                HourlyEntry.COLUMN_TIME + ") ON CONFLICT REPLACE);";
+
         sqLiteDatabase.execSQL(SQL_CREATE_LOCATION_TABLE);
         sqLiteDatabase.execSQL(SQL_CREATE_WEATHER_TABLE);
+        sqLiteDatabase.execSQL(SQL_CREATE_SYNC_METRICS_TABLE);
+        sqLiteDatabase.execSQL(SQL_CREATE_HOURLY_TABLE);
+        sqLiteDatabase.execSQL(SQL_CREATE_WEATHER_LOCATION_DATE_INDEX);
     }
 
     @Override
     public void onUpgrade(SQLiteDatabase sqLiteDatabase, int oldVersion, int newVersion) {
-        // This database is only a cache for online data, so its upgrade policy is
-        // to simply to discard the data and start over
         // Note that this only fires if you change the version number for your database.
         // It does NOT depend on the version number for your application.
-        // If you want to update the schema without wiping data, commenting out the next 2 lines
-        // should be your top priority before modifying this method.
+        if (oldVersion < OLDEST_MIGRATABLE_VERSION
+                || newVersion > OLDEST_MIGRATABLE_VERSION + MIGRATIONS.length) {
+            // No way to get there from here.  This database is only a cache for online data,
+            // so discard the data and start over.
+            Log.w(LOG_TAG, "No migration from version " + oldVersion + " to " + newVersion
+                    + ", recreating the database");
+            recreate(sqLiteDatabase);
+            return;
+        }
+        // SQLiteOpenHelper runs this in a transaction, so either every step is applied or the
+        // database stays at oldVersion
+        for (int version = oldVersion; version < newVersion; version++) {
+            MIGRATIONS[version - OLDEST_MIGRATABLE_VERSION].migrate(sqLiteDatabase);
+        }
+    }
+
+    private void recreate(SQLiteDatabase sqLiteDatabase) {
+        LocationRegistry.invalidate();
         sqLiteDatabase.execSQL("DROP TABLE IF EXISTS " + LocationEntry.TABLE_NAME);
         sqLiteDatabase.execSQL("DROP TABLE IF EXISTS " + WeatherEntry.TABLE_NAME);
+        sqLiteDatabase.execSQL("DROP TABLE IF EXISTS " + SyncMetricsEntry.TABLE_NAME);
+        sqLiteDatabase.execSQL("DROP TABLE IF EXISTS " + HourlyEntry.TABLE_NAME);
         onCreate(sqLiteDatabase);
     }
 }
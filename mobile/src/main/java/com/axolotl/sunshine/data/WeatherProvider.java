@@ -17,12 +17,27 @@ package com.axolotl.sunshine.data;
 
 import android.annotation.TargetApi;
 import android.content.ContentProvider;
+import android.content.ContentProviderOperation;
+import android.content.ContentProviderResult;
+import android.content.ContentUris;
 import android.content.ContentValues;
+import android.content.OperationApplicationException;
 import android.content.UriMatcher;
 import android.database.Cursor;
 import android.database.sqlite.SQLiteDatabase;
 import android.database.sqlite.SQLiteQueryBuilder;
+import android.database.sqlite.SQLiteStatement;
 import android.net.Uri;
+import android.os.Bundle;
+import android.os.Parcelable;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.TimeZone;
 
 public class WeatherProvider extends ContentProvider {
 
@@ -30,12 +45,29 @@ public class WeatherProvider extends ContentProvider {
     private static final UriMatcher sUriMatcher = buildUriMatcher();
     private WeatherDbHelper mOpenHelper;
 
+    // Results of the weather queries for a location, see queryWeatherByLocationSetting()
+    private final QueryCache mQueryCache = new QueryCache();
+
+    // Most operations applyBatch() runs without a yield point, so that no batch can keep the
+    // database from readers and other writers for long
+    private static final int MAX_OPERATIONS_PER_YIELD_POINT = 500;
+
+    // The batch applyBatch() is running on this thread, if any
+    private final ThreadLocal<Batch> mBatch = new ThreadLocal<Batch>();
+
+    // Stats of committed batches by their PARAM_BATCH_STATS key, until METHOD_TAKE_BATCH_STATS
+    private final HashMap<String, BatchStats> mBatchStats = new HashMap<String, BatchStats>();
+
     static final int WEATHER = 100;
     static final int WEATHER_WITH_LOCATION = 101;
     static final int WEATHER_WITH_LOCATION_AND_DATE = 102;
     static final int LOCATION = 300;
+    static final int SYNC_METRICS = 400;
+    static final int HOURLY = 500;
+    static final int HOURLY_WITH_LOCATION = 501;
 
     private static final SQLiteQueryBuilder sWeatherByLocationSettingQueryBuilder;
+    private static final SQLiteQueryBuilder sHourlyByLocationSettingQueryBuilder;
 
     static{
         sWeatherByLocationSettingQueryBuilder = new SQLiteQueryBuilder();
@@ -49,6 +81,16 @@ public class WeatherProvider extends ContentProvider {
                         "." + WeatherContract.WeatherEntry.COLUMN_LOC_KEY +
                         " = " + WeatherContract.LocationEntry.TABLE_NAME +
                         "." + WeatherContract.LocationEntry._ID);
+
+        //hourly INNER JOIN location ON hourly.location_id = location._id
+        sHourlyByLocationSettingQueryBuilder = new SQLiteQueryBuilder();
+        sHourlyByLocationSettingQueryBuilder.setTables(
+                WeatherContract.HourlyEntry.TABLE_NAME + " INNER JOIN " +
+                        WeatherContract.LocationEntry.TABLE_NAME +
+                        " ON " + WeatherContract.HourlyEntry.TABLE_NAME +
+                        "." + WeatherContract.HourlyEntry.COLUMN_LOC_KEY +
+                        " = " + WeatherContract.LocationEntry.TABLE_NAME +
+                        "." + WeatherContract.LocationEntry._ID);
     }
 
     //location.location_setting = ?
@@ -68,6 +110,30 @@ public class WeatherProvider extends ContentProvider {
                     "." + WeatherContract.LocationEntry.COLUMN_LOCATION_SETTING + " = ? AND " +
                     WeatherContract.WeatherEntry.COLUMN_DATE + " = ? ";
 
+    //location.location_setting = ? AND time >= ?
+    private static final String sLocationSettingWithStartTimeSelection =
+            WeatherContract.LocationEntry.TABLE_NAME+
+                    "." + WeatherContract.LocationEntry.COLUMN_LOCATION_SETTING + " = ? AND " +
+                    WeatherContract.HourlyEntry.COLUMN_TIME + " >= ? ";
+
+    //hourly.location_id = ? AND time >= ?
+    private static final String sHourlyFromTimeSelection =
+            WeatherContract.HourlyEntry.COLUMN_LOC_KEY + " = ? AND " +
+                    WeatherContract.HourlyEntry.COLUMN_TIME + " >= ?";
+
+    private static final String sHourlyInsertStatement =
+            "INSERT INTO " + WeatherContract.HourlyEntry.TABLE_NAME + " (" +
+                    WeatherContract.HourlyEntry.COLUMN_LOC_KEY + ", " +
+                    WeatherContract.HourlyEntry.COLUMN_TIME + ", " +
+                    WeatherContract.HourlyEntry.COLUMN_WEATHER_ID + ", " +
+                    WeatherContract.HourlyEntry.COLUMN_SHORT_DESC + ", " +
+                    WeatherContract.HourlyEntry.COLUMN_TEMP + ", " +
+                    WeatherContract.HourlyEntry.COLUMN_HUMIDITY + ", " +
+                    WeatherContract.HourlyEntry.COLUMN_PRESSURE + ", " +
+                    WeatherContract.HourlyEntry.COLUMN_WIND_SPEED + ", " +
+                    WeatherContract.HourlyEntry.COLUMN_DEGREES +
+                    ") VALUES (?, ?, ?, ?, ?, ?, ?, ?, ?)";
+
     private Cursor getWeatherByLocationSetting(Uri uri, String[] projection, String sortOrder) {
         String locationSetting = WeatherContract.WeatherEntry.getLocationSettingFromUri(uri);
         long startDate = WeatherContract.WeatherEntry.getStartDateFromUri(uri);
@@ -108,6 +174,59 @@ public class WeatherProvider extends ContentProvider {
         );
     }
 
+    private Cursor getHourlyByLocationSetting(Uri uri, String[] projection, String sortOrder) {
+        String locationSetting = WeatherContract.HourlyEntry.getLocationSettingFromUri(uri);
+        long startTime = WeatherContract.HourlyEntry.getStartTimeFromUri(uri);
+
+        String[] selectionArgs;
+        String selection;
+
+        if (startTime == 0) {
+            selection = sLocationSettingSelection;
+            selectionArgs = new String[]{locationSetting};
+        } else {
+            selectionArgs = new String[]{locationSetting, Long.toString(startTime)};
+            selection = sLocationSettingWithStartTimeSelection;
+        }
+
+        return sHourlyByLocationSettingQueryBuilder.query(mOpenHelper.getReadableDatabase(),
+                projection,
+                selection,
+                selectionArgs,
+                null,
+                null,
+                sortOrder
+        );
+    }
+
+    /*
+        Answers a weather query for a location from the cache, or runs it and caches its result.
+        A query inside a transaction of this thread could see writes that aren't committed yet,
+        so it doesn't touch the cache.
+     */
+    private Cursor queryWeatherByLocationSetting(
+            int match, Uri uri, String[] projection, String sortOrder) {
+        boolean byDate = match == WEATHER_WITH_LOCATION_AND_DATE;
+        if (mOpenHelper.getReadableDatabase().inTransaction()) {
+            return byDate ? getWeatherByLocationSettingAndDate(uri, projection, sortOrder)
+                    : getWeatherByLocationSetting(uri, projection, sortOrder);
+        }
+
+        String locationSetting = WeatherContract.WeatherEntry.getLocationSettingFromUri(uri);
+        long date = byDate ? WeatherContract.WeatherEntry.getDateFromUri(uri)
+                : WeatherContract.WeatherEntry.getStartDateFromUri(uri);
+        String key = QueryCache.key(match, locationSetting, date, projection, sortOrder);
+        Cursor cursor = mQueryCache.get(key);
+        if (cursor != null) {
+            return cursor;
+        }
+
+        long generation = mQueryCache.getGeneration();
+        cursor = byDate ? getWeatherByLocationSettingAndDate(uri, projection, sortOrder)
+                : getWeatherByLocationSetting(uri, projection, sortOrder);
+        return mQueryCache.put(key, match, locationSetting, date, cursor, generation);
+    }
+
     /*
         Students: Here is where you need to create the UriMatcher. This UriMatcher will
         match each URI to the WEATHER, WEATHER_WITH_LOCATION, WEATHER_WITH_LOCATION_AND_DATE,
@@ -130,6 +249,11 @@ public class WeatherProvider extends ContentProvider {
         matcher.addURI(authority, WeatherContract.PATH_WEATHER + "/*/#", WEATHER_WITH_LOCATION_AND_DATE);
 
         matcher.addURI(authority, WeatherContract.PATH_LOCATION, LOCATION);
+
+        matcher.addURI(authority, WeatherContract.PATH_SYNC_METRICS, SYNC_METRICS);
+
+        matcher.addURI(authority, WeatherContract.PATH_HOURLY, HOURLY);
+        matcher.addURI(authority, WeatherContract.PATH_HOURLY + "/*", HOURLY_WITH_LOCATION);
         return matcher;
     }
 
@@ -164,6 +288,11 @@ public class WeatherProvider extends ContentProvider {
                 return WeatherContract.WeatherEntry.CONTENT_TYPE;
             case LOCATION:
                 return WeatherContract.LocationEntry.CONTENT_TYPE;
+            case SYNC_METRICS:
+                return WeatherContract.SyncMetricsEntry.CONTENT_TYPE;
+            case HOURLY:
+            case HOURLY_WITH_LOCATION:
+                return WeatherContract.HourlyEntry.CONTENT_TYPE;
             default:
                 throw new UnsupportedOperationException("Unknown uri: " + uri);
         }
@@ -175,16 +304,13 @@ public class WeatherProvider extends ContentProvider {
         // Here's the switch statement that, given a URI, will determine what kind of request it is,
         // and query the database accordingly.
         Cursor retCursor;
-        switch (sUriMatcher.match(uri)) {
+        final int match = sUriMatcher.match(uri);
+        switch (match) {
             // "weather/*/*"
             case WEATHER_WITH_LOCATION_AND_DATE:
-            {
-                retCursor = getWeatherByLocationSettingAndDate(uri, projection, sortOrder);
-                break;
-            }
             // "weather/*"
             case WEATHER_WITH_LOCATION: {
-                retCursor = getWeatherByLocationSetting(uri, projection, sortOrder);
+                retCursor = queryWeatherByLocationSetting(match, uri, projection, sortOrder);
                 break;
             }
             // "weather"
@@ -213,6 +339,37 @@ public class WeatherProvider extends ContentProvider {
                 );
                 break;
             }
+            // "sync_metrics"
+            case SYNC_METRICS: {
+                retCursor = mOpenHelper.getReadableDatabase().query(
+                        WeatherContract.SyncMetricsEntry.TABLE_NAME,
+                        projection,
+                        selection,
+                        selectionArgs,
+                        null,
+                        null,
+                        sortOrder
+                );
+                break;
+            }
+            // "hourly/*"
+            case HOURLY_WITH_LOCATION: {
+                retCursor = getHourlyByLocationSetting(uri, projection, sortOrder);
+                break;
+            }
+            // "hourly"
+            case HOURLY: {
+                retCursor = mOpenHelper.getReadableDatabase().query(
+                        WeatherContract.HourlyEntry.TABLE_NAME,
+                        projection,
+                        selection,
+                        selectionArgs,
+                        null,
+                        null,
+                        sortOrder
+                );
+                break;
+            }
 
             default:
                 throw new UnsupportedOperationException("Unknown uri: " + uri);
@@ -229,15 +386,49 @@ public class WeatherProvider extends ContentProvider {
         final SQLiteDatabase db = mOpenHelper.getWritableDatabase();
         final int match = sUriMatcher.match(uri);
         Uri returnUri;
+        // Rows of the weather table tell their observers themselves, see notifyChanges()
+        WeatherChanges weatherChanges = null;
 
         switch (match) {
             case WEATHER: {
+                weatherChanges = new WeatherChanges();
+                Batch batch = mBatch.get();
+                BatchStats stats = batch != null ? batch.getStats(uri) : null;
+                WeatherRows rows = WeatherRows.fromValues(new ContentValues[] {values});
+                if (rows != null) {
+                    // A complete row is upserted like the sync's, so a day that is already
+                    // stored keeps its _id.  In a batch, every row shares the batch's writer.
+                    WeatherBatchWriter writer = batch != null
+                            ? batch.getWeatherWriter(db)
+                            : new WeatherBatchWriter(db);
+                    db.beginTransaction();
+                    try {
+                        int outcome = writer.writeRow(rows, 0, TimeZone.getDefault(),
+                                weatherChanges);
+                        returnUri = WeatherContract.WeatherEntry.buildWeatherUri(
+                                writer.getRowId());
+                        db.setTransactionSuccessful();
+                        if (stats != null) {
+                            stats.mCounts.add(outcome);
+                        }
+                    } finally {
+                        db.endTransaction();
+                        if (batch == null) {
+                            writer.close();
+                        }
+                    }
+                    break;
+                }
                 normalizeDate(values);
                 long _id = db.insert(WeatherContract.WeatherEntry.TABLE_NAME, null, values);
                 if ( _id > 0 )
                     returnUri = WeatherContract.WeatherEntry.buildWeatherUri(_id);
                 else
                     throw new android.database.SQLException("Failed to insert row into " + uri);
+                addChange(weatherChanges, values);
+                if (stats != null) {
+                    stats.mCounts.mInserted++;
+                }
                 break;
             }
             case LOCATION: {
@@ -248,10 +439,30 @@ public class WeatherProvider extends ContentProvider {
                     throw new android.database.SQLException("Failed to insert row into " + uri);
                 break;
             }
+            case SYNC_METRICS: {
+                long _id = db.insert(WeatherContract.SyncMetricsEntry.TABLE_NAME, null, values);
+                if ( _id > 0 )
+                    returnUri = ContentUris.withAppendedId(uri, _id);
+                else
+                    throw new android.database.SQLException("Failed to insert row into " + uri);
+                break;
+            }
+            case HOURLY: {
+                long _id = db.insert(WeatherContract.HourlyEntry.TABLE_NAME, null, values);
+                if ( _id > 0 )
+                    returnUri = ContentUris.withAppendedId(uri, _id);
+                else
+                    throw new android.database.SQLException("Failed to insert row into " + uri);
+                break;
+            }
             default:
                 throw new UnsupportedOperationException("Unknown uri: " + uri);
         }
-        getContext().getContentResolver().notifyChange(uri, null);
+        if (weatherChanges != null) {
+            notifyChanges(weatherChanges);
+        } else {
+            notifyChange(uri);
+        }
         return returnUri;
     }
 
@@ -259,7 +470,12 @@ public class WeatherProvider extends ContentProvider {
     public int delete(Uri uri, String selection, String[] selectionArgs) {
         final SQLiteDatabase db = mOpenHelper.getWritableDatabase();
         final int match = sUriMatcher.match(uri);
+        final long start = System.nanoTime();
         int rowsDeleted;
+        WeatherChanges weatherChanges = null;
+        if (match == WEATHER) {
+            weatherChanges = queryChanges(db, selection, selectionArgs);
+        }
         // this makes delete all rows return the number of rows deleted
         if ( null == selection ) selection = "1";
         switch (match) {
@@ -270,13 +486,33 @@ public class WeatherProvider extends ContentProvider {
             case LOCATION:
                 rowsDeleted = db.delete(
                         WeatherContract.LocationEntry.TABLE_NAME, selection, selectionArgs);
+                if (rowsDeleted != 0) {
+                    LocationRegistry.invalidate();
+                }
+                break;
+            case SYNC_METRICS:
+                rowsDeleted = db.delete(
+                        WeatherContract.SyncMetricsEntry.TABLE_NAME, selection, selectionArgs);
+                break;
+            case HOURLY:
+                rowsDeleted = db.delete(
+                        WeatherContract.HourlyEntry.TABLE_NAME, selection, selectionArgs);
                 break;
             default:
                 throw new UnsupportedOperationException("Unknown uri: " + uri);
         }
+        Batch batch = mBatch.get();
+        BatchStats stats = batch != null && match == WEATHER ? batch.getStats(uri) : null;
+        if (stats != null) {
+            stats.mDeleteNanos += System.nanoTime() - start;
+        }
         // Because a null deletes all rows
         if (rowsDeleted != 0) {
-            getContext().getContentResolver().notifyChange(uri, null);
+            if (weatherChanges != null) {
+                notifyChanges(weatherChanges);
+            } else {
+                notifyChange(uri);
+            }
         }
         return rowsDeleted;
     }
@@ -295,9 +531,16 @@ public class WeatherProvider extends ContentProvider {
         final SQLiteDatabase db = mOpenHelper.getWritableDatabase();
         final int match = sUriMatcher.match(uri);
         int rowsUpdated;
+        WeatherChanges weatherChanges = null;
 
         switch (match) {
             case WEATHER:
+                weatherChanges = queryChanges(db, selection, selectionArgs);
+                if (values.containsKey(WeatherContract.WeatherEntry.COLUMN_LOC_KEY)
+                        || values.containsKey(WeatherContract.WeatherEntry.COLUMN_DATE)) {
+                    // Rows move to a location or day they weren't read under
+                    weatherChanges.addEverything();
+                }
                 normalizeDate(values);
                 rowsUpdated = db.update(WeatherContract.WeatherEntry.TABLE_NAME, values, selection,
                         selectionArgs);
@@ -305,40 +548,669 @@ public class WeatherProvider extends ContentProvider {
             case LOCATION:
                 rowsUpdated = db.update(WeatherContract.LocationEntry.TABLE_NAME, values, selection,
                         selectionArgs);
+                // the setting of a cached id may have changed
+                if (rowsUpdated != 0) {
+                    LocationRegistry.invalidate();
+                }
                 break;
             default:
                 throw new UnsupportedOperationException("Unknown uri: " + uri);
         }
         if (rowsUpdated != 0) {
-            getContext().getContentResolver().notifyChange(uri, null);
+            if (weatherChanges != null) {
+                notifyChanges(weatherChanges);
+            } else {
+                notifyChange(uri);
+            }
         }
         return rowsUpdated;
     }
 
     @Override
     public int bulkInsert(Uri uri, ContentValues[] values) {
-        final SQLiteDatabase db = mOpenHelper.getWritableDatabase();
         final int match = sUriMatcher.match(uri);
         switch (match) {
             case WEATHER:
-                db.beginTransaction();
-                int returnCount = 0;
-                try {
-                    for (ContentValues value : values) {
-                        normalizeDate(value);
-                        long _id = db.insert(WeatherContract.WeatherEntry.TABLE_NAME, null, value);
-                        if (_id != -1) {
-                            returnCount++;
+                WeatherChanges changes = new WeatherChanges();
+                UpsertCounts counts = upsertWeather(values, changes);
+                // Only tell observers about the rows that actually changed
+                notifyChanges(changes);
+                // Rows inserted, as bulkInsert() promises.  METHOD_UPSERT also reports the
+                // rows updated in place and left unchanged.
+                return counts.mInserted;
+            case SYNC_METRICS:
+                return insertAll(WeatherContract.SyncMetricsEntry.TABLE_NAME, uri, values);
+            default:
+                return super.bulkInsert(uri, values);
+        }
+    }
+
+    // Inserts the rows in one transaction and notifies once, instead of once per row
+    private int insertAll(String table, Uri uri, ContentValues[] values) {
+        final SQLiteDatabase db = mOpenHelper.getWritableDatabase();
+        int returnCount = 0;
+        db.beginTransaction();
+        try {
+            for (ContentValues value : values) {
+                if (db.insert(table, null, value) != -1) {
+                    returnCount++;
+                }
+            }
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
+        }
+        if (returnCount > 0) {
+            notifyChange(uri);
+        }
+        return returnCount;
+    }
+
+    /*
+        What the operations of a batch on the uris with one PARAM_BATCH_STATS key did.
+     */
+    private static class BatchStats {
+        final UpsertCounts mCounts = new UpsertCounts();
+        // Time spent in weather deletes
+        long mDeleteNanos;
+    }
+
+    /*
+        What applyBatch() keeps while it runs: the changes to notify once it is over, the stats
+        its operations asked for, and a weather writer whose compiled statements all of the
+        batch's weather inserts share.
+     */
+    private static class Batch {
+        // Changes a yield has committed, and changes still in the open transaction.  Weather
+        // changes are kept as rows, so each location gets one uri for the whole batch.
+        final LinkedHashSet<Uri> mCommittedUris = new LinkedHashSet<Uri>();
+        final LinkedHashSet<Uri> mPendingUris = new LinkedHashSet<Uri>();
+        final WeatherChanges mCommittedWeather = new WeatherChanges();
+        final WeatherChanges mPendingWeather = new WeatherChanges();
+        final HashMap<String, BatchStats> mStats = new HashMap<String, BatchStats>();
+        private WeatherBatchWriter mWeatherWriter;
+
+        // The stats an operation on the uri adds to, or null if it asked for none
+        BatchStats getStats(Uri uri) {
+            String key = uri.getQueryParameter(WeatherContract.WeatherEntry.PARAM_BATCH_STATS);
+            if (key == null) {
+                return null;
+            }
+            BatchStats stats = mStats.get(key);
+            if (stats == null) {
+                stats = new BatchStats();
+                mStats.put(key, stats);
+            }
+            return stats;
+        }
+
+        WeatherBatchWriter getWeatherWriter(SQLiteDatabase db) {
+            if (mWeatherWriter == null) {
+                mWeatherWriter = new WeatherBatchWriter(db);
+            }
+            return mWeatherWriter;
+        }
+
+        void close() {
+            if (mWeatherWriter != null) {
+                mWeatherWriter.close();
+            }
+        }
+    }
+
+    /*
+        Applies the operations in one transaction, so readers see all of them or none of them,
+        and notifies each changed URI once when it is over instead of once per operation.
+
+        The transaction is only given up at operations built withYieldAllowed(), and only if
+        another thread is waiting for the database, so callers put those where the data is
+        consistent, e.g. between two locations' forecasts.  A batch with more than
+        MAX_OPERATIONS_PER_YIELD_POINT operations between yield points is refused.
+
+        Weather inserts are upserts, see insert(), and their results carry the row's uri
+        whether it was new or not.  How many were which is kept under the PARAM_BATCH_STATS key
+        of their uri, for METHOD_TAKE_BATCH_STATS once the batch is committed.
+     */
+    @Override
+    public ContentProviderResult[] applyBatch(ArrayList<ContentProviderOperation> operations)
+            throws OperationApplicationException {
+        final SQLiteDatabase db = mOpenHelper.getWritableDatabase();
+        final int count = operations.size();
+        final ContentProviderResult[] results = new ContentProviderResult[count];
+        Batch batch = new Batch();
+        mBatch.set(batch);
+        int yieldPoints = 0;
+        int sinceYieldPoint = 0;
+        boolean successful = false;
+
+        db.beginTransaction();
+        try {
+            for (int i = 0; i < count; i++) {
+                ContentProviderOperation operation = operations.get(i);
+                if (operation.isYieldAllowed()) {
+                    sinceYieldPoint = 0;
+                    if (i > 0) {
+                        yieldPoints++;
+                        if (db.yieldIfContendedSafely()) {
+                            batch.mCommittedUris.addAll(batch.mPendingUris);
+                            batch.mPendingUris.clear();
+                            batch.mCommittedWeather.addAll(batch.mPendingWeather);
+                            batch.mPendingWeather.clear();
                         }
                     }
-                    db.setTransactionSuccessful();
-                } finally {
-                    db.endTransaction();
                 }
-                getContext().getContentResolver().notifyChange(uri, null);
-                return returnCount;
+                if (++sinceYieldPoint > MAX_OPERATIONS_PER_YIELD_POINT) {
+                    throw new OperationApplicationException(
+                            "More than " + MAX_OPERATIONS_PER_YIELD_POINT
+                                    + " operations between yield points", yieldPoints);
+                }
+
+                results[i] = operation.apply(this, results, i);
+            }
+            db.setTransactionSuccessful();
+            successful = true;
+        } finally {
+            batch.close();
+            db.endTransaction();
+            mBatch.remove();
+            if (successful) {
+                batch.mCommittedUris.addAll(batch.mPendingUris);
+                batch.mCommittedWeather.addAll(batch.mPendingWeather);
+                synchronized (mBatchStats) {
+                    mBatchStats.putAll(batch.mStats);
+                }
+            }
+            batch.mCommittedUris.addAll(batch.mCommittedWeather.getUris(db));
+            for (Uri uri : batch.mCommittedUris) {
+                dispatchChange(uri);
+            }
+        }
+        return results;
+    }
+
+    // Notifies observers of the uri, or leaves it for the end of the batch if one is running
+    private void notifyChange(Uri uri) {
+        Batch batch = mBatch.get();
+        if (batch != null) {
+            batch.mPendingUris.add(uri);
+        } else {
+            dispatchChange(uri);
+        }
+    }
+
+    // Notifies the observers of the changed weather rows only, or leaves it for the end of the
+    // batch if one is running
+    private void notifyChanges(WeatherChanges changes) {
+        if (changes.isEmpty()) {
+            return;
+        }
+        Batch batch = mBatch.get();
+        if (batch != null) {
+            batch.mPendingWeather.addAll(changes);
+            return;
+        }
+        for (Uri uri : changes.getUris(mOpenHelper.getReadableDatabase())) {
+            dispatchChange(uri);
+        }
+    }
+
+    /*
+        Drops the cached query results a committed change may have made stale, then notifies
+        the observers of its uri.  The uri is as narrow as the change, see WeatherChanges, and
+        so is what gets dropped.
+     */
+    private void dispatchChange(Uri uri) {
+        switch (sUriMatcher.match(uri)) {
+            case WEATHER_WITH_LOCATION:
+            case WEATHER_WITH_LOCATION_AND_DATE:
+                mQueryCache.invalidate(
+                        WeatherContract.WeatherEntry.getLocationSettingFromUri(uri),
+                        WeatherContract.WeatherEntry.getChangedDatesFromUri(uri));
+                break;
+            case HOURLY:
+            case HOURLY_WITH_LOCATION:
+            case SYNC_METRICS:
+                // Not cached
+                break;
             default:
-                return super.bulkInsert(uri, values);
+                // The whole weather table, or the locations the cached queries join in
+                mQueryCache.clear();
+                break;
+        }
+        getContext().getContentResolver().notifyChange(uri, null);
+    }
+
+    /*
+        Returns the weather rows a delete or update with the selection is about to change.
+     */
+    private static WeatherChanges queryChanges(SQLiteDatabase db, String selection,
+                                               String[] selectionArgs) {
+        WeatherChanges changes = new WeatherChanges();
+        if (selection == null) {
+            // Every row
+            changes.addEverything();
+            return changes;
+        }
+        Cursor cursor = db.query(WeatherContract.WeatherEntry.TABLE_NAME,
+                new String[]{WeatherContract.WeatherEntry.COLUMN_LOC_KEY,
+                        WeatherContract.WeatherEntry.COLUMN_DATE},
+                selection,
+                selectionArgs,
+                null,
+                null,
+                null);
+        try {
+            while (!changes.isEverything() && cursor.moveToNext()) {
+                changes.add(cursor.getLong(0), cursor.getLong(1));
+            }
+        } finally {
+            cursor.close();
+        }
+        return changes;
+    }
+
+    // Adds a row written from values, which may not say where it belongs
+    private static void addChange(WeatherChanges changes, ContentValues values) {
+        Long locationId = values.getAsLong(WeatherContract.WeatherEntry.COLUMN_LOC_KEY);
+        Long date = values.getAsLong(WeatherContract.WeatherEntry.COLUMN_DATE);
+        if (locationId != null && date != null) {
+            changes.add(locationId, date);
+        } else {
+            changes.addEverything();
+        }
+    }
+
+    @Override
+    public Bundle call(String method, String arg, Bundle extras) {
+        if (WeatherContract.WeatherEntry.METHOD_UPSERT.equals(method)) {
+            UpsertCounts counts;
+            WeatherChanges changes = new WeatherChanges();
+            Parcelable[] parcelables =
+                    extras.getParcelableArray(WeatherContract.WeatherEntry.EXTRA_VALUES);
+            if (parcelables != null) {
+                ContentValues[] values = new ContentValues[parcelables.length];
+                for (int i = 0; i < parcelables.length; i++) {
+                    values[i] = (ContentValues) parcelables[i];
+                }
+                counts = upsertWeather(values, changes);
+            } else {
+                counts = upsertWeather(WeatherRows.fromBundle(extras), changes);
+            }
+            notifyChanges(changes);
+
+            Bundle result = new Bundle();
+            result.putInt(WeatherContract.WeatherEntry.EXTRA_INSERTED, counts.mInserted);
+            result.putInt(WeatherContract.WeatherEntry.EXTRA_UPDATED, counts.mUpdated);
+            result.putInt(WeatherContract.WeatherEntry.EXTRA_UNCHANGED, counts.mUnchanged);
+            return result;
+        }
+        if (WeatherContract.WeatherEntry.METHOD_TAKE_BATCH_STATS.equals(method)) {
+            BatchStats stats;
+            synchronized (mBatchStats) {
+                stats = mBatchStats.remove(arg);
+            }
+            if (stats == null) {
+                // The batch failed, or never asked for stats under that key
+                stats = new BatchStats();
+            }
+            Bundle result = new Bundle();
+            result.putInt(WeatherContract.WeatherEntry.EXTRA_INSERTED, stats.mCounts.mInserted);
+            result.putInt(WeatherContract.WeatherEntry.EXTRA_UPDATED, stats.mCounts.mUpdated);
+            result.putInt(WeatherContract.WeatherEntry.EXTRA_UNCHANGED, stats.mCounts.mUnchanged);
+            result.putLong(WeatherContract.WeatherEntry.EXTRA_DELETE_DURATION,
+                    stats.mDeleteNanos / 1000);
+            return result;
+        }
+        if (WeatherContract.WeatherEntry.METHOD_GET_QUERY_CACHE_STATS.equals(method)) {
+            Bundle result = new Bundle();
+            result.putLong(WeatherContract.WeatherEntry.EXTRA_CACHE_HITS, mQueryCache.getHits());
+            result.putLong(WeatherContract.WeatherEntry.EXTRA_CACHE_MISSES,
+                    mQueryCache.getMisses());
+            result.putInt(WeatherContract.WeatherEntry.EXTRA_CACHE_BYTES, mQueryCache.getBytes());
+            result.putInt(WeatherContract.WeatherEntry.EXTRA_CACHE_ENTRIES,
+                    mQueryCache.getEntryCount());
+            return result;
+        }
+        if (WeatherContract.LocationEntry.METHOD_INSERT_OR_GET.equals(method)) {
+            ContentValues values =
+                    extras.getParcelable(WeatherContract.LocationEntry.EXTRA_VALUES);
+            Bundle result = new Bundle();
+            result.putLong(WeatherContract.LocationEntry.EXTRA_LOCATION_ID,
+                    insertOrGetLocation(values));
+            return result;
+        }
+        if (WeatherContract.HourlyEntry.METHOD_REPLACE.equals(method)) {
+            int inserted = replaceHourly(extras);
+            notifyChange(WeatherContract.HourlyEntry.CONTENT_URI);
+
+            Bundle result = new Bundle();
+            result.putInt(WeatherContract.HourlyEntry.EXTRA_INSERTED, inserted);
+            return result;
+        }
+        return super.call(method, arg, extras);
+    }
+
+    /*
+        Replaces a location's 3-hour forecast from its first incoming point on, and drops every
+        point older than the retention period, in one transaction.  The points come in as
+        parallel column arrays and are bound straight into a single compiled insert, so no
+        ContentValues is built per point.
+     */
+    private int replaceHourly(Bundle extras) {
+        final SQLiteDatabase db = mOpenHelper.getWritableDatabase();
+        long locationId = extras.getLong(WeatherContract.HourlyEntry.EXTRA_LOCATION_ID);
+        long[] times = extras.getLongArray(WeatherContract.HourlyEntry.EXTRA_TIMES);
+        int[] weatherIds = extras.getIntArray(WeatherContract.HourlyEntry.EXTRA_WEATHER_IDS);
+        String[] shortDescs = extras.getStringArray(WeatherContract.HourlyEntry.EXTRA_SHORT_DESCS);
+        double[] temps = extras.getDoubleArray(WeatherContract.HourlyEntry.EXTRA_TEMPS);
+        double[] humidities = extras.getDoubleArray(WeatherContract.HourlyEntry.EXTRA_HUMIDITIES);
+        double[] pressures = extras.getDoubleArray(WeatherContract.HourlyEntry.EXTRA_PRESSURES);
+        double[] windSpeeds = extras.getDoubleArray(WeatherContract.HourlyEntry.EXTRA_WIND_SPEEDS);
+        double[] degrees = extras.getDoubleArray(WeatherContract.HourlyEntry.EXTRA_DEGREES);
+        int count = times.length;
+        int inserted = 0;
+
+        db.beginTransaction();
+        SQLiteStatement insert = db.compileStatement(sHourlyInsertStatement);
+        try {
+            if (count > 0) {
+                // Points the server no longer forecasts must not outlive the forecast
+                long firstTime = Long.MAX_VALUE;
+                for (long time : times) {
+                    firstTime = Math.min(firstTime, time);
+                }
+                db.delete(WeatherContract.HourlyEntry.TABLE_NAME, sHourlyFromTimeSelection,
+                        new String[]{Long.toString(locationId), Long.toString(firstTime)});
+            }
+
+            for (int i = 0; i < count; i++) {
+                insert.bindLong(1, locationId);
+                insert.bindLong(2, times[i]);
+                insert.bindLong(3, weatherIds[i]);
+                insert.bindString(4, shortDescs[i]);
+                insert.bindDouble(5, temps[i]);
+                insert.bindDouble(6, humidities[i]);
+                insert.bindDouble(7, pressures[i]);
+                insert.bindDouble(8, windSpeeds[i]);
+                insert.bindDouble(9, degrees[i]);
+                if (insert.executeInsert() != -1) {
+                    inserted++;
+                }
+            }
+
+            db.delete(WeatherContract.HourlyEntry.TABLE_NAME,
+                    WeatherContract.HourlyEntry.COLUMN_TIME + " < ?",
+                    new String[]{Long.toString(
+                            System.currentTimeMillis() - WeatherContract.HourlyEntry.RETENTION_MILLIS)});
+            db.setTransactionSuccessful();
+        } finally {
+            insert.close();
+            db.endTransaction();
+        }
+        return inserted;
+    }
+
+    /*
+        Returns the id of the location row with the setting in values, inserting the row if
+        there isn't one.  The lookup and the insert share a transaction, so two syncs resolving
+        the same new location can't both insert it.
+     */
+    private long insertOrGetLocation(ContentValues values) {
+        final SQLiteDatabase db = mOpenHelper.getWritableDatabase();
+        String locationSetting =
+                values.getAsString(WeatherContract.LocationEntry.COLUMN_LOCATION_SETTING);
+        long locationId;
+        boolean inserted = false;
+
+        db.beginTransaction();
+        try {
+            Cursor cursor = db.query(WeatherContract.LocationEntry.TABLE_NAME,
+                    new String[]{WeatherContract.LocationEntry._ID},
+                    WeatherContract.LocationEntry.COLUMN_LOCATION_SETTING + " = ?",
+                    new String[]{locationSetting},
+                    null,
+                    null,
+                    null);
+            try {
+                if (cursor.moveToFirst()) {
+                    locationId = cursor.getLong(0);
+                } else {
+                    locationId = db.insert(WeatherContract.LocationEntry.TABLE_NAME, null, values);
+                    if (locationId == -1) {
+                        throw new android.database.SQLException(
+                                "Failed to insert location " + locationSetting);
+                    }
+                    inserted = true;
+                }
+            } finally {
+                cursor.close();
+            }
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
+        }
+
+        // Only a new row is a change anybody needs to hear about
+        if (inserted) {
+            notifyChange(WeatherContract.LocationEntry.CONTENT_URI);
+        }
+        return locationId;
+    }
+
+    /*
+        How many rows an upsert inserted, updated in place, and left alone.
+     */
+    static class UpsertCounts {
+        int mInserted;
+        int mUpdated;
+        int mUnchanged;
+
+        // Counts a row by what WeatherBatchWriter.writeRow() did with it
+        void add(int rowOutcome) {
+            switch (rowOutcome) {
+                case WeatherBatchWriter.ROW_INSERTED:
+                    mInserted++;
+                    break;
+                case WeatherBatchWriter.ROW_UPDATED:
+                    mUpdated++;
+                    break;
+                default:
+                    mUnchanged++;
+                    break;
+            }
+        }
+    }
+
+    /*
+        Writes weather rows as a delta against what is already stored.  A row for a new
+        (location, date) pair is inserted.  A row for an existing pair only has the columns that
+        differ updated in place, so it keeps its _id, and a row that matches what is stored is
+        not written at all.
+
+        Complete rows, which is what the sync writes, go through the compiled statements of
+        upsertWeather(WeatherRows).  Anything else is matched against the stored rows here.
+     */
+    private UpsertCounts upsertWeather(ContentValues[] values, WeatherChanges changes) {
+        WeatherRows rows = WeatherRows.fromValues(values);
+        if (rows != null) {
+            return upsertWeather(rows, changes);
+        }
+
+        final SQLiteDatabase db = mOpenHelper.getWritableDatabase();
+        UpsertCounts counts = new UpsertCounts();
+
+        // Group the rows by location, so that each location's stored rows are read in one query
+        HashMap<Long, List<ContentValues>> rowsByLocation = new HashMap<Long, List<ContentValues>>();
+
+        db.beginTransaction();
+        try {
+            for (ContentValues value : values) {
+                normalizeDate(value);
+                Long locationId = value.getAsLong(WeatherContract.WeatherEntry.COLUMN_LOC_KEY);
+                if (locationId == null
+                        || !value.containsKey(WeatherContract.WeatherEntry.COLUMN_DATE)) {
+                    // Nothing to match it against, let the database sort it out
+                    if (db.insert(WeatherContract.WeatherEntry.TABLE_NAME, null, value) != -1) {
+                        counts.mInserted++;
+                        addChange(changes, value);
+                    }
+                    continue;
+                }
+                List<ContentValues> rows = rowsByLocation.get(locationId);
+                if (rows == null) {
+                    rows = new ArrayList<ContentValues>();
+                    rowsByLocation.put(locationId, rows);
+                }
+                rows.add(value);
+            }
+
+            for (Map.Entry<Long, List<ContentValues>> entry : rowsByLocation.entrySet()) {
+                upsertLocationWeather(db, entry.getKey(), entry.getValue(), counts, changes);
+            }
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
+        }
+        return counts;
+    }
+
+    /*
+        The same delta write for rows that are already columns, in one transaction.
+     */
+    private UpsertCounts upsertWeather(WeatherRows rows, WeatherChanges changes) {
+        final SQLiteDatabase db = mOpenHelper.getWritableDatabase();
+        UpsertCounts counts = new UpsertCounts();
+
+        db.beginTransaction();
+        WeatherBatchWriter writer = new WeatherBatchWriter(db);
+        try {
+            writer.write(rows, counts, changes);
+            db.setTransactionSuccessful();
+        } finally {
+            writer.close();
+            db.endTransaction();
+        }
+        return counts;
+    }
+
+    private void upsertLocationWeather(SQLiteDatabase db, long locationId,
+                                       List<ContentValues> rows, UpsertCounts counts,
+                                       WeatherChanges changes) {
+        long minDate = Long.MAX_VALUE;
+        long maxDate = Long.MIN_VALUE;
+        for (ContentValues row : rows) {
+            long date = row.getAsLong(WeatherContract.WeatherEntry.COLUMN_DATE);
+            minDate = Math.min(minDate, date);
+            maxDate = Math.max(maxDate, date);
+        }
+
+        Cursor stored = db.query(WeatherContract.WeatherEntry.TABLE_NAME,
+                null,
+                WeatherContract.WeatherEntry.COLUMN_LOC_KEY + " = ? AND " +
+                        WeatherContract.WeatherEntry.COLUMN_DATE + " BETWEEN ? AND ?",
+                new String[]{Long.toString(locationId), Long.toString(minDate),
+                        Long.toString(maxDate)},
+                null,
+                null,
+                null);
+        try {
+            int idIndex = stored.getColumnIndex(WeatherContract.WeatherEntry._ID);
+            int dateIndex = stored.getColumnIndex(WeatherContract.WeatherEntry.COLUMN_DATE);
+
+            // date -> cursor position of the stored row for that date
+            HashMap<Long, Integer> positions = new HashMap<Long, Integer>();
+            while (stored.moveToNext()) {
+                positions.put(stored.getLong(dateIndex), stored.getPosition());
+            }
+
+            for (ContentValues row : rows) {
+                long date = row.getAsLong(WeatherContract.WeatherEntry.COLUMN_DATE);
+                Integer position = positions.get(date);
+                if (position == null) {
+                    if (db.insert(WeatherContract.WeatherEntry.TABLE_NAME, null, row) != -1) {
+                        counts.mInserted++;
+                        changes.add(locationId, date);
+                    }
+                    continue;
+                }
+
+                stored.moveToPosition(position);
+                ContentValues changed = getChangedColumns(row, stored);
+                if (changed.size() == 0) {
+                    counts.mUnchanged++;
+                } else {
+                    db.update(WeatherContract.WeatherEntry.TABLE_NAME, changed,
+                            WeatherContract.WeatherEntry._ID + " = ?",
+                            new String[]{Long.toString(stored.getLong(idIndex))});
+                    counts.mUpdated++;
+                    changes.add(locationId, date);
+                }
+            }
+        } finally {
+            stored.close();
+        }
+    }
+
+    /*
+        Returns the columns of the incoming row whose values differ from the stored row the
+        cursor is positioned on.
+     */
+    private static ContentValues getChangedColumns(ContentValues incoming, Cursor stored) {
+        ContentValues changed = new ContentValues();
+        for (Map.Entry<String, Object> column : incoming.valueSet()) {
+            String name = column.getKey();
+            Object value = column.getValue();
+            int index = stored.getColumnIndex(name);
+            if (index == -1 || !isSameValue(value, stored, index)) {
+                putValue(changed, name, value);
+            }
+        }
+        return changed;
+    }
+
+    private static boolean isSameValue(Object value, Cursor stored, int index) {
+        if (value == null || stored.isNull(index)) {
+            return value == null && stored.isNull(index);
+        }
+        if (value instanceof Double || value instanceof Float) {
+            return ((Number) value).doubleValue() == stored.getDouble(index);
+        }
+        if (value instanceof Number) {
+            return ((Number) value).longValue() == stored.getLong(index);
+        }
+        if (value instanceof Boolean) {
+            return ((Boolean) value ? 1 : 0) == stored.getInt(index);
+        }
+        if (value instanceof byte[]) {
+            return Arrays.equals((byte[]) value, stored.getBlob(index));
+        }
+        return value.toString().equals(stored.getString(index));
+    }
+
+    // ContentValues has no public put(String, Object), so copy a value across by its type
+    private static void putValue(ContentValues values, String key, Object value) {
+        if (value == null) {
+            values.putNull(key);
+        } else if (value instanceof String) {
+            values.put(key, (String) value);
+        } else if (value instanceof Double) {
+            values.put(key, (Double) value);
+        } else if (value instanceof Float) {
+            values.put(key, (Float) value);
+        } else if (value instanceof Long) {
+            values.put(key, (Long) value);
+        } else if (value instanceof Integer) {
+            values.put(key, (Integer) value);
+        } else if (value instanceof Short) {
+            values.put(key, (Short) value);
+        } else if (value instanceof Byte) {
+            values.put(key, (Byte) value);
+        } else if (value instanceof Boolean) {
+            values.put(key, (Boolean) value);
+        } else if (value instanceof byte[]) {
+            values.put(key, (byte[]) value);
+        } else {
+            values.put(key, value.toString());
         }
     }
 
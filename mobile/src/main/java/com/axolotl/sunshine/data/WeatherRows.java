@@ -0,0 +1,165 @@
+/*
+ * Copyright (C) 2014 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.axolotl.sunshine.data;
+
+import android.content.ContentValues;
+import android.os.Bundle;
+
+import com.axolotl.sunshine.data.WeatherContract.WeatherEntry;
+
+import java.util.Arrays;
+
+/**
+ * Weather rows kept column by column in primitive arrays, the compact form
+ * {@link WeatherEntry#METHOD_UPSERT} takes besides a ContentValues array.  Every row has all the
+ * columns of the weather table, none of them null.
+ */
+public class WeatherRows {
+    // The longest forecast the app asks for
+    private static final int INITIAL_CAPACITY = 16;
+
+    // Number of rows, the arrays below may be longer
+    public int mCount;
+
+    public long[] mLocationIds;
+    // Not normalized yet, the provider does that
+    public long[] mDates;
+    public int[] mWeatherIds;
+    public String[] mShortDescs;
+    public double[] mMinTemps;
+    public double[] mMaxTemps;
+    public double[] mHumidities;
+    public double[] mPressures;
+    public double[] mWindSpeeds;
+    public double[] mDegrees;
+
+    public WeatherRows() {
+        this(INITIAL_CAPACITY);
+    }
+
+    public WeatherRows(int capacity) {
+        capacity = Math.max(capacity, 1);
+        mLocationIds = new long[capacity];
+        mDates = new long[capacity];
+        mWeatherIds = new int[capacity];
+        mShortDescs = new String[capacity];
+        mMinTemps = new double[capacity];
+        mMaxTemps = new double[capacity];
+        mHumidities = new double[capacity];
+        mPressures = new double[capacity];
+        mWindSpeeds = new double[capacity];
+        mDegrees = new double[capacity];
+    }
+
+    /**
+     * Makes room for one more row.
+     *
+     * @return the index to write the new row's columns at
+     */
+    public int append() {
+        if (mCount == mLocationIds.length) {
+            int capacity = mLocationIds.length * 2;
+            mLocationIds = Arrays.copyOf(mLocationIds, capacity);
+            mDates = Arrays.copyOf(mDates, capacity);
+            mWeatherIds = Arrays.copyOf(mWeatherIds, capacity);
+            mShortDescs = Arrays.copyOf(mShortDescs, capacity);
+            mMinTemps = Arrays.copyOf(mMinTemps, capacity);
+            mMaxTemps = Arrays.copyOf(mMaxTemps, capacity);
+            mHumidities = Arrays.copyOf(mHumidities, capacity);
+            mPressures = Arrays.copyOf(mPressures, capacity);
+            mWindSpeeds = Arrays.copyOf(mWindSpeeds, capacity);
+            mDegrees = Arrays.copyOf(mDegrees, capacity);
+        }
+        return mCount++;
+    }
+
+    /**
+     * @return the extras for {@link WeatherEntry#METHOD_UPSERT} that write these rows
+     */
+    public Bundle toBundle() {
+        Bundle extras = new Bundle();
+        extras.putLongArray(WeatherEntry.EXTRA_LOCATION_IDS, Arrays.copyOf(mLocationIds, mCount));
+        extras.putLongArray(WeatherEntry.EXTRA_DATES, Arrays.copyOf(mDates, mCount));
+        extras.putIntArray(WeatherEntry.EXTRA_WEATHER_IDS, Arrays.copyOf(mWeatherIds, mCount));
+        extras.putStringArray(WeatherEntry.EXTRA_SHORT_DESCS, Arrays.copyOf(mShortDescs, mCount));
+        extras.putDoubleArray(WeatherEntry.EXTRA_MIN_TEMPS, Arrays.copyOf(mMinTemps, mCount));
+        extras.putDoubleArray(WeatherEntry.EXTRA_MAX_TEMPS, Arrays.copyOf(mMaxTemps, mCount));
+        extras.putDoubleArray(WeatherEntry.EXTRA_HUMIDITIES, Arrays.copyOf(mHumidities, mCount));
+        extras.putDoubleArray(WeatherEntry.EXTRA_PRESSURES, Arrays.copyOf(mPressures, mCount));
+        extras.putDoubleArray(WeatherEntry.EXTRA_WIND_SPEEDS, Arrays.copyOf(mWindSpeeds, mCount));
+        extras.putDoubleArray(WeatherEntry.EXTRA_DEGREES, Arrays.copyOf(mDegrees, mCount));
+        return extras;
+    }
+
+    /**
+     * @return the rows in extras built by {@link #toBundle}, sharing their arrays
+     */
+    static WeatherRows fromBundle(Bundle extras) {
+        WeatherRows rows = new WeatherRows(0);
+        rows.mLocationIds = extras.getLongArray(WeatherEntry.EXTRA_LOCATION_IDS);
+        rows.mDates = extras.getLongArray(WeatherEntry.EXTRA_DATES);
+        rows.mWeatherIds = extras.getIntArray(WeatherEntry.EXTRA_WEATHER_IDS);
+        rows.mShortDescs = extras.getStringArray(WeatherEntry.EXTRA_SHORT_DESCS);
+        rows.mMinTemps = extras.getDoubleArray(WeatherEntry.EXTRA_MIN_TEMPS);
+        rows.mMaxTemps = extras.getDoubleArray(WeatherEntry.EXTRA_MAX_TEMPS);
+        rows.mHumidities = extras.getDoubleArray(WeatherEntry.EXTRA_HUMIDITIES);
+        rows.mPressures = extras.getDoubleArray(WeatherEntry.EXTRA_PRESSURES);
+        rows.mWindSpeeds = extras.getDoubleArray(WeatherEntry.EXTRA_WIND_SPEEDS);
+        rows.mDegrees = extras.getDoubleArray(WeatherEntry.EXTRA_DEGREES);
+        rows.mCount = rows.mLocationIds.length;
+        return rows;
+    }
+
+    /**
+     * @return the values as columns, or null if any of them is not a complete weather row, in
+     * which case they have to be written as they are
+     */
+    static WeatherRows fromValues(ContentValues[] values) {
+        WeatherRows rows = new WeatherRows(values.length);
+        for (ContentValues value : values) {
+            Long locationId = value.getAsLong(WeatherEntry.COLUMN_LOC_KEY);
+            Long date = value.getAsLong(WeatherEntry.COLUMN_DATE);
+            Integer weatherId = value.getAsInteger(WeatherEntry.COLUMN_WEATHER_ID);
+            String shortDesc = value.getAsString(WeatherEntry.COLUMN_SHORT_DESC);
+            Double minTemp = value.getAsDouble(WeatherEntry.COLUMN_MIN_TEMP);
+            Double maxTemp = value.getAsDouble(WeatherEntry.COLUMN_MAX_TEMP);
+            Double humidity = value.getAsDouble(WeatherEntry.COLUMN_HUMIDITY);
+            Double pressure = value.getAsDouble(WeatherEntry.COLUMN_PRESSURE);
+            Double windSpeed = value.getAsDouble(WeatherEntry.COLUMN_WIND_SPEED);
+            Double degrees = value.getAsDouble(WeatherEntry.COLUMN_DEGREES);
+            if (locationId == null || date == null || weatherId == null || shortDesc == null
+                    || minTemp == null || maxTemp == null || humidity == null
+                    || pressure == null || windSpeed == null || degrees == null
+                    // A column the table doesn't have, or an _id
+                    || value.size() != 10) {
+                return null;
+            }
+
+            int i = rows.append();
+            rows.mLocationIds[i] = locationId;
+            rows.mDates[i] = date;
+            rows.mWeatherIds[i] = weatherId;
+            rows.mShortDescs[i] = shortDesc;
+            rows.mMinTemps[i] = minTemp;
+            rows.mMaxTemps[i] = maxTemp;
+            rows.mHumidities[i] = humidity;
+            rows.mPressures[i] = pressure;
+            rows.mWindSpeeds[i] = windSpeed;
+            rows.mDegrees[i] = degrees;
+        }
+        return rows;
+    }
+}
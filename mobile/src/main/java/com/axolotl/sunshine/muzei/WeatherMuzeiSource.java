@@ -16,12 +16,11 @@
 package com.axolotl.sunshine.muzei;
 
 import android.content.Intent;
-import android.database.Cursor;
 import android.net.Uri;
 
 import com.axolotl.sunshine.MainActivity;
 import com.axolotl.sunshine.Utility;
-import com.axolotl.sunshine.data.WeatherContract;
+import com.axolotl.sunshine.sync.ForecastSnapshot;
 import com.axolotl.sunshine.sync.SunshineSyncAdapter;
 import com.google.android.apps.muzei.api.Artwork;
 import com.google.android.apps.muzei.api.MuzeiArtSource;
@@ -31,13 +30,8 @@ import com.google.android.apps.muzei.api.MuzeiArtSource;
  * Muzei source that changes your background based on the current weather conditions
  */
 public class WeatherMuzeiSource extends MuzeiArtSource {
-    private static final String[] FORECAST_COLUMNS = new String[]{
-            WeatherContract.WeatherEntry.COLUMN_WEATHER_ID,
-            WeatherContract.WeatherEntry.COLUMN_SHORT_DESC
-    };
-    // these indices must match the projection
-    private static final int INDEX_WEATHER_ID = 0;
-    private static final int INDEX_SHORT_DESC = 1;
+    // Name under which Muzei's part of the forecast snapshot is tracked
+    private static final String SNAPSHOT_SLICE = "muzei";
 
     public WeatherMuzeiSource() {
         super("WeatherMuzeiSource");
@@ -49,32 +43,41 @@ public class WeatherMuzeiSource extends MuzeiArtSource {
         boolean dataUpdated = intent != null &&
                 SunshineSyncAdapter.ACTION_DATA_UPDATED.equals(intent.getAction());
         if (dataUpdated && isEnabled()) {
-            onUpdate(UPDATE_REASON_OTHER);
+            // Use the sync's snapshot, and skip the update if today's conditions didn't change
+            String location = Utility.getPreferredLocation(this);
+            ForecastSnapshot snapshot = ForecastSnapshot.fromIntent(this, intent, location);
+            if (snapshot != null) {
+                ForecastSnapshot.Day today = snapshot.getToday();
+                if (ForecastSnapshot.isSliceChanged(this, SNAPSHOT_SLICE, location,
+                        today.mWeatherId, today.mDescription)) {
+                    publishWeather(location, today);
+                }
+            }
         }
     }
 
     @Override
     protected void onUpdate(int reason) {
         String location = Utility.getPreferredLocation(this);
-        Uri weatherForLocationUri = WeatherContract.WeatherEntry.buildWeatherLocationWithStartDate(
-                location, System.currentTimeMillis());
-        Cursor cursor = getContentResolver().query(weatherForLocationUri, FORECAST_COLUMNS, null,
-                null, WeatherContract.WeatherEntry.COLUMN_DATE + " ASC");
-        if (cursor.moveToFirst()) {
-            int weatherId = cursor.getInt(INDEX_WEATHER_ID);
-            String desc = cursor.getString(INDEX_SHORT_DESC);
+        ForecastSnapshot snapshot = ForecastSnapshot.query(this, location);
+        if (snapshot != null) {
+            ForecastSnapshot.Day today = snapshot.getToday();
+            publishWeather(location, today);
+        }
+    }
 
-            String imageUrl = Utility.getImageUrlForWeatherCondition(weatherId);
-            // Only publish a new wallpaper if we have a valid image
-            if (imageUrl != null) {
-                publishArtwork(new Artwork.Builder()
-                        .imageUri(Uri.parse(imageUrl))
-                        .title(desc)
-                        .byline(location)
-                        .viewIntent(new Intent(this, MainActivity.class))
-                        .build());
-            }
+    private void publishWeather(String location, ForecastSnapshot.Day today) {
+        String imageUrl = Utility.getImageUrlForWeatherCondition(today.mWeatherId);
+        // Only publish a new wallpaper if we have a valid image
+        if (imageUrl != null) {
+            publishArtwork(new Artwork.Builder()
+                    .imageUri(Uri.parse(imageUrl))
+                    .title(today.mDescription)
+                    .byline(location)
+                    .viewIntent(new Intent(this, MainActivity.class))
+                    .build());
+            ForecastSnapshot.recordSlice(this, SNAPSHOT_SLICE, location, today.mWeatherId,
+                    today.mDescription);
         }
-        cursor.close();
     }
 }
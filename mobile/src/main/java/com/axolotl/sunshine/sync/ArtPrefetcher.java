@@ -0,0 +1,181 @@
+package com.axolotl.sunshine.sync;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.preference.PreferenceManager;
+import android.text.format.DateUtils;
+import android.util.Log;
+
+import com.axolotl.sunshine.R;
+import com.axolotl.sunshine.Utility;
+import com.bumptech.glide.Glide;
+import com.bumptech.glide.Priority;
+import com.bumptech.glide.load.data.DataFetcher;
+import com.bumptech.glide.load.model.stream.StreamModelLoader;
+import com.bumptech.glide.request.FutureTarget;
+import com.bumptech.glide.request.target.Target;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.LinkedHashSet;
+import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * Pulls the art-pack images a forecast needs into Glide's disk cache, so the list, the detail
+ * view, the widgets and the notification find them locally instead of stalling on the network
+ * the first time a condition shows up.
+ *
+ * The original image is cached rather than one copy per view size.  Every art load in the app
+ * caches with {@link com.bumptech.glide.load.engine.DiskCacheStrategy#ALL}, so it decodes its own
+ * size from that local original and keeps the result next to it.
+ *
+ * Whether an image is already cached is asked of Glide's disk cache itself, by a load whose
+ * loader fails instead of going to the network, so an image the cache has since evicted is
+ * downloaded again and counted as a miss.
+ */
+class ArtPrefetcher {
+    private static final String LOG_TAG = ArtPrefetcher.class.getSimpleName();
+
+    // How long one image may take before it is left for the views to fetch themselves
+    private static final long TIMEOUT_MILLIS = 10 * DateUtils.SECOND_IN_MILLIS;
+
+    // Serves nothing, so a load through it only succeeds from the disk cache.  Its id is the
+    // url, which is what the network loader caches the original under.
+    private static final StreamModelLoader<String> CACHE_ONLY_LOADER =
+            new StreamModelLoader<String>() {
+                @Override
+                public DataFetcher<InputStream> getResourceFetcher(final String url, int width,
+                                                                   int height) {
+                    return new DataFetcher<InputStream>() {
+                        @Override
+                        public InputStream loadData(Priority priority) throws Exception {
+                            throw new IOException("Not in the disk cache: " + url);
+                        }
+
+                        @Override
+                        public void cleanup() {
+                        }
+
+                        @Override
+                        public String getId() {
+                            return url;
+                        }
+
+                        @Override
+                        public void cancel() {
+                        }
+                    };
+                }
+            };
+
+    /**
+     * How a prefetch went.  A hit is an image already in Glide's disk cache, a miss one that
+     * had to be downloaded now.
+     */
+    static class Stats {
+        int mHits;
+        int mMisses;
+        int mFailures;
+        // Size of the images downloaded by this prefetch
+        long mBytes;
+    }
+
+    private ArtPrefetcher() {
+    }
+
+    /**
+     * Fetches the art for every distinct condition in the snapshot.  Blocks, so only call it
+     * from the sync thread.
+     */
+    static Stats prefetch(Context context, ForecastSnapshot snapshot) {
+        Stats stats = new Stats();
+        if (Utility.usingLocalGraphics(context)) {
+            return stats;
+        }
+
+        // Several weather ids share an image
+        Set<String> urls = new LinkedHashSet<String>();
+        for (int i = 0; i < snapshot.getDayCount(); i++) {
+            String url = Utility.getArtUrlForWeatherCondition(context,
+                    snapshot.getDay(i).mWeatherId);
+            if (url != null) {
+                urls.add(url);
+            }
+        }
+
+        for (String url : urls) {
+            if (isCached(context, url)) {
+                stats.mHits++;
+                continue;
+            }
+            FutureTarget<File> target = Glide.with(context)
+                    .load(url)
+                    .downloadOnly(Target.SIZE_ORIGINAL, Target.SIZE_ORIGINAL);
+            try {
+                File file = target.get(TIMEOUT_MILLIS, TimeUnit.MILLISECONDS);
+                stats.mMisses++;
+                stats.mBytes += file.length();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                break;
+            } catch (ExecutionException | TimeoutException e) {
+                Log.e(LOG_TAG, "Error prefetching " + url, e);
+                stats.mFailures++;
+            } finally {
+                Glide.clear(target);
+            }
+        }
+
+        SharedPreferences prefs = PreferenceManager.getDefaultSharedPreferences(context);
+        String hitsKey = context.getString(R.string.pref_art_prefetch_hits_key);
+        String missesKey = context.getString(R.string.pref_art_prefetch_misses_key);
+        prefs.edit()
+                .putInt(hitsKey, prefs.getInt(hitsKey, 0) + stats.mHits)
+                .putInt(missesKey, prefs.getInt(missesKey, 0) + stats.mMisses)
+                .apply();
+        Log.d(LOG_TAG, "Art prefetch: " + stats.mHits + " hits, " + stats.mMisses + " misses ("
+                + stats.mBytes + " bytes), " + stats.mFailures + " failures");
+        return stats;
+    }
+
+    /**
+     * @return whether the original of the image is in Glide's disk cache
+     */
+    private static boolean isCached(Context context, String url) {
+        FutureTarget<File> target = Glide.with(context)
+                .using(CACHE_ONLY_LOADER)
+                .load(url)
+                .downloadOnly(Target.SIZE_ORIGINAL, Target.SIZE_ORIGINAL);
+        try {
+            target.get(TIMEOUT_MILLIS, TimeUnit.MILLISECONDS);
+            return true;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
+        } catch (ExecutionException | TimeoutException e) {
+            return false;
+        } finally {
+            Glide.clear(target);
+        }
+    }
+
+    /**
+     * @return how many images prefetching has found already cached so far
+     */
+    static int getHitCount(Context context) {
+        return PreferenceManager.getDefaultSharedPreferences(context)
+                .getInt(context.getString(R.string.pref_art_prefetch_hits_key), 0);
+    }
+
+    /**
+     * @return how many images prefetching has downloaded so far
+     */
+    static int getMissCount(Context context) {
+        return PreferenceManager.getDefaultSharedPreferences(context)
+                .getInt(context.getString(R.string.pref_art_prefetch_misses_key), 0);
+    }
+}
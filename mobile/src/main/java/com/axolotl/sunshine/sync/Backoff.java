@@ -0,0 +1,32 @@
+package com.axolotl.sunshine.sync;
+
+import java.util.Random;
+
+/**
+ * Jittered exponential backoff for retrying a failed fetch.
+ *
+ * Uses "full jitter": the delay before retry n is picked uniformly between zero and
+ * min(MAX_DELAY_MILLIS, BASE_DELAY_MILLIS * 2^n), so devices that failed at the same moment do
+ * not all come back at the same moment.
+ */
+class Backoff {
+    // Attempts per location in one sync, including the first one
+    static final int MAX_ATTEMPTS = 3;
+
+    static final long BASE_DELAY_MILLIS = 1000;
+    static final long MAX_DELAY_MILLIS = 8000;
+
+    private static final Random sRandom = new Random();
+
+    private Backoff() {
+    }
+
+    /**
+     * @param retry zero for the first retry, one for the second, and so on
+     * @return how long to wait before that retry
+     */
+    static long getDelayMillis(int retry) {
+        long ceiling = Math.min(MAX_DELAY_MILLIS, BASE_DELAY_MILLIS << Math.min(retry, 16));
+        return (long) (sRandom.nextDouble() * ceiling);
+    }
+}
@@ -0,0 +1,103 @@
+package com.axolotl.sunshine.sync;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.preference.PreferenceManager;
+import android.text.format.DateUtils;
+import android.util.Log;
+
+import com.axolotl.sunshine.R;
+
+/**
+ * Stops syncs from calling the weather server while it keeps failing.
+ *
+ * After FAILURE_THRESHOLD location syncs in a row have failed, even with retries, the breaker
+ * opens and every sync, periodic or manual, is skipped until the cool-down has passed.  The
+ * first sync after that is a single trial request: if it works the breaker closes, if not it
+ * opens again for twice as long, up to MAX_COOL_DOWN_MILLIS.
+ *
+ * The state lives in the default SharedPreferences so it survives the sync process being
+ * killed, and so the UI can tell the user when the next attempt will be made.
+ */
+class CircuitBreaker {
+    private static final String LOG_TAG = CircuitBreaker.class.getSimpleName();
+
+    static final int FAILURE_THRESHOLD = 3;
+    static final long BASE_COOL_DOWN_MILLIS = 15 * DateUtils.MINUTE_IN_MILLIS;
+    static final long MAX_COOL_DOWN_MILLIS = 6 * DateUtils.HOUR_IN_MILLIS;
+
+    private static CircuitBreaker sInstance;
+
+    private final SharedPreferences mPrefs;
+    private final String mFailuresKey;
+    private final String mCoolDownKey;
+    private final String mOpenUntilKey;
+
+    static synchronized CircuitBreaker getInstance(Context context) {
+        if (sInstance == null) {
+            sInstance = new CircuitBreaker(context.getApplicationContext());
+        }
+        return sInstance;
+    }
+
+    private CircuitBreaker(Context context) {
+        mPrefs = PreferenceManager.getDefaultSharedPreferences(context);
+        mFailuresKey = context.getString(R.string.pref_breaker_failures_key);
+        mCoolDownKey = context.getString(R.string.pref_breaker_cool_down_key);
+        mOpenUntilKey = context.getString(R.string.pref_breaker_open_until_key);
+    }
+
+    /**
+     * @return false while the breaker is open and no request should be made
+     */
+    synchronized boolean allowRequest() {
+        return System.currentTimeMillis() >= mPrefs.getLong(mOpenUntilKey, 0);
+    }
+
+    /**
+     * @return true when the breaker has tripped before and its cool-down is over, in which
+     * case the next request is a trial and should not be retried
+     */
+    synchronized boolean isTrial() {
+        return mPrefs.getInt(mFailuresKey, 0) >= FAILURE_THRESHOLD && allowRequest();
+    }
+
+    /**
+     * @return when the breaker closes again, in milliseconds, or 0 if it is not open
+     */
+    synchronized long getOpenUntil() {
+        long openUntil = mPrefs.getLong(mOpenUntilKey, 0);
+        return openUntil > System.currentTimeMillis() ? openUntil : 0;
+    }
+
+    synchronized void recordSuccess() {
+        int failures = mPrefs.getInt(mFailuresKey, 0);
+        if (failures == 0) {
+            return;
+        }
+        if (failures >= FAILURE_THRESHOLD) {
+            Log.d(LOG_TAG, "Weather server is back, closing the circuit breaker");
+        }
+        mPrefs.edit()
+                .remove(mFailuresKey)
+                .remove(mCoolDownKey)
+                .remove(mOpenUntilKey)
+                .apply();
+    }
+
+    synchronized void recordFailure() {
+        int failures = mPrefs.getInt(mFailuresKey, 0) + 1;
+        SharedPreferences.Editor editor = mPrefs.edit();
+        editor.putInt(mFailuresKey, failures);
+        if (failures >= FAILURE_THRESHOLD) {
+            long coolDown = mPrefs.getLong(mCoolDownKey, 0);
+            coolDown = coolDown == 0
+                    ? BASE_COOL_DOWN_MILLIS : Math.min(MAX_COOL_DOWN_MILLIS, coolDown * 2);
+            editor.putLong(mCoolDownKey, coolDown);
+            editor.putLong(mOpenUntilKey, System.currentTimeMillis() + coolDown);
+            Log.d(LOG_TAG, failures + " failed syncs, not calling the weather server for "
+                    + DateUtils.formatElapsedTime(coolDown / 1000));
+        }
+        editor.apply();
+    }
+}
@@ -0,0 +1,57 @@
+package com.axolotl.sunshine.sync;
+
+import com.axolotl.sunshine.core.DailyForecastParser;
+
+import org.json.JSONException;
+
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * Turns an OpenWeatherMap daily forecast response into weather rows.
+ *
+ * Implementations read the response body exactly once.  The rows they produce carry every
+ * weather column except the location key and the date, which the sync adapter fills in once it
+ * knows the location id and the starting julian day.
+ */
+public interface ForecastParser {
+
+    // These are the names of the JSON objects that need to be extracted, shared with the
+    // parser in sunshine-core.
+
+    // Location information
+    String OWM_CITY = DailyForecastParser.OWM_CITY;
+    String OWM_CITY_NAME = DailyForecastParser.OWM_CITY_NAME;
+    String OWM_COORD = DailyForecastParser.OWM_COORD;
+
+    // Location coordinate
+    String OWM_LATITUDE = DailyForecastParser.OWM_LATITUDE;
+    String OWM_LONGITUDE = DailyForecastParser.OWM_LONGITUDE;
+
+    // Weather information.  Each day's forecast info is an element of the "list" array.
+    String OWM_LIST = DailyForecastParser.OWM_LIST;
+
+    String OWM_PRESSURE = DailyForecastParser.OWM_PRESSURE;
+    String OWM_HUMIDITY = DailyForecastParser.OWM_HUMIDITY;
+    String OWM_WINDSPEED = DailyForecastParser.OWM_WINDSPEED;
+    String OWM_WIND_DIRECTION = DailyForecastParser.OWM_WIND_DIRECTION;
+
+    // All temperatures are children of the "temp" object.
+    String OWM_TEMPERATURE = DailyForecastParser.OWM_TEMPERATURE;
+    String OWM_MAX = DailyForecastParser.OWM_MAX;
+    String OWM_MIN = DailyForecastParser.OWM_MIN;
+
+    String OWM_WEATHER = DailyForecastParser.OWM_WEATHER;
+    String OWM_DESCRIPTION = DailyForecastParser.OWM_DESCRIPTION;
+    String OWM_WEATHER_ID = DailyForecastParser.OWM_WEATHER_ID;
+
+    String OWM_MESSAGE_CODE = DailyForecastParser.OWM_MESSAGE_CODE;
+
+    /**
+     * @param in the raw response body
+     * @return the parsed forecast, or null if the stream was empty
+     * @throws IOException if the stream could not be read
+     * @throws JSONException if the body is not a valid forecast
+     */
+    ForecastResponse parse(InputStream in) throws IOException, JSONException;
+}
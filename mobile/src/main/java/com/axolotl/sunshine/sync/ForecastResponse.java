@@ -0,0 +1,20 @@
+package com.axolotl.sunshine.sync;
+
+import android.content.ContentValues;
+
+import java.net.HttpURLConnection;
+import java.util.Vector;
+
+/**
+ * A parsed OpenWeatherMap daily forecast: the message code, the city the server resolved the
+ * query to, and one row of weather values per day, in the order the server sent them.
+ */
+public class ForecastResponse {
+    public int mCode = HttpURLConnection.HTTP_OK;
+
+    public String mCityName;
+    public double mCityLatitude;
+    public double mCityLongitude;
+
+    public final Vector<ContentValues> mDays = new Vector<ContentValues>(14);
+}
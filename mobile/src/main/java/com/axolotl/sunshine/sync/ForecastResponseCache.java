@@ -0,0 +1,269 @@
+package com.axolotl.sunshine.sync;
+
+import android.util.Log;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.UnsupportedEncodingException;
+import java.security.DigestInputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Map;
+import java.util.Properties;
+
+/**
+ * On-disk cache of the last forecast response for each location query.
+ *
+ * For every query it keeps the raw body together with its validators (ETag and Last-Modified),
+ * a hash of the body, and the julian day the body was stored for.  The sync adapter uses the
+ * validators to make conditional requests, and the hash to notice when a full response is the
+ * same as the one already in the database, so it can skip parsing and writing it again.
+ */
+class ForecastResponseCache {
+    private static final String LOG_TAG = ForecastResponseCache.class.getSimpleName();
+
+    private static final String HEADER_ETAG = "ETag";
+    private static final String HEADER_LAST_MODIFIED = "Last-Modified";
+    private static final String HEADER_IF_NONE_MATCH = "If-None-Match";
+    private static final String HEADER_IF_MODIFIED_SINCE = "If-Modified-Since";
+
+    private static final String KEY_ETAG = "etag";
+    private static final String KEY_LAST_MODIFIED = "last_modified";
+    private static final String KEY_BODY_HASH = "body_hash";
+    private static final String KEY_JULIAN_DAY = "julian_day";
+
+    private static final String BODY_SUFFIX = ".body";
+    private static final String META_SUFFIX = ".meta";
+
+    /**
+     * The cached response for one location query.
+     */
+    static class Entry {
+        String mETag;
+        String mLastModified;
+        String mBodyHash;
+        // The julian day the stored rows were dated from
+        int mJulianDay;
+        File mBody;
+    }
+
+    /**
+     * A response body saved to a temporary file while it was being downloaded.
+     */
+    static class Download {
+        File mFile;
+        String mBodyHash;
+        long mLength;
+    }
+
+    private final File mDir;
+
+    ForecastResponseCache(File dir) {
+        mDir = dir;
+    }
+
+    /**
+     * @return the cached response for the query, or null if there is none
+     */
+    Entry get(String locationQuery) {
+        String key = keyFor(locationQuery);
+        File meta = new File(mDir, key + META_SUFFIX);
+        File body = new File(mDir, key + BODY_SUFFIX);
+        if (!meta.exists() || !body.exists()) {
+            return null;
+        }
+
+        Properties properties = new Properties();
+        InputStream in = null;
+        try {
+            in = new FileInputStream(meta);
+            properties.load(in);
+        } catch (IOException e) {
+            Log.e(LOG_TAG, "Error reading cache entry for " + locationQuery, e);
+            return null;
+        } finally {
+            closeQuietly(in);
+        }
+
+        Entry entry = new Entry();
+        entry.mETag = properties.getProperty(KEY_ETAG);
+        entry.mLastModified = properties.getProperty(KEY_LAST_MODIFIED);
+        entry.mBodyHash = properties.getProperty(KEY_BODY_HASH);
+        entry.mBody = body;
+        try {
+            entry.mJulianDay = Integer.parseInt(properties.getProperty(KEY_JULIAN_DAY, "0"));
+        } catch (NumberFormatException e) {
+            return null;
+        }
+        return entry;
+    }
+
+    /**
+     * Turns the request into a conditional one using the validators from the cached entry.
+     */
+    static void addValidators(Entry entry, Map<String, String> requestHeaders) {
+        if (entry.mETag != null) {
+            requestHeaders.put(HEADER_IF_NONE_MATCH, entry.mETag);
+        }
+        if (entry.mLastModified != null) {
+            requestHeaders.put(HEADER_IF_MODIFIED_SINCE, entry.mLastModified);
+        }
+    }
+
+    /**
+     * Copies the response body into a temporary file in the cache directory, hashing it on the
+     * way.  The caller either hands the download to {@link #put} or to {@link #discard}.
+     */
+    Download download(String locationQuery, InputStream in) throws IOException {
+        if (!mDir.exists() && !mDir.mkdirs()) {
+            throw new IOException("Unable to create " + mDir);
+        }
+
+        Download download = new Download();
+        download.mFile = File.createTempFile(keyFor(locationQuery), ".tmp", mDir);
+
+        MessageDigest digest = newDigest();
+        DigestInputStream digestIn = new DigestInputStream(in, digest);
+        OutputStream out = new FileOutputStream(download.mFile);
+        try {
+            byte[] buffer = new byte[8192];
+            int read;
+            while ((read = digestIn.read(buffer)) != -1) {
+                out.write(buffer, 0, read);
+                download.mLength += read;
+            }
+        } catch (IOException e) {
+            download.mFile.delete();
+            throw e;
+        } finally {
+            closeQuietly(out);
+        }
+        download.mBodyHash = toHex(digest.digest());
+        return download;
+    }
+
+    /**
+     * Makes a finished download the cached response for the query.
+     *
+     * The new meta is written aside first and the old one removed, so the body is never paired
+     * with validators or a hash that belong to another body, even if the process dies halfway.
+     */
+    void put(String locationQuery, Download download, WeatherHttpClient.Response response,
+             int julianDay) {
+        String key = keyFor(locationQuery);
+        File newMeta = writeMeta(key, response.getHeaderField(HEADER_ETAG),
+                response.getHeaderField(HEADER_LAST_MODIFIED), download.mBodyHash,
+                julianDay);
+        if (newMeta == null) {
+            download.mFile.delete();
+            return;
+        }
+
+        // Without its meta the old entry is no longer read, whatever happens below
+        File meta = new File(mDir, key + META_SUFFIX);
+        File body = new File(mDir, key + BODY_SUFFIX);
+        if ((meta.exists() && !meta.delete()) || !download.mFile.renameTo(body)
+                || !newMeta.renameTo(meta)) {
+            Log.e(LOG_TAG, "Unable to store cache entry for " + locationQuery);
+            newMeta.delete();
+            download.mFile.delete();
+            body.delete();
+            meta.delete();
+        }
+    }
+
+    /**
+     * Records that an existing entry's body has been stored again for a different day, for
+     * instance after a 304 that crossed midnight.
+     */
+    void touch(String locationQuery, Entry entry, int julianDay) {
+        String key = keyFor(locationQuery);
+        File newMeta = writeMeta(key, entry.mETag, entry.mLastModified, entry.mBodyHash,
+                julianDay);
+        if (newMeta != null && !newMeta.renameTo(new File(mDir, key + META_SUFFIX))) {
+            Log.e(LOG_TAG, "Unable to update cache entry for " + locationQuery);
+            newMeta.delete();
+        }
+    }
+
+    void discard(Download download) {
+        download.mFile.delete();
+    }
+
+    /**
+     * Writes an entry's meta to a temporary file next to the entry, for the caller to rename
+     * into place.
+     *
+     * @return the temporary file, or null if it couldn't be written
+     */
+    private File writeMeta(String key, String eTag, String lastModified, String bodyHash,
+                           int julianDay) {
+        Properties properties = new Properties();
+        if (eTag != null) properties.setProperty(KEY_ETAG, eTag);
+        if (lastModified != null) properties.setProperty(KEY_LAST_MODIFIED, lastModified);
+        properties.setProperty(KEY_BODY_HASH, bodyHash);
+        properties.setProperty(KEY_JULIAN_DAY, Integer.toString(julianDay));
+
+        File file = null;
+        OutputStream out = null;
+        try {
+            file = File.createTempFile(key, META_SUFFIX + ".tmp", mDir);
+            out = new FileOutputStream(file);
+            properties.store(out, null);
+            out.close();
+            out = null;
+            return file;
+        } catch (IOException e) {
+            Log.e(LOG_TAG, "Error writing cache entry " + key, e);
+            if (file != null) {
+                file.delete();
+            }
+            return null;
+        } finally {
+            closeQuietly(out);
+        }
+    }
+
+    // Location settings are free text, so hash them into something safe to use as a file name
+    private static String keyFor(String locationQuery) {
+        MessageDigest digest = newDigest();
+        try {
+            return toHex(digest.digest(locationQuery.getBytes("UTF-8")));
+        } catch (UnsupportedEncodingException e) {
+            throw new AssertionError(e);
+        }
+    }
+
+    private static MessageDigest newDigest() {
+        try {
+            return MessageDigest.getInstance("SHA-1");
+        } catch (NoSuchAlgorithmException e) {
+            // Every Android device ships SHA-1
+            throw new AssertionError(e);
+        }
+    }
+
+    private static String toHex(byte[] bytes) {
+        StringBuilder sb = new StringBuilder(bytes.length * 2);
+        for (byte b : bytes) {
+            sb.append(Character.forDigit((b >> 4) & 0xf, 16));
+            sb.append(Character.forDigit(b & 0xf, 16));
+        }
+        return sb.toString();
+    }
+
+    private static void closeQuietly(Closeable closeable) {
+        if (closeable != null) {
+            try {
+                closeable.close();
+            } catch (IOException e) {
+                Log.e(LOG_TAG, "Error closing stream", e);
+            }
+        }
+    }
+}
@@ -0,0 +1,236 @@
+package com.axolotl.sunshine.sync;
+
+import android.content.ContentValues;
+import android.content.Context;
+import android.content.Intent;
+import android.content.SharedPreferences;
+import android.database.Cursor;
+import android.net.Uri;
+import android.os.Parcel;
+import android.os.Parcelable;
+import android.preference.PreferenceManager;
+
+import com.axolotl.sunshine.data.WeatherContract;
+
+
+/**
+ * Immutable copy of today's weather and the days after it for one location.
+ *
+ * The sync builds one from the rows it has just written and hands it to the widgets, Muzei, the
+ * notification and the watch on the intents that wake them, so none of them has to query the
+ * provider again.  Each consumer can also tell, through {@link #isSliceChanged}, whether the
+ * part of the snapshot it shows is any different from what it last published and recorded
+ * with {@link #recordSlice}.
+ */
+public final class ForecastSnapshot implements Parcelable {
+
+    // Intent extra carrying the snapshot
+    public static final String EXTRA_SNAPSHOT = "forecast_snapshot";
+
+    // The slices were stored as ints under "snapshot_slice_" before, a prefix of its own keeps
+    // getString() off those
+    private static final String PREF_SLICE_PREFIX = "snapshot_slice_values_";
+
+    private static final String[] FORECAST_COLUMNS = {
+            WeatherContract.WeatherEntry.COLUMN_DATE,
+            WeatherContract.WeatherEntry.COLUMN_WEATHER_ID,
+            WeatherContract.WeatherEntry.COLUMN_SHORT_DESC,
+            WeatherContract.WeatherEntry.COLUMN_MAX_TEMP,
+            WeatherContract.WeatherEntry.COLUMN_MIN_TEMP
+    };
+    // these indices must match the projection
+    private static final int INDEX_DATE = 0;
+    private static final int INDEX_WEATHER_ID = 1;
+    private static final int INDEX_SHORT_DESC = 2;
+    private static final int INDEX_MAX_TEMP = 3;
+    private static final int INDEX_MIN_TEMP = 4;
+
+    /**
+     * One day of the forecast.
+     */
+    public static final class Day {
+        public final long mDate;
+        public final int mWeatherId;
+        public final String mDescription;
+        public final double mHigh;
+        public final double mLow;
+
+        Day(long date, int weatherId, String description, double high, double low) {
+            mDate = date;
+            mWeatherId = weatherId;
+            mDescription = description;
+            mHigh = high;
+            mLow = low;
+        }
+    }
+
+    public final String mLocationSetting;
+    private final Day[] mDays;
+
+    ForecastSnapshot(String locationSetting, Day[] days) {
+        mLocationSetting = locationSetting;
+        mDays = days;
+    }
+
+    /**
+     * Builds a snapshot from weather rows as written by the sync, in date order.
+     */
+    static ForecastSnapshot fromRows(String locationSetting, ContentValues[] rows) {
+        Day[] days = new Day[rows.length];
+        for (int i = 0; i < rows.length; i++) {
+            ContentValues row = rows[i];
+            days[i] = new Day(
+                    row.getAsLong(WeatherContract.WeatherEntry.COLUMN_DATE),
+                    row.getAsInteger(WeatherContract.WeatherEntry.COLUMN_WEATHER_ID),
+                    row.getAsString(WeatherContract.WeatherEntry.COLUMN_SHORT_DESC),
+                    row.getAsDouble(WeatherContract.WeatherEntry.COLUMN_MAX_TEMP),
+                    row.getAsDouble(WeatherContract.WeatherEntry.COLUMN_MIN_TEMP));
+        }
+        return new ForecastSnapshot(locationSetting, days);
+    }
+
+    /**
+     * Reads a snapshot for consumers that were woken by something other than a sync (e.g. a
+     * widget being added), from the snapshot file if it is usable and from the provider if not.
+     *
+     * @return the snapshot, or null if there is no weather from today on for the location
+     */
+    public static ForecastSnapshot query(Context context, String locationSetting) {
+        ForecastSnapshotFile file = ForecastSnapshotFile.open(context, locationSetting);
+        if (file != null) {
+            return file.toSnapshot();
+        }
+
+        Uri weatherForLocationUri = WeatherContract.WeatherEntry.buildWeatherLocationWithStartDate(
+                locationSetting, System.currentTimeMillis());
+        Cursor data = context.getContentResolver().query(weatherForLocationUri, FORECAST_COLUMNS,
+                null, null, WeatherContract.WeatherEntry.COLUMN_DATE + " ASC");
+        if (data == null) {
+            return null;
+        }
+        try {
+            if (data.getCount() == 0) {
+                return null;
+            }
+            Day[] days = new Day[data.getCount()];
+            while (data.moveToNext()) {
+                days[data.getPosition()] = new Day(
+                        data.getLong(INDEX_DATE),
+                        data.getInt(INDEX_WEATHER_ID),
+                        data.getString(INDEX_SHORT_DESC),
+                        data.getDouble(INDEX_MAX_TEMP),
+                        data.getDouble(INDEX_MIN_TEMP));
+            }
+            return new ForecastSnapshot(locationSetting, days);
+        } finally {
+            data.close();
+        }
+    }
+
+    /**
+     * @return the snapshot the intent carries, or one read from the provider if it carries none
+     * or one for another location, or null if there is no weather for the location at all
+     */
+    public static ForecastSnapshot fromIntent(Context context, Intent intent,
+                                              String locationSetting) {
+        ForecastSnapshot snapshot = intent == null
+                ? null
+                : (ForecastSnapshot) intent.getParcelableExtra(EXTRA_SNAPSHOT);
+        if (snapshot != null && snapshot.mLocationSetting.equals(locationSetting)
+                && snapshot.getDayCount() > 0) {
+            return snapshot;
+        }
+        return query(context, locationSetting);
+    }
+
+    public int getDayCount() {
+        return mDays.length;
+    }
+
+    public Day getDay(int position) {
+        return mDays[position];
+    }
+
+    public Day getToday() {
+        return mDays[0];
+    }
+
+    /**
+     * Compares what a consumer is about to publish with what it last published, as recorded by
+     * {@link #recordSlice}.
+     *
+     * @param consumer a name for the consumer, unique within the app
+     * @param slice the values the consumer shows
+     * @return false if the consumer last published exactly the same values, so it can skip
+     * the work
+     */
+    public static boolean isSliceChanged(Context context, String consumer, Object... slice) {
+        SharedPreferences prefs = PreferenceManager.getDefaultSharedPreferences(context);
+        String key = PREF_SLICE_PREFIX + consumer;
+        return !encodeSlice(slice).equals(prefs.getString(key, null));
+    }
+
+    /**
+     * Records what a consumer has published.  Only call it once the values are out, so a
+     * publish that failed is retried on the next sync instead of being skipped as unchanged.
+     *
+     * @param consumer a name for the consumer, unique within the app
+     * @param slice the values the consumer shows
+     */
+    public static void recordSlice(Context context, String consumer, Object... slice) {
+        PreferenceManager.getDefaultSharedPreferences(context).edit()
+                .putString(PREF_SLICE_PREFIX + consumer, encodeSlice(slice))
+                .apply();
+    }
+
+    // The values as one string, each prefixed with its length so no two slices come out the
+    // same, and a null as a lone '-'
+    private static String encodeSlice(Object[] slice) {
+        StringBuilder encoded = new StringBuilder();
+        for (Object value : slice) {
+            if (value == null) {
+                encoded.append('-');
+                continue;
+            }
+            String string = value.toString();
+            encoded.append(string.length()).append(':').append(string);
+        }
+        return encoded.toString();
+    }
+
+    @Override
+    public int describeContents() {
+        return 0;
+    }
+
+    @Override
+    public void writeToParcel(Parcel dest, int flags) {
+        dest.writeString(mLocationSetting);
+        dest.writeInt(mDays.length);
+        for (Day day : mDays) {
+            dest.writeLong(day.mDate);
+            dest.writeInt(day.mWeatherId);
+            dest.writeString(day.mDescription);
+            dest.writeDouble(day.mHigh);
+            dest.writeDouble(day.mLow);
+        }
+    }
+
+    public static final Creator<ForecastSnapshot> CREATOR = new Creator<ForecastSnapshot>() {
+        @Override
+        public ForecastSnapshot createFromParcel(Parcel in) {
+            String locationSetting = in.readString();
+            Day[] days = new Day[in.readInt()];
+            for (int i = 0; i < days.length; i++) {
+                days[i] = new Day(in.readLong(), in.readInt(), in.readString(), in.readDouble(),
+                        in.readDouble());
+            }
+            return new ForecastSnapshot(locationSetting, days);
+        }
+
+        @Override
+        public ForecastSnapshot[] newArray(int size) {
+            return new ForecastSnapshot[size];
+        }
+    };
+}
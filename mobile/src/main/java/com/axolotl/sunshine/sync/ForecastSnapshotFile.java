@@ -0,0 +1,501 @@
+package com.axolotl.sunshine.sync;
+
+import android.content.Context;
+import android.database.AbstractCursor;
+import android.database.Cursor;
+import android.util.Log;
+
+import com.axolotl.sunshine.data.WeatherContract;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.UnsupportedEncodingException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+
+/**
+ * The preferred location's forecast as the last sync stored it, in a small binary file that
+ * can be read without opening the database.
+ *
+ * The file is a fixed header, one fixed-width record per day and a table of the strings the
+ * header and the records point into:
+ *
+ * <pre>
+ * header   magic, version, written at, latitude, longitude, location string, day count,
+ *          string table offset
+ * record   date, weather id, description string, high, low
+ * string   length as an unsigned short, then that many bytes of UTF-8
+ * </pre>
+ *
+ * Readers memory-map it and read every number straight out of the mapping, so going through
+ * the days allocates nothing.  {@link #open} returns null when the file is missing, was written
+ * by another version, is for another location or has no day from today on; callers then go to
+ * the provider as before.
+ */
+public final class ForecastSnapshotFile {
+    private static final String LOG_TAG = ForecastSnapshotFile.class.getSimpleName();
+
+    private static final String FILE_NAME = "forecast.snapshot";
+
+    // "SUNS"
+    private static final int MAGIC = 0x53554e53;
+    // Bump whenever the layout below changes, older files are then ignored
+    static final int VERSION = 1;
+
+    private static final int HEADER_MAGIC = 0;
+    private static final int HEADER_VERSION = 4;
+    private static final int HEADER_WRITTEN_AT = 8;
+    private static final int HEADER_LATITUDE = 16;
+    private static final int HEADER_LONGITUDE = 24;
+    private static final int HEADER_LOCATION = 32;
+    private static final int HEADER_DAY_COUNT = 36;
+    private static final int HEADER_STRINGS = 40;
+    private static final int HEADER_SIZE = 44;
+
+    private static final int RECORD_DATE = 0;
+    private static final int RECORD_WEATHER_ID = 8;
+    private static final int RECORD_DESCRIPTION = 12;
+    private static final int RECORD_HIGH = 16;
+    private static final int RECORD_LOW = 24;
+    private static final int RECORD_SIZE = 32;
+
+    // The current mapping, shared by every reader.  Readers only use absolute gets on it, which
+    // leave it untouched, and it is replaced rather than changed when a new file is written.
+    private static final Object sLock = new Object();
+    private static ByteBuffer sMapped;
+    private static long sMappedModified;
+    private static long sMappedLength;
+
+    private final ByteBuffer mBuffer;
+    // Index of the first day from today on, and how many days there are from it
+    private final int mFirstDay;
+    private final int mDayCount;
+
+    private ForecastSnapshotFile(ByteBuffer buffer, int firstDay, int dayCount) {
+        mBuffer = buffer;
+        mFirstDay = firstDay;
+        mDayCount = dayCount;
+    }
+
+    /**
+     * @return the stored forecast for the location from today on, or null if there is no usable
+     * one and the provider has to be asked instead
+     */
+    public static ForecastSnapshotFile open(Context context, String locationSetting) {
+        ByteBuffer buffer = map(getFile(context));
+        if (buffer == null || buffer.capacity() < HEADER_SIZE
+                || buffer.getInt(HEADER_MAGIC) != MAGIC
+                || buffer.getInt(HEADER_VERSION) != VERSION
+                || !stringEquals(buffer, buffer.getInt(HEADER_LOCATION), locationSetting)) {
+            return null;
+        }
+
+        int storedDays = buffer.getInt(HEADER_DAY_COUNT);
+        if (storedDays < 0 || buffer.capacity() < HEADER_SIZE + storedDays * RECORD_SIZE) {
+            return null;
+        }
+        long today = WeatherContract.normalizeDate(System.currentTimeMillis());
+        int firstDay = 0;
+        while (firstDay < storedDays && getRecordLong(buffer, firstDay, RECORD_DATE) < today) {
+            firstDay++;
+        }
+        if (firstDay == storedDays) {
+            // Every stored day is in the past
+            return null;
+        }
+        return new ForecastSnapshotFile(buffer, firstDay, storedDays - firstDay);
+    }
+
+    /**
+     * Replaces the file with the given forecast.  Written to the side and renamed into place, so
+     * a reader never maps a half written file.
+     */
+    static void write(Context context, ForecastSnapshot snapshot, double latitude,
+                      double longitude) {
+        // Lay out the string table first, descriptions repeat so each is stored once
+        HashMap<String, Integer> stringOffsets = new HashMap<String, Integer>();
+        List<byte[]> strings = new ArrayList<byte[]>();
+        int[] stringsSize = {0};
+        int locationOffset = addString(snapshot.mLocationSetting, stringOffsets, strings,
+                stringsSize);
+        int dayCount = snapshot.getDayCount();
+        int[] descriptionOffsets = new int[dayCount];
+        for (int i = 0; i < dayCount; i++) {
+            descriptionOffsets[i] = addString(snapshot.getDay(i).mDescription, stringOffsets,
+                    strings, stringsSize);
+        }
+
+        int stringTable = HEADER_SIZE + dayCount * RECORD_SIZE;
+        ByteBuffer buffer = ByteBuffer.allocate(stringTable + stringsSize[0]);
+        buffer.putInt(HEADER_MAGIC, MAGIC);
+        buffer.putInt(HEADER_VERSION, VERSION);
+        buffer.putLong(HEADER_WRITTEN_AT, System.currentTimeMillis());
+        buffer.putDouble(HEADER_LATITUDE, latitude);
+        buffer.putDouble(HEADER_LONGITUDE, longitude);
+        buffer.putInt(HEADER_LOCATION, locationOffset);
+        buffer.putInt(HEADER_DAY_COUNT, dayCount);
+        buffer.putInt(HEADER_STRINGS, stringTable);
+        for (int i = 0; i < dayCount; i++) {
+            ForecastSnapshot.Day day = snapshot.getDay(i);
+            int record = HEADER_SIZE + i * RECORD_SIZE;
+            buffer.putLong(record + RECORD_DATE, day.mDate);
+            buffer.putInt(record + RECORD_WEATHER_ID, day.mWeatherId);
+            buffer.putInt(record + RECORD_DESCRIPTION, descriptionOffsets[i]);
+            buffer.putDouble(record + RECORD_HIGH, day.mHigh);
+            buffer.putDouble(record + RECORD_LOW, day.mLow);
+        }
+        buffer.position(stringTable);
+        for (byte[] string : strings) {
+            buffer.putShort((short) string.length);
+            buffer.put(string);
+        }
+
+        File file = getFile(context);
+        File tempFile = new File(file.getPath() + ".tmp");
+        FileOutputStream out = null;
+        try {
+            out = new FileOutputStream(tempFile);
+            out.write(buffer.array());
+            out.getFD().sync();
+            out.close();
+            out = null;
+            if (!tempFile.renameTo(file)) {
+                throw new IOException("Unable to rename " + tempFile);
+            }
+            synchronized (sLock) {
+                // The modification time may not have moved on, so don't trust it to
+                sMapped = null;
+            }
+        } catch (IOException e) {
+            Log.e(LOG_TAG, "Error writing " + file, e);
+            tempFile.delete();
+        } finally {
+            if (out != null) {
+                try {
+                    out.close();
+                } catch (IOException e) {
+                    // Already failing
+                }
+            }
+        }
+    }
+
+    public int getDayCount() {
+        return mDayCount;
+    }
+
+    public long getDate(int position) {
+        return getRecordLong(mBuffer, mFirstDay + position, RECORD_DATE);
+    }
+
+    public int getWeatherId(int position) {
+        return mBuffer.getInt(getRecord(mFirstDay + position) + RECORD_WEATHER_ID);
+    }
+
+    public double getHigh(int position) {
+        return mBuffer.getDouble(getRecord(mFirstDay + position) + RECORD_HIGH);
+    }
+
+    public double getLow(int position) {
+        return mBuffer.getDouble(getRecord(mFirstDay + position) + RECORD_LOW);
+    }
+
+    /**
+     * The only getter that allocates, as it has to build the String.
+     */
+    public String getDescription(int position) {
+        return getString(mBuffer, mBuffer.getInt(getRecord(mFirstDay + position)
+                + RECORD_DESCRIPTION));
+    }
+
+    public String getLocationSetting() {
+        return getString(mBuffer, mBuffer.getInt(HEADER_LOCATION));
+    }
+
+    public double getLatitude() {
+        return mBuffer.getDouble(HEADER_LATITUDE);
+    }
+
+    public double getLongitude() {
+        return mBuffer.getDouble(HEADER_LONGITUDE);
+    }
+
+    /**
+     * @return when the sync wrote the file, in milliseconds since the epoch
+     */
+    public long getWrittenAt() {
+        return mBuffer.getLong(HEADER_WRITTEN_AT);
+    }
+
+    ForecastSnapshot toSnapshot() {
+        ForecastSnapshot.Day[] days = new ForecastSnapshot.Day[mDayCount];
+        for (int i = 0; i < mDayCount; i++) {
+            days[i] = new ForecastSnapshot.Day(getDate(i), getWeatherId(i), getDescription(i),
+                    getHigh(i), getLow(i));
+        }
+        return new ForecastSnapshot(getLocationSetting(), days);
+    }
+
+    /**
+     * @param projection columns of the joined weather and location tables, optionally prefixed
+     * by their table name.  The weather row id is not stored, the date stands in for it.
+     * @return a cursor over the days that reads every value from the mapping as it is asked for
+     */
+    public Cursor toCursor(String[] projection) {
+        return new SnapshotCursor(this, projection);
+    }
+
+    private int getRecord(int day) {
+        return HEADER_SIZE + day * RECORD_SIZE;
+    }
+
+    private static long getRecordLong(ByteBuffer buffer, int day, int field) {
+        return buffer.getLong(HEADER_SIZE + day * RECORD_SIZE + field);
+    }
+
+    private static String getString(ByteBuffer buffer, int offset) {
+        int start = buffer.getInt(HEADER_STRINGS) + offset;
+        int length = buffer.getShort(start) & 0xffff;
+        byte[] bytes = new byte[length];
+        for (int i = 0; i < length; i++) {
+            bytes[i] = buffer.get(start + 2 + i);
+        }
+        try {
+            return new String(bytes, "UTF-8");
+        } catch (UnsupportedEncodingException e) {
+            throw new AssertionError(e);
+        }
+    }
+
+    // Compares a stored string with an ASCII one without decoding it.  Location settings are
+    // postal codes or city names; anything non-ASCII is decoded and compared the slow way.
+    private static boolean stringEquals(ByteBuffer buffer, int offset, String value) {
+        int start = buffer.getInt(HEADER_STRINGS) + offset;
+        if (start < HEADER_SIZE || start + 2 > buffer.capacity()) {
+            return false;
+        }
+        int length = buffer.getShort(start) & 0xffff;
+        if (start + 2 + length > buffer.capacity()) {
+            return false;
+        }
+        for (int i = 0; i < value.length(); i++) {
+            if (value.charAt(i) >= 0x80) {
+                return value.equals(getString(buffer, offset));
+            }
+        }
+        if (length != value.length()) {
+            return false;
+        }
+        for (int i = 0; i < length; i++) {
+            if (buffer.get(start + 2 + i) != value.charAt(i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static int addString(String value, HashMap<String, Integer> offsets,
+                                 List<byte[]> strings, int[] size) {
+        Integer offset = offsets.get(value);
+        if (offset != null) {
+            return offset;
+        }
+        byte[] bytes;
+        try {
+            bytes = value.getBytes("UTF-8");
+        } catch (UnsupportedEncodingException e) {
+            throw new AssertionError(e);
+        }
+        offset = size[0];
+        offsets.put(value, offset);
+        strings.add(bytes);
+        size[0] += 2 + bytes.length;
+        return offset;
+    }
+
+    private static File getFile(Context context) {
+        return new File(context.getFilesDir(), FILE_NAME);
+    }
+
+    // Maps the file, or hands back the existing mapping if the file has not changed since
+    private static ByteBuffer map(File file) {
+        long modified = file.lastModified();
+        long length = file.length();
+        synchronized (sLock) {
+            if (modified == 0) {
+                sMapped = null;
+                return null;
+            }
+            if (sMapped != null && modified == sMappedModified && length == sMappedLength) {
+                return sMapped;
+            }
+            FileInputStream in = null;
+            try {
+                in = new FileInputStream(file);
+                FileChannel channel = in.getChannel();
+                MappedByteBuffer mapped =
+                        channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+                sMapped = mapped;
+                sMappedModified = modified;
+                sMappedLength = length;
+                return mapped;
+            } catch (IOException e) {
+                Log.e(LOG_TAG, "Error mapping " + file, e);
+                sMapped = null;
+                return null;
+            } finally {
+                if (in != null) {
+                    try {
+                        // The mapping stays valid after the channel is closed
+                        in.close();
+                    } catch (IOException e) {
+                        // Nothing was written, nothing to lose
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Presents the days of a snapshot file like a weather query joined with its location.
+     */
+    private static class SnapshotCursor extends AbstractCursor {
+        private static final int COLUMN_UNKNOWN = 0;
+        private static final int COLUMN_ID = 1;
+        private static final int COLUMN_DATE = 2;
+        private static final int COLUMN_WEATHER_ID = 3;
+        private static final int COLUMN_SHORT_DESC = 4;
+        private static final int COLUMN_MAX_TEMP = 5;
+        private static final int COLUMN_MIN_TEMP = 6;
+        private static final int COLUMN_LOCATION_SETTING = 7;
+        private static final int COLUMN_COORD_LAT = 8;
+        private static final int COLUMN_COORD_LONG = 9;
+
+        private final ForecastSnapshotFile mFile;
+        private final String[] mColumnNames;
+        private final int[] mColumns;
+
+        SnapshotCursor(ForecastSnapshotFile file, String[] projection) {
+            mFile = file;
+            mColumnNames = new String[projection.length];
+            mColumns = new int[projection.length];
+            for (int i = 0; i < projection.length; i++) {
+                // Drop the table name, the way SQLite names a qualified result column
+                String name = projection[i].substring(projection[i].lastIndexOf('.') + 1);
+                mColumnNames[i] = name;
+                mColumns[i] = getColumn(name);
+            }
+        }
+
+        private static int getColumn(String name) {
+            if (WeatherContract.WeatherEntry._ID.equals(name)) {
+                return COLUMN_ID;
+            } else if (WeatherContract.WeatherEntry.COLUMN_DATE.equals(name)) {
+                return COLUMN_DATE;
+            } else if (WeatherContract.WeatherEntry.COLUMN_WEATHER_ID.equals(name)) {
+                return COLUMN_WEATHER_ID;
+            } else if (WeatherContract.WeatherEntry.COLUMN_SHORT_DESC.equals(name)) {
+                return COLUMN_SHORT_DESC;
+            } else if (WeatherContract.WeatherEntry.COLUMN_MAX_TEMP.equals(name)) {
+                return COLUMN_MAX_TEMP;
+            } else if (WeatherContract.WeatherEntry.COLUMN_MIN_TEMP.equals(name)) {
+                return COLUMN_MIN_TEMP;
+            } else if (WeatherContract.LocationEntry.COLUMN_LOCATION_SETTING.equals(name)) {
+                return COLUMN_LOCATION_SETTING;
+            } else if (WeatherContract.LocationEntry.COLUMN_COORD_LAT.equals(name)) {
+                return COLUMN_COORD_LAT;
+            } else if (WeatherContract.LocationEntry.COLUMN_COORD_LONG.equals(name)) {
+                return COLUMN_COORD_LONG;
+            }
+            return COLUMN_UNKNOWN;
+        }
+
+        @Override
+        public int getCount() {
+            return mFile.getDayCount();
+        }
+
+        @Override
+        public String[] getColumnNames() {
+            return mColumnNames;
+        }
+
+        @Override
+        public String getString(int column) {
+            switch (mColumns[column]) {
+                case COLUMN_SHORT_DESC:
+                    return mFile.getDescription(getPosition());
+                case COLUMN_LOCATION_SETTING:
+                    return mFile.getLocationSetting();
+                case COLUMN_MAX_TEMP:
+                case COLUMN_MIN_TEMP:
+                case COLUMN_COORD_LAT:
+                case COLUMN_COORD_LONG:
+                    return Double.toString(getDouble(column));
+                case COLUMN_UNKNOWN:
+                    return null;
+                default:
+                    return Long.toString(getLong(column));
+            }
+        }
+
+        @Override
+        public short getShort(int column) {
+            return (short) getLong(column);
+        }
+
+        @Override
+        public int getInt(int column) {
+            return (int) getLong(column);
+        }
+
+        @Override
+        public long getLong(int column) {
+            switch (mColumns[column]) {
+                case COLUMN_ID:
+                case COLUMN_DATE:
+                    return mFile.getDate(getPosition());
+                case COLUMN_WEATHER_ID:
+                    return mFile.getWeatherId(getPosition());
+                default:
+                    return (long) getDouble(column);
+            }
+        }
+
+        @Override
+        public float getFloat(int column) {
+            return (float) getDouble(column);
+        }
+
+        @Override
+        public double getDouble(int column) {
+            switch (mColumns[column]) {
+                case COLUMN_MAX_TEMP:
+                    return mFile.getHigh(getPosition());
+                case COLUMN_MIN_TEMP:
+                    return mFile.getLow(getPosition());
+                case COLUMN_COORD_LAT:
+                    return mFile.getLatitude();
+                case COLUMN_COORD_LONG:
+                    return mFile.getLongitude();
+                case COLUMN_ID:
+                case COLUMN_DATE:
+                case COLUMN_WEATHER_ID:
+                    return getLong(column);
+                default:
+                    return 0;
+            }
+        }
+
+        @Override
+        public boolean isNull(int column) {
+            return mColumns[column] == COLUMN_UNKNOWN;
+        }
+    }
+}
@@ -0,0 +1,35 @@
+package com.axolotl.sunshine.sync;
+
+/**
+ * What happened when one location was synced.
+ */
+class LocationSyncResult {
+    final String mLocationSetting;
+
+    @SunshineSyncAdapter.LocationStatus
+    int mStatus = SunshineSyncAdapter.LOCATION_STATUS_UNKNOWN;
+
+    // Number of forecast days written to the database, 0 if nothing was stored
+    int mDaysStored;
+
+    // How the stored days compared with what was already in the database
+    int mRowsInserted;
+    int mRowsUpdated;
+    int mRowsUnchanged;
+
+    // What was stored, for the consumers of a sync; null if nothing was stored
+    ForecastSnapshot mSnapshot;
+    double mCityLatitude;
+    double mCityLongitude;
+
+    // True when the server's forecast was the same as the one already stored
+    boolean mNotModified;
+
+    // Response body size as sent by the server, and after un-gzipping it
+    long mWireBytes;
+    long mDecodedBytes;
+
+    LocationSyncResult(String locationSetting) {
+        mLocationSetting = locationSetting;
+    }
+}
@@ -0,0 +1,82 @@
+package com.axolotl.sunshine.sync;
+
+import android.util.Log;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Syncs several locations at once on a small, bounded pool of workers.
+ *
+ * Every location is downloaded, parsed and stored independently, so one location failing does
+ * not affect the others.  Start times are staggered so the requests don't all hit the radio at
+ * the same instant.
+ */
+class MultiLocationSync {
+    private static final String LOG_TAG = MultiLocationSync.class.getSimpleName();
+
+    // Never run more than this many downloads at the same time
+    static final int MAX_WORKERS = 4;
+    // Delay between the start of one location's sync and the next
+    static final long STAGGER_MILLIS = 250;
+
+    /**
+     * Does the actual work for one location.
+     */
+    interface LocationSyncer {
+        LocationSyncResult sync(String locationSetting);
+    }
+
+    /**
+     * Syncs every location and waits for all of them to finish.
+     *
+     * @param locations the location settings to sync, in the order they should start
+     * @param syncer does the work for a single location
+     * @return one result per location, in the same order as {@code locations}
+     */
+    static List<LocationSyncResult> syncAll(List<String> locations, final LocationSyncer syncer) {
+        ScheduledExecutorService executor =
+                new ScheduledThreadPoolExecutor(Math.min(MAX_WORKERS, locations.size()));
+        List<Future<LocationSyncResult>> futures =
+                new ArrayList<Future<LocationSyncResult>>(locations.size());
+        try {
+            for (int i = 0; i < locations.size(); i++) {
+                final String location = locations.get(i);
+                futures.add(executor.schedule(new Callable<LocationSyncResult>() {
+                    @Override
+                    public LocationSyncResult call() throws Exception {
+                        return syncer.sync(location);
+                    }
+                }, i * STAGGER_MILLIS, TimeUnit.MILLISECONDS));
+            }
+
+            List<LocationSyncResult> results =
+                    new ArrayList<LocationSyncResult>(locations.size());
+            for (int i = 0; i < futures.size(); i++) {
+                LocationSyncResult result;
+                try {
+                    result = futures.get(i).get();
+                } catch (ExecutionException e) {
+                    // Keep the failure to this one location
+                    Log.e(LOG_TAG, "Sync failed for " + locations.get(i), e.getCause());
+                    result = new LocationSyncResult(locations.get(i));
+                    result.mStatus = SunshineSyncAdapter.LOCATION_STATUS_SERVER_DOWN;
+                } catch (InterruptedException e) {
+                    // The sync was cancelled, report what is left as not done
+                    Thread.currentThread().interrupt();
+                    result = new LocationSyncResult(locations.get(i));
+                }
+                results.add(result);
+            }
+            return results;
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+}
@@ -0,0 +1,64 @@
+package com.axolotl.sunshine.sync;
+
+import android.net.Uri;
+
+import com.axolotl.sunshine.BuildConfig;
+
+import java.io.IOException;
+import java.util.Map;
+
+/**
+ * Fetches the 14 day daily forecast, or the 5 day forecast in 3 hour steps, from OpenWeatherMap.
+ */
+public class OwmWeatherSource implements WeatherSource {
+    private final WeatherHttpClient mHttpClient;
+
+    public OwmWeatherSource(WeatherHttpClient httpClient) {
+        mHttpClient = httpClient;
+    }
+
+    @Override
+    public WeatherHttpClient.Response fetch(@Forecast int forecast, String locationQuery,
+                                            Map<String, String> requestHeaders)
+            throws IOException {
+        String format = "json";
+        String units = "metric";
+        int numDays = 14;
+
+        // Construct the URL for the OpenWeatherMap query
+        // Possible parameters are avaiable at OWM's forecast API page, at
+        // http://openweathermap.org/API#forecast
+        final String FORECAST_BASE_URL =
+                "http://api.openweathermap.org/data/2.5/forecast/daily?";
+        final String FORECAST_3_HOUR_BASE_URL =
+                "http://api.openweathermap.org/data/2.5/forecast?";
+        final String QUERY_PARAM = "q";
+        final String FORMAT_PARAM = "mode";
+        final String UNITS_PARAM = "units";
+        final String DAYS_PARAM = "cnt";
+        final String APPID_PARAM = "APPID";
+
+        Uri.Builder builder;
+        if (forecast == FORECAST_3_HOUR) {
+            // Always the full 5 days, there is no count to ask for
+            builder = Uri.parse(FORECAST_3_HOUR_BASE_URL).buildUpon()
+                    .appendQueryParameter(QUERY_PARAM, locationQuery);
+        } else {
+            builder = Uri.parse(FORECAST_BASE_URL).buildUpon()
+                    .appendQueryParameter(QUERY_PARAM, locationQuery)
+                    .appendQueryParameter(DAYS_PARAM, Integer.toString(numDays));
+        }
+        Uri builtUri = builder
+                .appendQueryParameter(FORMAT_PARAM, format)
+                .appendQueryParameter(UNITS_PARAM, units)
+                .appendQueryParameter(APPID_PARAM, BuildConfig.OPEN_WEATHER_MAP_API_KEY)
+                .build();
+
+        return mHttpClient.get(builtUri.toString(), requestHeaders);
+    }
+
+    @Override
+    public boolean isRemote() {
+        return true;
+    }
+}
@@ -0,0 +1,169 @@
+package com.axolotl.sunshine.sync;
+
+import android.util.Log;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.util.Map;
+
+/**
+ * Wraps another source and saves every full response body it returns into a corpus directory
+ * that {@link ReplayWeatherSource} can serve later, forecasts and the client errors a location
+ * gets, with their response code.  The newest body for a location replaces the one recorded
+ * before it.  Server errors aren't recorded, they say nothing about the location.
+ */
+public class RecordingWeatherSource implements WeatherSource {
+    private static final String LOG_TAG = RecordingWeatherSource.class.getSimpleName();
+
+    private final WeatherSource mSource;
+    private final File mCorpusDir;
+
+    public RecordingWeatherSource(WeatherSource source, File corpusDir) {
+        mSource = source;
+        mCorpusDir = corpusDir;
+    }
+
+    @Override
+    public WeatherHttpClient.Response fetch(@Forecast int forecast, String locationQuery,
+                                            Map<String, String> requestHeaders)
+            throws IOException {
+        WeatherHttpClient.Response response =
+                mSource.fetch(forecast, locationQuery, requestHeaders);
+        int responseCode = response.getResponseCode();
+        if (responseCode != HttpURLConnection.HTTP_OK
+                && (responseCode < HttpURLConnection.HTTP_BAD_REQUEST
+                || responseCode >= HttpURLConnection.HTTP_INTERNAL_ERROR)) {
+            return response;
+        }
+        if (!mCorpusDir.exists() && !mCorpusDir.mkdirs()) {
+            Log.e(LOG_TAG, "Unable to create " + mCorpusDir);
+            return response;
+        }
+        return new RecordingResponse(response, responseCode,
+                ReplayWeatherSource.getFixtureFile(mCorpusDir, forecast, locationQuery));
+    }
+
+    @Override
+    public boolean isRemote() {
+        return mSource.isRemote();
+    }
+
+    /**
+     * Copies the body into a temporary file as the caller reads it, and moves it into place
+     * once the body has been read to the end.
+     */
+    private static class RecordingResponse implements WeatherHttpClient.Response {
+        private final WeatherHttpClient.Response mResponse;
+        private final int mResponseCode;
+        private final File mFixture;
+        private File mTempFile;
+        private OutputStream mOut;
+        private boolean mComplete;
+        private InputStream mBody;
+
+        RecordingResponse(WeatherHttpClient.Response response, int responseCode, File fixture) {
+            mResponse = response;
+            mResponseCode = responseCode;
+            mFixture = fixture;
+        }
+
+        @Override
+        public int getResponseCode() {
+            return mResponseCode;
+        }
+
+        @Override
+        public String getHeaderField(String name) {
+            return mResponse.getHeaderField(name);
+        }
+
+        @Override
+        public InputStream getBody() throws IOException {
+            if (mBody == null) {
+                record(mResponse.getBody());
+            }
+            return mBody;
+        }
+
+        @Override
+        public InputStream getErrorBody() throws IOException {
+            if (mBody == null) {
+                InputStream errorBody = mResponse.getErrorBody();
+                if (errorBody == null) {
+                    return null;
+                }
+                record(errorBody);
+            }
+            return mBody;
+        }
+
+        private void record(InputStream body) throws IOException {
+            mTempFile = new File(mFixture.getPath() + ".tmp");
+            mOut = new FileOutputStream(mTempFile);
+            mBody = new FilterInputStream(body) {
+                @Override
+                public int read() throws IOException {
+                    int b = super.read();
+                    if (b == -1) {
+                        mComplete = true;
+                    } else {
+                        mOut.write(b);
+                    }
+                    return b;
+                }
+
+                @Override
+                public int read(byte[] buffer, int offset, int count) throws IOException {
+                    int read = super.read(buffer, offset, count);
+                    if (read == -1) {
+                        mComplete = true;
+                    } else {
+                        mOut.write(buffer, offset, read);
+                    }
+                    return read;
+                }
+            };
+        }
+
+        @Override
+        public long getWireBytes() {
+            return mResponse.getWireBytes();
+        }
+
+        @Override
+        public long getDecodedBytes() {
+            return mResponse.getDecodedBytes();
+        }
+
+        @Override
+        public void close() {
+            mResponse.close();
+            if (mOut == null) {
+                return;
+            }
+            try {
+                mOut.close();
+            } catch (IOException e) {
+                mComplete = false;
+            }
+            if (!mComplete || !mTempFile.renameTo(mFixture)) {
+                // Only whole bodies go in the corpus
+                mTempFile.delete();
+                return;
+            }
+            try {
+                ReplayWeatherSource.writeResponseCode(mFixture, mResponseCode);
+                Log.d(LOG_TAG, "Recorded " + mFixture + ", " + mResponseCode);
+            } catch (IOException e) {
+                // A body without its code would be served as something it wasn't
+                Log.e(LOG_TAG, "Unable to record the response code of " + mFixture, e);
+                mFixture.delete();
+            }
+        }
+    }
+}
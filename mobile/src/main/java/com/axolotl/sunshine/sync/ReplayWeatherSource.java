@@ -0,0 +1,165 @@
+package com.axolotl.sunshine.sync;
+
+import java.io.BufferedReader;
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.FileReader;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UnsupportedEncodingException;
+import java.io.Writer;
+import java.net.HttpURLConnection;
+import java.net.URLEncoder;
+import java.util.Map;
+
+/**
+ * Serves forecasts from a corpus of saved response bodies instead of the network.
+ *
+ * The corpus is a directory with one file per location and forecast, named by
+ * {@link #getFixtureFile}, as written by {@link RecordingWeatherSource}.  A body that wasn't
+ * served with a 200 has its response code in a file of its own next to it, see
+ * {@link #writeResponseCode}, and is served with that code, the way the server sent it.  A
+ * location without a file gets the same 404 and "city not found" body OpenWeatherMap sends for
+ * an unknown location.
+ */
+public class ReplayWeatherSource implements WeatherSource {
+
+    private static final String FIXTURE_SUFFIX = ".json";
+    private static final String FIXTURE_3_HOUR_SUFFIX = ".3h.json";
+    private static final String RESPONSE_CODE_SUFFIX = ".code";
+
+    // What OWM answers for a location it doesn't know
+    private static final String NOT_FOUND_BODY = "{\"cod\":\"404\",\"message\":\"city not found\"}";
+
+    private final File mCorpusDir;
+
+    public ReplayWeatherSource(File corpusDir) {
+        mCorpusDir = corpusDir;
+    }
+
+    /**
+     * @return the file the saved response for a forecast of a location query lives in
+     */
+    public static File getFixtureFile(File corpusDir, @Forecast int forecast,
+                                      String locationQuery) {
+        String suffix = forecast == FORECAST_3_HOUR ? FIXTURE_3_HOUR_SUFFIX : FIXTURE_SUFFIX;
+        try {
+            return new File(corpusDir, URLEncoder.encode(locationQuery, "UTF-8") + suffix);
+        } catch (UnsupportedEncodingException e) {
+            throw new AssertionError(e);
+        }
+    }
+
+    /**
+     * Saves the code the body in a fixture file was served with, or forgets it for a 200, which
+     * is what a fixture without one is served with.
+     */
+    public static void writeResponseCode(File fixture, int responseCode) throws IOException {
+        File codeFile = new File(fixture.getPath() + RESPONSE_CODE_SUFFIX);
+        if (responseCode == HttpURLConnection.HTTP_OK) {
+            if (codeFile.exists() && !codeFile.delete()) {
+                throw new IOException("Unable to delete " + codeFile);
+            }
+            return;
+        }
+        Writer out = new FileWriter(codeFile);
+        try {
+            out.write(Integer.toString(responseCode));
+        } finally {
+            out.close();
+        }
+    }
+
+    private static int readResponseCode(File fixture) throws IOException {
+        File codeFile = new File(fixture.getPath() + RESPONSE_CODE_SUFFIX);
+        if (!codeFile.exists()) {
+            return HttpURLConnection.HTTP_OK;
+        }
+        BufferedReader in = new BufferedReader(new FileReader(codeFile));
+        try {
+            String line = in.readLine();
+            return Integer.parseInt(line == null ? "" : line.trim());
+        } catch (NumberFormatException e) {
+            throw new IOException("Bad response code in " + codeFile);
+        } finally {
+            in.close();
+        }
+    }
+
+    @Override
+    public WeatherHttpClient.Response fetch(@Forecast int forecast, String locationQuery,
+                                            Map<String, String> requestHeaders)
+            throws IOException {
+        File fixture = getFixtureFile(mCorpusDir, forecast, locationQuery);
+        if (!fixture.exists()) {
+            return new ReplayResponse(HttpURLConnection.HTTP_NOT_FOUND,
+                    new ByteArrayInputStream(NOT_FOUND_BODY.getBytes("UTF-8")));
+        }
+        return new ReplayResponse(readResponseCode(fixture), new FileInputStream(fixture));
+    }
+
+    @Override
+    public boolean isRemote() {
+        return false;
+    }
+
+    private static class ReplayResponse implements WeatherHttpClient.Response {
+        private final int mResponseCode;
+        private final CountingInputStream mBody;
+
+        ReplayResponse(int responseCode, InputStream body) {
+            mResponseCode = responseCode;
+            mBody = new CountingInputStream(body);
+        }
+
+        @Override
+        public int getResponseCode() {
+            return mResponseCode;
+        }
+
+        @Override
+        public String getHeaderField(String name) {
+            return null;
+        }
+
+        @Override
+        public InputStream getBody() throws IOException {
+            if (isError()) {
+                // As HttpURLConnection does, so the sync has to ask for the error body
+                throw new FileNotFoundException("HTTP " + mResponseCode);
+            }
+            return mBody;
+        }
+
+        @Override
+        public InputStream getErrorBody() {
+            return isError() ? mBody : null;
+        }
+
+        private boolean isError() {
+            return mResponseCode >= HttpURLConnection.HTTP_BAD_REQUEST;
+        }
+
+        @Override
+        public long getWireBytes() {
+            return mBody.getCount();
+        }
+
+        @Override
+        public long getDecodedBytes() {
+            return mBody.getCount();
+        }
+
+        @Override
+        public void close() {
+            try {
+                mBody.close();
+            } catch (IOException e) {
+                // Nothing was written, nothing to lose
+            }
+        }
+    }
+}
@@ -0,0 +1,59 @@
+package com.axolotl.sunshine.sync;
+
+import android.content.ContentValues;
+
+import com.axolotl.sunshine.core.DailyForecast;
+import com.axolotl.sunshine.core.DailyForecastParser;
+import com.axolotl.sunshine.core.ForecastFormatException;
+import com.axolotl.sunshine.data.WeatherContract;
+
+import org.json.JSONException;
+
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * Pull parser for the forecast response.  The body is read straight off the connection by
+ * {@link DailyForecastParser} in sunshine-core, so neither the response String nor a JSONObject
+ * tree is ever built; this only turns its columns into weather rows.
+ */
+public class StreamingForecastParser implements ForecastParser {
+
+    @Override
+    public ForecastResponse parse(InputStream in) throws IOException, JSONException {
+        DailyForecast forecast;
+        try {
+            forecast = new DailyForecastParser().parse(in);
+        } catch (ForecastFormatException e) {
+            throw new JSONException(e.getMessage());
+        }
+        if (forecast == null) {
+            // Stream was empty, or was cut off.  Same as an empty buffer for the tree parser.
+            return null;
+        }
+
+        ForecastResponse response = new ForecastResponse();
+        response.mCode = forecast.mCode;
+        response.mCityName = forecast.mCityName;
+        response.mCityLatitude = forecast.mCityLatitude;
+        response.mCityLongitude = forecast.mCityLongitude;
+        for (int i = 0; i < forecast.mCount; i++) {
+            ContentValues weatherValues = new ContentValues();
+            weatherValues.put(WeatherContract.WeatherEntry.COLUMN_HUMIDITY,
+                    forecast.mHumidities[i]);
+            weatherValues.put(WeatherContract.WeatherEntry.COLUMN_PRESSURE,
+                    forecast.mPressures[i]);
+            weatherValues.put(WeatherContract.WeatherEntry.COLUMN_WIND_SPEED,
+                    forecast.mWindSpeeds[i]);
+            weatherValues.put(WeatherContract.WeatherEntry.COLUMN_DEGREES, forecast.mDegrees[i]);
+            weatherValues.put(WeatherContract.WeatherEntry.COLUMN_MAX_TEMP, forecast.mMaxTemps[i]);
+            weatherValues.put(WeatherContract.WeatherEntry.COLUMN_MIN_TEMP, forecast.mMinTemps[i]);
+            weatherValues.put(WeatherContract.WeatherEntry.COLUMN_SHORT_DESC,
+                    forecast.mShortDescs[i]);
+            weatherValues.put(WeatherContract.WeatherEntry.COLUMN_WEATHER_ID,
+                    forecast.mWeatherIds[i]);
+            response.mDays.add(weatherValues);
+        }
+        return response;
+    }
+}
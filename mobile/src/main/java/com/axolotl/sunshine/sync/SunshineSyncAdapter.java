@@ -2,56 +2,53 @@ package com.axolotl.sunshine.sync;
 
 import android.accounts.Account;
 import android.accounts.AccountManager;
-import android.annotation.SuppressLint;
-import android.app.NotificationManager;
-import android.app.PendingIntent;
 import android.content.AbstractThreadedSyncAdapter;
 import android.content.ContentProviderClient;
+import android.content.ContentProviderOperation;
 import android.content.ContentResolver;
-import android.content.ContentUris;
 import android.content.ContentValues;
 import android.content.Context;
 import android.content.Intent;
-import android.content.SharedPreferences;
+import android.content.OperationApplicationException;
 import android.content.SyncRequest;
 import android.content.SyncResult;
-import android.content.res.Resources;
 import android.database.Cursor;
-import android.graphics.Bitmap;
-import android.graphics.BitmapFactory;
 import android.net.Uri;
 import android.os.Build;
 import android.os.Bundle;
-import android.preference.PreferenceManager;
+import android.os.RemoteException;
 import android.support.annotation.IntDef;
-import android.support.v4.app.NotificationCompat;
-import android.support.v4.app.TaskStackBuilder;
 import android.text.format.Time;
 import android.util.Log;
 
-import com.axolotl.sunshine.BuildConfig;
-import com.axolotl.sunshine.MainActivity;
 import com.axolotl.sunshine.R;
 import com.axolotl.sunshine.Utility;
+import com.axolotl.sunshine.core.ForecastFormatException;
+import com.axolotl.sunshine.core.HourlyForecast;
+import com.axolotl.sunshine.core.HourlyForecastParser;
+import com.axolotl.sunshine.data.LocationRegistry;
 import com.axolotl.sunshine.data.WeatherContract;
+import com.axolotl.sunshine.data.WeatherContract.SyncMetricsEntry;
 import com.axolotl.sunshine.muzei.WeatherMuzeiSource;
 import com.axolotl.sunshine.watch.SyncDataService;
-import com.bumptech.glide.Glide;
 
-import org.json.JSONArray;
 import org.json.JSONException;
-import org.json.JSONObject;
 
-import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
 import java.io.IOException;
 import java.io.InputStream;
-import java.io.InputStreamReader;
 import java.lang.annotation.Retention;
 import java.lang.annotation.RetentionPolicy;
 import java.net.HttpURLConnection;
-import java.net.URL;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
 import java.util.Vector;
-import java.util.concurrent.ExecutionException;
 
 public class SunshineSyncAdapter extends AbstractThreadedSyncAdapter {
     public final String LOG_TAG = SunshineSyncAdapter.class.getSimpleName();
@@ -61,22 +58,20 @@ public class SunshineSyncAdapter extends AbstractThreadedSyncAdapter {
     // 60 seconds (1 minute) * 180 = 3 hours
     public static final int SYNC_INTERVAL = 60 * 180;
     public static final int SYNC_FLEXTIME = SYNC_INTERVAL/3;
-    private static final long DAY_IN_MILLIS = 1000 * 60 * 60 * 24;
-    private static final int WEATHER_NOTIFICATION_ID = 3004;
 
+    // Sync extra that switches the forecast parsing back to the JSONObject tree parser
+    public static final String SYNC_EXTRAS_TREE_PARSER = "tree_parser";
+    // Sync extra that refreshes every saved location instead of only the preferred one
+    public static final String SYNC_EXTRAS_ALL_LOCATIONS = "all_locations";
+    // Optional newline separated subset of locations for SYNC_EXTRAS_ALL_LOCATIONS
+    public static final String SYNC_EXTRAS_LOCATIONS = "locations";
+    // Sync extra with a directory to save every forecast body fetched from the server into.
+    // Such a sync sends no validators, so every location's body comes back whole.  The corpus
+    // is replayed with replay(), never by a sync.
+    public static final String SYNC_EXTRAS_RECORD_DIR = "record_dir";
 
-    private static final String[] NOTIFY_WEATHER_PROJECTION = new String[] {
-            WeatherContract.WeatherEntry.COLUMN_WEATHER_ID,
-            WeatherContract.WeatherEntry.COLUMN_MAX_TEMP,
-            WeatherContract.WeatherEntry.COLUMN_MIN_TEMP,
-            WeatherContract.WeatherEntry.COLUMN_SHORT_DESC
-    };
+    private static final int NO_START_DAY = -1;
 
-    // these indices must match the projection
-    private static final int INDEX_WEATHER_ID = 0;
-    private static final int INDEX_MAX_TEMP = 1;
-    private static final int INDEX_MIN_TEMP = 2;
-    private static final int INDEX_SHORT_DESC = 3;
 
     @Retention(RetentionPolicy.SOURCE)
     @IntDef({LOCATION_STATUS_OK, LOCATION_STATUS_SERVER_DOWN, LOCATION_STATUS_SERVER_INVALID,  LOCATION_STATUS_UNKNOWN, LOCATION_STATUS_INVALID})
@@ -88,405 +83,736 @@ public class SunshineSyncAdapter extends AbstractThreadedSyncAdapter {
     public static final int LOCATION_STATUS_UNKNOWN = 3;
     public static final int LOCATION_STATUS_INVALID = 4;
 
+    // Last response and validators per location query, for conditional requests
+    private final ForecastResponseCache mResponseCache;
+    private WeatherSource mWeatherSource = new OwmWeatherSource(new UrlConnectionHttpClient());
+    // Julian day forecasts are dated from instead of today, or NO_START_DAY
+    private int mJulianStartDay = NO_START_DAY;
+
     public SunshineSyncAdapter(Context context, boolean autoInitialize) {
         super(context, autoInitialize);
+        mResponseCache = new ForecastResponseCache(new File(context.getCacheDir(), "forecast"));
+    }
+
+    /**
+     * Replaces where forecasts are fetched from, e.g. with an {@link OwmWeatherSource} that
+     * talks to a local stand-in server.  Only meant for tests.
+     */
+    void setWeatherSource(WeatherSource weatherSource) {
+        mWeatherSource = weatherSource;
+    }
+
+    /**
+     * Dates every forecast as if it was fetched on the julian day instead of today, so the
+     * same forecasts write the same rows whenever they are stored.  Only meant for tests.
+     */
+    void setJulianStartDay(int julianStartDay) {
+        mJulianStartDay = julianStartDay;
     }
 
     @Override
     public void onPerformSync(Account account, Bundle extras, String authority, ContentProviderClient provider, SyncResult syncResult) {
-        Log.d(LOG_TAG, "Starting sync");
         String locationQuery = Utility.getPreferredLocation(getContext());
 
-        // These two need to be declared outside the try/catch
-        // so that they can be closed in the finally block.
-        HttpURLConnection urlConnection = null;
-        BufferedReader reader = null;
+        // Only plain syncs of the preferred location are coalesced
+        boolean coalescable = !extras.getBoolean(SYNC_EXTRAS_ALL_LOCATIONS, false)
+                && extras.getString(SYNC_EXTRAS_RECORD_DIR) == null;
+        if (!coalescable) {
+            performSync(locationQuery, extras, syncResult);
+            return;
+        }
+
+        boolean periodic = !extras.getBoolean(ContentResolver.SYNC_EXTRAS_MANUAL, false);
+        if (!SyncCoalescer.begin(getContext(), locationQuery, periodic)) {
+            return;
+        }
+        @LocationStatus int status = LOCATION_STATUS_UNKNOWN;
+        try {
+            status = performSync(locationQuery, extras, syncResult);
+        } finally {
+            SyncCoalescer.end(locationQuery, status);
+        }
+    }
+
+    /**
+     * Syncs the preferred location, or every location for SYNC_EXTRAS_ALL_LOCATIONS, and
+     * publishes the result.
+     *
+     * @return the status of the preferred location
+     */
+    @LocationStatus
+    private int performSync(String locationQuery, Bundle extras, SyncResult syncResult) {
+        Log.d(LOG_TAG, "Starting sync");
+        final SyncMetrics metrics = new SyncMetrics();
+        long syncStart = SyncMetrics.start();
+
+        // The tree parser is only kept around so the two can be compared on the same payloads
+        final ForecastParser parser = extras.getBoolean(SYNC_EXTRAS_TREE_PARSER, false)
+                ? new TreeForecastParser()
+                : new StreamingForecastParser();
+
+        final WeatherSource source;
+        String recordDir = extras.getString(SYNC_EXTRAS_RECORD_DIR);
+        if (recordDir != null) {
+            source = new RecordingWeatherSource(mWeatherSource, new File(recordDir));
+        } else {
+            source = mWeatherSource;
+        }
+
+        final CircuitBreaker breaker = CircuitBreaker.getInstance(getContext());
+        if (source.isRemote() && !breaker.allowRequest()) {
+            // The server has kept failing.  Don't spend battery and radio time on a request that
+            // is going to fail as well, and ask the SyncManager to hold off until the breaker
+            // closes.
+            long openUntil = breaker.getOpenUntil();
+            Log.d(LOG_TAG, "Circuit breaker open, skipping sync");
+            syncResult.delayUntil = openUntil / 1000;
+            setLocationStatus(getContext(), LOCATION_STATUS_SERVER_DOWN);
+            return LOCATION_STATUS_SERVER_DOWN;
+        }
+
+        LocationSyncResult preferred;
+        if (extras.getBoolean(SYNC_EXTRAS_ALL_LOCATIONS, false)) {
+            List<String> locations = getLocationsToSync(locationQuery,
+                    extras.getString(SYNC_EXTRAS_LOCATIONS));
+            List<LocationSyncResult> results = MultiLocationSync.syncAll(locations,
+                    new MultiLocationSync.LocationSyncer() {
+                        @Override
+                        public LocationSyncResult sync(String locationSetting) {
+                            return syncForecasts(locationSetting, source, parser, breaker,
+                                    metrics);
+                        }
+                    });
+            for (LocationSyncResult result : results) {
+                if (result.mStatus != LOCATION_STATUS_OK) {
+                    syncResult.stats.numIoExceptions++;
+                }
+            }
+            // The preferred location is always the first one synced
+            preferred = results.get(0);
+        } else {
+            preferred = syncForecasts(locationQuery, source, parser, breaker, metrics);
+        }
+
+        if (preferred.mStatus == LOCATION_STATUS_OK && preferred.mSnapshot != null
+                && preferred.mRowsInserted + preferred.mRowsUpdated > 0) {
+            // Every consumer gets the same snapshot, so none of them has to query for it
+            ForecastSnapshot snapshot = preferred.mSnapshot;
+
+            // Written first, so everything woken below can read it instead of the database
+            long stageStart = SyncMetrics.start();
+            ForecastSnapshotFile.write(getContext(), snapshot, preferred.mCityLatitude,
+                    preferred.mCityLongitude);
+            metrics.record(locationQuery, SyncMetricsEntry.STAGE_WRITE_SNAPSHOT, stageStart);
+
+            stageStart = SyncMetrics.start();
+            updateWidgets(snapshot);
+            metrics.record(locationQuery, SyncMetricsEntry.STAGE_UPDATE_WIDGETS, stageStart);
 
-        // Will contain the raw JSON response as a string.
-        String forecastJsonStr = null;
+            stageStart = SyncMetrics.start();
+            updateMuzei(snapshot);
+            metrics.record(locationQuery, SyncMetricsEntry.STAGE_UPDATE_MUZEI, stageStart);
 
-        String format = "json";
-        String units = "metric";
-        int numDays = 14;
+            stageStart = SyncMetrics.start();
+            notifyWeather(snapshot);
+            metrics.record(locationQuery, SyncMetricsEntry.STAGE_NOTIFY_WEATHER, stageStart);
+
+            stageStart = SyncMetrics.start();
+            updateWatch(snapshot);
+            metrics.record(locationQuery, SyncMetricsEntry.STAGE_UPDATE_WATCH, stageStart);
+        }
+        setLocationStatus(getContext(), preferred.mStatus);
+        if (source == mWeatherSource && source.isRemote()) {
+            // A recording says nothing about how often the forecast changes, so it mustn't move
+            // the next regular sync
+            SyncScheduler.reschedule(getContext(), preferred);
+        }
+
+        if (preferred.mSnapshot != null) {
+            // Last, so nothing above waits on the art server
+            long stageStart = SyncMetrics.start();
+            ArtPrefetcher.Stats artStats = ArtPrefetcher.prefetch(getContext(),
+                    preferred.mSnapshot);
+            metrics.record(locationQuery, SyncMetricsEntry.STAGE_PREFETCH_ART, stageStart,
+                    artStats.mBytes);
+        }
+
+        metrics.record(locationQuery, SyncMetricsEntry.STAGE_TOTAL, syncStart);
+        metrics.write(getContext());
+        return preferred.mStatus;
+    }
+
+    /**
+     * Runs what a sync does with each location's forecast in turn: parse, addLocation, the
+     * batch that writes the days and deletes the old ones, and the 3-hour forecast.  The
+     * forecasts come from a local source, such as a {@link ReplayWeatherSource} over a recorded
+     * corpus, and are dated from the day set with {@link #setJulianStartDay} if there is one,
+     * so a replay is repeatable.  The stage timings are written to the metrics table.
+     *
+     * Nothing but the provider is touched: no response cache entry, snapshot file, widgets,
+     * Muzei, notification, watch, art, sync status or rescheduling.  Writes go to whatever provider
+     * the adapter's context resolves, so give it one over a throwaway database.  Only meant for
+     * tests and benchmarks.
+     *
+     * @return the result of each location, in order
+     */
+    List<LocationSyncResult> replay(List<String> locations, WeatherSource source,
+                                    ForecastParser parser, SyncMetrics metrics) {
+        if (source.isRemote()) {
+            throw new IllegalArgumentException("Only a local source can be replayed");
+        }
+        List<LocationSyncResult> results = new ArrayList<LocationSyncResult>(locations.size());
+        for (String locationQuery : locations) {
+            LocationSyncResult result = syncLocation(locationQuery, source, parser, metrics);
+            if (result.mStatus == LOCATION_STATUS_OK) {
+                syncHourly(locationQuery, source, metrics);
+            }
+            results.add(result);
+        }
+        metrics.write(getContext());
+        return results;
+    }
+
+    /**
+     * Syncs the daily forecast of one location and, if that went through, its 3-hour forecast.
+     */
+    private LocationSyncResult syncForecasts(String locationQuery, WeatherSource source,
+                                             ForecastParser parser, CircuitBreaker breaker,
+                                             SyncMetrics metrics) {
+        LocationSyncResult result = syncLocationWithRetry(locationQuery, source, parser, breaker,
+                metrics);
+        SyncStateStore.getInstance(getContext()).onLocationSynced(locationQuery, result.mStatus);
+        if (result.mStatus == LOCATION_STATUS_OK) {
+            // The 3-hour forecast only adds detail to the daily one, so it is not retried and
+            // its failures don't change the location status or count against the server
+            syncHourly(locationQuery, source, metrics);
+        }
+        return result;
+    }
+
+    /**
+     * Syncs one location, retrying transient failures with jittered exponential backoff, and
+     * reports the outcome to the circuit breaker.
+     */
+    private LocationSyncResult syncLocationWithRetry(String locationQuery, WeatherSource source,
+                                                     ForecastParser parser,
+                                                     CircuitBreaker breaker,
+                                                     SyncMetrics metrics) {
+        if (!source.isRemote()) {
+            // Nothing transient about a local source
+            return syncLocation(locationQuery, source, parser, metrics);
+        }
+
+        // The first request after the breaker's cool-down is a trial, it is not retried
+        int maxAttempts = breaker.isTrial() ? 1 : Backoff.MAX_ATTEMPTS;
+
+        LocationSyncResult result = null;
+        for (int attempt = 0; attempt < maxAttempts; attempt++) {
+            if (attempt > 0) {
+                long delay = Backoff.getDelayMillis(attempt - 1);
+                Log.d(LOG_TAG, "Retrying " + locationQuery + " in " + delay + "ms");
+                try {
+                    Thread.sleep(delay);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    break;
+                }
+            }
+            // Another location may have tripped the breaker in the meantime
+            if (!breaker.allowRequest()) {
+                break;
+            }
+            result = syncLocation(locationQuery, source, parser, metrics);
+            if (result.mStatus != LOCATION_STATUS_SERVER_DOWN) {
+                break;
+            }
+        }
+
+        if (result == null) {
+            // Never got to make a request
+            result = new LocationSyncResult(locationQuery);
+            result.mStatus = LOCATION_STATUS_SERVER_DOWN;
+            return result;
+        }
+        switch (result.mStatus) {
+            case LOCATION_STATUS_SERVER_DOWN:
+                // A 5xx, or the connection failed
+                breaker.recordFailure();
+                break;
+            case LOCATION_STATUS_OK:
+            case LOCATION_STATUS_INVALID:
+            case LOCATION_STATUS_SERVER_INVALID:
+                // The server answered, even if it didn't know the location or sent a body
+                // that doesn't parse, which a retry would only get again
+                breaker.recordSuccess();
+                break;
+            default:
+                break;
+        }
+        return result;
+    }
+
+    /**
+     * Builds the list of locations for a multi-location sync.  The preferred location always
+     * comes first, followed by either the requested subset or every location in the database.
+     *
+     * @param preferredLocation the user's current location setting
+     * @param requested newline separated location settings, or null for all saved locations
+     */
+    private List<String> getLocationsToSync(String preferredLocation, String requested) {
+        LinkedHashSet<String> locations = new LinkedHashSet<String>();
+        locations.add(preferredLocation);
+
+        if (requested != null) {
+            for (String location : requested.split("\n")) {
+                if (location.length() > 0) {
+                    locations.add(location);
+                }
+            }
+        } else {
+            Cursor locationCursor = getContext().getContentResolver().query(
+                    WeatherContract.LocationEntry.CONTENT_URI,
+                    new String[]{WeatherContract.LocationEntry.COLUMN_LOCATION_SETTING},
+                    null,
+                    null,
+                    null);
+            if (locationCursor != null) {
+                while (locationCursor.moveToNext()) {
+                    locations.add(locationCursor.getString(0));
+                }
+                locationCursor.close();
+            }
+        }
+        return new ArrayList<String>(locations);
+    }
+
+    /**
+     * Downloads, parses and stores the forecast for a single location.  Safe to call from
+     * several threads at once; it only touches the content resolver, its own locals and the
+     * response cache entry for this location.
+     *
+     * Parsing and database work are skipped entirely when the server answers 304, or when the
+     * body is byte for byte the one already stored for today, as long as its rows are still
+     * there.
+     */
+    LocationSyncResult syncLocation(String locationQuery, WeatherSource source,
+                                    ForecastParser parser, SyncMetrics metrics) {
+        LocationSyncResult result = new LocationSyncResult(locationQuery);
+
+        // These need to be declared outside the try/catch
+        // so that they can be closed in the finally block.
+        WeatherHttpClient.Response response = null;
+        InputStream inputStream = null;
+        ForecastResponseCache.Download download = null;
+
+        // Local sources skip the cache, so that every sync from them does the full work, and so
+        // do recordings, which must get a whole body for every location
+        ForecastResponseCache.Entry cached =
+                source.isRemote() && !(source instanceof RecordingWeatherSource)
+                        ? mResponseCache.get(locationQuery)
+                        : null;
+        int julianStartDay = getJulianStartDay();
 
         try {
-            // Construct the URL for the OpenWeatherMap query
-            // Possible parameters are avaiable at OWM's forecast API page, at
-            // http://openweathermap.org/API#forecast
-            final String FORECAST_BASE_URL =
-                    "http://api.openweathermap.org/data/2.5/forecast/daily?";
-            final String QUERY_PARAM = "q";
-            final String FORMAT_PARAM = "mode";
-            final String UNITS_PARAM = "units";
-            final String DAYS_PARAM = "cnt";
-            final String APPID_PARAM = "APPID";
-
-            Uri builtUri = Uri.parse(FORECAST_BASE_URL).buildUpon()
-                    .appendQueryParameter(QUERY_PARAM, locationQuery)
-                    .appendQueryParameter(FORMAT_PARAM, format)
-                    .appendQueryParameter(UNITS_PARAM, units)
-                    .appendQueryParameter(DAYS_PARAM, Integer.toString(numDays))
-                    .appendQueryParameter(APPID_PARAM, BuildConfig.OPEN_WEATHER_MAP_API_KEY)
-                    .build();
-
-            URL url = new URL(builtUri.toString());
-
-            // Create the request to OpenWeatherMap, and open the connection
-            urlConnection = (HttpURLConnection) url.openConnection();
-            urlConnection.setRequestMethod("GET");
-            urlConnection.connect();
-
-            // Read the input stream into a String
-            InputStream inputStream = urlConnection.getInputStream();
-            StringBuffer buffer = new StringBuffer();
-            if (inputStream == null) {
-                // Nothing to do.
-                return;
+            // Ask for the forecast.  If we have seen this location before, make it a
+            // conditional request.
+            Map<String, String> requestHeaders = new HashMap<String, String>();
+            if (cached != null) {
+                ForecastResponseCache.addValidators(cached, requestHeaders);
             }
-            reader = new BufferedReader(new InputStreamReader(inputStream));
-
-            String line;
-            while ((line = reader.readLine()) != null) {
-                // Since it's JSON, adding a newline isn't necessary (it won't affect parsing)
-                // But it does make debugging a *lot* easier if you print out the completed
-                // buffer for debugging.
-                buffer.append(line + "\n");
+            long stageStart = SyncMetrics.start();
+            response = source.fetch(WeatherSource.FORECAST_DAILY, locationQuery, requestHeaders);
+            metrics.record(locationQuery, SyncMetricsEntry.STAGE_CONNECT, stageStart);
+
+            stageStart = SyncMetrics.start();
+            int responseCode = response.getResponseCode();
+            metrics.record(locationQuery, SyncMetricsEntry.STAGE_FIRST_BYTE, stageStart);
+
+            if (cached != null && responseCode == HttpURLConnection.HTTP_NOT_MODIFIED) {
+                result.mNotModified = true;
+                if (cached.mJulianDay == julianStartDay
+                        && hasStoredForecast(locationQuery, julianStartDay)) {
+                    // Nothing changed upstream and the rows are already dated from today
+                    Log.d(LOG_TAG, "Forecast for " + locationQuery + " not modified");
+                    result.mStatus = LOCATION_STATUS_OK;
+                    return result;
+                }
+                // Same forecast, but the day rolled over since it was stored, so it has to be
+                // re-dated, or its rows are gone.  Parse the copy we kept instead of downloading
+                // it again.
+                stageStart = SyncMetrics.start();
+                inputStream = new FileInputStream(cached.mBody);
+                ForecastResponse forecast = parser.parse(inputStream);
+                metrics.record(locationQuery, SyncMetricsEntry.STAGE_PARSE, stageStart,
+                        cached.mBody.length());
+                if (forecast == null) {
+                    result.mStatus = LOCATION_STATUS_SERVER_DOWN;
+                    return result;
+                }
+                storeWeatherData(forecast, julianStartDay, result, metrics);
+                if (result.mStatus == LOCATION_STATUS_OK) {
+                    mResponseCache.touch(locationQuery, cached, julianStartDay);
+                }
+                return result;
+            }
+            if (responseCode >= HttpURLConnection.HTTP_BAD_REQUEST) {
+                result.mStatus = readErrorResponse(locationQuery, responseCode, response, parser);
+                return result;
             }
 
-            if (buffer.length() == 0) {
+            // Save the body while hashing it, so an unchanged forecast can be dropped before
+            // any parsing or database work
+            stageStart = SyncMetrics.start();
+            download = mResponseCache.download(locationQuery, response.getBody());
+            metrics.record(locationQuery, SyncMetricsEntry.STAGE_DOWNLOAD, stageStart,
+                    response.getWireBytes());
+            if (download.mLength == 0) {
                 // Stream was empty.  No point in parsing.
-                setLocationStatus(getContext(), LOCATION_STATUS_SERVER_DOWN);
-                return;
+                result.mStatus = LOCATION_STATUS_SERVER_DOWN;
+                return result;
+            }
+            if (cached != null && cached.mJulianDay == julianStartDay
+                    && download.mBodyHash.equals(cached.mBodyHash)
+                    && hasStoredForecast(locationQuery, julianStartDay)) {
+                Log.d(LOG_TAG, "Forecast for " + locationQuery + " unchanged");
+                result.mNotModified = true;
+                result.mStatus = LOCATION_STATUS_OK;
+                return result;
+            }
+
+            // Parse the forecast straight off the saved body
+            stageStart = SyncMetrics.start();
+            inputStream = new FileInputStream(download.mFile);
+            ForecastResponse forecast = parser.parse(inputStream);
+            metrics.record(locationQuery, SyncMetricsEntry.STAGE_PARSE, stageStart,
+                    download.mLength);
+            if (forecast == null) {
+                result.mStatus = LOCATION_STATUS_SERVER_DOWN;
+                return result;
+            }
+            storeWeatherData(forecast, julianStartDay, result, metrics);
+            if (result.mStatus == LOCATION_STATUS_OK && source.isRemote()) {
+                mResponseCache.put(locationQuery, download, response, julianStartDay);
+                download = null;
             }
-            forecastJsonStr = buffer.toString();
-            getWeatherDataFromJson(forecastJsonStr, locationQuery);
         } catch (IOException e) {
             Log.e(LOG_TAG, "Error ", e);
             // If the code didn't successfully get the weather data, there's no point in attempting
             // to parse it.
-            setLocationStatus(getContext(), LOCATION_STATUS_SERVER_DOWN);
+            result.mStatus = LOCATION_STATUS_SERVER_DOWN;
         } catch (JSONException e) {
             Log.e(LOG_TAG, e.getMessage(), e);
             e.printStackTrace();
-            setLocationStatus(getContext(), LOCATION_STATUS_SERVER_INVALID);
+            result.mStatus = LOCATION_STATUS_SERVER_INVALID;
         } finally {
-            if (urlConnection != null) {
-                urlConnection.disconnect();
+            if (response != null) {
+                result.mWireBytes = response.getWireBytes();
+                result.mDecodedBytes = response.getDecodedBytes();
+                Log.d(LOG_TAG, locationQuery + ": " + result.mWireBytes + " bytes on the wire, "
+                        + result.mDecodedBytes + " decoded");
+                response.close();
             }
-            if (reader != null) {
+            if (inputStream != null) {
                 try {
-                    reader.close();
+                    inputStream.close();
                 } catch (final IOException e) {
                     Log.e(LOG_TAG, "Error closing stream", e);
                 }
             }
+            if (download != null) {
+                mResponseCache.discard(download);
+            }
         }
-        return;
+        return result;
     }
 
     /**
-     * Take the String representing the complete forecast in JSON Format and
-     * pull out the data we need to construct the Strings needed for the wireframes.
+     * A response cache entry only says what was stored, not that it still is: the database may
+     * have been recreated, or the location or its rows deleted, since.  Skipping the write then
+     * would keep the forecast missing until it changes upstream.
      *
-     * Fortunately parsing is easy:  constructor takes the JSON string and converts it
-     * into an Object hierarchy for us.
+     * @return true if the location has a row for the first day of a forecast fetched on the
+     * julian day, as storing it leaves behind
      */
-    private void getWeatherDataFromJson(String forecastJsonStr,
-                                        String locationSetting)
-            throws JSONException {
-
-        // Now we have a String representing the complete forecast in JSON Format.
-        // Fortunately parsing is easy:  constructor takes the JSON string and converts it
-        // into an Object hierarchy for us.
-
-        // These are the names of the JSON objects that need to be extracted.
-
-        // Location information
-        final String OWM_CITY = "city";
-        final String OWM_CITY_NAME = "name";
-        final String OWM_COORD = "coord";
-
-        // Location coordinate
-        final String OWM_LATITUDE = "lat";
-        final String OWM_LONGITUDE = "lon";
-
-        // Weather information.  Each day's forecast info is an element of the "list" array.
-        final String OWM_LIST = "list";
-
-        final String OWM_PRESSURE = "pressure";
-        final String OWM_HUMIDITY = "humidity";
-        final String OWM_WINDSPEED = "speed";
-        final String OWM_WIND_DIRECTION = "deg";
-
-        // All temperatures are children of the "temp" object.
-        final String OWM_TEMPERATURE = "temp";
-        final String OWM_MAX = "max";
-        final String OWM_MIN = "min";
-
-        final String OWM_WEATHER = "weather";
-        final String OWM_DESCRIPTION = "main";
-        final String OWM_WEATHER_ID = "id";
-
-        final String OWM_MESSAGE_CODE = "cod";
+    private boolean hasStoredForecast(String locationQuery, int julianStartDay) {
+        long date = new Time().setJulianDay(julianStartDay);
+        Cursor cursor = getContext().getContentResolver().query(
+                WeatherContract.WeatherEntry.buildWeatherLocationWithDate(locationQuery, date),
+                new String[] {WeatherContract.WeatherEntry.COLUMN_DATE}, null, null, null);
+        if (cursor == null) {
+            return false;
+        }
+        try {
+            return cursor.moveToFirst();
+        } finally {
+            cursor.close();
+        }
+    }
 
+    /**
+     * Reads the body of an error response for the message code OpenWeatherMap puts in it.  The
+     * status follows the response code: a 4xx, such as an unknown city (404) or a bad API key
+     * (401), is the server answering, and asking again won't change the answer; only a 5xx
+     * says the server is in trouble.
+     */
+    @LocationStatus
+    private int readErrorResponse(String locationQuery, int responseCode,
+                                  WeatherHttpClient.Response response, ForecastParser parser) {
+        String code = "none";
         try {
-            JSONObject forecastJson = new JSONObject(forecastJsonStr);
-
-            // do we have an error?
-            if ( forecastJson.has(OWM_MESSAGE_CODE) ) {
-                int errorCode = forecastJson.getInt(OWM_MESSAGE_CODE);
-
-                switch (errorCode) {
-                    case HttpURLConnection.HTTP_OK:
-                        break;
-                    case HttpURLConnection.HTTP_NOT_FOUND:
-                        setLocationStatus(getContext(), LOCATION_STATUS_INVALID);
-                        return;
-                    default:
-                        setLocationStatus(getContext(), LOCATION_STATUS_SERVER_DOWN);
-                        return;
-                }
+            InputStream errorBody = response.getErrorBody();
+            ForecastResponse error = errorBody != null ? parser.parse(errorBody) : null;
+            if (error != null) {
+                code = Integer.toString(error.mCode);
             }
+        } catch (IOException | JSONException e) {
+            // Not every error comes from OWM itself, e.g. a proxy's error page.  The response
+            // code is enough to go on.
+            code = "unreadable";
+        }
+        Log.d(LOG_TAG, "Forecast for " + locationQuery + " refused: HTTP " + responseCode
+                + ", code " + code);
+        return getLocationStatus(responseCode);
+    }
 
-            JSONArray weatherArray = forecastJson.getJSONArray(OWM_LIST);
-
-            JSONObject cityJson = forecastJson.getJSONObject(OWM_CITY);
-            String cityName = cityJson.getString(OWM_CITY_NAME);
-
-            JSONObject cityCoord = cityJson.getJSONObject(OWM_COORD);
-            double cityLatitude = cityCoord.getDouble(OWM_LATITUDE);
-            double cityLongitude = cityCoord.getDouble(OWM_LONGITUDE);
-
-            long locationId = addLocation(locationSetting, cityName, cityLatitude, cityLongitude);
-
-            // Insert the new weather information into the database
-            Vector<ContentValues> cVVector = new Vector<ContentValues>(weatherArray.length());
-
-            // OWM returns daily forecasts based upon the local time of the city that is being
-            // asked for, which means that we need to know the GMT offset to translate this data
-            // properly.
-
-            // Since this data is also sent in-order and the first day is always the
-            // current day, we're going to take advantage of that to get a nice
-            // normalized UTC date for all of our weather.
-
-            Time dayTime = new Time();
-            dayTime.setToNow();
-
-            // we start at the day returned by local time. Otherwise this is a mess.
-            int julianStartDay = Time.getJulianDay(System.currentTimeMillis(), dayTime.gmtoff);
-
-            // now we work exclusively in UTC
-            dayTime = new Time();
-
-            for(int i = 0; i < weatherArray.length(); i++) {
-                // These are the values that will be collected.
-                long dateTime;
-                double pressure;
-                int humidity;
-                double windSpeed;
-                double windDirection;
+    /**
+     * @return the status of a location the server answered with the response or message code
+     */
+    @LocationStatus
+    private static int getLocationStatus(int code) {
+        if (code == HttpURLConnection.HTTP_OK) {
+            return LOCATION_STATUS_OK;
+        } else if (code >= HttpURLConnection.HTTP_BAD_REQUEST
+                && code < HttpURLConnection.HTTP_INTERNAL_ERROR) {
+            return LOCATION_STATUS_INVALID;
+        }
+        return LOCATION_STATUS_SERVER_DOWN;
+    }
 
-                double high;
-                double low;
+    /**
+     * Downloads the 3-hour forecast for a single location and writes it in one batch.  The body
+     * is parsed as it streams in, into primitive columns that go to the provider as they are.
+     *
+     * @return the number of points stored
+     */
+    int syncHourly(String locationQuery, WeatherSource source, SyncMetrics metrics) {
+        WeatherHttpClient.Response response = null;
+        try {
+            long stageStart = SyncMetrics.start();
+            response = source.fetch(WeatherSource.FORECAST_3_HOUR, locationQuery,
+                    new HashMap<String, String>());
+            if (response.getResponseCode() != HttpURLConnection.HTTP_OK) {
+                Log.d(LOG_TAG, "3-hour forecast for " + locationQuery + " not available: "
+                        + response.getResponseCode());
+                return 0;
+            }
+            HourlyForecast forecast;
+            try {
+                forecast = new HourlyForecastParser().parse(response.getBody());
+            } catch (ForecastFormatException e) {
+                throw new JSONException(e.getMessage());
+            }
+            metrics.record(locationQuery, SyncMetricsEntry.STAGE_HOURLY_FETCH, stageStart,
+                    response.getWireBytes());
+            if (forecast == null || forecast.mCode != HourlyForecast.CODE_OK) {
+                return 0;
+            }
 
-                String description;
-                int weatherId;
+            // Already resolved by the daily forecast, so this doesn't touch the database
+            long locationId = addLocation(locationQuery, forecast.mCityName,
+                    forecast.mCityLatitude, forecast.mCityLongitude);
 
-                // Get the JSON object representing the day
-                JSONObject dayForecast = weatherArray.getJSONObject(i);
+            stageStart = SyncMetrics.start();
+            Bundle inserted = getContext().getContentResolver().call(
+                    WeatherContract.HourlyEntry.CONTENT_URI,
+                    WeatherContract.HourlyEntry.METHOD_REPLACE, null,
+                    buildHourlyExtras(forecast, locationId));
+            metrics.record(locationQuery, SyncMetricsEntry.STAGE_HOURLY_INSERT, stageStart);
 
-                // Cheating to convert this to UTC time, which is what we want anyhow
-                dateTime = dayTime.setJulianDay(julianStartDay+i);
+            int count = inserted.getInt(WeatherContract.HourlyEntry.EXTRA_INSERTED);
+            Log.d(LOG_TAG, "3-hour forecast for " + locationQuery + ": " + count + " points");
+            return count;
+        } catch (IOException e) {
+            Log.e(LOG_TAG, "Error fetching 3-hour forecast", e);
+        } catch (JSONException e) {
+            Log.e(LOG_TAG, e.getMessage(), e);
+        } finally {
+            if (response != null) {
+                response.close();
+            }
+        }
+        return 0;
+    }
 
-                pressure = dayForecast.getDouble(OWM_PRESSURE);
-                humidity = dayForecast.getInt(OWM_HUMIDITY);
-                windSpeed = dayForecast.getDouble(OWM_WINDSPEED);
-                windDirection = dayForecast.getDouble(OWM_WIND_DIRECTION);
+    /**
+     * @return the extras for {@link WeatherContract.HourlyEntry#METHOD_REPLACE} that write the
+     * forecast's points for the location
+     */
+    private static Bundle buildHourlyExtras(HourlyForecast forecast, long locationId) {
+        int count = forecast.mCount;
+        Bundle extras = new Bundle();
+        extras.putLong(WeatherContract.HourlyEntry.EXTRA_LOCATION_ID, locationId);
+        extras.putLongArray(WeatherContract.HourlyEntry.EXTRA_TIMES,
+                Arrays.copyOf(forecast.mTimes, count));
+        extras.putIntArray(WeatherContract.HourlyEntry.EXTRA_WEATHER_IDS,
+                Arrays.copyOf(forecast.mWeatherIds, count));
+        extras.putStringArray(WeatherContract.HourlyEntry.EXTRA_SHORT_DESCS,
+                Arrays.copyOf(forecast.mShortDescs, count));
+        extras.putDoubleArray(WeatherContract.HourlyEntry.EXTRA_TEMPS,
+                Arrays.copyOf(forecast.mTemps, count));
+        extras.putDoubleArray(WeatherContract.HourlyEntry.EXTRA_HUMIDITIES,
+                Arrays.copyOf(forecast.mHumidities, count));
+        extras.putDoubleArray(WeatherContract.HourlyEntry.EXTRA_PRESSURES,
+                Arrays.copyOf(forecast.mPressures, count));
+        extras.putDoubleArray(WeatherContract.HourlyEntry.EXTRA_WIND_SPEEDS,
+                Arrays.copyOf(forecast.mWindSpeeds, count));
+        extras.putDoubleArray(WeatherContract.HourlyEntry.EXTRA_DEGREES,
+                Arrays.copyOf(forecast.mDegrees, count));
+        return extras;
+    }
 
-                // Description is in a child array called "weather", which is 1 element long.
-                // That element also contains a weather code.
-                JSONObject weatherObject =
-                        dayForecast.getJSONArray(OWM_WEATHER).getJSONObject(0);
-                description = weatherObject.getString(OWM_DESCRIPTION);
-                weatherId = weatherObject.getInt(OWM_WEATHER_ID);
+    /**
+     * OWM returns daily forecasts based upon the local time of the city that is being
+     * asked for, which means that we need to know the GMT offset to translate this data
+     * properly.
+     *
+     * Since this data is also sent in-order and the first day is always the
+     * current day, we're going to take advantage of that to get a nice
+     * normalized UTC date for all of our weather.
+     *
+     * @return the julian day of the first day in a forecast fetched now
+     */
+    private int getJulianStartDay() {
+        if (mJulianStartDay != NO_START_DAY) {
+            return mJulianStartDay;
+        }
+        Time dayTime = new Time();
+        dayTime.setToNow();
 
-                // Temperatures are in a child object called "temp".  Try not to name variables
-                // "temp" when working with temperature.  It confuses everybody.
-                JSONObject temperatureObject = dayForecast.getJSONObject(OWM_TEMPERATURE);
-                high = temperatureObject.getDouble(OWM_MAX);
-                low = temperatureObject.getDouble(OWM_MIN);
+        // we start at the day returned by local time. Otherwise this is a mess.
+        return Time.getJulianDay(System.currentTimeMillis(), dayTime.gmtoff);
+    }
 
-                ContentValues weatherValues = new ContentValues();
+    /**
+     * Take a parsed forecast, attach it to its location and a normalized UTC date, and write it
+     * to the database.
+     */
+    private void storeWeatherData(ForecastResponse forecast, int julianStartDay,
+                                  LocationSyncResult result, SyncMetrics metrics) {
+        // do we have an error?
+        if (forecast.mCode != HttpURLConnection.HTTP_OK) {
+            result.mStatus = getLocationStatus(forecast.mCode);
+            return;
+        }
 
-                weatherValues.put(WeatherContract.WeatherEntry.COLUMN_LOC_KEY, locationId);
-                weatherValues.put(WeatherContract.WeatherEntry.COLUMN_DATE, dateTime);
-                weatherValues.put(WeatherContract.WeatherEntry.COLUMN_HUMIDITY, humidity);
-                weatherValues.put(WeatherContract.WeatherEntry.COLUMN_PRESSURE, pressure);
-                weatherValues.put(WeatherContract.WeatherEntry.COLUMN_WIND_SPEED, windSpeed);
-                weatherValues.put(WeatherContract.WeatherEntry.COLUMN_DEGREES, windDirection);
-                weatherValues.put(WeatherContract.WeatherEntry.COLUMN_MAX_TEMP, high);
-                weatherValues.put(WeatherContract.WeatherEntry.COLUMN_MIN_TEMP, low);
-                weatherValues.put(WeatherContract.WeatherEntry.COLUMN_SHORT_DESC, description);
-                weatherValues.put(WeatherContract.WeatherEntry.COLUMN_WEATHER_ID, weatherId);
+        long stageStart = SyncMetrics.start();
+        long locationId = addLocation(result.mLocationSetting, forecast.mCityName,
+                forecast.mCityLatitude, forecast.mCityLongitude);
+        metrics.record(result.mLocationSetting, SyncMetricsEntry.STAGE_ADD_LOCATION, stageStart);
+
+        // now we work exclusively in UTC
+        Time dayTime = new Time();
+
+        Vector<ContentValues> cVVector = forecast.mDays;
+        for (int i = 0; i < cVVector.size(); i++) {
+            ContentValues weatherValues = cVVector.get(i);
+            // Cheating to convert this to UTC time, which is what we want anyhow
+            weatherValues.put(WeatherContract.WeatherEntry.COLUMN_LOC_KEY, locationId);
+            weatherValues.put(WeatherContract.WeatherEntry.COLUMN_DATE,
+                    dayTime.setJulianDay(julianStartDay + i));
+        }
 
-                cVVector.add(weatherValues);
+        // add to database
+        if ( cVVector.size() > 0 ) {
+            ContentValues[] cvArray = new ContentValues[cVVector.size()];
+            cVVector.toArray(cvArray);
+            // One batch, so readers never see the new forecast half written and observers hear
+            // about it once.  Weather inserts are written as a delta, so rows that did not
+            // change keep their ids and are not rewritten.  The provider counts which rows
+            // were which, and times the retention delete, under a key of this batch's own, as
+            // locations sync in parallel.
+            stageStart = SyncMetrics.start();
+            String statsKey = UUID.randomUUID().toString();
+            Uri weatherUri = WeatherContract.WeatherEntry.buildWeatherUriWithBatchStats(statsKey);
+            ArrayList<ContentProviderOperation> operations =
+                    new ArrayList<ContentProviderOperation>(cvArray.length + 1);
+            for (ContentValues row : cvArray) {
+                operations.add(ContentProviderOperation
+                        .newInsert(weatherUri)
+                        .withValues(row)
+                        .build());
             }
-
-            int inserted = 0;
-            // add to database
-            if ( cVVector.size() > 0 ) {
-                ContentValues[] cvArray = new ContentValues[cVVector.size()];
-                cVVector.toArray(cvArray);
-                getContext().getContentResolver().bulkInsert(WeatherContract.WeatherEntry.CONTENT_URI, cvArray);
-
-                // delete old data so we don't build up an endless history
-                getContext().getContentResolver().delete(WeatherContract.WeatherEntry.CONTENT_URI,
-                        WeatherContract.WeatherEntry.COLUMN_DATE + " <= ?",
-                        new String[] {Long.toString(dayTime.setJulianDay(julianStartDay-1))});
-
-                updateWidgets();
-                updateMuzei();
-                notifyWeather();
-                updateWatch();
+            // delete old data so we don't build up an endless history.  The forecast is
+            // complete by then, so others may have the database in between.
+            operations.add(ContentProviderOperation
+                    .newDelete(weatherUri)
+                    .withSelection(WeatherContract.WeatherEntry.COLUMN_DATE + " <= ?",
+                            new String[] {Long.toString(dayTime.setJulianDay(julianStartDay-1))})
+                    .withYieldAllowed(true)
+                    .build());
+            ContentResolver resolver = getContext().getContentResolver();
+            try {
+                resolver.applyBatch(WeatherContract.CONTENT_AUTHORITY, operations);
+            } catch (RemoteException | OperationApplicationException e) {
+                Log.e(LOG_TAG, "Error storing forecast for " + result.mLocationSetting, e);
+                result.mStatus = LOCATION_STATUS_UNKNOWN;
+                return;
             }
-            Log.d(LOG_TAG, "Sync Complete. " + cVVector.size() + " Inserted");
-            setLocationStatus(getContext(), LOCATION_STATUS_OK);
-
-        } catch (JSONException e) {
-            Log.e(LOG_TAG, e.getMessage(), e);
-            e.printStackTrace();
-            setLocationStatus(getContext(), LOCATION_STATUS_SERVER_INVALID);
+            long batchMicros = SyncMetrics.getElapsedMicros(stageStart);
+
+            Bundle stats = resolver.call(WeatherContract.WeatherEntry.CONTENT_URI,
+                    WeatherContract.WeatherEntry.METHOD_TAKE_BATCH_STATS, statsKey, null);
+            result.mRowsInserted = stats.getInt(WeatherContract.WeatherEntry.EXTRA_INSERTED);
+            result.mRowsUpdated = stats.getInt(WeatherContract.WeatherEntry.EXTRA_UPDATED);
+            result.mRowsUnchanged = stats.getInt(WeatherContract.WeatherEntry.EXTRA_UNCHANGED);
+
+            // The delete ran inside the batch, so only the provider could time it
+            long deleteMicros = stats.getLong(WeatherContract.WeatherEntry.EXTRA_DELETE_DURATION);
+            metrics.recordDuration(result.mLocationSetting, SyncMetricsEntry.STAGE_BULK_INSERT,
+                    batchMicros - deleteMicros, -1);
+            metrics.recordDuration(result.mLocationSetting,
+                    SyncMetricsEntry.STAGE_RETENTION_DELETE, deleteMicros, -1);
+
+            result.mSnapshot = ForecastSnapshot.fromRows(result.mLocationSetting, cvArray);
+            result.mCityLatitude = forecast.mCityLatitude;
+            result.mCityLongitude = forecast.mCityLongitude;
         }
+        Log.d(LOG_TAG, "Sync Complete for " + result.mLocationSetting + ". "
+                + result.mRowsInserted + " Inserted, " + result.mRowsUpdated + " Updated, "
+                + result.mRowsUnchanged + " Unchanged");
+        result.mDaysStored = cVVector.size();
+        result.mStatus = LOCATION_STATUS_OK;
     }
 
-    private void updateWatch() {
-        getContext().startService(new Intent(getContext(), SyncDataService.class));
+    private void updateWatch(ForecastSnapshot snapshot) {
+        getContext().startService(new Intent(getContext(), SyncDataService.class)
+                .putExtra(ForecastSnapshot.EXTRA_SNAPSHOT, snapshot));
     }
 
-    private void updateWidgets() {
+    private void updateWidgets(ForecastSnapshot snapshot) {
         Context context = getContext();
         // Setting the package ensures that only components in our app will receive the broadcast
         Intent dataUpdatedIntent = new Intent(ACTION_DATA_UPDATED)
-                .setPackage(context.getPackageName());
+                .setPackage(context.getPackageName())
+                .putExtra(ForecastSnapshot.EXTRA_SNAPSHOT, snapshot);
         context.sendBroadcast(dataUpdatedIntent);
     }
 
-    private void updateMuzei() {
+    private void updateMuzei(ForecastSnapshot snapshot) {
         // Muzei is only compatible with Jelly Bean MR1+ devices, so there's no need to update the
         // Muzei background on lower API level devices
         if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.JELLY_BEAN_MR1) {
             Context context = getContext();
             context.startService(new Intent(ACTION_DATA_UPDATED)
-                    .setClass(context, WeatherMuzeiSource.class));
+                    .setClass(context, WeatherMuzeiSource.class)
+                    .putExtra(ForecastSnapshot.EXTRA_SNAPSHOT, snapshot));
         }
     }
 
-    private void notifyWeather() {
-        Context context = getContext();
-        //checking the last update and notify if it' the first of the day
-        SharedPreferences prefs = PreferenceManager.getDefaultSharedPreferences(context);
-        String displayNotificationsKey = context.getString(R.string.pref_enable_notifications_key);
-        boolean displayNotifications = prefs.getBoolean(displayNotificationsKey,
-                Boolean.parseBoolean(context.getString(R.string.pref_enable_notifications_default)));
-
-        if ( displayNotifications ) {
-
-            String lastNotificationKey = context.getString(R.string.pref_last_notification);
-            long lastSync = prefs.getLong(lastNotificationKey, 0);
-
-            if (System.currentTimeMillis() - lastSync >= DAY_IN_MILLIS) {
-                // Last sync was more than 1 day ago, let's send a notification with the weather.
-                String locationQuery = Utility.getPreferredLocation(context);
-
-                Uri weatherUri = WeatherContract.WeatherEntry.buildWeatherLocationWithDate(locationQuery, System.currentTimeMillis());
-
-                // we'll query our contentProvider, as always
-                Cursor cursor = context.getContentResolver().query(weatherUri, NOTIFY_WEATHER_PROJECTION, null, null, null);
-
-                if (cursor.moveToFirst()) {
-                    int weatherId = cursor.getInt(INDEX_WEATHER_ID);
-                    double high = cursor.getDouble(INDEX_MAX_TEMP);
-                    double low = cursor.getDouble(INDEX_MIN_TEMP);
-                    String desc = cursor.getString(INDEX_SHORT_DESC);
-
-                    int iconId = Utility.getIconResourceForWeatherCondition(weatherId);
-                    Resources resources = context.getResources();
-                    int artResourceId = Utility.getArtResourceForWeatherCondition(weatherId);
-                    String artUrl = Utility.getArtUrlForWeatherCondition(context, weatherId);
-
-                    // On Honeycomb and higher devices, we can retrieve the size of the large icon
-                    // Prior to that, we use a fixed size
-                    @SuppressLint("InlinedApi")
-                    int largeIconWidth = Build.VERSION.SDK_INT >= Build.VERSION_CODES.HONEYCOMB
-                            ? resources.getDimensionPixelSize(android.R.dimen.notification_large_icon_width)
-                            : resources.getDimensionPixelSize(R.dimen.notification_large_icon_default);
-                    @SuppressLint("InlinedApi")
-                    int largeIconHeight = Build.VERSION.SDK_INT >= Build.VERSION_CODES.HONEYCOMB
-                            ? resources.getDimensionPixelSize(android.R.dimen.notification_large_icon_height)
-                            : resources.getDimensionPixelSize(R.dimen.notification_large_icon_default);
-
-                    // Retrieve the large icon
-                    Bitmap largeIcon;
-                    try {
-                        largeIcon = Glide.with(context)
-                                .load(artUrl)
-                                .asBitmap()
-                                .error(artResourceId)
-                                .fitCenter()
-                                .into(largeIconWidth, largeIconHeight).get();
-                    } catch (InterruptedException | ExecutionException e) {
-                        Log.e(LOG_TAG, "Error retrieving large icon from " + artUrl, e);
-                        largeIcon = BitmapFactory.decodeResource(resources, artResourceId);
-                    }
-                    String title = context.getString(R.string.app_name);
-
-                    // Define the text of the forecast.
-                    String contentText = String.format(context.getString(R.string.format_notification),
-                            desc,
-                            Utility.formatTemperature(context, high),
-                            Utility.formatTemperature(context, low));
-
-                    // NotificationCompatBuilder is a very convenient way to build backward-compatible
-                    // notifications.  Just throw in some data.
-                    NotificationCompat.Builder mBuilder =
-                            new NotificationCompat.Builder(getContext())
-                                    .setColor(resources.getColor(R.color.primary_light))
-                                    .setSmallIcon(iconId)
-                                    .setLargeIcon(largeIcon)
-                                    .setContentTitle(title)
-                                    .setContentText(contentText);
-
-                    // Make something interesting happen when the user clicks on the notification.
-                    // In this case, opening the app is sufficient.
-                    Intent resultIntent = new Intent(context, MainActivity.class);
-
-                    // The stack builder object will contain an artificial back stack for the
-                    // started Activity.
-                    // This ensures that navigating backward from the Activity leads out of
-                    // your application to the Home screen.
-                    TaskStackBuilder stackBuilder = TaskStackBuilder.create(context);
-                    stackBuilder.addNextIntent(resultIntent);
-                    PendingIntent resultPendingIntent =
-                            stackBuilder.getPendingIntent(
-                                    0,
-                                    PendingIntent.FLAG_UPDATE_CURRENT
-                            );
-                    mBuilder.setContentIntent(resultPendingIntent);
-
-                    NotificationManager mNotificationManager =
-                            (NotificationManager) getContext().getSystemService(Context.NOTIFICATION_SERVICE);
-                    // WEATHER_NOTIFICATION_ID allows you to update the notification later on.
-                    mNotificationManager.notify(WEATHER_NOTIFICATION_ID, mBuilder.build());
-
-                    //refreshing last sync
-                    SharedPreferences.Editor editor = prefs.edit();
-                    editor.putLong(lastNotificationKey, System.currentTimeMillis());
-                    editor.commit();
-                }
-                cursor.close();
-            }
-        }
+    private void notifyWeather(ForecastSnapshot snapshot) {
+        // Only decides whether a notification is due, the art is loaded and the notification
+        // posted on another thread
+        WeatherNotifier.notifyWeather(getContext(), snapshot);
     }
 
     /**
@@ -499,44 +825,9 @@ public class SunshineSyncAdapter extends AbstractThreadedSyncAdapter {
      * @return the row ID of the added location.
      */
     long addLocation(String locationSetting, String cityName, double lat, double lon) {
-        long locationId;
-
-        // First, check if the location with this city name exists in the db
-        Cursor locationCursor = getContext().getContentResolver().query(
-                WeatherContract.LocationEntry.CONTENT_URI,
-                new String[]{WeatherContract.LocationEntry._ID},
-                WeatherContract.LocationEntry.COLUMN_LOCATION_SETTING + " = ?",
-                new String[]{locationSetting},
-                null);
-
-        if (locationCursor.moveToFirst()) {
-            int locationIdIndex = locationCursor.getColumnIndex(WeatherContract.LocationEntry._ID);
-            locationId = locationCursor.getLong(locationIdIndex);
-        } else {
-            // Now that the content provider is set up, inserting rows of data is pretty simple.
-            // First create a ContentValues object to hold the data you want to insert.
-            ContentValues locationValues = new ContentValues();
-
-            // Then add the data, along with the corresponding name of the data type,
-            // so the content provider knows what kind of value is being inserted.
-            locationValues.put(WeatherContract.LocationEntry.COLUMN_CITY_NAME, cityName);
-            locationValues.put(WeatherContract.LocationEntry.COLUMN_LOCATION_SETTING, locationSetting);
-            locationValues.put(WeatherContract.LocationEntry.COLUMN_COORD_LAT, lat);
-            locationValues.put(WeatherContract.LocationEntry.COLUMN_COORD_LONG, lon);
-
-            // Finally, insert location data into the database.
-            Uri insertedUri = getContext().getContentResolver().insert(
-                    WeatherContract.LocationEntry.CONTENT_URI,
-                    locationValues
-            );
-
-            // The resulting URI contains the ID for the row.  Extract the locationId from the Uri.
-            locationId = ContentUris.parseId(insertedUri);
-        }
-
-        locationCursor.close();
-        // Wait, that worked?  Yes!
-        return locationId;
+        // Known locations are answered from memory; a new one costs a single provider call that
+        // finds or inserts it atomically
+        return LocationRegistry.getOrInsert(getContext(), locationSetting, cityName, lat, lon);
     }
 
     /**
@@ -563,9 +854,26 @@ public class SunshineSyncAdapter extends AbstractThreadedSyncAdapter {
      * @param context The context used to access the account service
      */
     public static void syncImmediately(Context context) {
+        // Don't download the same forecast twice for a burst of requests
+        if (!SyncCoalescer.shouldRequest(context, Utility.getPreferredLocation(context))) {
+            return;
+        }
+        Bundle bundle = new Bundle();
+        bundle.putBoolean(ContentResolver.SYNC_EXTRAS_EXPEDITED, true);
+        bundle.putBoolean(ContentResolver.SYNC_EXTRAS_MANUAL, true);
+        ContentResolver.requestSync(getSyncAccount(context),
+                context.getString(R.string.content_authority), bundle);
+    }
+
+    /**
+     * Helper method to have the sync adapter refresh every saved location right away
+     * @param context The context used to access the account service
+     */
+    public static void syncAllLocationsImmediately(Context context) {
         Bundle bundle = new Bundle();
         bundle.putBoolean(ContentResolver.SYNC_EXTRAS_EXPEDITED, true);
         bundle.putBoolean(ContentResolver.SYNC_EXTRAS_MANUAL, true);
+        bundle.putBoolean(SYNC_EXTRAS_ALL_LOCATIONS, true);
         ContentResolver.requestSync(getSyncAccount(context),
                 context.getString(R.string.content_authority), bundle);
     }
@@ -631,15 +939,11 @@ public class SunshineSyncAdapter extends AbstractThreadedSyncAdapter {
     }
 
     /**
-     * Sets the location status into shared preference.  This function should not be called from
-     * the UI thread because it uses commit to write to the shared preferences.
-     * @param c Context to get the PreferenceManager from.
+     * Sets the location status in the sync state store, which writes it out in the background.
+     * @param c Context to get the SyncStateStore from.
      * @param locationStatus The IntDef value to set
      */
-    static private void setLocationStatus(Context c, @LocationStatus int locationStatus){
-        SharedPreferences sp = PreferenceManager.getDefaultSharedPreferences(c);
-        SharedPreferences.Editor spe = sp.edit();
-        spe.putInt(c.getString(R.string.pref_location_status_key), locationStatus);
-        spe.commit();
+    static void setLocationStatus(Context c, @LocationStatus int locationStatus){
+        SyncStateStore.getInstance(c).setStatus(locationStatus);
     }
 }
\ No newline at end of file
@@ -0,0 +1,118 @@
+package com.axolotl.sunshine.sync;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.preference.PreferenceManager;
+import android.text.format.DateUtils;
+import android.util.Log;
+
+import com.axolotl.sunshine.R;
+
+/**
+ * Merges sync requests for the same location that would only download the same forecast again.
+ *
+ * A manual request is absorbed when a sync for that location is already waiting to run, is
+ * running (its result will be just as fresh), or finished within the last COALESCE_WINDOW_MILLIS.
+ * A periodic sync is skipped when a sync for the location finished within the window.  Every
+ * absorbed request is counted, so the debug view can show how many downloads were saved.
+ */
+class SyncCoalescer {
+    private static final String LOG_TAG = SyncCoalescer.class.getSimpleName();
+
+    static final long COALESCE_WINDOW_MILLIS = 30 * DateUtils.SECOND_IN_MILLIS;
+
+    private static final Object sLock = new Object();
+
+    // Requested but not started yet
+    private static String sPendingLocation;
+    private static long sPendingSince;
+
+    private static String sRunningLocation;
+
+    // The last sync that finished, and how it went
+    private static String sFinishedLocation;
+    private static long sFinishedAt;
+    @SunshineSyncAdapter.LocationStatus
+    private static int sFinishedStatus;
+
+    private SyncCoalescer() {
+    }
+
+    /**
+     * Called before requesting a manual sync of the location.
+     *
+     * @return false if an earlier request covers this one and no sync should be requested
+     */
+    static boolean shouldRequest(Context context, String location) {
+        long now = System.currentTimeMillis();
+        synchronized (sLock) {
+            if (location.equals(sPendingLocation) && now - sPendingSince < COALESCE_WINDOW_MILLIS) {
+                absorb(context, location, "already requested");
+                return false;
+            }
+            if (location.equals(sRunningLocation)) {
+                absorb(context, location, "already running");
+                return false;
+            }
+            if (location.equals(sFinishedLocation)
+                    && now - sFinishedAt < COALESCE_WINDOW_MILLIS) {
+                absorb(context, location, "just synced");
+                // The caller may have reset the location status, put back what that sync found
+                SunshineSyncAdapter.setLocationStatus(context, sFinishedStatus);
+                return false;
+            }
+            sPendingLocation = location;
+            sPendingSince = now;
+            return true;
+        }
+    }
+
+    /**
+     * Called when a sync of the location starts.
+     *
+     * @param periodic true for a periodic sync, which is skipped if the location was just synced
+     * @return false if the sync should not run
+     */
+    static boolean begin(Context context, String location, boolean periodic) {
+        long now = System.currentTimeMillis();
+        synchronized (sLock) {
+            if (periodic && location.equals(sFinishedLocation)
+                    && now - sFinishedAt < COALESCE_WINDOW_MILLIS) {
+                absorb(context, location, "just synced");
+                return false;
+            }
+            if (location.equals(sPendingLocation)) {
+                sPendingLocation = null;
+            }
+            sRunningLocation = location;
+            return true;
+        }
+    }
+
+    /**
+     * Called when a sync that {@link #begin} let through is over.
+     */
+    static void end(String location, @SunshineSyncAdapter.LocationStatus int status) {
+        synchronized (sLock) {
+            sRunningLocation = null;
+            sFinishedLocation = location;
+            sFinishedAt = System.currentTimeMillis();
+            sFinishedStatus = status;
+        }
+    }
+
+    /**
+     * @return how many sync requests have been absorbed so far
+     */
+    static int getAbsorbedCount(Context context) {
+        return PreferenceManager.getDefaultSharedPreferences(context)
+                .getInt(context.getString(R.string.pref_sync_absorbed_key), 0);
+    }
+
+    private static void absorb(Context context, String location, String reason) {
+        Log.d(LOG_TAG, "Sync of " + location + " absorbed, " + reason);
+        SharedPreferences prefs = PreferenceManager.getDefaultSharedPreferences(context);
+        String key = context.getString(R.string.pref_sync_absorbed_key);
+        prefs.edit().putInt(key, prefs.getInt(key, 0) + 1).apply();
+    }
+}
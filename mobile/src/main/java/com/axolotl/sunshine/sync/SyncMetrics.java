@@ -0,0 +1,91 @@
+package com.axolotl.sunshine.sync;
+
+import android.content.ContentValues;
+import android.content.Context;
+import android.text.format.DateUtils;
+import android.util.Log;
+
+import com.axolotl.sunshine.data.WeatherContract.SyncMetricsEntry;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Collects how long each stage of one sync took, and writes them to the sync metrics table
+ * when the sync is done.  Locations of a multi-location sync record from their own threads.
+ */
+class SyncMetrics {
+    private static final String LOG_TAG = SyncMetrics.class.getSimpleName();
+
+    // How much history the metrics table keeps
+    private static final long RETENTION_MILLIS = 14 * DateUtils.DAY_IN_MILLIS;
+
+    private final long mSyncTime = System.currentTimeMillis();
+    private final List<ContentValues> mRows = new ArrayList<ContentValues>();
+
+    /**
+     * @return the start time to hand to {@link #record} once the stage is over
+     */
+    static long start() {
+        return System.nanoTime();
+    }
+
+    /**
+     * @return the microseconds since {@link #start} returned the start time
+     */
+    static long getElapsedMicros(long startNanos) {
+        return (System.nanoTime() - startNanos) / 1000;
+    }
+
+    void record(String locationSetting, String stage, long startNanos) {
+        record(locationSetting, stage, startNanos, -1);
+    }
+
+    /**
+     * @param bytes bytes the stage moved, or -1 if that doesn't apply
+     */
+    void record(String locationSetting, String stage, long startNanos, long bytes) {
+        recordDuration(locationSetting, stage, getElapsedMicros(startNanos), bytes);
+    }
+
+    /**
+     * Records a stage that was timed elsewhere, e.g. by the provider.
+     *
+     * @param bytes bytes the stage moved, or -1 if that doesn't apply
+     */
+    void recordDuration(String locationSetting, String stage, long durationMicros, long bytes) {
+        ContentValues values = new ContentValues();
+        values.put(SyncMetricsEntry.COLUMN_SYNC_TIME, mSyncTime);
+        values.put(SyncMetricsEntry.COLUMN_LOCATION_SETTING, locationSetting);
+        values.put(SyncMetricsEntry.COLUMN_STAGE, stage);
+        values.put(SyncMetricsEntry.COLUMN_DURATION, durationMicros);
+        if (bytes >= 0) {
+            values.put(SyncMetricsEntry.COLUMN_BYTES, bytes);
+        }
+        synchronized (mRows) {
+            mRows.add(values);
+        }
+    }
+
+    /**
+     * Writes the recorded stages and drops the ones that have aged out of the history.
+     */
+    void write(Context context) {
+        ContentValues[] rows;
+        synchronized (mRows) {
+            rows = mRows.toArray(new ContentValues[mRows.size()]);
+        }
+        if (rows.length == 0) {
+            return;
+        }
+        try {
+            context.getContentResolver().bulkInsert(SyncMetricsEntry.CONTENT_URI, rows);
+            context.getContentResolver().delete(SyncMetricsEntry.CONTENT_URI,
+                    SyncMetricsEntry.COLUMN_SYNC_TIME + " < ?",
+                    new String[]{Long.toString(mSyncTime - RETENTION_MILLIS)});
+        } catch (RuntimeException e) {
+            // Losing the metrics must never fail the sync
+            Log.e(LOG_TAG, "Error writing sync metrics", e);
+        }
+    }
+}
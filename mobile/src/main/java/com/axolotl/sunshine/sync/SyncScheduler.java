@@ -0,0 +1,214 @@
+package com.axolotl.sunshine.sync;
+
+import android.content.Context;
+import android.content.Intent;
+import android.content.IntentFilter;
+import android.content.SharedPreferences;
+import android.net.ConnectivityManager;
+import android.net.NetworkInfo;
+import android.os.BatteryManager;
+import android.os.Build;
+import android.preference.PreferenceManager;
+import android.text.format.DateUtils;
+import android.util.Log;
+
+import com.axolotl.sunshine.R;
+
+import java.util.Calendar;
+
+/**
+ * Picks the periodic sync interval from what the last sync saw and from the device's state,
+ * instead of always syncing every three hours.
+ *
+ * The forecast is synced more often while it keeps changing, and much less often when it is
+ * stable, at night, when the app has not been opened for a while, or when the battery is low.
+ * Each decision is saved with the reasons behind it so debug builds can show it in settings.
+ */
+public class SyncScheduler {
+    private static final String LOG_TAG = SyncScheduler.class.getSimpleName();
+
+    static final int MIN_INTERVAL = 60 * 60;
+    static final int MAX_INTERVAL = 60 * 60 * 12;
+
+    // Night is when nobody is looking at the forecast, between these local hours
+    private static final int NIGHT_START_HOUR = 0;
+    private static final int NIGHT_END_HOUR = 6;
+
+    private static final int LOW_BATTERY_PERCENT = 20;
+    private static final long APP_IDLE_MILLIS = 3 * DateUtils.DAY_IN_MILLIS;
+
+    /**
+     * Everything the scheduler bases its decision on.
+     */
+    static class Signals {
+        // Fraction of the stored forecast days that the last sync inserted or changed, or -1 if
+        // the last sync failed and there is nothing to go by
+        float mChangedFraction = -1;
+        int mHourOfDay;
+        long mMillisSinceAppOpened = Long.MAX_VALUE;
+        int mBatteryPercent = 100;
+        boolean mCharging;
+        boolean mUnmetered;
+    }
+
+    /**
+     * The chosen interval, and why it was chosen.
+     */
+    static class Decision {
+        int mInterval;
+        int mFlexTime;
+        String mReasons;
+    }
+
+    /**
+     * Called when the main activity comes to the foreground, so syncs can slow down when the
+     * forecast is not being looked at.
+     */
+    public static void recordAppOpened(Context context) {
+        PreferenceManager.getDefaultSharedPreferences(context).edit()
+                .putLong(context.getString(R.string.pref_last_app_open_key),
+                        System.currentTimeMillis())
+                .apply();
+    }
+
+    /**
+     * Picks the next sync interval after a sync of the preferred location and re-registers the
+     * periodic sync if it changed.
+     */
+    static void reschedule(Context context, LocationSyncResult preferred) {
+        Signals signals = readSignals(context, preferred);
+        Decision decision = decide(signals);
+
+        SharedPreferences prefs = PreferenceManager.getDefaultSharedPreferences(context);
+        String intervalKey = context.getString(R.string.pref_sync_interval_key);
+        int currentInterval = prefs.getInt(intervalKey, SunshineSyncAdapter.SYNC_INTERVAL);
+
+        SharedPreferences.Editor editor = prefs.edit();
+        editor.putInt(intervalKey, decision.mInterval);
+        editor.putString(context.getString(R.string.pref_sync_schedule_reasons_key),
+                decision.mReasons);
+        editor.putLong(context.getString(R.string.pref_sync_schedule_time_key),
+                System.currentTimeMillis());
+        editor.apply();
+
+        // Registering the periodic sync again restarts its timer, so only do it on a change
+        if (decision.mInterval != currentInterval) {
+            Log.d(LOG_TAG, "Sync interval " + currentInterval + "s -> " + decision.mInterval
+                    + "s (" + decision.mReasons + ")");
+            SunshineSyncAdapter.configurePeriodicSync(context, decision.mInterval,
+                    decision.mFlexTime);
+        }
+    }
+
+    /**
+     * @return the last decision in a human readable form, for the debug view in settings
+     */
+    public static String getDebugDescription(Context context) {
+        SharedPreferences prefs = PreferenceManager.getDefaultSharedPreferences(context);
+        long time = prefs.getLong(context.getString(R.string.pref_sync_schedule_time_key), 0);
+        if (time == 0) {
+            return context.getString(R.string.pref_sync_schedule_none);
+        }
+        int interval = prefs.getInt(context.getString(R.string.pref_sync_interval_key),
+                SunshineSyncAdapter.SYNC_INTERVAL);
+        String reasons = prefs.getString(
+                context.getString(R.string.pref_sync_schedule_reasons_key), "");
+        return context.getString(R.string.format_sync_schedule,
+                DateUtils.formatElapsedTime(interval),
+                DateUtils.getRelativeTimeSpanString(time),
+                reasons,
+                SyncCoalescer.getAbsorbedCount(context),
+                ArtPrefetcher.getHitCount(context),
+                ArtPrefetcher.getMissCount(context));
+    }
+
+    static Decision decide(Signals signals) {
+        StringBuilder reasons = new StringBuilder();
+        float interval = SunshineSyncAdapter.SYNC_INTERVAL;
+
+        if (signals.mChangedFraction < 0) {
+            reasons.append("last sync failed");
+        } else if (signals.mChangedFraction >= 0.5f) {
+            interval /= 3;
+            reasons.append("forecast changing fast");
+        } else if (signals.mChangedFraction > 0) {
+            interval /= 1.5f;
+            reasons.append("forecast changing");
+        } else {
+            interval *= 2;
+            reasons.append("forecast stable");
+        }
+
+        if (signals.mHourOfDay >= NIGHT_START_HOUR && signals.mHourOfDay < NIGHT_END_HOUR) {
+            interval *= 2;
+            reasons.append(", night");
+        }
+        if (signals.mMillisSinceAppOpened > APP_IDLE_MILLIS) {
+            interval *= 2;
+            reasons.append(", app not opened recently");
+        }
+        if (signals.mCharging) {
+            if (signals.mUnmetered) {
+                interval /= 2;
+                reasons.append(", charging on unmetered network");
+            }
+        } else if (signals.mBatteryPercent <= LOW_BATTERY_PERCENT) {
+            interval *= 2;
+            reasons.append(", battery low");
+        }
+
+        Decision decision = new Decision();
+        decision.mInterval = Math.max(MIN_INTERVAL, Math.min(MAX_INTERVAL, (int) interval));
+        decision.mFlexTime = decision.mInterval / 3;
+        decision.mReasons = reasons.toString();
+        return decision;
+    }
+
+    private static Signals readSignals(Context context, LocationSyncResult preferred) {
+        Signals signals = new Signals();
+
+        if (preferred.mStatus == SunshineSyncAdapter.LOCATION_STATUS_OK) {
+            int days = preferred.mRowsInserted + preferred.mRowsUpdated + preferred.mRowsUnchanged;
+            if (preferred.mNotModified || days == 0) {
+                signals.mChangedFraction = 0;
+            } else {
+                signals.mChangedFraction =
+                        (preferred.mRowsInserted + preferred.mRowsUpdated) / (float) days;
+            }
+        }
+
+        signals.mHourOfDay = Calendar.getInstance().get(Calendar.HOUR_OF_DAY);
+
+        long lastOpened = PreferenceManager.getDefaultSharedPreferences(context)
+                .getLong(context.getString(R.string.pref_last_app_open_key), 0);
+        if (lastOpened > 0) {
+            signals.mMillisSinceAppOpened = System.currentTimeMillis() - lastOpened;
+        }
+
+        // The battery broadcast is sticky, so this reads the last one without registering
+        Intent battery = context.registerReceiver(null,
+                new IntentFilter(Intent.ACTION_BATTERY_CHANGED));
+        if (battery != null) {
+            int level = battery.getIntExtra(BatteryManager.EXTRA_LEVEL, -1);
+            int scale = battery.getIntExtra(BatteryManager.EXTRA_SCALE, -1);
+            if (level >= 0 && scale > 0) {
+                signals.mBatteryPercent = level * 100 / scale;
+            }
+            int status = battery.getIntExtra(BatteryManager.EXTRA_STATUS, -1);
+            signals.mCharging = status == BatteryManager.BATTERY_STATUS_CHARGING
+                    || status == BatteryManager.BATTERY_STATUS_FULL;
+        }
+
+        ConnectivityManager cm =
+                (ConnectivityManager) context.getSystemService(Context.CONNECTIVITY_SERVICE);
+        NetworkInfo activeNetwork = cm.getActiveNetworkInfo();
+        if (activeNetwork != null && activeNetwork.isConnected()) {
+            if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.JELLY_BEAN) {
+                signals.mUnmetered = !cm.isActiveNetworkMetered();
+            } else {
+                signals.mUnmetered = activeNetwork.getType() == ConnectivityManager.TYPE_WIFI;
+            }
+        }
+        return signals;
+    }
+}
@@ -0,0 +1,293 @@
+package com.axolotl.sunshine.sync;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.os.Handler;
+import android.os.Looper;
+import android.preference.PreferenceManager;
+import android.support.v4.util.AtomicFile;
+import android.util.Log;
+
+import com.axolotl.sunshine.R;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * What the syncs have found out, kept in memory and watched by the UI.
+ *
+ * Holds the preferred location's status, when a sync last succeeded and last failed (and how),
+ * when each location was last synced successfully, and when the weather notification was last
+ * shown.  Changes are delivered to listeners on the main thread, and written to a small file
+ * of their own a moment later, so a burst of changes during one sync costs one write instead
+ * of a rewrite of the whole preferences file for each.
+ */
+public final class SyncStateStore {
+    private static final String LOG_TAG = SyncStateStore.class.getSimpleName();
+
+    private static final String FILE_NAME = "sync_state";
+    // Bump whenever the file layout changes, older files are then ignored
+    private static final int VERSION = 1;
+
+    // How long changes are collected before they are written
+    private static final long WRITE_DELAY_MILLIS = 1000;
+
+    /**
+     * Told about every change, on the main thread.
+     */
+    public interface Listener {
+        void onSyncStateChanged(SyncStateStore store);
+    }
+
+    private static SyncStateStore sInstance;
+
+    private final AtomicFile mFile;
+    private final ScheduledExecutorService mWriter = Executors.newSingleThreadScheduledExecutor();
+    private final Handler mMainHandler = new Handler(Looper.getMainLooper());
+    private final List<Listener> mListeners = new ArrayList<Listener>();
+
+    @SunshineSyncAdapter.LocationStatus
+    private int mStatus = SunshineSyncAdapter.LOCATION_STATUS_UNKNOWN;
+    private long mLastSuccessTime;
+    private long mLastErrorTime;
+    @SunshineSyncAdapter.LocationStatus
+    private int mLastError = SunshineSyncAdapter.LOCATION_STATUS_UNKNOWN;
+    private long mLastNotificationTime;
+    // location setting -> when it was last synced successfully
+    private final HashMap<String, Long> mLastSynced = new HashMap<String, Long>();
+
+    private boolean mWriteScheduled;
+    private boolean mDispatchScheduled;
+
+    private final Runnable mWrite = new Runnable() {
+        @Override
+        public void run() {
+            write();
+        }
+    };
+
+    private final Runnable mDispatch = new Runnable() {
+        @Override
+        public void run() {
+            List<Listener> listeners;
+            synchronized (SyncStateStore.this) {
+                mDispatchScheduled = false;
+                listeners = new ArrayList<Listener>(mListeners);
+            }
+            for (Listener listener : listeners) {
+                listener.onSyncStateChanged(SyncStateStore.this);
+            }
+        }
+    };
+
+    public static synchronized SyncStateStore getInstance(Context context) {
+        if (sInstance == null) {
+            sInstance = new SyncStateStore(context.getApplicationContext());
+        }
+        return sInstance;
+    }
+
+    private SyncStateStore(Context context) {
+        mFile = new AtomicFile(new File(context.getFilesDir(), FILE_NAME));
+        if (!read()) {
+            // Before this store the status and the notification time lived in the default
+            // preferences
+            SharedPreferences prefs = PreferenceManager.getDefaultSharedPreferences(context);
+            //noinspection ResourceType
+            mStatus = prefs.getInt(context.getString(R.string.pref_location_status_key),
+                    SunshineSyncAdapter.LOCATION_STATUS_UNKNOWN);
+            mLastNotificationTime =
+                    prefs.getLong(context.getString(R.string.pref_last_notification), 0);
+        }
+    }
+
+    public synchronized void addListener(Listener listener) {
+        mListeners.add(listener);
+    }
+
+    public synchronized void removeListener(Listener listener) {
+        mListeners.remove(listener);
+    }
+
+    /**
+     * @return the status of the preferred location
+     */
+    @SunshineSyncAdapter.LocationStatus
+    public synchronized int getStatus() {
+        return mStatus;
+    }
+
+    /**
+     * @return when a sync last succeeded for any location, in milliseconds, or 0 if never
+     */
+    public synchronized long getLastSuccessTime() {
+        return mLastSuccessTime;
+    }
+
+    /**
+     * @return when a sync last failed for any location, in milliseconds, or 0 if never
+     */
+    public synchronized long getLastErrorTime() {
+        return mLastErrorTime;
+    }
+
+    /**
+     * @return how the last failed sync failed
+     */
+    @SunshineSyncAdapter.LocationStatus
+    public synchronized int getLastError() {
+        return mLastError;
+    }
+
+    /**
+     * @return when the location was last synced successfully, in milliseconds, or 0 if never
+     */
+    public synchronized long getLastSynced(String locationSetting) {
+        Long time = mLastSynced.get(locationSetting);
+        return time != null ? time : 0;
+    }
+
+    synchronized long getLastNotificationTime() {
+        return mLastNotificationTime;
+    }
+
+    /**
+     * Sets the status of the preferred location.
+     */
+    public void setStatus(@SunshineSyncAdapter.LocationStatus int status) {
+        synchronized (this) {
+            if (mStatus == status) {
+                return;
+            }
+            mStatus = status;
+        }
+        onChanged();
+    }
+
+    /**
+     * Records how a sync of one location went.
+     */
+    void onLocationSynced(String locationSetting, @SunshineSyncAdapter.LocationStatus int status) {
+        long now = System.currentTimeMillis();
+        synchronized (this) {
+            if (status == SunshineSyncAdapter.LOCATION_STATUS_OK) {
+                mLastSuccessTime = now;
+                mLastSynced.put(locationSetting, now);
+            } else {
+                mLastErrorTime = now;
+                mLastError = status;
+            }
+        }
+        onChanged();
+    }
+
+    void setLastNotificationTime(long time) {
+        synchronized (this) {
+            mLastNotificationTime = time;
+        }
+        onChanged();
+    }
+
+    private void onChanged() {
+        synchronized (this) {
+            if (!mWriteScheduled) {
+                mWriteScheduled = true;
+                mWriter.schedule(mWrite, WRITE_DELAY_MILLIS, TimeUnit.MILLISECONDS);
+            }
+            if (!mDispatchScheduled) {
+                mDispatchScheduled = true;
+                mMainHandler.post(mDispatch);
+            }
+        }
+    }
+
+    private boolean read() {
+        FileInputStream in = null;
+        try {
+            in = mFile.openRead();
+            DataInputStream data = new DataInputStream(in);
+            if (data.readInt() != VERSION) {
+                return false;
+            }
+            //noinspection ResourceType
+            mStatus = data.readInt();
+            mLastSuccessTime = data.readLong();
+            mLastErrorTime = data.readLong();
+            //noinspection ResourceType
+            mLastError = data.readInt();
+            mLastNotificationTime = data.readLong();
+            int locations = data.readInt();
+            for (int i = 0; i < locations; i++) {
+                mLastSynced.put(data.readUTF(), data.readLong());
+            }
+            return true;
+        } catch (FileNotFoundException e) {
+            return false;
+        } catch (IOException e) {
+            Log.e(LOG_TAG, "Error reading sync state", e);
+            return false;
+        } finally {
+            if (in != null) {
+                try {
+                    in.close();
+                } catch (IOException e) {
+                    // Nothing was written, nothing to lose
+                }
+            }
+        }
+    }
+
+    private void write() {
+        int status;
+        long lastSuccessTime;
+        long lastErrorTime;
+        int lastError;
+        long lastNotificationTime;
+        HashMap<String, Long> lastSynced;
+        synchronized (this) {
+            mWriteScheduled = false;
+            status = mStatus;
+            lastSuccessTime = mLastSuccessTime;
+            lastErrorTime = mLastErrorTime;
+            lastError = mLastError;
+            lastNotificationTime = mLastNotificationTime;
+            lastSynced = new HashMap<String, Long>(mLastSynced);
+        }
+
+        FileOutputStream out = null;
+        try {
+            out = mFile.startWrite();
+            DataOutputStream data = new DataOutputStream(out);
+            data.writeInt(VERSION);
+            data.writeInt(status);
+            data.writeLong(lastSuccessTime);
+            data.writeLong(lastErrorTime);
+            data.writeInt(lastError);
+            data.writeLong(lastNotificationTime);
+            data.writeInt(lastSynced.size());
+            for (Map.Entry<String, Long> entry : lastSynced.entrySet()) {
+                data.writeUTF(entry.getKey());
+                data.writeLong(entry.getValue());
+            }
+            data.flush();
+            mFile.finishWrite(out);
+        } catch (IOException e) {
+            Log.e(LOG_TAG, "Error writing sync state", e);
+            if (out != null) {
+                mFile.failWrite(out);
+            }
+        }
+    }
+}
@@ -0,0 +1,135 @@
+package com.axolotl.sunshine.sync;
+
+import android.util.Log;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.util.Map;
+import java.util.zip.GZIPInputStream;
+
+/**
+ * {@link WeatherHttpClient} on top of {@link HttpURLConnection}.
+ *
+ * It asks for gzip itself, rather than letting the platform do it transparently, so that it can
+ * tell how many bytes actually crossed the wire.  Connections are never disconnected: closing a
+ * fully read response returns the socket to the platform's keep-alive pool, which lets the next
+ * request to the same host (for instance the next location in a multi-location sync) skip the
+ * TCP handshake.
+ */
+public class UrlConnectionHttpClient implements WeatherHttpClient {
+    private static final String LOG_TAG = UrlConnectionHttpClient.class.getSimpleName();
+
+    public static final int DEFAULT_CONNECT_TIMEOUT_MILLIS = 15 * 1000;
+    public static final int DEFAULT_READ_TIMEOUT_MILLIS = 20 * 1000;
+
+    private static final String HEADER_ACCEPT_ENCODING = "Accept-Encoding";
+    private static final String ENCODING_GZIP = "gzip";
+
+    private final int mConnectTimeoutMillis;
+    private final int mReadTimeoutMillis;
+
+    public UrlConnectionHttpClient() {
+        this(DEFAULT_CONNECT_TIMEOUT_MILLIS, DEFAULT_READ_TIMEOUT_MILLIS);
+    }
+
+    public UrlConnectionHttpClient(int connectTimeoutMillis, int readTimeoutMillis) {
+        mConnectTimeoutMillis = connectTimeoutMillis;
+        mReadTimeoutMillis = readTimeoutMillis;
+    }
+
+    @Override
+    public Response get(String url, Map<String, String> requestHeaders) throws IOException {
+        HttpURLConnection urlConnection = (HttpURLConnection) new URL(url).openConnection();
+        urlConnection.setRequestMethod("GET");
+        urlConnection.setConnectTimeout(mConnectTimeoutMillis);
+        urlConnection.setReadTimeout(mReadTimeoutMillis);
+        urlConnection.setRequestProperty(HEADER_ACCEPT_ENCODING, ENCODING_GZIP);
+        for (Map.Entry<String, String> header : requestHeaders.entrySet()) {
+            urlConnection.setRequestProperty(header.getKey(), header.getValue());
+        }
+        urlConnection.connect();
+        return new UrlConnectionResponse(urlConnection);
+    }
+
+    private static class UrlConnectionResponse implements Response {
+        private final HttpURLConnection mConnection;
+        private CountingInputStream mWire;
+        private CountingInputStream mDecoded;
+
+        UrlConnectionResponse(HttpURLConnection connection) {
+            mConnection = connection;
+        }
+
+        @Override
+        public int getResponseCode() throws IOException {
+            return mConnection.getResponseCode();
+        }
+
+        @Override
+        public String getHeaderField(String name) {
+            return mConnection.getHeaderField(name);
+        }
+
+        @Override
+        public InputStream getBody() throws IOException {
+            if (mDecoded == null) {
+                decode(mConnection.getInputStream());
+            }
+            return mDecoded;
+        }
+
+        @Override
+        public InputStream getErrorBody() throws IOException {
+            if (mDecoded == null) {
+                InputStream errorStream = mConnection.getErrorStream();
+                if (errorStream == null) {
+                    return null;
+                }
+                decode(errorStream);
+            }
+            return mDecoded;
+        }
+
+        private void decode(InputStream in) throws IOException {
+            mWire = new CountingInputStream(in);
+            InputStream body = ENCODING_GZIP.equalsIgnoreCase(mConnection.getContentEncoding())
+                    ? new GZIPInputStream(mWire)
+                    : mWire;
+            mDecoded = new CountingInputStream(body);
+        }
+
+        @Override
+        public long getWireBytes() {
+            return mWire == null ? 0 : mWire.getCount();
+        }
+
+        @Override
+        public long getDecodedBytes() {
+            return mDecoded == null ? 0 : mDecoded.getCount();
+        }
+
+        @Override
+        public void close() {
+            try {
+                if (mDecoded != null) {
+                    mDecoded.close();
+                } else {
+                    // No body was asked for (e.g. a 304), close the unread one so the
+                    // connection can still be reused
+                    InputStream in = mConnection.getResponseCode()
+                            >= HttpURLConnection.HTTP_BAD_REQUEST
+                            ? mConnection.getErrorStream()
+                            : mConnection.getInputStream();
+                    if (in != null) {
+                        in.close();
+                    }
+                }
+            } catch (IOException e) {
+                // The connection just isn't reused
+                Log.d(LOG_TAG, "Connection not reusable: " + e.getMessage());
+            }
+        }
+    }
+}
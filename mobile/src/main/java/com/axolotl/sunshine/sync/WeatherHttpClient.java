@@ -0,0 +1,52 @@
+package com.axolotl.sunshine.sync;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Map;
+
+/**
+ * The HTTP client the sync adapter fetches forecasts with.
+ *
+ * The production implementation is {@link UrlConnectionHttpClient}.  Tests can hand the sync
+ * adapter an {@link OwmWeatherSource} on their own implementation, for instance one that
+ * sends every request to a local stand-in server.
+ */
+public interface WeatherHttpClient {
+
+    /**
+     * Issues a GET request.
+     *
+     * @param url the full request URL
+     * @param requestHeaders extra request headers, e.g. conditional request validators
+     * @return the response, which the caller must close
+     */
+    Response get(String url, Map<String, String> requestHeaders) throws IOException;
+
+    /**
+     * A response to {@link #get}.  Closing it hands the connection back for reuse.
+     */
+    interface Response {
+        int getResponseCode() throws IOException;
+
+        String getHeaderField(String name);
+
+        /**
+         * @return the decoded response body, already un-gzipped if it was sent compressed
+         */
+        InputStream getBody() throws IOException;
+
+        /**
+         * @return the decoded body of an error response, one with a code of 400 or above, or
+         * null if there is none.  {@link #getBody} throws for those.
+         */
+        InputStream getErrorBody() throws IOException;
+
+        // Bytes of body read off the wire so far, before decoding
+        long getWireBytes();
+
+        // Bytes of body handed to the caller so far, after decoding
+        long getDecodedBytes();
+
+        void close();
+    }
+}
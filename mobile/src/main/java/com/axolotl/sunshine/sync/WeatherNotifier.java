@@ -0,0 +1,218 @@
+package com.axolotl.sunshine.sync;
+
+import android.annotation.SuppressLint;
+import android.app.NotificationManager;
+import android.app.PendingIntent;
+import android.content.Context;
+import android.content.Intent;
+import android.content.SharedPreferences;
+import android.content.res.Resources;
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.os.Build;
+import android.preference.PreferenceManager;
+import android.support.v4.app.NotificationCompat;
+import android.support.v4.app.TaskStackBuilder;
+import android.support.v4.util.LruCache;
+import android.text.format.DateUtils;
+import android.util.Log;
+
+import com.axolotl.sunshine.MainActivity;
+import com.axolotl.sunshine.R;
+import com.axolotl.sunshine.Utility;
+import com.bumptech.glide.Glide;
+import com.bumptech.glide.load.engine.DiskCacheStrategy;
+import com.bumptech.glide.request.FutureTarget;
+
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Posts the once-a-day weather notification off the sync thread.
+ *
+ * The sync only decides whether a notification is due and hands today's weather over; the large
+ * icon is loaded and the notification built on a background thread.  The art gets
+ * NOTIFICATION_DEADLINE_MILLIS to arrive before the bundled art for the condition is used
+ * instead, so a slow image server delays the notification by at most that much and never the
+ * sync.  Large icons are kept in memory by weather id and size, as the same few conditions
+ * come up day after day.
+ */
+class WeatherNotifier {
+    private static final String LOG_TAG = WeatherNotifier.class.getSimpleName();
+
+    private static final int WEATHER_NOTIFICATION_ID = 3004;
+    private static final long NOTIFICATION_DEADLINE_MILLIS = 5 * DateUtils.SECOND_IN_MILLIS;
+    private static final int LARGE_ICON_CACHE_SIZE = 8;
+
+    private static final Executor sExecutor = Executors.newSingleThreadExecutor();
+
+    // Set while a notification is being built, so a second sync can't post a second one
+    private static final AtomicBoolean sPending = new AtomicBoolean();
+
+    // "weatherId/widthxheight" -> large icon loaded from the art pack
+    private static final LruCache<String, Bitmap> sLargeIcons =
+            new LruCache<String, Bitmap>(LARGE_ICON_CACHE_SIZE);
+    // The art pack the cached icons came from
+    private static String sLargeIconsArtPack;
+
+    private WeatherNotifier() {
+    }
+
+    /**
+     * Posts today's weather from the snapshot if notifications are on and the last one is more
+     * than a day old.  Returns right away.
+     */
+    static void notifyWeather(Context context, ForecastSnapshot snapshot) {
+        final Context appContext = context.getApplicationContext();
+        //checking the last update and notify if it' the first of the day
+        SharedPreferences prefs = PreferenceManager.getDefaultSharedPreferences(appContext);
+        String displayNotificationsKey = appContext.getString(R.string.pref_enable_notifications_key);
+        boolean displayNotifications = prefs.getBoolean(displayNotificationsKey,
+                Boolean.parseBoolean(appContext.getString(R.string.pref_enable_notifications_default)));
+        if (!displayNotifications || snapshot.getDayCount() == 0) {
+            return;
+        }
+
+        long lastSync = SyncStateStore.getInstance(appContext).getLastNotificationTime();
+        if (System.currentTimeMillis() - lastSync < DateUtils.DAY_IN_MILLIS) {
+            return;
+        }
+        if (!sPending.compareAndSet(false, true)) {
+            return;
+        }
+
+        // Last sync was more than 1 day ago, let's send a notification with the weather.
+        final ForecastSnapshot.Day today = snapshot.getToday();
+        sExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    postNotification(appContext, today);
+                } finally {
+                    sPending.set(false);
+                }
+            }
+        });
+    }
+
+    private static void postNotification(Context context, ForecastSnapshot.Day today) {
+        int weatherId = today.mWeatherId;
+        int iconId = Utility.getIconResourceForWeatherCondition(weatherId);
+        Resources resources = context.getResources();
+
+        // On Honeycomb and higher devices, we can retrieve the size of the large icon
+        // Prior to that, we use a fixed size
+        @SuppressLint("InlinedApi")
+        int largeIconWidth = Build.VERSION.SDK_INT >= Build.VERSION_CODES.HONEYCOMB
+                ? resources.getDimensionPixelSize(android.R.dimen.notification_large_icon_width)
+                : resources.getDimensionPixelSize(R.dimen.notification_large_icon_default);
+        @SuppressLint("InlinedApi")
+        int largeIconHeight = Build.VERSION.SDK_INT >= Build.VERSION_CODES.HONEYCOMB
+                ? resources.getDimensionPixelSize(android.R.dimen.notification_large_icon_height)
+                : resources.getDimensionPixelSize(R.dimen.notification_large_icon_default);
+
+        Bitmap largeIcon = getLargeIcon(context, weatherId, largeIconWidth, largeIconHeight);
+        String title = context.getString(R.string.app_name);
+
+        // Define the text of the forecast.
+        String contentText = String.format(context.getString(R.string.format_notification),
+                today.mDescription,
+                Utility.formatTemperature(context, today.mHigh),
+                Utility.formatTemperature(context, today.mLow));
+
+        // NotificationCompatBuilder is a very convenient way to build backward-compatible
+        // notifications.  Just throw in some data.
+        NotificationCompat.Builder builder =
+                new NotificationCompat.Builder(context)
+                        .setColor(resources.getColor(R.color.primary_light))
+                        .setSmallIcon(iconId)
+                        .setLargeIcon(largeIcon)
+                        .setContentTitle(title)
+                        .setContentText(contentText);
+
+        // Make something interesting happen when the user clicks on the notification.
+        // In this case, opening the app is sufficient.
+        Intent resultIntent = new Intent(context, MainActivity.class);
+
+        // The stack builder object will contain an artificial back stack for the
+        // started Activity.
+        // This ensures that navigating backward from the Activity leads out of
+        // your application to the Home screen.
+        TaskStackBuilder stackBuilder = TaskStackBuilder.create(context);
+        stackBuilder.addNextIntent(resultIntent);
+        PendingIntent resultPendingIntent =
+                stackBuilder.getPendingIntent(
+                        0,
+                        PendingIntent.FLAG_UPDATE_CURRENT
+                );
+        builder.setContentIntent(resultPendingIntent);
+
+        NotificationManager notificationManager =
+                (NotificationManager) context.getSystemService(Context.NOTIFICATION_SERVICE);
+        // WEATHER_NOTIFICATION_ID allows you to update the notification later on.
+        notificationManager.notify(WEATHER_NOTIFICATION_ID, builder.build());
+
+        //refreshing last sync
+        SyncStateStore.getInstance(context).setLastNotificationTime(System.currentTimeMillis());
+    }
+
+    /**
+     * @return the art pack's image for the condition, or the bundled one if the art pack is not
+     * in use or its image didn't load before the deadline
+     */
+    private static Bitmap getLargeIcon(Context context, int weatherId, int width, int height) {
+        int artResourceId = Utility.getArtResourceForWeatherCondition(weatherId);
+        if (Utility.usingLocalGraphics(context)) {
+            return BitmapFactory.decodeResource(context.getResources(), artResourceId);
+        }
+        String artUrl = Utility.getArtUrlForWeatherCondition(context, weatherId);
+        if (artUrl == null) {
+            return BitmapFactory.decodeResource(context.getResources(), artResourceId);
+        }
+
+        String artPack = PreferenceManager.getDefaultSharedPreferences(context).getString(
+                context.getString(R.string.pref_art_pack_key),
+                context.getString(R.string.pref_art_pack_sunshine));
+        String key = weatherId + "/" + width + "x" + height;
+        synchronized (sLargeIcons) {
+            if (!artPack.equals(sLargeIconsArtPack)) {
+                sLargeIcons.evictAll();
+                sLargeIconsArtPack = artPack;
+            }
+            Bitmap cached = sLargeIcons.get(key);
+            if (cached != null) {
+                return cached;
+            }
+        }
+
+        FutureTarget<Bitmap> target = Glide.with(context)
+                .load(artUrl)
+                .asBitmap()
+                .diskCacheStrategy(DiskCacheStrategy.ALL)
+                .fitCenter()
+                .into(width, height);
+        try {
+            Bitmap largeIcon = target.get(NOTIFICATION_DEADLINE_MILLIS, TimeUnit.MILLISECONDS);
+            // Glide may recycle the bitmap it loaded once the target is cleared, keep a copy
+            Bitmap.Config config = largeIcon.getConfig() != null
+                    ? largeIcon.getConfig()
+                    : Bitmap.Config.ARGB_8888;
+            largeIcon = largeIcon.copy(config, false);
+            synchronized (sLargeIcons) {
+                sLargeIcons.put(key, largeIcon);
+            }
+            return largeIcon;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (ExecutionException | TimeoutException e) {
+            Log.e(LOG_TAG, "Error retrieving large icon from " + artUrl, e);
+        } finally {
+            Glide.clear(target);
+        }
+        return BitmapFactory.decodeResource(context.getResources(), artResourceId);
+    }
+}
@@ -0,0 +1,45 @@
+package com.axolotl.sunshine.sync;
+
+import android.support.annotation.IntDef;
+
+import java.io.IOException;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.util.Map;
+
+/**
+ * Where the sync adapter gets the raw forecast for a location from.
+ *
+ * {@link OwmWeatherSource} asks OpenWeatherMap, {@link RecordingWeatherSource} does the same
+ * while saving every body it receives, and {@link ReplayWeatherSource} serves those saved bodies
+ * back from a directory, so the rest of the sync (parsing, adding the location, writing the rows
+ * and deleting old ones) can be run and timed without a network, see
+ * {@link SunshineSyncAdapter#replay}.
+ */
+public interface WeatherSource {
+
+    @Retention(RetentionPolicy.SOURCE)
+    @IntDef({FORECAST_DAILY, FORECAST_3_HOUR})
+    @interface Forecast {}
+
+    // One entry per day for the next 14 days
+    int FORECAST_DAILY = 0;
+    // One entry per 3 hours for the next 5 days
+    int FORECAST_3_HOUR = 1;
+
+    /**
+     * @param forecast which of the forecasts to fetch
+     * @param locationQuery the location setting to fetch the forecast for
+     * @param requestHeaders extra request headers, e.g. conditional request validators
+     * @return the response, which the caller must close
+     */
+    WeatherHttpClient.Response fetch(@Forecast int forecast, String locationQuery,
+                                     Map<String, String> requestHeaders) throws IOException;
+
+    /**
+     * @return true if this source calls the weather server.  Only remote sources go through
+     * the response cache and the circuit breaker; a local source is read in full on every
+     * sync, so every sync runs the whole pipeline.
+     */
+    boolean isRemote();
+}
@@ -2,15 +2,13 @@ package com.axolotl.sunshine.watch;
 
 import android.app.IntentService;
 import android.content.Intent;
-import android.database.Cursor;
-import android.net.Uri;
 import android.os.Bundle;
 import android.support.annotation.NonNull;
 import android.support.annotation.Nullable;
 import android.util.Log;
 
 import com.axolotl.sunshine.Utility;
-import com.axolotl.sunshine.data.WeatherContract;
+import com.axolotl.sunshine.sync.ForecastSnapshot;
 import com.google.android.gms.common.ConnectionResult;
 import com.google.android.gms.common.api.GoogleApiClient;
 import com.google.android.gms.common.api.ResultCallback;
@@ -30,18 +28,8 @@ import com.google.android.gms.wearable.Wearable;
 public class SyncDataService extends IntentService implements
         GoogleApiClient.ConnectionCallbacks, GoogleApiClient.OnConnectionFailedListener, DataApi.DataListener {
 
-    private static final String[] FORECAST_COLUMNS = {
-            WeatherContract.WeatherEntry.COLUMN_WEATHER_ID,
-            WeatherContract.WeatherEntry.COLUMN_SHORT_DESC,
-            WeatherContract.WeatherEntry.COLUMN_MAX_TEMP,
-            WeatherContract.WeatherEntry.COLUMN_MIN_TEMP
-    };
-    // these indices must match the projection
-    private static final int INDEX_WEATHER_ID = 0;
-    private static final int INDEX_SHORT_DESC = 1;
-    private static final int INDEX_MAX_TEMP = 2;
-    private static final int INDEX_MIN_TEMP = 3;
-
+    // Name under which the watch's part of the forecast snapshot is tracked
+    private static final String SNAPSHOT_SLICE = "watch";
 
     private static final String WEATHER_PATH = "/weather";
     private static final String TAG = "syncWatch";
@@ -73,35 +61,35 @@ public class SyncDataService extends IntentService implements
             mGoogleApiClient.connect();
         }
 
-        // Get today's data from the ContentProvider
+        // Get today's data from the sync's snapshot, or from the ContentProvider if there is none
         String location = Utility.getPreferredLocation(this);
-        Uri weatherForLocationUri = WeatherContract.WeatherEntry.buildWeatherLocationWithStartDate(
-                location, System.currentTimeMillis());
-        Cursor data = getContentResolver().query(weatherForLocationUri, FORECAST_COLUMNS, null,
-                null, WeatherContract.WeatherEntry.COLUMN_DATE + " ASC");
-        if (data == null) {
-            return;
-        }
-        if (!data.moveToFirst()) {
-            data.close();
+        ForecastSnapshot snapshot = ForecastSnapshot.fromIntent(this, intent, location);
+        if (snapshot == null) {
             return;
         }
 
-        // Extract the weather data from the Cursor
-        int weatherId = data.getInt(INDEX_WEATHER_ID);
+        // Extract the weather data from the snapshot
+        ForecastSnapshot.Day today = snapshot.getToday();
+        int weatherId = today.mWeatherId;
 //        int weatherArtResourceId = Utility.getArtResourceForWeatherCondition(weatherId);
-        String description = data.getString(INDEX_SHORT_DESC);
-        double maxTemp = data.getDouble(INDEX_MAX_TEMP);
-        double minTemp = data.getDouble(INDEX_MIN_TEMP);
-        String formattedMaxTemperature = Utility.formatTemperature(this, maxTemp);
-        String formattedMinTemperature = Utility.formatTemperature(this, minTemp);
-        data.close();
+        String formattedMaxTemperature = Utility.formatTemperature(this, today.mHigh);
+        String formattedMinTemperature = Utility.formatTemperature(this, today.mLow);
+
+        // Don't wake the watch up for a sync that didn't change what it shows
+        boolean changed = ForecastSnapshot.isSliceChanged(this, SNAPSHOT_SLICE, weatherId,
+                formattedMaxTemperature, formattedMinTemperature);
+        if (!changed && intent != null && intent.hasExtra(ForecastSnapshot.EXTRA_SNAPSHOT)) {
+            Log.i(TAG, "watch is up to date");
+            return;
+        }
 
         Log.i(TAG, "start send data to watch");
         sendWeatherData(weatherId, formattedMaxTemperature, formattedMinTemperature);
     }
 
-    private void sendWeatherData(int weatherArtResourceId, String formattedMaxTemperature, String formattedMinTemperature) {
+    private void sendWeatherData(final int weatherArtResourceId,
+                                 final String formattedMaxTemperature,
+                                 final String formattedMinTemperature) {
         PutDataMapRequest dataMap = PutDataMapRequest.create(WEATHER_PATH);
         dataMap.getDataMap().putInt(RES_ID, weatherArtResourceId);
         dataMap.getDataMap().putString(MAX_TEMP, formattedMaxTemperature);
@@ -113,8 +101,15 @@ public class SyncDataService extends IntentService implements
                 .setResultCallback(new ResultCallback<DataApi.DataItemResult>() {
                     @Override
                     public void onResult(DataApi.DataItemResult dataItemResult) {
-                        Log.i(TAG, "Sending weather data was successful: " + dataItemResult.getStatus()
-                                .isSuccess());
+                        boolean success = dataItemResult.getStatus().isSuccess();
+                        Log.i(TAG, "Sending weather data was successful: " + success);
+                        if (success) {
+                            // Only what reached the data layer counts as published, so a
+                            // failed put is sent again on the next sync
+                            ForecastSnapshot.recordSlice(getApplicationContext(),
+                                    SNAPSHOT_SLICE, weatherArtResourceId,
+                                    formattedMaxTemperature, formattedMinTemperature);
+                        }
                     }
                 });
     }
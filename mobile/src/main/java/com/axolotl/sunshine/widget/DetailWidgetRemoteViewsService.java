@@ -16,6 +16,7 @@ import com.axolotl.sunshine.R;
 import com.axolotl.sunshine.Utility;
 import com.axolotl.sunshine.data.WeatherContract;
 import com.bumptech.glide.Glide;
+import com.bumptech.glide.load.engine.DiskCacheStrategy;
 import com.bumptech.glide.request.target.Target;
 
 import java.util.concurrent.ExecutionException;
@@ -104,6 +105,7 @@ public class DetailWidgetRemoteViewsService extends RemoteViewsService {
                         weatherArtImage = Glide.with(DetailWidgetRemoteViewsService.this)
                                 .load(weatherArtResourceUrl)
                                 .asBitmap()
+                                .diskCacheStrategy(DiskCacheStrategy.ALL)
                                 .error(weatherArtResourceId)
                                 .into(Target.SIZE_ORIGINAL, Target.SIZE_ORIGINAL).get();
                     } catch (InterruptedException | ExecutionException e) {
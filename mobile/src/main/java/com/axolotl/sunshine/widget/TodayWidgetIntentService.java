@@ -21,8 +21,6 @@ import android.app.PendingIntent;
 import android.appwidget.AppWidgetManager;
 import android.content.ComponentName;
 import android.content.Intent;
-import android.database.Cursor;
-import android.net.Uri;
 import android.os.Build;
 import android.os.Bundle;
 import android.util.DisplayMetrics;
@@ -32,23 +30,14 @@ import android.widget.RemoteViews;
 import com.axolotl.sunshine.MainActivity;
 import com.axolotl.sunshine.R;
 import com.axolotl.sunshine.Utility;
-import com.axolotl.sunshine.data.WeatherContract;
+import com.axolotl.sunshine.sync.ForecastSnapshot;
 
 /**
  * IntentService which handles updating all Today widgets with the latest data
  */
 public class TodayWidgetIntentService extends IntentService {
-    private static final String[] FORECAST_COLUMNS = {
-            WeatherContract.WeatherEntry.COLUMN_WEATHER_ID,
-            WeatherContract.WeatherEntry.COLUMN_SHORT_DESC,
-            WeatherContract.WeatherEntry.COLUMN_MAX_TEMP,
-            WeatherContract.WeatherEntry.COLUMN_MIN_TEMP
-    };
-    // these indices must match the projection
-    private static final int INDEX_WEATHER_ID = 0;
-    private static final int INDEX_SHORT_DESC = 1;
-    private static final int INDEX_MAX_TEMP = 2;
-    private static final int INDEX_MIN_TEMP = 3;
+    // Name under which the widgets' part of the forecast snapshot is tracked
+    private static final String SNAPSHOT_SLICE = "today_widget";
 
     public TodayWidgetIntentService() {
         super("TodayWidgetIntentService");
@@ -61,29 +50,27 @@ public class TodayWidgetIntentService extends IntentService {
         int[] appWidgetIds = appWidgetManager.getAppWidgetIds(new ComponentName(this,
                 TodayWidgetProvider.class));
 
-        // Get today's data from the ContentProvider
+        // Get today's data from the sync's snapshot, or from the ContentProvider if there is none
         String location = Utility.getPreferredLocation(this);
-        Uri weatherForLocationUri = WeatherContract.WeatherEntry.buildWeatherLocationWithStartDate(
-                location, System.currentTimeMillis());
-        Cursor data = getContentResolver().query(weatherForLocationUri, FORECAST_COLUMNS, null,
-                null, WeatherContract.WeatherEntry.COLUMN_DATE + " ASC");
-        if (data == null) {
-            return;
-        }
-        if (!data.moveToFirst()) {
-            data.close();
+        ForecastSnapshot snapshot = ForecastSnapshot.fromIntent(this, intent, location);
+        if (snapshot == null) {
             return;
         }
 
-        // Extract the weather data from the Cursor
-        int weatherId = data.getInt(INDEX_WEATHER_ID);
+        // Extract the weather data from the snapshot
+        ForecastSnapshot.Day today = snapshot.getToday();
+        int weatherId = today.mWeatherId;
         int weatherArtResourceId = Utility.getArtResourceForWeatherCondition(weatherId);
-        String description = data.getString(INDEX_SHORT_DESC);
-        double maxTemp = data.getDouble(INDEX_MAX_TEMP);
-        double minTemp = data.getDouble(INDEX_MIN_TEMP);
-        String formattedMaxTemperature = Utility.formatTemperature(this, maxTemp);
-        String formattedMinTemperature = Utility.formatTemperature(this, minTemp);
-        data.close();
+        String description = today.mDescription;
+        String formattedMaxTemperature = Utility.formatTemperature(this, today.mHigh);
+        String formattedMinTemperature = Utility.formatTemperature(this, today.mLow);
+
+        // A sync that didn't change what the widgets show doesn't need to redraw them
+        boolean changed = ForecastSnapshot.isSliceChanged(this, SNAPSHOT_SLICE, weatherId,
+                description, formattedMaxTemperature, formattedMinTemperature);
+        if (!changed && intent != null && intent.hasExtra(ForecastSnapshot.EXTRA_SNAPSHOT)) {
+            return;
+        }
 
         // Perform this loop procedure for each Today widget
         for (int appWidgetId : appWidgetIds) {
@@ -119,6 +106,9 @@ public class TodayWidgetIntentService extends IntentService {
             // Tell the AppWidgetManager to perform an update on the current app widget
             appWidgetManager.updateAppWidget(appWidgetId, views);
         }
+        // Only now that the widgets show it, so a redraw that didn't happen is retried
+        ForecastSnapshot.recordSlice(this, SNAPSHOT_SLICE, weatherId, description,
+                formattedMaxTemperature, formattedMinTemperature);
     }
 
     private int getWidgetWidth(AppWidgetManager appWidgetManager, int appWidgetId) {
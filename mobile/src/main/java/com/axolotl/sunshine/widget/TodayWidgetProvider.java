@@ -22,6 +22,7 @@ import android.content.Intent;
 import android.os.Bundle;
 import android.support.annotation.NonNull;
 
+import com.axolotl.sunshine.sync.ForecastSnapshot;
 import com.axolotl.sunshine.sync.SunshineSyncAdapter;
 
 
@@ -48,7 +49,10 @@ public class TodayWidgetProvider extends AppWidgetProvider {
     public void onReceive(@NonNull Context context, @NonNull Intent intent) {
         super.onReceive(context, intent);
         if (SunshineSyncAdapter.ACTION_DATA_UPDATED.equals(intent.getAction())) {
-            context.startService(new Intent(context, TodayWidgetIntentService.class));
+            // Pass the sync's snapshot along so the service doesn't have to query for it
+            ForecastSnapshot snapshot = intent.getParcelableExtra(ForecastSnapshot.EXTRA_SNAPSHOT);
+            context.startService(new Intent(context, TodayWidgetIntentService.class)
+                    .putExtra(ForecastSnapshot.EXTRA_SNAPSHOT, snapshot));
         }
     }
 }
@@ -0,0 +1,248 @@
+package com.axolotl.sunshine.sync;
+
+import android.content.ContentResolver;
+import android.content.Context;
+import android.database.Cursor;
+import android.text.format.Time;
+import android.util.Log;
+
+import com.axolotl.sunshine.BuildConfig;
+import com.axolotl.sunshine.data.WeatherContract;
+import com.axolotl.sunshine.data.WeatherContract.SyncMetricsEntry;
+import com.axolotl.sunshine.data.WeatherProvider;
+import com.axolotl.sunshine.fixtures.ForecastPayloadGenerator;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+import org.robolectric.annotation.Config;
+import org.robolectric.shadows.ShadowContentResolver;
+import org.robolectric.shadows.ShadowLog;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.TreeMap;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Replays a corpus of forecasts through {@link SunshineSyncAdapter#replay}, the whole pipeline
+ * but the network: parse, addLocation, the batch write and the retention delete.  Every run
+ * dates the forecasts from the same day, so two runs must store the same rows.
+ *
+ * The corpus is generated, with an error or broken response for every ERROR_EVERY-th city.  The
+ * stage timings of each run are printed with the test's output.
+ */
+@RunWith(RobolectricTestRunner.class)
+@Config(constants = BuildConfig.class, sdk = 23)
+public class TestSyncReplay {
+    private static final String LOG_TAG = TestSyncReplay.class.getSimpleName();
+
+    private static final int CITIES = 200;
+    private static final int ERROR_EVERY = 10;
+    // What the app asks for
+    private static final int DAYS = 14;
+    private static final long SEED = 8;
+
+    // The day the generated forecasts start on, 2016-07-01
+    private static final int START_DAY = Time.getJulianDay(1467374400000L, 0);
+
+    // What the cities that don't get a valid forecast get, in turn, served with the code the
+    // server sends them with
+    private static final int[] ERROR_VARIANTS = {
+            ForecastPayloadGenerator.VARIANT_NOT_FOUND,
+            ForecastPayloadGenerator.VARIANT_UNAUTHORIZED,
+            ForecastPayloadGenerator.VARIANT_SERVER_ERROR,
+            ForecastPayloadGenerator.VARIANT_TRUNCATED,
+            ForecastPayloadGenerator.VARIANT_MISSING_FIELD
+    };
+
+    @Rule
+    public final TemporaryFolder mCorpus = new TemporaryFolder();
+
+    private Context mContext;
+    private WeatherProvider mProvider;
+    private File mCorpusDir;
+    private final List<String> mLocations = new ArrayList<String>();
+
+    @Before
+    public void setUp() throws Exception {
+        ShadowLog.stream = System.out;
+        mContext = RuntimeEnvironment.application;
+        mProvider = new WeatherProvider();
+        mProvider.attachInfo(mContext, null);
+        ShadowContentResolver.registerProvider(WeatherContract.CONTENT_AUTHORITY, mProvider);
+
+        mCorpusDir = mCorpus.getRoot();
+        ForecastPayloadGenerator generator = new ForecastPayloadGenerator(SEED);
+        for (int city = 0; city < CITIES; city++) {
+            String locationQuery = ForecastPayloadGenerator.getLocationQuery(city);
+            mLocations.add(locationQuery);
+            int variant = getVariant(city);
+            writeFixture(locationQuery, ForecastPayloadGenerator.getResponseCode(variant),
+                    generator.generate(city, DAYS, variant));
+        }
+    }
+
+    @After
+    public void tearDown() {
+        mProvider.shutdown();
+    }
+
+    @Test
+    public void testReplayIsRepeatable() {
+        String first = replay("first run");
+        clearDatabase();
+        String second = replay("second run");
+        assertEquals(first, second);
+    }
+
+    // Replays the corpus, returns the weather rows it stored
+    private String replay(String run) {
+        SunshineSyncAdapter adapter = new SunshineSyncAdapter(mContext, false);
+        adapter.setJulianStartDay(START_DAY);
+
+        long start = SyncMetrics.start();
+        List<LocationSyncResult> results = adapter.replay(mLocations,
+                new ReplayWeatherSource(mCorpusDir), new StreamingForecastParser(),
+                new SyncMetrics());
+        long elapsedMicros = SyncMetrics.getElapsedMicros(start);
+
+        assertEquals(CITIES, results.size());
+        for (int city = 0; city < CITIES; city++) {
+            LocationSyncResult result = results.get(city);
+            assertEquals(city + " status", getExpectedStatus(getVariant(city)), result.mStatus);
+            if (result.mStatus == SunshineSyncAdapter.LOCATION_STATUS_OK) {
+                assertEquals(DAYS, result.mDaysStored);
+                assertEquals(DAYS, result.mRowsInserted);
+            }
+        }
+
+        Log.i(LOG_TAG, String.format(Locale.US, "%s: %d locations in %.1f ms",
+                run, CITIES, elapsedMicros / 1000.0));
+        logStages(run);
+        return dumpWeather();
+    }
+
+    // Deletes every row through the provider, which also forgets the location ids it handed out
+    private void clearDatabase() {
+        ContentResolver resolver = mContext.getContentResolver();
+        resolver.delete(WeatherContract.HourlyEntry.CONTENT_URI, null, null);
+        resolver.delete(WeatherContract.WeatherEntry.CONTENT_URI, null, null);
+        resolver.delete(WeatherContract.LocationEntry.CONTENT_URI, null, null);
+        resolver.delete(SyncMetricsEntry.CONTENT_URI, null, null);
+    }
+
+    private static int getVariant(int city) {
+        if (city % ERROR_EVERY != ERROR_EVERY - 1) {
+            return ForecastPayloadGenerator.VARIANT_VALID;
+        }
+        return ERROR_VARIANTS[(city / ERROR_EVERY) % ERROR_VARIANTS.length];
+    }
+
+    private static int getExpectedStatus(int variant) {
+        switch (variant) {
+            case ForecastPayloadGenerator.VARIANT_VALID:
+                return SunshineSyncAdapter.LOCATION_STATUS_OK;
+            case ForecastPayloadGenerator.VARIANT_NOT_FOUND:
+            case ForecastPayloadGenerator.VARIANT_UNAUTHORIZED:
+                return SunshineSyncAdapter.LOCATION_STATUS_INVALID;
+            case ForecastPayloadGenerator.VARIANT_MISSING_FIELD:
+                return SunshineSyncAdapter.LOCATION_STATUS_SERVER_INVALID;
+            default:
+                // A 500, or a body cut off
+                return SunshineSyncAdapter.LOCATION_STATUS_SERVER_DOWN;
+        }
+    }
+
+    // Total time and count of each stage the replay recorded
+    private void logStages(String run) {
+        Cursor cursor = mContext.getContentResolver().query(SyncMetricsEntry.CONTENT_URI,
+                new String[] {SyncMetricsEntry.COLUMN_STAGE, SyncMetricsEntry.COLUMN_DURATION},
+                null, null, null);
+        assertNotNull(cursor);
+        Map<String, long[]> stages = new TreeMap<String, long[]>();
+        try {
+            while (cursor.moveToNext()) {
+                long[] stage = stages.get(cursor.getString(0));
+                if (stage == null) {
+                    stage = new long[2];
+                    stages.put(cursor.getString(0), stage);
+                }
+                stage[0]++;
+                stage[1] += cursor.getLong(1);
+            }
+        } finally {
+            cursor.close();
+        }
+        for (Map.Entry<String, long[]> stage : stages.entrySet()) {
+            Log.i(LOG_TAG, String.format(Locale.US, "%s: %s x%d, %.1f ms", run, stage.getKey(),
+                    stage.getValue()[0], stage.getValue()[1] / 1000.0));
+        }
+    }
+
+    // Every weather row with its location setting, in a stable order and without the row ids
+    private String dumpWeather() {
+        String[] columns = {
+                WeatherContract.LocationEntry.COLUMN_LOCATION_SETTING,
+                WeatherContract.WeatherEntry.COLUMN_DATE,
+                WeatherContract.WeatherEntry.COLUMN_WEATHER_ID,
+                WeatherContract.WeatherEntry.COLUMN_SHORT_DESC,
+                WeatherContract.WeatherEntry.COLUMN_MIN_TEMP,
+                WeatherContract.WeatherEntry.COLUMN_MAX_TEMP,
+                WeatherContract.WeatherEntry.COLUMN_HUMIDITY,
+                WeatherContract.WeatherEntry.COLUMN_PRESSURE,
+                WeatherContract.WeatherEntry.COLUMN_WIND_SPEED,
+                WeatherContract.WeatherEntry.COLUMN_DEGREES
+        };
+        StringBuilder dump = new StringBuilder();
+        int locations = 0;
+        for (String locationQuery : mLocations) {
+            Cursor cursor = mContext.getContentResolver().query(
+                    WeatherContract.WeatherEntry.buildWeatherLocation(locationQuery), columns,
+                    null, null, WeatherContract.WeatherEntry.COLUMN_DATE);
+            assertNotNull(cursor);
+            try {
+                if (cursor.getCount() > 0) {
+                    locations++;
+                }
+                while (cursor.moveToNext()) {
+                    for (int i = 0; i < columns.length; i++) {
+                        dump.append(cursor.getString(i))
+                                .append(i < columns.length - 1 ? ',' : '\n');
+                    }
+                }
+            } finally {
+                cursor.close();
+            }
+        }
+        assertTrue(locations > 0);
+        return dump.toString();
+    }
+
+    private void writeFixture(String locationQuery, int responseCode, String body)
+            throws IOException {
+        File fixture = ReplayWeatherSource.getFixtureFile(mCorpusDir,
+                WeatherSource.FORECAST_DAILY, locationQuery);
+        OutputStream out = new FileOutputStream(fixture);
+        try {
+            out.write(body.getBytes("UTF-8"));
+        } finally {
+            out.close();
+        }
+        ReplayWeatherSource.writeResponseCode(fixture, responseCode);
+    }
+}
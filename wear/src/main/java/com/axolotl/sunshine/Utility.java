@@ -1,9 +1,17 @@
 package com.axolotl.sunshine;
 
+import com.axolotl.sunshine.core.WeatherConditions;
+
 /**
  * Created by axolotl on 16/6/12.
  */
 public class Utility {
+    // Art for each of the WeatherConditions, in the order of their CONDITION_ values
+    private static final int[] ART = {
+            R.drawable.art_storm, R.drawable.art_light_rain, R.drawable.art_rain,
+            R.drawable.art_snow, R.drawable.art_fog, R.drawable.art_clear,
+            R.drawable.art_light_clouds, R.drawable.art_clouds
+    };
 
     /**
      * Helper method to provide the art resource id according to the weather condition id returned
@@ -12,31 +20,7 @@ public class Utility {
      * @return resource id for the corresponding icon. -1 if no relation is found.
      */
     public static int getArtResourceForWeatherCondition(int weatherId) {
-        // Based on weather code data found at:
-        // http://bugs.openweathermap.org/projects/api/wiki/Weather_Condition_Codes
-        if (weatherId >= 200 && weatherId <= 232) {
-            return R.drawable.art_storm;
-        } else if (weatherId >= 300 && weatherId <= 321) {
-            return R.drawable.art_light_rain;
-        } else if (weatherId >= 500 && weatherId <= 504) {
-            return R.drawable.art_rain;
-        } else if (weatherId == 511) {
-            return R.drawable.art_snow;
-        } else if (weatherId >= 520 && weatherId <= 531) {
-            return R.drawable.art_rain;
-        } else if (weatherId >= 600 && weatherId <= 622) {
-            return R.drawable.art_snow;
-        } else if (weatherId >= 701 && weatherId <= 761) {
-            return R.drawable.art_fog;
-        } else if (weatherId == 761 || weatherId == 781) {
-            return R.drawable.art_storm;
-        } else if (weatherId == 800) {
-            return R.drawable.art_clear;
-        } else if (weatherId == 801) {
-            return R.drawable.art_light_clouds;
-        } else if (weatherId >= 802 && weatherId <= 804) {
-            return R.drawable.art_clouds;
-        }
-        return -1;
+        int condition = WeatherConditions.getCondition(weatherId);
+        return condition == WeatherConditions.CONDITION_UNKNOWN ? -1 : ART[condition];
     }
 }